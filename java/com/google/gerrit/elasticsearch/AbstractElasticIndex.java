@@ -87,6 +87,13 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
   protected static final String SEARCH = "_search";
   protected static final String SETTINGS = "settings";
 
+  /**
+   * Maximum number of results that are read with a single search request. Elasticsearch rejects
+   * requests beyond {@code index.max_result_window}, which defaults to 10000 results, so larger
+   * result sets are read in pages that continue after the last result of the previous page.
+   */
+  private static final int MAX_PAGE_SIZE = 10000;
+
   protected static byte[] decodeBase64(String base64String) {
     return BaseEncoding.base64().decode(base64String);
   }
@@ -301,8 +308,16 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
   }
 
   protected String getSearch(SearchSourceBuilder searchSource, JsonArray sortArray) {
+    return getSearch(searchSource, sortArray, null);
+  }
+
+  protected String getSearch(
+      SearchSourceBuilder searchSource, JsonArray sortArray, @Nullable JsonArray searchAfter) {
     JsonObject search = new JsonParser().parse(searchSource.toString()).getAsJsonObject();
     search.add("sort", sortArray);
+    if (searchAfter != null) {
+      search.add("search_after", searchAfter);
+    }
     return gson.toJson(search);
   }
 
@@ -368,21 +383,16 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
 
   protected class ElasticQuerySource implements DataSource<V> {
     private final QueryOptions opts;
-    private final String search;
+    private final QueryBuilder qb;
     private final String index;
+    private final JsonArray sortArray;
 
     ElasticQuerySource(Predicate<V> p, QueryOptions opts, String index, JsonArray sortArray)
         throws QueryParseException {
       this.opts = opts;
+      this.qb = queryBuilder.toQueryBuilder(p);
       this.index = index;
-      QueryBuilder qb = queryBuilder.toQueryBuilder(p);
-      SearchSourceBuilder searchSource =
-          new SearchSourceBuilder(client.adapter())
-              .query(qb)
-              .from(opts.start())
-              .size(opts.limit())
-              .fields(Lists.newArrayList(opts.fields()));
-      search = getSearch(searchSource, sortArray);
+      this.sortArray = sortArray;
     }
 
     @Override
@@ -401,6 +411,40 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
     }
 
     private <T> ResultSet<T> readImpl(Function<JsonObject, T> mapper) {
+      // The sort order is unique, so that the sort values of the last result identify the position
+      // to continue from, see ResultSet#searchAfter().
+      ImmutableList.Builder<T> results = ImmutableList.builder();
+      JsonArray searchAfter = (JsonArray) opts.searchAfter();
+      int from = searchAfter == null ? opts.start() : 0;
+      int remaining = opts.limit();
+      while (remaining > 0) {
+        int size = Math.min(remaining, MAX_PAGE_SIZE);
+        JsonArray hits = search(from, size, searchAfter);
+        for (int i = 0; i < hits.size(); i++) {
+          JsonObject hit = hits.get(i).getAsJsonObject();
+          T mapperResult = mapper.apply(hit);
+          if (mapperResult != null) {
+            results.add(mapperResult);
+          }
+          searchAfter = hit.getAsJsonArray("sort");
+        }
+        if (hits.size() < size || searchAfter == null) {
+          break;
+        }
+        remaining -= size;
+        from = 0;
+      }
+      return new ListResultSet<>(results.build(), searchAfter);
+    }
+
+    private JsonArray search(int from, int size, @Nullable JsonArray searchAfter) {
+      SearchSourceBuilder searchSource =
+          new SearchSourceBuilder(client.adapter())
+              .query(qb)
+              .from(from)
+              .size(size)
+              .fields(Lists.newArrayList(opts.fields()));
+      String search = getSearch(searchSource, sortArray, searchAfter);
       try {
         String uri = getURI(index, SEARCH);
         Response response =
@@ -411,20 +455,12 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
           JsonObject obj =
               new JsonParser().parse(content).getAsJsonObject().getAsJsonObject("hits");
           if (obj.get("hits") != null) {
-            JsonArray json = obj.getAsJsonArray("hits");
-            ImmutableList.Builder<T> results = ImmutableList.builderWithExpectedSize(json.size());
-            for (int i = 0; i < json.size(); i++) {
-              T mapperResult = mapper.apply(json.get(i).getAsJsonObject());
-              if (mapperResult != null) {
-                results.add(mapperResult);
-              }
-            }
-            return new ListResultSet<>(results.build());
+            return obj.getAsJsonArray("hits");
           }
         } else {
           logger.atSevere().log(statusLine.getReasonPhrase());
         }
-        return new ListResultSet<>(ImmutableList.of());
+        return new JsonArray();
       } catch (IOException e) {
         throw new StorageException(e);
       }
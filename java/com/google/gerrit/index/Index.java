@@ -21,6 +21,7 @@ import com.google.gerrit.index.query.FieldBundle;
 import com.google.gerrit.index.query.IndexPredicate;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
+import java.util.Collection;
 import java.util.Optional;
 
 /**
@@ -50,6 +51,20 @@ public interface Index<K, V> {
    */
   void replace(V obj);
 
+  /**
+   * Update multiple documents in the index.
+   *
+   * <p>Semantically equivalent to calling {@link #replace(Object)} for each document, but
+   * implementations may write all documents in a single batch.
+   *
+   * @param objs document objects
+   */
+  default void replace(Collection<V> objs) {
+    for (V obj : objs) {
+      replace(obj);
+    }
+  }
+
   /**
    * Delete a document from the index by key.
    *
@@ -60,6 +75,14 @@ public interface Index<K, V> {
   /** Delete all documents from the index. */
   void deleteAll();
 
+  /**
+   * Make all previous writes to the index durable.
+   *
+   * <p>The default implementation does nothing, for indexes whose writes are durable once they
+   * returned.
+   */
+  default void commit() {}
+
   /**
    * Convert the given operator predicate into a source searching the index and returning only the
    * documents matching that predicate.
@@ -19,15 +19,26 @@ import static com.google.common.base.Preconditions.checkArgument;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.primitives.Ints;
+import com.google.gerrit.common.Nullable;
 import java.util.Set;
 import java.util.function.Function;
 
 @AutoValue
 public abstract class QueryOptions {
   public static QueryOptions create(IndexConfig config, int start, int limit, Set<String> fields) {
+    return create(config, start, limit, fields, null);
+  }
+
+  private static QueryOptions create(
+      IndexConfig config,
+      int start,
+      int limit,
+      Set<String> fields,
+      @Nullable Object searchAfter) {
     checkArgument(start >= 0, "start must be nonnegative: %s", start);
     checkArgument(limit > 0, "limit must be positive: %s", limit);
-    return new AutoValue_QueryOptions(config, start, limit, ImmutableSet.copyOf(fields));
+    return new AutoValue_QueryOptions(
+        config, start, limit, ImmutableSet.copyOf(fields), searchAfter);
   }
 
   public QueryOptions convertForBackend() {
@@ -36,7 +47,7 @@ public abstract class QueryOptions {
     int backendLimit = config().maxLimit();
     int limit = Ints.saturatedCast((long) limit() + start());
     limit = Math.min(limit, backendLimit);
-    return create(config(), 0, limit, fields());
+    return create(config(), 0, limit, fields(), searchAfter());
   }
 
   public abstract IndexConfig config();
@@ -47,15 +58,29 @@ public abstract class QueryOptions {
 
   public abstract ImmutableSet<String> fields();
 
+  /**
+   * Position after which results should be returned, see {@link
+   * com.google.gerrit.index.query.ResultSet#searchAfter()}.
+   *
+   * <p>If set, {@link #start()} is ignored: the results start right after this position. It is only
+   * set for indexes whose result sets provide a position.
+   */
+  @Nullable
+  public abstract Object searchAfter();
+
   public QueryOptions withLimit(int newLimit) {
-    return create(config(), start(), newLimit, fields());
+    return create(config(), start(), newLimit, fields(), searchAfter());
   }
 
   public QueryOptions withStart(int newStart) {
-    return create(config(), newStart, limit(), fields());
+    return create(config(), newStart, limit(), fields(), searchAfter());
+  }
+
+  public QueryOptions withSearchAfter(Object newSearchAfter) {
+    return create(config(), start(), limit(), fields(), newSearchAfter);
   }
 
   public QueryOptions filterFields(Function<QueryOptions, Set<String>> filter) {
-    return create(config(), start(), limit(), filter.apply(this));
+    return create(config(), start(), limit(), filter.apply(this), searchAfter());
   }
 }
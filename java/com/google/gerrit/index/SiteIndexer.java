@@ -22,9 +22,11 @@ import com.google.common.base.Stopwatch;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.common.Nullable;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -60,6 +62,7 @@ public abstract class SiteIndexer<K, V, I extends Index<K, V>> {
   protected int totalWork = -1;
   protected OutputStream progressOut = NullOutputStream.INSTANCE;
   protected PrintWriter verboseWriter = newPrintWriter(NullOutputStream.INSTANCE);
+  @Nullable protected Path checkpointFile;
 
   public void setTotalWork(int num) {
     totalWork = num;
@@ -73,6 +76,18 @@ public abstract class SiteIndexer<K, V, I extends Index<K, V>> {
     verboseWriter = newPrintWriter(requireNonNull(out));
   }
 
+  /**
+   * Record progress in a file, so that an interrupted run can be resumed.
+   *
+   * <p>Entities that the file records as indexed are skipped. Checkpoints are only supported by
+   * indexers of indexes that take long to build; other indexers ignore the file.
+   *
+   * @param file file to read and record progress in, null to not record progress.
+   */
+  public void setCheckpointFile(@Nullable Path file) {
+    checkpointFile = file;
+  }
+
   /** Indexes all entities for the provided index. */
   public abstract Result indexAll(I index);
 
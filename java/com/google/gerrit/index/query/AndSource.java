@@ -105,9 +105,13 @@ public class AndSource<T> extends AndPredicate<T>
             //
             @SuppressWarnings("unchecked")
             Paginated<T> p = (Paginated<T>) source;
+            // Continue after the last result if the index supports it, skipping the results that
+            // were already read is expensive for deep pages.
+            Object searchAfter = resultSet.searchAfter();
             while (skipped && r.size() < p.getOptions().limit() + start) {
               skipped = false;
-              ResultSet<T> next = p.restart(nextStart);
+              ResultSet<T> next =
+                  searchAfter != null ? p.restart(searchAfter) : p.restart(nextStart);
 
               for (T data : buffer(next)) {
                 if (match(data)) {
@@ -117,6 +121,7 @@ public class AndSource<T> extends AndPredicate<T>
                 }
                 nextStart++;
               }
+              searchAfter = next.searchAfter();
             }
           }
 
@@ -102,6 +102,18 @@ public class IndexedQuery<I, T> extends Predicate<T> implements DataSource<T>, P
     return read();
   }
 
+  @Override
+  public ResultSet<T> restart(Object searchAfter) {
+    opts = opts.withStart(0).withSearchAfter(searchAfter);
+    try {
+      source = index.getSource(pred, opts);
+    } catch (QueryParseException e) {
+      // See restart(int).
+      throw new StorageException(e);
+    }
+    return read();
+  }
+
   @Override
   public Predicate<T> copy(Collection<? extends Predicate<T>> children) {
     return this;
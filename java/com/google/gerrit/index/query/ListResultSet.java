@@ -17,6 +17,7 @@ package com.google.gerrit.index.query;
 import static java.util.Objects.requireNonNull;
 
 import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
 import java.util.Iterator;
 import java.util.List;
 
@@ -30,9 +31,15 @@ import java.util.List;
  */
 public class ListResultSet<T> implements ResultSet<T> {
   private ImmutableList<T> results;
+  @Nullable private final Object searchAfter;
 
   public ListResultSet(List<T> r) {
+    this(r, null);
+  }
+
+  public ListResultSet(List<T> r, @Nullable Object searchAfter) {
     results = ImmutableList.copyOf(requireNonNull(r, "results can't be null"));
+    this.searchAfter = searchAfter;
   }
 
   @Override
@@ -54,4 +61,10 @@ public class ListResultSet<T> implements ResultSet<T> {
   public void close() {
     results = null;
   }
+
+  @Override
+  @Nullable
+  public Object searchAfter() {
+    return searchAfter;
+  }
 }
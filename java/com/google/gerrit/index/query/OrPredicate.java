@@ -15,7 +15,9 @@
 package com.google.gerrit.index.query;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.util.Comparator.comparingInt;
 
+import com.google.common.collect.ImmutableList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -25,6 +27,7 @@ import java.util.List;
 /** Requires one predicate to be true. */
 public class OrPredicate<T> extends Predicate<T> implements Matchable<T> {
   private final List<Predicate<T>> children;
+  private final ImmutableList<Predicate<T>> byCost;
   private final int cost;
 
   @SafeVarargs
@@ -47,6 +50,8 @@ public class OrPredicate<T> extends Predicate<T> implements Matchable<T> {
       }
     }
     children = t;
+    // Match the cheapest children first, so that expensive children are often not evaluated at all.
+    byCost = ImmutableList.sortedCopyOf(comparingInt(Predicate<T>::estimateCost), t);
     cost = c;
   }
 
@@ -82,7 +87,7 @@ public class OrPredicate<T> extends Predicate<T> implements Matchable<T> {
 
   @Override
   public boolean match(T object) {
-    for (Predicate<T> c : children) {
+    for (Predicate<T> c : byCost) {
       checkState(
           c.isMatchable(),
           "match invoked, but child predicate %s doesn't implement %s",
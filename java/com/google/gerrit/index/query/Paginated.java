@@ -20,4 +20,12 @@ public interface Paginated<T> {
   QueryOptions getOptions();
 
   ResultSet<T> restart(int start);
+
+  /**
+   * Continue the query after the last result that was read.
+   *
+   * @param searchAfter position after the last result, see {@link ResultSet#searchAfter()}.
+   * @return next results.
+   */
+  ResultSet<T> restart(Object searchAfter);
 }
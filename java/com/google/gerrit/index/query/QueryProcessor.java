@@ -225,6 +225,7 @@ public abstract class QueryProcessor<T> {
       List<Integer> limits = new ArrayList<>(cnt);
       List<Predicate<T>> predicates = new ArrayList<>(cnt);
       List<DataSource<T>> sources = new ArrayList<>(cnt);
+      List<QueryOptions> options = new ArrayList<>(cnt);
       int queryCount = 0;
       for (Predicate<T> q : queries) {
         int limit = getEffectiveLimit(q);
@@ -245,26 +246,28 @@ public abstract class QueryProcessor<T> {
         // ask for one more result from the query.
         QueryOptions opts = createOptions(indexConfig, start, limit + 1, getRequestedFields());
         logger.atFine().log("Query options: " + opts);
-        Predicate<T> pred = rewriter.rewrite(q, opts);
+        Predicate<T> pred = rewriter.rewrite(enforceVisibility ? restrictToVisible(q) : q, opts);
         if (enforceVisibility) {
           pred = enforceVisibility(pred);
         }
         predicates.add(pred);
         logger.atFine().log(
-            "%s index query[%d]:\n%s",
+            "%s index query[%d] (estimated cost %d):\n%s",
             schemaDef.getName(),
             queryCount++,
+            pred.estimateCost(),
             pred instanceof IndexedQuery ? pred.getChild(0) : pred);
 
         @SuppressWarnings("unchecked")
         DataSource<T> s = (DataSource<T>) pred;
         sources.add(s);
+        options.add(opts);
       }
 
       // Run each query asynchronously, if supported.
       List<ResultSet<T>> matches = new ArrayList<>(cnt);
-      for (DataSource<T> s : sources) {
-        matches.add(s.read());
+      for (int i = 0; i < cnt; i++) {
+        matches.add(read(sources.get(i), options.get(i)));
       }
 
       out = new ArrayList<>(cnt);
@@ -312,6 +315,30 @@ public abstract class QueryProcessor<T> {
     return QueryOptions.create(indexConfig, start, limit, requestedFields);
   }
 
+  /**
+   * Invoked to read the results of a query. Subclasses may overwrite this method to serve the
+   * results from a cache.
+   *
+   * @param source the rewritten query, including the visibility check if visibility is enforced
+   * @param opts the options the query was rewritten with
+   * @return the results of the query
+   */
+  protected ResultSet<T> read(DataSource<T> source, QueryOptions opts) {
+    return source.read();
+  }
+
+  /**
+   * Invoked before the query is rewritten if visibility is enforced. Subclasses may overwrite this
+   * method to add constraints that can be evaluated by the index, so that fewer results need to be
+   * filtered out by {@link #enforceVisibility(Predicate)}.
+   *
+   * @param pred the query
+   * @return the modified query
+   */
+  protected Predicate<T> restrictToVisible(Predicate<T> pred) {
+    return pred;
+  }
+
   /**
    * Invoked after the query was rewritten. Subclasses must overwrite this method to filter out
    * results that are not visible to the calling user.
@@ -354,7 +381,17 @@ public abstract class QueryProcessor<T> {
     return indexConfig.maxLimit();
   }
 
-  private int getEffectiveLimit(Predicate<T> p) {
+  /**
+   * Get the maximum number of results of a query.
+   *
+   * <p>This takes the limit supported by the index backend, the {@code queryLimit} of the user if
+   * visibility is enforced, the limit set by the caller and a limit in the query itself into
+   * account.
+   *
+   * @param p the query.
+   * @return maximum number of results the query returns.
+   */
+  public int getEffectiveLimit(Predicate<T> p) {
     if (isNoLimit == true) {
       return Integer.MAX_VALUE;
     }
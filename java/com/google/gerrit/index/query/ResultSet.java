@@ -15,6 +15,7 @@
 package com.google.gerrit.index.query;
 
 import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
 import java.util.Iterator;
 
 /**
@@ -49,4 +50,18 @@ public interface ResultSet<T> extends Iterable<T> {
    * the iterator has finished.
    */
   void close();
+
+  /**
+   * Position after the last result, if the result set was read from an index that supports
+   * continuing a query from there, see {@link Paginated#restart(Object)}.
+   *
+   * <p>Continuing from the last result is cheaper than skipping the results that were already read,
+   * especially for deep pages.
+   *
+   * @return opaque position, or null if the query can only be continued by skipping results.
+   */
+  @Nullable
+  default Object searchAfter() {
+    return null;
+  }
 }
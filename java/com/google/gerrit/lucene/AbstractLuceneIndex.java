@@ -49,7 +49,9 @@ import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
 import com.google.gerrit.server.logging.LoggingContextAwareScheduledExecutorService;
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -91,6 +93,12 @@ import org.apache.lucene.store.Directory;
 public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /**
+   * Time after which a write becomes visible to searchers if a thread is waiting for it, see {@link
+   * ControlledRealTimeReopenThread}.
+   */
+  private static final long MIN_STALE_AGE_MS = 10;
+
   static String sortFieldName(FieldDef<?, ?> f) {
     return f.getName() + "_SORT";
   }
@@ -101,7 +109,7 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
   private final String name;
   private final ImmutableSet<String> skipFields;
   private final ListeningExecutorService writerThread;
-  private final IndexWriter writer;
+  private final AutoCommitWriter writer;
   private final ReferenceManager<IndexSearcher> searcherManager;
   private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
   private final Set<NrtFuture> notDoneNrtFutures;
@@ -149,7 +157,7 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
                 try {
                   if (autoCommitWriter.hasUncommittedChanges()) {
                     autoCommitWriter.manualFlush();
-                    autoCommitWriter.commit();
+                    autoCommitWriter.commitNow();
                   }
                 } catch (IOException e) {
                   logger.atSevere().withCause(e).log("Error committing %s Lucene index", index);
@@ -169,6 +177,10 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
               commitPeriod,
               MILLISECONDS);
     }
+    // Commit right away, so that the commit made when closing the previous writer cleanly doesn't
+    // hide writes of this writer that are lost if the process terminates before they are committed.
+    // Writes lost by the previous writer stay recorded in the commit until they are recovered.
+    writer.commitNow();
     searcherManager = new WrappableSearcherManager(writer, true, searcherFactory);
 
     notDoneNrtFutures = Sets.newConcurrentHashSet();
@@ -187,8 +199,8 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
         new ControlledRealTimeReopenThread<>(
             writer,
             searcherManager,
-            0.500 /* maximum stale age (seconds) */,
-            0.010 /* minimum stale age (seconds) */);
+            Math.max(writerConfig.getRefreshWithinMs(), MIN_STALE_AGE_MS) / 1000.0,
+            MIN_STALE_AGE_MS / 1000.0);
     reopenThread.setName(index + " NRT");
     reopenThread.setPriority(
         Math.min(Thread.currentThread().getPriority() + 2, Thread.MAX_PRIORITY));
@@ -254,6 +266,7 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     }
 
     try {
+      writer.markClosed();
       writer.close();
     } catch (AlreadyClosedException e) {
       // Ignore.
@@ -279,6 +292,21 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     return submit(() -> writer.deleteDocuments(term));
   }
 
+  /**
+   * Replace and delete multiple documents in one task of the writer thread, so that searchers only
+   * need to be refreshed once.
+   */
+  ListenableFuture<?> update(Map<Term, Document> replace, Collection<Term> delete) {
+    return submit(
+        () -> {
+          long gen = writer.deleteDocuments(delete.toArray(new Term[0]));
+          for (Map.Entry<Term, Document> e : replace.entrySet()) {
+            gen = writer.updateDocument(e.getKey(), e.getValue());
+          }
+          return gen;
+        });
+  }
+
   private ListenableFuture<?> submit(Callable<Long> task) {
     ListenableFuture<Long> future = Futures.nonCancellationPropagating(writerThread.submit(task));
     return Futures.transformAsync(
@@ -301,10 +329,38 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     }
   }
 
+  @Override
+  public void commit() {
+    try {
+      writer.commitNow();
+    } catch (IOException e) {
+      throw new StorageException(e);
+    }
+  }
+
   public IndexWriter getWriter() {
     return writer;
   }
 
+  /**
+   * Get the time from which writes to this index may have been lost because the server wasn't shut
+   * down cleanly.
+   *
+   * @return time of the last commit before an unclean shutdown, empty if no writes were lost.
+   */
+  Optional<Timestamp> getLostWritesSince() {
+    return writer.getLostWritesSince();
+  }
+
+  /**
+   * Records that the changes were reindexed that were written since {@link #getLostWritesSince()},
+   * and commits the index.
+   */
+  void recoveryDone() throws IOException {
+    writer.recoveryDone();
+    writer.commitNow();
+  }
+
   IndexSearcher acquire() throws IOException {
     return searcherManager.acquire();
   }
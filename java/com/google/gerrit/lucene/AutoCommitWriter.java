@@ -14,7 +14,14 @@
 
 package com.google.gerrit.lucene;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Longs;
+import com.google.gerrit.server.util.time.TimeUtil;
 import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
@@ -23,8 +30,22 @@ import org.apache.lucene.index.Term;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.store.Directory;
 
-/** Writer that optionally flushes/commits after every write. */
+/**
+ * Writer that optionally flushes/commits after every write.
+ *
+ * <p>Commits made through this writer record their time in the commit user data, and whether the
+ * writer was closed cleanly. This allows detecting writes that were lost because the process
+ * terminated before they were committed, see {@link #getLostWritesSince()}. The time from which
+ * writes were lost is kept in the commit user data until the recovery of these writes is done, so
+ * that it isn't forgotten if the process terminates again during the recovery.
+ */
 public class AutoCommitWriter extends IndexWriter {
+  private static final String COMMITTED_AT = "gerrit.committedAt";
+  private static final String CLOSED = "gerrit.closed";
+  private static final String LOST_WRITES_SINCE = "gerrit.lostWritesSince";
+
+  private final Optional<Timestamp> lostWritesSince;
+  private volatile boolean recoveryPending;
   private boolean autoCommit;
 
   AutoCommitWriter(Directory dir, IndexWriterConfig config) throws IOException {
@@ -34,6 +55,45 @@ public class AutoCommitWriter extends IndexWriter {
   AutoCommitWriter(Directory dir, IndexWriterConfig config, boolean autoCommit) throws IOException {
     super(dir, config);
     setAutoCommit(autoCommit);
+    lostWritesSince = readLostWritesSince();
+    recoveryPending = lostWritesSince.isPresent();
+  }
+
+  private Optional<Timestamp> readLostWritesSince() {
+    Map<String, String> commitData = new HashMap<>();
+    Iterable<Map.Entry<String, String>> liveCommitData = getLiveCommitData();
+    if (liveCommitData != null) {
+      liveCommitData.forEach(e -> commitData.put(e.getKey(), e.getValue()));
+    }
+    // Set if a previous recovery didn't complete.
+    Long pendingSince = Longs.tryParse(commitData.getOrDefault(LOST_WRITES_SINCE, ""));
+    if (!Boolean.parseBoolean(commitData.get(CLOSED))) {
+      // Indexes written by older versions don't have a commit time, nothing can be recovered.
+      Long committedAt = Longs.tryParse(commitData.getOrDefault(COMMITTED_AT, ""));
+      if (committedAt != null && (pendingSince == null || committedAt < pendingSince)) {
+        pendingSince = committedAt;
+      }
+    }
+    return Optional.ofNullable(pendingSince).map(Timestamp::new);
+  }
+
+  /**
+   * Get the time from which writes may have been lost.
+   *
+   * @return time of the last commit if the writer that made it wasn't closed cleanly, or the time
+   *     from which writes were lost before if their recovery wasn't done yet; empty if all writes
+   *     of the previous writers were committed or recovered.
+   */
+  Optional<Timestamp> getLostWritesSince() {
+    return lostWritesSince;
+  }
+
+  /**
+   * Records that the writes lost since {@link #getLostWritesSince()} were recovered, so that the
+   * next commit doesn't keep that time anymore.
+   */
+  void recoveryDone() {
+    recoveryPending = false;
   }
 
   /**
@@ -110,8 +170,31 @@ public class AutoCommitWriter extends IndexWriter {
   void manualFlush() throws IOException {
     flush();
     if (autoCommit) {
-      commit();
+      commitNow();
+    }
+  }
+
+  /** Commits all pending writes, recording the time of the commit. */
+  void commitNow() throws IOException {
+    setLiveCommitData(commitData(false).entrySet());
+    commit();
+  }
+
+  /** Records that the writer is closed cleanly by the commit that is done when closing it. */
+  void markClosed() {
+    setLiveCommitData(commitData(true).entrySet());
+  }
+
+  private ImmutableMap<String, String> commitData(boolean closed) {
+    ImmutableMap.Builder<String, String> commitData = ImmutableMap.builder();
+    commitData.put(COMMITTED_AT, Long.toString(TimeUtil.nowMs()));
+    if (closed) {
+      commitData.put(CLOSED, "true");
+    }
+    if (recoveryPending) {
+      commitData.put(LOST_WRITES_SINCE, Long.toString(lostWritesSince.get().getTime()));
     }
+    return commitData.build();
   }
 
   public void autoFlush() throws IOException {
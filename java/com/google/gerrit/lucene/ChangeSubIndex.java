@@ -17,6 +17,7 @@ package com.google.gerrit.lucene;
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.gerrit.lucene.LuceneChangeIndex.ID2_SORT_FIELD;
 import static com.google.gerrit.lucene.LuceneChangeIndex.ID_SORT_FIELD;
+import static com.google.gerrit.lucene.LuceneChangeIndex.PROJECT_SORT_FIELD;
 import static com.google.gerrit.lucene.LuceneChangeIndex.UPDATED_SORT_FIELD;
 import static com.google.gerrit.server.index.change.ChangeSchemaDefinitions.NAME;
 
@@ -39,9 +40,11 @@ import java.nio.file.Path;
 import java.sql.Timestamp;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
     implements ChangeIndex {
@@ -99,7 +102,8 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
 
   @Override
   void add(Document doc, Values<ChangeData> values) {
-    // Add separate DocValues fields for those fields needed for sorting.
+    // Add separate DocValues fields for those fields needed for sorting. Together with the project,
+    // they also allow reading results without reading stored fields.
     FieldDef<ChangeData, ?> f = values.getField();
     if (f == ChangeField.LEGACY_ID) {
       int v = (Integer) getOnlyElement(values.getValues());
@@ -110,6 +114,9 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
     } else if (f == ChangeField.UPDATED) {
       long t = ((Timestamp) getOnlyElement(values.getValues())).getTime();
       doc.add(new NumericDocValuesField(UPDATED_SORT_FIELD, t));
+    } else if (f == ChangeField.PROJECT) {
+      String v = (String) getOnlyElement(values.getValues());
+      doc.add(new SortedDocValuesField(PROJECT_SORT_FIELD, new BytesRef(v)));
     }
     super.add(doc, values);
   }
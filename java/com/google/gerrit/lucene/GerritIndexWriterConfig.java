@@ -33,6 +33,7 @@ class GerritIndexWriterConfig {
 
   private final IndexWriterConfig luceneConfig;
   private long commitWithinMs;
+  private final long refreshWithinMs;
   private final CustomMappingAnalyzer analyzer;
 
   GerritIndexWriterConfig(Config cfg, String name) {
@@ -75,6 +76,8 @@ class GerritIndexWriterConfig {
     } catch (IllegalArgumentException e) {
       commitWithinMs = cfg.getLong("index", name, "commitWithin", 0);
     }
+    refreshWithinMs =
+        ConfigUtil.getTimeUnit(cfg, "index", name, "refreshWithin", 500, MILLISECONDS);
   }
 
   CustomMappingAnalyzer getAnalyzer() {
@@ -88,4 +91,8 @@ class GerritIndexWriterConfig {
   long getCommitWithinMs() {
     return commitWithinMs;
   }
+
+  long getRefreshWithinMs() {
+    return refreshWithinMs;
+  }
 }
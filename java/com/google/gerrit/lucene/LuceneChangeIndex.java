@@ -34,9 +34,11 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Sets;
+import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.PatchSet;
@@ -71,19 +73,31 @@ import com.google.inject.assistedinject.Assisted;
 import com.google.protobuf.MessageLite;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Stream;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
@@ -101,9 +115,10 @@ import org.eclipse.jgit.lib.Config;
 /**
  * Secondary index implementation using Apache Lucene.
  *
- * <p>Writes are managed using a single {@link IndexWriter} per process, committed aggressively.
+ * <p>Writes are managed using a single {@link IndexWriter} per process and committed periodically.
  * Reads use {@link SearcherManager} and periodically refresh, though there may be some lag between
- * a committed write and it showing up to other threads' searchers.
+ * a write and it showing up to other threads' searchers. Writes that are lost because the server
+ * terminates before they are committed are recovered by {@link LuceneChangeIndexRecovery}.
  */
 public class LuceneChangeIndex implements ChangeIndex {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -111,6 +126,7 @@ public class LuceneChangeIndex implements ChangeIndex {
   static final String UPDATED_SORT_FIELD = sortFieldName(ChangeField.UPDATED);
   static final String ID_SORT_FIELD = sortFieldName(ChangeField.LEGACY_ID);
   static final String ID2_SORT_FIELD = sortFieldName(ChangeField.LEGACY_ID_STR);
+  static final String PROJECT_SORT_FIELD = sortFieldName(ChangeField.PROJECT);
 
   private static final String CHANGES = "changes";
   private static final String CHANGES_OPEN = "open";
@@ -136,6 +152,7 @@ public class LuceneChangeIndex implements ChangeIndex {
   private static final String SUBMIT_RECORD_STRICT_FIELD =
       ChangeField.STORED_SUBMIT_RECORD_STRICT.getName();
   private static final String TOTAL_COMMENT_COUNT_FIELD = ChangeField.TOTAL_COMMENT_COUNT.getName();
+  private static final String UPDATED_FIELD = ChangeField.UPDATED.getName();
   private static final String UNRESOLVED_COMMENT_COUNT_FIELD =
       ChangeField.UNRESOLVED_COMMENT_COUNT.getName();
 
@@ -256,6 +273,29 @@ public class LuceneChangeIndex implements ChangeIndex {
     }
   }
 
+  /**
+   * Get the time from which changes need to be reindexed, because writes to this index may have
+   * been lost when the server wasn't shut down cleanly.
+   *
+   * @return time of the oldest lost write, empty if no writes were lost.
+   */
+  Optional<Timestamp> getLostWritesSince() {
+    return Stream.of(openIndex.getLostWritesSince(), closedIndex.getLostWritesSince())
+        .flatMap(Streams::stream)
+        .min(Comparator.naturalOrder());
+  }
+
+  /**
+   * Records that all changes were reindexed whose writes to this index may have been lost, see
+   * {@link #getLostWritesSince()}.
+   *
+   * @throws IOException if the index couldn't be committed.
+   */
+  void recoveryDone() throws IOException {
+    openIndex.recoveryDone();
+    closedIndex.recoveryDone();
+  }
+
   @Override
   public Schema<ChangeData> getSchema() {
     return schema;
@@ -278,6 +318,32 @@ public class LuceneChangeIndex implements ChangeIndex {
     }
   }
 
+  @Override
+  public void replace(Collection<ChangeData> cds) {
+    Map<Term, Document> open = new LinkedHashMap<>();
+    Map<Term, Document> closed = new LinkedHashMap<>();
+    List<Term> deleteOpen = new ArrayList<>();
+    List<Term> deleteClosed = new ArrayList<>();
+    for (ChangeData cd : cds) {
+      Term id = LuceneChangeIndex.idTerm(idTerm, idField, cd);
+      Document doc = openIndex.toDocument(cd);
+      if (cd.change().isNew()) {
+        open.put(id, doc);
+        deleteClosed.add(id);
+      } else {
+        closed.put(id, doc);
+        deleteOpen.add(id);
+      }
+    }
+    try {
+      Futures.allAsList(
+              openIndex.update(open, deleteOpen), closedIndex.update(closed, deleteClosed))
+          .get();
+    } catch (ExecutionException | InterruptedException e) {
+      throw new StorageException(e);
+    }
+  }
+
   @Override
   public void delete(Change.Id changeId) {
     Term id = LuceneChangeIndex.idTerm(idTerm, idField, changeId);
@@ -294,6 +360,12 @@ public class LuceneChangeIndex implements ChangeIndex {
     closedIndex.deleteAll();
   }
 
+  @Override
+  public void commit() {
+    openIndex.commit();
+    closedIndex.commit();
+  }
+
   @Override
   public ChangeDataSource getSource(Predicate<ChangeData> p, QueryOptions opts)
       throws QueryParseException {
@@ -425,10 +497,14 @@ public class LuceneChangeIndex implements ChangeIndex {
         }
         TopDocs docs = TopDocs.merge(sort, realLimit, hits);
 
+        boolean useDocValues = hasDocValues(fields);
         List<Document> result = new ArrayList<>(docs.scoreDocs.length);
         for (int i = opts.start(); i < docs.scoreDocs.length; i++) {
           ScoreDoc sd = docs.scoreDocs[i];
-          result.add(searchers[sd.shardIndex].doc(sd.doc, fields));
+          IndexSearcher searcher = searchers[sd.shardIndex];
+          Document doc =
+              useDocValues ? readDocValues(searcher, sd.doc, fields) : null;
+          result.add(doc != null ? doc : searcher.doc(sd.doc, fields));
         }
         return result;
       } finally {
@@ -445,6 +521,68 @@ public class LuceneChangeIndex implements ChangeIndex {
     }
   }
 
+  /** Whether all fields can be read from DocValues, see {@link #readDocValues}. */
+  private boolean hasDocValues(Set<String> fields) {
+    for (String field : fields) {
+      if (!field.equals(idField.getName())
+          && !field.equals(PROJECT.getName())
+          && !field.equals(UPDATED_FIELD)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Read the ID, project and last updated time of a change from the DocValues fields that are also
+   * used for sorting.
+   *
+   * <p>Stored fields are compressed in blocks of documents, so reading only a few small fields of
+   * many documents is dominated by decompressing stored fields that aren't needed. DocValues are
+   * stored per field and can be read without decompressing anything else.
+   *
+   * @param searcher searcher the document was found with.
+   * @param docId ID of the document in the searcher.
+   * @param fields fields to read, see {@link #hasDocValues(Set)}.
+   * @return document with the same stored fields as a document read from the searcher, null if
+   *     the document doesn't have all DocValues, e.g. because it was indexed by an older version.
+   */
+  @Nullable
+  private Document readDocValues(IndexSearcher searcher, int docId, Set<String> fields)
+      throws IOException {
+    List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+    LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    LeafReader reader = leaf.reader();
+    int doc = docId - leaf.docBase;
+
+    boolean useLegacyNumericFields = schema.useLegacyNumericFields();
+    NumericDocValues id =
+        reader.getNumericDocValues(useLegacyNumericFields ? ID_SORT_FIELD : ID2_SORT_FIELD);
+    NumericDocValues updated = reader.getNumericDocValues(UPDATED_SORT_FIELD);
+    SortedDocValues project = reader.getSortedDocValues(PROJECT_SORT_FIELD);
+    if (id == null || updated == null || project == null || project.getOrd(doc) < 0) {
+      return null;
+    }
+
+    // Add the fields with the types they are stored with, see AbstractLuceneIndex#add.
+    Document result = new Document();
+    if (fields.contains(idField.getName())) {
+      int changeId = (int) id.get(doc);
+      if (useLegacyNumericFields) {
+        result.add(new StoredField(idField.getName(), changeId));
+      } else {
+        result.add(new StoredField(idField.getName(), Integer.toString(changeId)));
+      }
+    }
+    if (fields.contains(PROJECT.getName())) {
+      result.add(new StoredField(PROJECT.getName(), project.get(doc).utf8ToString()));
+    }
+    if (fields.contains(UPDATED_FIELD)) {
+      result.add(new StoredField(UPDATED_FIELD, updated.get(doc)));
+    }
+    return result;
+  }
+
   private class ChangeDataResults implements ResultSet<ChangeData> {
     private final Future<List<Document>> future;
     private final Set<String> fields;
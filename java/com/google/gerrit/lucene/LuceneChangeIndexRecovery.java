@@ -0,0 +1,172 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.index.IndexExecutor;
+import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCollection;
+import com.google.gerrit.server.index.change.ChangeIndexer;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Reindexes changes whose index writes were lost because the server wasn't shut down cleanly.
+ *
+ * <p>The Lucene change index is only committed periodically, see {@code index.name.commitWithin},
+ * so writes since the last commit are lost if the server terminates without closing the index.
+ * On startup, all changes whose meta ref was updated since the last commit are reindexed in the
+ * background. Only once all of them were reindexed, the index stops recording the time from which
+ * writes were lost, so that the recovery is repeated if the server terminates during it.
+ */
+@Singleton
+public class LuceneChangeIndexRecovery implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /**
+   * Changes are indexed asynchronously after their meta ref was updated, so also reindex changes
+   * that were updated shortly before the last commit.
+   */
+  private static final long INDEXING_DELAY_MS = MINUTES.toMillis(5);
+
+  private final ChangeIndexCollection indexes;
+  private final ChangeIndexer indexer;
+  private final ListeningExecutorService executor;
+  private final ProjectCache projectCache;
+  private final GitRepositoryManager repoManager;
+
+  private volatile boolean stopped;
+
+  @Inject
+  LuceneChangeIndexRecovery(
+      ChangeIndexCollection indexes,
+      ChangeIndexer.Factory indexerFactory,
+      @IndexExecutor(BATCH) ListeningExecutorService executor,
+      ProjectCache projectCache,
+      GitRepositoryManager repoManager) {
+    this.indexes = indexes;
+    this.indexer = indexerFactory.create(executor, indexes);
+    this.executor = executor;
+    this.projectCache = projectCache;
+    this.repoManager = repoManager;
+  }
+
+  @Override
+  public void start() {
+    Optional<Timestamp> lostWritesSince =
+        indexes.getWriteIndexes().stream()
+            .filter(LuceneChangeIndex.class::isInstance)
+            .map(i -> ((LuceneChangeIndex) i).getLostWritesSince())
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .min(Comparator.naturalOrder());
+    if (!lostWritesSince.isPresent()) {
+      return;
+    }
+    long since = lostWritesSince.get().getTime() - INDEXING_DELAY_MS;
+    logger.atWarning().log(
+        "Change index was not closed cleanly, reindexing changes updated since %s",
+        new Timestamp(since));
+    @SuppressWarnings("unused")
+    Future<?> possiblyIgnoredError = executor.submit(() -> reindexChangesUpdatedSince(since));
+  }
+
+  @Override
+  public void stop() {
+    // The index executors are only shut down after all pending tasks are done.
+    stopped = true;
+  }
+
+  private void reindexChangesUpdatedSince(long since) {
+    int reindexed = 0;
+    int failed = 0;
+    for (Project.NameKey project : projectCache.all()) {
+      if (stopped) {
+        logger.atWarning().log("Stopped reindexing changes after unclean shutdown");
+        return;
+      }
+      List<Change.Id> ids;
+      try {
+        ids = changesUpdatedSince(project, since);
+      } catch (IOException e) {
+        logger.atSevere().withCause(e).log("Failed to scan changes of %s for reindexing", project);
+        failed++;
+        continue;
+      }
+      for (Change.Id id : ids) {
+        try {
+          indexer.index(project, id);
+          reindexed++;
+        } catch (RuntimeException e) {
+          logger.atSevere().withCause(e).log(
+              "Failed to reindex change %d of %s", id.get(), project);
+          failed++;
+        }
+      }
+    }
+    logger.atInfo().log("Reindexed %d changes after unclean shutdown", reindexed);
+    if (failed > 0) {
+      // Try again on the next start.
+      return;
+    }
+    for (ChangeIndex index : indexes.getWriteIndexes()) {
+      if (index instanceof LuceneChangeIndex) {
+        try {
+          ((LuceneChangeIndex) index).recoveryDone();
+        } catch (IOException e) {
+          logger.atSevere().withCause(e).log("Failed to commit change index after reindexing");
+        }
+      }
+    }
+  }
+
+  private List<Change.Id> changesUpdatedSince(Project.NameKey project, long since)
+      throws IOException {
+    List<Change.Id> ids = new ArrayList<>();
+    try (Repository repo = repoManager.openRepository(project);
+        RevWalk rw = new RevWalk(repo)) {
+      for (Ref ref : repo.getRefDatabase().getRefsByPrefix(RefNames.REFS_CHANGES)) {
+        Change.Id id = Change.Id.fromRef(ref.getName());
+        if (id == null || !ref.getName().equals(RefNames.changeMetaRef(id))) {
+          continue;
+        }
+        if (rw.parseCommit(ref.getObjectId()).getCommitTime() * 1000L >= since) {
+          ids.add(id);
+        }
+      }
+    }
+    return ids;
+  }
+}
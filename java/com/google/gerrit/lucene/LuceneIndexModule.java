@@ -17,6 +17,7 @@ package com.google.gerrit.lucene;
 import com.google.common.collect.ImmutableMap;
 import com.google.gerrit.index.IndexConfig;
 import com.google.gerrit.index.project.ProjectIndex;
+import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.index.AbstractIndexModule;
 import com.google.gerrit.server.index.VersionManager;
@@ -45,8 +46,27 @@ public class LuceneIndexModule extends AbstractIndexModule {
     return cfg.getBoolean("index", "lucene", "testInmemory", false);
   }
 
+  private final boolean recoverLostWrites;
+
   private LuceneIndexModule(Map<String, Integer> singleVersions, int threads, boolean slave) {
     super(singleVersions, threads, slave);
+    // Only the daemon keeps the index open while changes are updated.
+    recoverLostWrites = singleVersions == null && !slave;
+  }
+
+  @Override
+  protected void configure() {
+    super.configure();
+    if (recoverLostWrites) {
+      install(
+          new LifecycleModule() {
+            @Override
+            protected void configure() {
+              // Registered after the version manager, which opens the write indexes.
+              listener().to(LuceneChangeIndexRecovery.class);
+            }
+          });
+    }
   }
 
   @Override
@@ -86,6 +86,7 @@ import com.google.gerrit.server.group.PeriodicGroupIndexer;
 import com.google.gerrit.server.index.IndexModule;
 import com.google.gerrit.server.index.OnlineUpgrader;
 import com.google.gerrit.server.index.VersionManager;
+import com.google.gerrit.server.index.change.StalenessSweeper;
 import com.google.gerrit.server.mail.SignedTokenEmailTokenVerifier;
 import com.google.gerrit.server.mail.receive.MailReceiver;
 import com.google.gerrit.server.mail.send.SmtpEmailSender;
@@ -488,6 +489,7 @@ public class Daemon extends SiteProgram {
     } else {
       modules.add(new AccountDeactivator.Module());
       modules.add(new ChangeCleanupRunner.Module());
+      modules.add(new StalenessSweeper.Module());
     }
     modules.addAll(testSysModules);
     modules.add(new LocalMergeSuperSetComputation.Module());
@@ -31,6 +31,7 @@ import com.google.gerrit.pgm.util.BatchProgramModule;
 import com.google.gerrit.pgm.util.SiteProgram;
 import com.google.gerrit.server.change.ChangeResource;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.index.IndexModule;
 import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
 import com.google.gerrit.server.plugins.PluginGuiceEnvironment;
@@ -39,6 +40,9 @@ import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Module;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -69,12 +73,18 @@ public class Reindex extends SiteProgram {
   @Option(name = "--index", usage = "Only reindex specified indices")
   private List<String> indices = new ArrayList<>();
 
+  @Option(
+      name = "--resume",
+      usage = "Continue an interrupted reindex, skipping documents that were already indexed")
+  private boolean resume;
+
   private Injector dbInjector;
   private Injector sysInjector;
   private Injector cfgInjector;
   private Config globalConfig;
 
   @Inject private Collection<IndexDefinition<?, ?, ?>> indexDefs;
+  @Inject private SitePaths sitePaths;
 
   @Override
   public int run() throws Exception {
@@ -114,7 +124,7 @@ public class Reindex extends SiteProgram {
     return true;
   }
 
-  private boolean reindex() {
+  private boolean reindex() throws IOException {
     boolean ok = true;
     for (IndexDefinition<?, ?, ?> def : indexDefs) {
       if (indices.isEmpty() || indices.contains(def.getName())) {
@@ -184,16 +194,27 @@ public class Reindex extends SiteProgram {
     globalConfig.setBoolean("index", null, "autoReindexIfStale", false);
   }
 
-  private <K, V, I extends Index<K, V>> boolean reindex(IndexDefinition<K, V, I> def) {
+  private <K, V, I extends Index<K, V>> boolean reindex(IndexDefinition<K, V, I> def)
+      throws IOException {
     I index = def.getIndexCollection().getSearchIndex();
     requireNonNull(
         index, () -> String.format("no active search index configured for %s", def.getName()));
+    // Progress is recorded for indexers that support checkpoints, see SiteIndexer.
+    Path checkpointFile =
+        sitePaths.index_dir.resolve(
+            String.format("reindex_%s_%04d", def.getName(), index.getSchema().getVersion()));
     index.markReady(false);
-    index.deleteAll();
+    if (resume && Files.exists(checkpointFile)) {
+      System.out.format("Resuming reindex of %s index\n", def.getName());
+    } else {
+      Files.deleteIfExists(checkpointFile);
+      index.deleteAll();
+    }
 
     SiteIndexer<K, V, I> siteIndexer = def.getSiteIndexer();
     siteIndexer.setProgressOut(System.err);
     siteIndexer.setVerboseOut(verbose ? System.out : NullOutputStream.INSTANCE);
+    siteIndexer.setCheckpointFile(checkpointFile);
     SiteIndexer.Result result = siteIndexer.indexAll(index);
     int n = result.doneCount() + result.failedCount();
     double t = result.elapsed(TimeUnit.MILLISECONDS) / 1000d;
@@ -201,6 +222,7 @@ public class Reindex extends SiteProgram {
         "Reindexed %d documents in %s index in %.01fs (%.01f/s)\n", n, def.getName(), t, n / t);
     if (result.success()) {
       index.markReady(true);
+      Files.deleteIfExists(checkpointFile);
     }
     return result.success();
   }
@@ -24,6 +24,7 @@ import com.google.gerrit.pgm.http.jetty.HttpLog.HttpLogFactory;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.config.ThreadSettingsConfig;
+import com.google.gerrit.server.util.VirtualThreads;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
@@ -40,7 +41,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
@@ -387,16 +390,30 @@ public class JettyServer {
     int maxQueued = cfg.getInt("httpd", null, "maxqueued", 200);
     int idleTimeout = (int) MILLISECONDS.convert(60, SECONDS);
     int maxCapacity = maxQueued == 0 ? Integer.MAX_VALUE : Math.max(minThreads, maxQueued);
-    QueuedThreadPool pool =
-        new QueuedThreadPool(
-            maxThreads,
-            minThreads,
-            idleTimeout,
-            new BlockingArrayQueue<>(
-                minThreads, // capacity,
-                minThreads, // growBy,
-                maxCapacity // maxCapacity
-                ));
+    BlockingArrayQueue<Runnable> queue =
+        new BlockingArrayQueue<>(
+            minThreads, // capacity,
+            minThreads, // growBy,
+            maxCapacity // maxCapacity
+            );
+    Optional<ThreadFactory> virtualThreads =
+        cfg.getBoolean("httpd", null, "virtualThreads", false)
+            ? VirtualThreads.factory("HTTP-")
+            : Optional.empty();
+    QueuedThreadPool pool;
+    if (virtualThreads.isPresent()) {
+      pool =
+          new QueuedThreadPool(maxThreads, minThreads, idleTimeout, queue) {
+            @Override
+            protected Thread newThread(Runnable runnable) {
+              return virtualThreads.get().newThread(runnable);
+            }
+          };
+      // Virtual threads are always daemon threads.
+      pool.setDaemon(true);
+    } else {
+      pool = new QueuedThreadPool(maxThreads, minThreads, idleTimeout, queue);
+    }
     pool.setName("HTTP");
     return pool;
   }
@@ -58,6 +58,7 @@ import com.google.gerrit.server.extensions.events.EventUtil;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.server.extensions.events.RevisionCreated;
 import com.google.gerrit.server.extensions.events.WorkInProgressStateChanged;
+import com.google.gerrit.server.git.ChangesByBranchCache;
 import com.google.gerrit.server.git.MergeUtil;
 import com.google.gerrit.server.git.PureRevertCache;
 import com.google.gerrit.server.git.SearchingChangeCacheImpl;
@@ -75,6 +76,8 @@ import com.google.gerrit.server.project.ProjectCacheImpl;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.project.SubmitRuleEvaluator;
 import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.ChangeQueryResultCache;
+import com.google.gerrit.server.query.change.VisibleProjectsCache;
 import com.google.gerrit.server.restapi.group.GroupModule;
 import com.google.gerrit.server.rules.DefaultSubmitRule;
 import com.google.gerrit.server.rules.IgnoreSelfApprovalRule;
@@ -136,6 +139,7 @@ public class BatchProgramModule extends FactoryModule {
     // As Reindex is a batch program, don't assume the index is available for
     // the change cache.
     bind(SearchingChangeCacheImpl.class).toProvider(Providers.of(null));
+    bind(ChangesByBranchCache.class).toProvider(Providers.of(null));
 
     bind(new TypeLiteral<ImmutableSet<GroupReference>>() {})
         .annotatedWith(AdministrateServerGroups.class)
@@ -160,6 +164,8 @@ public class BatchProgramModule extends FactoryModule {
     install(ProjectCacheImpl.module());
     install(SectionSortCache.module());
     install(ChangeKindCacheImpl.module());
+    install(ChangeQueryResultCache.module());
+    install(VisibleProjectsCache.module());
     install(MergeabilityCacheImpl.module());
     install(TagCache.module());
     install(PureRevertCache.module());
@@ -16,16 +16,21 @@ package com.google.gerrit.server.account;
 
 import static com.google.gerrit.server.account.externalids.ExternalId.SCHEME_USERNAME;
 
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.account.externalids.ExternalId;
 import com.google.gerrit.server.account.externalids.ExternalIds;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.logging.TraceContext;
 import com.google.gerrit.server.logging.TraceContext.TraceTimer;
@@ -47,6 +52,10 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
 
 /** Caches important (but small) account state to avoid database hits. */
 @Singleton
@@ -54,6 +63,8 @@ public class AccountCacheImpl implements AccountCache {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private static final String BYID_NAME = "accounts";
+  private static final String BYID_AND_REV_NAME = "account_details";
+  private static final String DEFAULT_PREFERENCES_NAME = "default_preferences";
 
   public static Module module() {
     return new CacheModule() {
@@ -62,6 +73,17 @@ public class AccountCacheImpl implements AccountCache {
         cache(BYID_NAME, Account.Id.class, new TypeLiteral<AccountState>() {})
             .loader(ByIdLoader.class);
 
+        persist(BYID_AND_REV_NAME, CachedAccountDetails.Key.class, CachedAccountDetails.class)
+            .version(1)
+            .keySerializer(CachedAccountDetails.Key.Serializer.INSTANCE)
+            .valueSerializer(CachedAccountDetails.Serializer.INSTANCE)
+            .loader(AccountDetailsLoader.class);
+
+        // Only the default preferences of the current revision of refs/users/default are needed.
+        cache(DEFAULT_PREFERENCES_NAME, ObjectId.class, Config.class)
+            .maximumWeight(1)
+            .loader(DefaultPreferencesLoader.class);
+
         bind(AccountCacheImpl.class);
         bind(AccountCache.class).to(AccountCacheImpl.class);
       }
@@ -175,27 +197,116 @@ public class AccountCacheImpl implements AccountCache {
   }
 
   static class ByIdLoader extends CacheLoader<Account.Id, AccountState> {
-    private final Accounts accounts;
+    private final GitRepositoryManager repoManager;
+    private final AllUsersName allUsersName;
+    private final ExternalIds externalIds;
+    private final LoadingCache<CachedAccountDetails.Key, CachedAccountDetails> accountDetails;
+    private final LoadingCache<ObjectId, Config> defaultPreferences;
 
     @Inject
-    ByIdLoader(Accounts accounts) {
-      this.accounts = accounts;
+    ByIdLoader(
+        GitRepositoryManager repoManager,
+        AllUsersName allUsersName,
+        ExternalIds externalIds,
+        @Named(BYID_AND_REV_NAME)
+            LoadingCache<CachedAccountDetails.Key, CachedAccountDetails> accountDetails,
+        @Named(DEFAULT_PREFERENCES_NAME) LoadingCache<ObjectId, Config> defaultPreferences) {
+      this.repoManager = repoManager;
+      this.allUsersName = allUsersName;
+      this.externalIds = externalIds;
+      this.accountDetails = accountDetails;
+      this.defaultPreferences = defaultPreferences;
     }
 
     @Override
     public AccountState load(Account.Id who) throws Exception {
       try (TraceTimer timer =
-          TraceContext.newTimer(
-              "Loading account", Metadata.builder().accountId(who.get()).build())) {
-        return accounts
-            .get(who)
-            .orElseThrow(() -> new AccountNotFoundException(who + " not found"));
+              TraceContext.newTimer(
+                  "Loading account", Metadata.builder().accountId(who.get()).build());
+          Repository repo = repoManager.openRepository(allUsersName)) {
+        // Only the refs are read here. The details of the account are only read from the user
+        // branch if they are not cached for its current revision yet.
+        Ref userRef = repo.exactRef(RefNames.refsUsers(who));
+        if (userRef == null) {
+          throw new AccountNotFoundException(who + " not found");
+        }
+        CachedAccountDetails details;
+        try {
+          details = accountDetails.get(CachedAccountDetails.Key.create(who, userRef.getObjectId()));
+        } catch (ExecutionException e) {
+          // Callers expect a missing account as cause of the exception of this loader.
+          Throwables.throwIfInstanceOf(e.getCause(), AccountNotFoundException.class);
+          throw e;
+        }
+
+        Ref defaultRef = repo.exactRef(RefNames.REFS_USERS_DEFAULT);
+        Config defaults =
+            defaultPreferences.get(
+                defaultRef != null ? defaultRef.getObjectId() : ObjectId.zeroId());
+
+        Ref extIdsRef = repo.exactRef(RefNames.REFS_EXTERNAL_IDS);
+        Set<ExternalId> extIds =
+            extIdsRef != null
+                ? externalIds.byAccount(who, extIdsRef.getObjectId())
+                : ImmutableSet.of();
+
+        return AccountState.forCachedAccount(details, defaults, extIds);
+      }
+    }
+  }
+
+  static class AccountDetailsLoader
+      extends CacheLoader<CachedAccountDetails.Key, CachedAccountDetails> {
+    private final GitRepositoryManager repoManager;
+    private final AllUsersName allUsersName;
+
+    @Inject
+    AccountDetailsLoader(GitRepositoryManager repoManager, AllUsersName allUsersName) {
+      this.repoManager = repoManager;
+      this.allUsersName = allUsersName;
+    }
+
+    @Override
+    public CachedAccountDetails load(CachedAccountDetails.Key key) throws Exception {
+      try (TraceTimer timer =
+              TraceContext.newTimer(
+                  "Loading account details",
+                  Metadata.builder()
+                      .accountId(key.accountId().get())
+                      .revision(key.id().name())
+                      .build());
+          Repository repo = repoManager.openRepository(allUsersName)) {
+        AccountConfig cfg = new AccountConfig(key.accountId(), allUsersName, repo).load(key.id());
+        Account account =
+            cfg.getLoadedAccount()
+                .orElseThrow(() -> new AccountNotFoundException(key.accountId() + " not found"));
+        return CachedAccountDetails.create(
+            account, cfg.getProjectWatches(), cfg.getRawPreferences().toText());
+      }
+    }
+  }
+
+  static class DefaultPreferencesLoader extends CacheLoader<ObjectId, Config> {
+    private final GitRepositoryManager repoManager;
+    private final AllUsersName allUsersName;
+
+    @Inject
+    DefaultPreferencesLoader(GitRepositoryManager repoManager, AllUsersName allUsersName) {
+      this.repoManager = repoManager;
+      this.allUsersName = allUsersName;
+    }
+
+    @Override
+    public Config load(ObjectId rev) throws Exception {
+      try (Repository repo = repoManager.openRepository(allUsersName)) {
+        return StoredPreferences.readDefaultConfig(
+            allUsersName, repo, !ObjectId.zeroId().equals(rev) ? rev : null);
       }
     }
   }
 
   /** Signals that the account was not found in the primary storage. */
-  private static class AccountNotFoundException extends Exception {
+  static class AccountNotFoundException extends Exception {
     private static final long serialVersionUID = 1L;
 
     public AccountNotFoundException(String message) {
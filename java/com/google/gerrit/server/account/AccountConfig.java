@@ -106,6 +106,17 @@ public class AccountConfig extends VersionedMetaData implements ValidationError.
     return this;
   }
 
+  /**
+   * Loads the account at the given revision of its user branch.
+   *
+   * @param rev revision of the user branch that should be loaded
+   * @return this account config
+   */
+  public AccountConfig load(ObjectId rev) throws IOException, ConfigInvalidException {
+    load(allUsersName, repo, rev);
+    return this;
+  }
+
   /**
    * Get the loaded account.
    *
@@ -172,6 +183,17 @@ public class AccountConfig extends VersionedMetaData implements ValidationError.
     return preferences.getEditPreferences();
   }
 
+  /**
+   * Get the preferences of the loaded account as they are stored in the user branch, without
+   * default preferences applied.
+   *
+   * @return the stored preferences of the loaded account
+   */
+  Config getRawPreferences() {
+    checkLoaded();
+    return preferences.getRawConfig();
+  }
+
   /**
    * Sets the account. This means the loaded account will be overwritten with the given account.
    *
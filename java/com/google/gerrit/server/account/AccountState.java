@@ -18,6 +18,7 @@ import com.google.auto.value.AutoValue;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo;
@@ -31,6 +32,8 @@ import com.google.gerrit.server.account.externalids.ExternalIds;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Optional;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
 
 /**
@@ -42,6 +45,8 @@ import org.eclipse.jgit.lib.ObjectId;
  */
 @AutoValue
 public abstract class AccountState {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   /**
    * Creates an AccountState from the given account config.
    *
@@ -139,6 +144,41 @@ public abstract class AccountState {
         Preferences.Edit.fromInfo(EditPreferencesInfo.defaults()));
   }
 
+  /**
+   * Creates an AccountState from cached account details.
+   *
+   * @param details the details of the account, as read from its user branch
+   * @param defaultPreferences the default preferences from {@code refs/users/default}
+   * @param extIds the external IDs of the account
+   * @return the account state
+   * @throws ConfigInvalidException if the stored preferences cannot be parsed
+   */
+  static AccountState forCachedAccount(
+      CachedAccountDetails details, Config defaultPreferences, Collection<ExternalId> extIds)
+      throws ConfigInvalidException {
+    Account account = details.account();
+    Config userPreferences = new Config();
+    userPreferences.fromText(details.userPreferences());
+    StoredPreferences preferences =
+        new StoredPreferences(
+            account.id(),
+            userPreferences,
+            defaultPreferences,
+            e ->
+                logger.atWarning().log(
+                    "Invalid preferences of account %d: %s", account.id().get(), e.getMessage()));
+    preferences.parse();
+
+    return new AutoValue_AccountState(
+        account,
+        ImmutableSet.copyOf(extIds),
+        ExternalId.getUserName(extIds),
+        details.projectWatches(),
+        Preferences.General.fromInfo(preferences.getGeneralPreferences()),
+        Preferences.Diff.fromInfo(preferences.getDiffPreferences()),
+        Preferences.Edit.fromInfo(preferences.getEditPreferences()));
+  }
+
   /** Get the cached account metadata. */
   public abstract Account account();
   /** The external identities that identify the account holder. */
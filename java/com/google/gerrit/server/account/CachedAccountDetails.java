@@ -0,0 +1,156 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.proto.Protos;
+import com.google.gerrit.server.account.ProjectWatches.NotifyType;
+import com.google.gerrit.server.account.ProjectWatches.ProjectWatchKey;
+import com.google.gerrit.server.cache.proto.Cache.AccountDetailsProto;
+import com.google.gerrit.server.cache.proto.Cache.AccountDetailsProto.ProjectWatchProto;
+import com.google.gerrit.server.cache.proto.Cache.AccountKeyProto;
+import com.google.gerrit.server.cache.proto.Cache.AccountProto;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
+import java.sql.Timestamp;
+import java.util.Map;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Details of an account that are read from its user branch in {@code All-Users}.
+ *
+ * <p>Since the details only depend on the revision of the user branch, they are cached by account
+ * ID and revision and may be persisted. External IDs and default preferences are stored on other
+ * branches and are added when the {@link AccountState} is created.
+ */
+@AutoValue
+public abstract class CachedAccountDetails {
+  @AutoValue
+  public abstract static class Key {
+    static Key create(Account.Id accountId, ObjectId id) {
+      return new AutoValue_CachedAccountDetails_Key(accountId, id.copy());
+    }
+
+    /** Identifier of the account. */
+    public abstract Account.Id accountId();
+
+    /** Git revision of the {@code refs/users/xx/yyyy} branch of the account. */
+    public abstract ObjectId id();
+
+    enum Serializer implements CacheSerializer<Key> {
+      INSTANCE;
+
+      @Override
+      public byte[] serialize(Key object) {
+        return Protos.toByteArray(
+            AccountKeyProto.newBuilder()
+                .setAccountId(object.accountId().get())
+                .setId(ObjectIdConverter.create().toByteString(object.id()))
+                .build());
+      }
+
+      @Override
+      public Key deserialize(byte[] in) {
+        AccountKeyProto proto = Protos.parseUnchecked(AccountKeyProto.parser(), in);
+        return Key.create(
+            Account.id(proto.getAccountId()),
+            ObjectIdConverter.create().fromByteString(proto.getId()));
+      }
+    }
+  }
+
+  static CachedAccountDetails create(
+      Account account,
+      ImmutableMap<ProjectWatchKey, ImmutableSet<NotifyType>> projectWatches,
+      String userPreferences) {
+    return new AutoValue_CachedAccountDetails(account, projectWatches, userPreferences);
+  }
+
+  /** The account properties from {@code account.config}. */
+  public abstract Account account();
+
+  /** The project watches from {@code watch.config}. */
+  public abstract ImmutableMap<ProjectWatchKey, ImmutableSet<NotifyType>> projectWatches();
+
+  /** The content of {@code preferences.config}, without default preferences applied. */
+  public abstract String userPreferences();
+
+  enum Serializer implements CacheSerializer<CachedAccountDetails> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(CachedAccountDetails object) {
+      Account account = object.account();
+      AccountProto.Builder accountProto =
+          AccountProto.newBuilder()
+              .setId(account.id().get())
+              .setRegisteredOn(account.registeredOn().getTime())
+              .setFullName(Strings.nullToEmpty(account.fullName()))
+              .setDisplayName(Strings.nullToEmpty(account.displayName()))
+              .setPreferredEmail(Strings.nullToEmpty(account.preferredEmail()))
+              .setInactive(account.inactive())
+              .setStatus(Strings.nullToEmpty(account.status()))
+              .setMetaId(Strings.nullToEmpty(account.metaId()));
+
+      AccountDetailsProto.Builder b =
+          AccountDetailsProto.newBuilder()
+              .setAccount(accountProto)
+              .setUserPreferences(object.userPreferences());
+      for (Map.Entry<ProjectWatchKey, ImmutableSet<NotifyType>> e :
+          object.projectWatches().entrySet()) {
+        ProjectWatchProto.Builder watch =
+            ProjectWatchProto.newBuilder()
+                .setProject(e.getKey().project().get())
+                .setFilter(Strings.nullToEmpty(e.getKey().filter()));
+        e.getValue().forEach(n -> watch.addNotifyType(n.name()));
+        b.addProjectWatch(watch);
+      }
+      return Protos.toByteArray(b.build());
+    }
+
+    @Override
+    public CachedAccountDetails deserialize(byte[] in) {
+      AccountDetailsProto proto = Protos.parseUnchecked(AccountDetailsProto.parser(), in);
+      AccountProto accountProto = proto.getAccount();
+      // Account treats null and empty strings the same, so no need to distinguish here.
+      Account account =
+          Account.builder(
+                  Account.id(accountProto.getId()), new Timestamp(accountProto.getRegisteredOn()))
+              .setFullName(Strings.emptyToNull(accountProto.getFullName()))
+              .setDisplayName(Strings.emptyToNull(accountProto.getDisplayName()))
+              .setPreferredEmail(Strings.emptyToNull(accountProto.getPreferredEmail()))
+              .setInactive(accountProto.getInactive())
+              .setStatus(Strings.emptyToNull(accountProto.getStatus()))
+              .setMetaId(Strings.emptyToNull(accountProto.getMetaId()))
+              .build();
+
+      ImmutableMap.Builder<ProjectWatchKey, ImmutableSet<NotifyType>> projectWatches =
+          ImmutableMap.builder();
+      for (ProjectWatchProto watch : proto.getProjectWatchList()) {
+        projectWatches.put(
+            ProjectWatchKey.create(Project.nameKey(watch.getProject()), watch.getFilter()),
+            watch.getNotifyTypeList().stream().map(NotifyType::valueOf).collect(toImmutableSet()));
+      }
+      return create(account, projectWatches.build(), proto.getUserPreferences());
+    }
+  }
+}
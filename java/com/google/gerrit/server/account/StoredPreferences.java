@@ -49,6 +49,7 @@ import java.util.Optional;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 
 /**
@@ -123,6 +124,11 @@ public class StoredPreferences {
     return editPreferences;
   }
 
+  /** Returns the preferences as stored for the account, without default preferences applied. */
+  Config getRawConfig() {
+    return cfg;
+  }
+
   public void parse() {
     generalPreferences = parseGeneralPreferences(null);
     diffPreferences = parseDiffPreferences(null);
@@ -421,6 +427,14 @@ public class StoredPreferences {
     return defaultPrefs.getConfig();
   }
 
+  static Config readDefaultConfig(
+      AllUsersName allUsersName, Repository allUsersRepo, @Nullable ObjectId rev)
+      throws IOException, ConfigInvalidException {
+    VersionedDefaultPreferences defaultPrefs = new VersionedDefaultPreferences();
+    defaultPrefs.load(allUsersName, allUsersRepo, rev);
+    return defaultPrefs.getConfig();
+  }
+
   public static GeneralPreferencesInfo updateDefaultGeneralPreferences(
       MetaDataUpdate md, GeneralPreferencesInfo input) throws IOException, ConfigInvalidException {
     VersionedDefaultPreferences defaultPrefs = new VersionedDefaultPreferences();
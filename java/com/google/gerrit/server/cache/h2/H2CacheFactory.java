@@ -27,6 +27,7 @@ import com.google.gerrit.server.cache.PersistentCacheDef;
 import com.google.gerrit.server.cache.PersistentCacheFactory;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.cache.mmap.MmapCacheFactory;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
@@ -50,12 +51,21 @@ import org.eclipse.jgit.lib.Config;
 /**
  * Creates persistent caches depending on gerrit.config parameters. If the cache.directory property
  * is unset, it will fall back to in-memory caches.
+ *
+ * <p>Caches configured with {@code cache.<name>.diskType = mmap} are delegated to {@link
+ * MmapCacheFactory}.
  */
 @Singleton
 class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  enum DiskType {
+    H2,
+    MMAP
+  }
+
   private final MemoryCacheFactory memCacheFactory;
+  private final MmapCacheFactory mmapCacheFactory;
   private final Config config;
   private final Path cacheDir;
   private final List<H2CacheImpl<?, ?>> caches;
@@ -64,14 +74,19 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   private final ScheduledExecutorService cleanup;
   private final long h2CacheSize;
   private final boolean h2AutoServer;
+  private final WriteBehindMetrics writeBehindMetrics;
 
   @Inject
   H2CacheFactory(
       MemoryCacheFactory memCacheFactory,
+      MmapCacheFactory mmapCacheFactory,
       @GerritServerConfig Config cfg,
       SitePaths site,
-      DynamicMap<Cache<?, ?>> cacheMap) {
+      DynamicMap<Cache<?, ?>> cacheMap,
+      WriteBehindMetrics writeBehindMetrics) {
     this.memCacheFactory = memCacheFactory;
+    this.mmapCacheFactory = mmapCacheFactory;
+    this.writeBehindMetrics = writeBehindMetrics;
     config = cfg;
     cacheDir = getCacheDir(site, cfg.getString("cache", null, "directory"));
     h2CacheSize = cfg.getLong("cache", null, "h2CacheSize", -1);
@@ -162,6 +177,10 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   @SuppressWarnings({"unchecked"})
   @Override
   public <K, V> Cache<K, V> build(PersistentCacheDef<K, V> in, CacheBackend backend) {
+    if (diskType(in) == DiskType.MMAP) {
+      return mmapCacheFactory.build(in, backend);
+    }
+
     long limit = config.getLong("cache", in.configKey(), "diskLimit", in.diskLimit());
 
     if (cacheDir == null || limit <= 0) {
@@ -169,13 +188,10 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
     }
 
     H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
-    SqlStore<K, V> store = newSqlStore(def, limit);
+    WriteBehindQueue<K, V> writes = newWriteBehindQueue(def, newSqlStore(def, limit));
     H2CacheImpl<K, V> cache =
         new H2CacheImpl<>(
-            executor,
-            store,
-            def.keyType(),
-            (Cache<K, ValueHolder<V>>) memCacheFactory.build(def, backend));
+            writes, def.keyType(), (Cache<K, ValueHolder<V>>) memCacheFactory.build(def, backend));
     synchronized (caches) {
       caches.add(cache);
     }
@@ -186,6 +202,10 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   @Override
   public <K, V> LoadingCache<K, V> build(
       PersistentCacheDef<K, V> in, CacheLoader<K, V> loader, CacheBackend backend) {
+    if (diskType(in) == DiskType.MMAP) {
+      return mmapCacheFactory.build(in, loader, backend);
+    }
+
     long limit = config.getLong("cache", in.configKey(), "diskLimit", in.diskLimit());
 
     if (cacheDir == null || limit <= 0) {
@@ -193,14 +213,12 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
     }
 
     H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
-    SqlStore<K, V> store = newSqlStore(def, limit);
+    WriteBehindQueue<K, V> writes = newWriteBehindQueue(def, newSqlStore(def, limit));
     Cache<K, ValueHolder<V>> mem =
         (Cache<K, ValueHolder<V>>)
             memCacheFactory.build(
-                def,
-                (CacheLoader<K, V>) new H2CacheImpl.Loader<>(executor, store, loader),
-                backend);
-    H2CacheImpl<K, V> cache = new H2CacheImpl<>(executor, store, def.keyType(), mem);
+                def, (CacheLoader<K, V>) new H2CacheImpl.Loader<>(writes, loader), backend);
+    H2CacheImpl<K, V> cache = new H2CacheImpl<>(writes, def.keyType(), mem);
     synchronized (caches) {
       caches.add(cache);
     }
@@ -209,6 +227,7 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
 
   @Override
   public void onStop(String plugin) {
+    mmapCacheFactory.onStop(plugin);
     synchronized (caches) {
       for (Map.Entry<String, Provider<Cache<?, ?>>> entry : cacheMap.byPlugin(plugin).entrySet()) {
         Cache<?, ?> cache = entry.getValue().get();
@@ -219,6 +238,17 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
     }
   }
 
+  private DiskType diskType(PersistentCacheDef<?, ?> def) {
+    return config.getEnum("cache", def.configKey(), "diskType", DiskType.H2);
+  }
+
+  private <K, V> WriteBehindQueue<K, V> newWriteBehindQueue(
+      PersistentCacheDef<K, V> def, SqlStore<K, V> store) {
+    int maxPending = config.getInt("cache", def.configKey(), "maxPendingWrites", 10000);
+    return new WriteBehindQueue<>(
+        def.name(), executor, store, writeBehindMetrics, Math.max(1, maxPending));
+  }
+
   private <V, K> SqlStore<K, V> newSqlStore(PersistentCacheDef<K, V> def, long maxSize) {
     StringBuilder url = new StringBuilder();
     url.append("jdbc:h2:").append(cacheDir.resolve(def.name()).toUri());
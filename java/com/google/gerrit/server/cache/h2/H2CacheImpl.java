@@ -41,12 +41,13 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -61,8 +62,9 @@ import java.util.concurrent.atomic.AtomicLong;
  * construct the item. This is mostly useful for CacheLoaders that are computationally intensive,
  * such as the PatchListCache.
  *
- * <p>Cache stores and invalidations are performed on a background thread, hiding the latency
- * associated with serializing the key and value pairs and writing them to the database log.
+ * <p>Cache stores, invalidations and access time updates are queued in a {@link WriteBehindQueue}
+ * and performed in batches on a background thread, hiding the latency associated with serializing
+ * the key and value pairs and writing them to the database log.
  *
  * <p>A BloomFilter is used around the database to reduce the number of SELECTs issued against the
  * database for new cache items that have not been seen before, a common operation for the
@@ -79,18 +81,15 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
   private static final ImmutableSet<String> OLD_CLASS_NAMES =
       ImmutableSet.of("com.google.gerrit.server.change.ChangeKind");
 
-  private final Executor executor;
+  private final WriteBehindQueue<K, V> writes;
   private final SqlStore<K, V> store;
   private final TypeLiteral<K> keyType;
   private final Cache<K, ValueHolder<V>> mem;
 
   H2CacheImpl(
-      Executor executor,
-      SqlStore<K, V> store,
-      TypeLiteral<K> keyType,
-      Cache<K, ValueHolder<V>> mem) {
-    this.executor = executor;
-    this.store = store;
+      WriteBehindQueue<K, V> writes, TypeLiteral<K> keyType, Cache<K, ValueHolder<V>> mem) {
+    this.writes = writes;
+    this.store = writes.store();
     this.keyType = keyType;
     this.mem = mem;
   }
@@ -109,12 +108,10 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       return h.value;
     }
 
-    if (store.mightContain(key)) {
-      h = store.getIfPresent(key);
-      if (h != null) {
-        mem.put(key, h);
-        return h.value;
-      }
+    h = writes.getIfPresent(key);
+    if (h != null) {
+      mem.put(key, h);
+      return h.value;
     }
     return null;
   }
@@ -132,16 +129,14 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     return mem.get(
             key,
             () -> {
-              if (store.mightContain(key)) {
-                ValueHolder<V> h = store.getIfPresent(key);
-                if (h != null) {
-                  return h;
-                }
+              ValueHolder<V> h = writes.getIfPresent(key);
+              if (h != null) {
+                return h;
               }
 
-              ValueHolder<V> h = new ValueHolder<>(valueLoader.call());
+              h = new ValueHolder<>(valueLoader.call());
               h.created = TimeUtil.nowMs();
-              executor.execute(() -> store.put(key, h));
+              writes.put(key, h);
               return h;
             })
         .value;
@@ -152,20 +147,21 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     final ValueHolder<V> h = new ValueHolder<>(val);
     h.created = TimeUtil.nowMs();
     mem.put(key, h);
-    executor.execute(() -> store.put(key, h));
+    writes.put(key, h);
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public void invalidate(Object key) {
-    if (keyType.getRawType().isInstance(key) && store.mightContain((K) key)) {
-      executor.execute(() -> store.invalidate((K) key));
+    if (keyType.getRawType().isInstance(key)) {
+      writes.invalidate((K) key);
     }
     mem.invalidate(key);
   }
 
   @Override
   public void invalidateAll() {
+    writes.invalidateAll();
     store.invalidateAll();
     mem.invalidateAll();
   }
@@ -190,6 +186,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
   }
 
   void stop() {
+    writes.close();
     for (Map.Entry<K, ValueHolder<V>> e : mem.asMap().entrySet()) {
       ValueHolder<V> h = e.getValue();
       if (!h.clean) {
@@ -226,13 +223,11 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
   }
 
   static class Loader<K, V> extends CacheLoader<K, ValueHolder<V>> {
-    private final Executor executor;
-    private final SqlStore<K, V> store;
+    private final WriteBehindQueue<K, V> writes;
     private final CacheLoader<K, V> loader;
 
-    Loader(Executor executor, SqlStore<K, V> store, CacheLoader<K, V> loader) {
-      this.executor = executor;
-      this.store = store;
+    Loader(WriteBehindQueue<K, V> writes, CacheLoader<K, V> loader) {
+      this.writes = writes;
       this.loader = loader;
     }
 
@@ -241,16 +236,14 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       try (TraceTimer timer =
           TraceContext.newTimer(
               "Loading value from cache", Metadata.builder().cacheKey(key.toString()).build())) {
-        if (store.mightContain(key)) {
-          ValueHolder<V> h = store.getIfPresent(key);
-          if (h != null) {
-            return h;
-          }
+        ValueHolder<V> h = writes.getIfPresent(key);
+        if (h != null) {
+          return h;
         }
 
-        final ValueHolder<V> h = new ValueHolder<>(loader.load(key));
+        h = new ValueHolder<>(loader.load(key));
         h.created = TimeUtil.nowMs();
-        executor.execute(() -> store.put(key, h));
+        writes.put(key, h);
         return h;
       }
     }
@@ -404,7 +397,6 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
           ValueHolder<V> h = new ValueHolder<>(val);
           h.clean = true;
           hitCount.incrementAndGet();
-          touch(c, key);
           return h;
         } finally {
           c.get.clearParameters();
@@ -489,6 +481,91 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
+    /**
+     * Apply queued writes and access time updates in a single transaction.
+     *
+     * @param writes puts, or invalidations if the holder is absent.
+     * @param touches keys of entries read from the store whose access time should be updated.
+     * @return true if the transaction was committed.
+     */
+    boolean write(Map<K, Optional<ValueHolder<V>>> writes, Collection<K> touches) {
+      BloomFilter<K> b = bloomFilter;
+      if (b != null) {
+        for (Map.Entry<K, Optional<ValueHolder<V>>> e : writes.entrySet()) {
+          if (e.getValue().isPresent()) {
+            b.put(e.getKey());
+          }
+        }
+        bloomFilter = b;
+      }
+
+      SqlHandle c = null;
+      try {
+        c = acquire();
+        if (c.put == null) {
+          c.put =
+              c.conn.prepareStatement(
+                  "MERGE INTO data (k, v, version, created, accessed) VALUES(?,?,?,?,?)");
+        }
+        if (c.invalidate == null) {
+          c.invalidate = c.conn.prepareStatement("DELETE FROM data WHERE k=? and version=?");
+        }
+        if (c.touch == null) {
+          c.touch = c.conn.prepareStatement("UPDATE data SET accessed=? WHERE k=? AND version=?");
+        }
+
+        Timestamp now = TimeUtil.nowTs();
+        c.conn.setAutoCommit(false);
+        try {
+          for (Map.Entry<K, Optional<ValueHolder<V>>> e : writes.entrySet()) {
+            if (e.getValue().isPresent()) {
+              ValueHolder<V> holder = e.getValue().get();
+              if (holder.clean) {
+                continue;
+              }
+              keyType.set(c.put, 1, e.getKey());
+              c.put.setBytes(2, valueSerializer.serialize(holder.value));
+              c.put.setInt(3, version);
+              c.put.setTimestamp(4, new Timestamp(holder.created));
+              c.put.setTimestamp(5, now);
+              c.put.addBatch();
+            } else {
+              keyType.set(c.invalidate, 1, e.getKey());
+              c.invalidate.setInt(2, version);
+              c.invalidate.addBatch();
+            }
+          }
+          for (K key : touches) {
+            c.touch.setTimestamp(1, now);
+            keyType.set(c.touch, 2, key);
+            c.touch.setInt(3, version);
+            c.touch.addBatch();
+          }
+          c.invalidate.executeBatch();
+          c.put.executeBatch();
+          c.touch.executeBatch();
+          c.conn.commit();
+        } catch (IOException | SQLException e) {
+          c.conn.rollback();
+          throw e;
+        } finally {
+          c.conn.setAutoCommit(true);
+        }
+
+        for (Optional<ValueHolder<V>> holder : writes.values()) {
+          holder.ifPresent(h -> h.clean = true);
+        }
+        return true;
+      } catch (IOException | SQLException e) {
+        logger.atWarning().withCause(e).log(
+            "Cannot write %d entries to cache %s", writes.size(), url);
+        c = close(c);
+        return false;
+      } finally {
+        release(c);
+      }
+    }
+
     void invalidate(K key) {
       SqlHandle c = null;
       try {
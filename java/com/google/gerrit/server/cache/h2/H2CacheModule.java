@@ -18,6 +18,7 @@ import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.server.ModuleImpl;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.cache.PersistentCacheFactory;
+import com.google.gerrit.server.cache.mmap.MmapCacheFactory;
 
 @ModuleImpl(name = CacheModule.PERSISTENT_MODULE)
 public class H2CacheModule extends LifecycleModule {
@@ -25,5 +26,6 @@ public class H2CacheModule extends LifecycleModule {
   protected void configure() {
     bind(PersistentCacheFactory.class).to(H2CacheFactory.class);
     listener().to(H2CacheFactory.class);
+    listener().to(MmapCacheFactory.class);
   }
 }
@@ -0,0 +1,88 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram1;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Metrics of the {@link WriteBehindQueue}s of persistent caches. */
+@Singleton
+class WriteBehindMetrics {
+  private final Map<String, WriteBehindQueue<?, ?>> queues = new ConcurrentHashMap<>();
+  private final Histogram1<String> batchSize;
+  private final Counter1<String> dropped;
+
+  @Inject
+  WriteBehindMetrics(MetricMaker metrics) {
+    Field<String> F_NAME = Field.ofString("cache_name", Metadata.Builder::cacheName).build();
+
+    CallbackMetric1<String, Long> depth =
+        metrics.newCallbackMetric(
+            "caches/disk_write_queue_depth",
+            Long.class,
+            new Description("Writes waiting to be stored by persistent cache")
+                .setGauge()
+                .setUnit("writes"),
+            F_NAME);
+    metrics.newTrigger(
+        depth,
+        () -> {
+          for (Map.Entry<String, WriteBehindQueue<?, ?>> e : queues.entrySet()) {
+            depth.set(e.getKey(), (long) e.getValue().size());
+          }
+          depth.prune();
+        });
+
+    batchSize =
+        metrics.newHistogram(
+            "caches/disk_write_batch_size",
+            new Description("Writes stored in a single transaction by persistent cache")
+                .setCumulative()
+                .setUnit("writes"),
+            F_NAME);
+    dropped =
+        metrics.newCounter(
+            "caches/disk_writes_dropped",
+            new Description("Writes dropped because the write queue of persistent cache was full")
+                .setRate()
+                .setUnit("writes"),
+            F_NAME);
+  }
+
+  void register(String name, WriteBehindQueue<?, ?> queue) {
+    queues.put(name, queue);
+  }
+
+  void unregister(String name) {
+    queues.remove(name);
+  }
+
+  void recordBatch(String name, int size) {
+    batchSize.record(name, size);
+  }
+
+  void dropped(String name) {
+    dropped.increment(name);
+  }
+}
@@ -0,0 +1,260 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Coalesces writes to a {@link SqlStore} and applies them in batched transactions on a background
+ * executor.
+ *
+ * <p>Puts and invalidations of the same key replace each other while pending, so only the latest
+ * one is written. Access time updates of entries read from the store are queued as well instead of
+ * issuing an UPDATE on the reading thread. A flush is scheduled when the first write is queued;
+ * everything queued while the executor is busy is written by that flush in a single transaction,
+ * up to {@link #MAX_BATCH_SIZE} writes.
+ *
+ * <p>The number of pending writes is bounded. When the queue is full, puts wait up to {@link
+ * #MAX_WAIT_MS} for a flush to make room and are dropped afterwards, the value then only lives in
+ * the in-memory cache. Access time updates are dropped right away, as they only affect the order
+ * in which entries are pruned. Invalidations are never dropped.
+ *
+ * <p>Entries stay pending until the transaction that writes them is committed, so that a reader
+ * always finds a value either in the queue or in the store. Only one batch is written at a time; if
+ * the transaction fails, its entries are kept and retried by the next flush.
+ */
+class WriteBehindQueue<K, V> {
+  static final int MAX_BATCH_SIZE = 1000;
+  static final long MAX_WAIT_MS = 100;
+
+  private final String name;
+  private final Executor executor;
+  private final SqlStore<K, V> store;
+  private final WriteBehindMetrics metrics;
+  private final int maxPending;
+
+  private final LinkedHashMap<K, Optional<ValueHolder<V>>> writes = new LinkedHashMap<>();
+  private final LinkedHashSet<K> touches = new LinkedHashSet<>();
+  private boolean scheduled;
+  private boolean writing;
+
+  WriteBehindQueue(
+      String name,
+      Executor executor,
+      SqlStore<K, V> store,
+      WriteBehindMetrics metrics,
+      int maxPending) {
+    this.name = name;
+    this.executor = executor;
+    this.store = store;
+    this.metrics = metrics;
+    this.maxPending = maxPending;
+    metrics.register(name, this);
+  }
+
+  SqlStore<K, V> store() {
+    return store;
+  }
+
+  /**
+   * Look up a key, first in the pending writes and then in the store.
+   *
+   * @param key key to look up.
+   * @return value holder, or null if the key is neither pending nor stored.
+   */
+  @Nullable
+  ValueHolder<V> getIfPresent(K key) {
+    synchronized (this) {
+      if (writes.containsKey(key)) {
+        return writes.get(key).orElse(null);
+      }
+    }
+    if (!store.mightContain(key)) {
+      return null;
+    }
+    ValueHolder<V> h = store.getIfPresent(key);
+    if (h != null) {
+      touch(key);
+    }
+    return h;
+  }
+
+  void put(K key, ValueHolder<V> h) {
+    synchronized (this) {
+      if (!writes.containsKey(key) && !awaitCapacity()) {
+        metrics.dropped(name);
+        return;
+      }
+      writes.put(key, Optional.of(h));
+      touches.remove(key);
+      schedule();
+    }
+  }
+
+  void invalidate(K key) {
+    boolean mightContain = store.mightContain(key);
+    synchronized (this) {
+      touches.remove(key);
+      if (writes.remove(key) != null || mightContain) {
+        writes.put(key, Optional.empty());
+        schedule();
+      }
+    }
+  }
+
+  /** Drop all pending writes, waiting for a batch that is being written to be committed. */
+  synchronized void invalidateAll() {
+    awaitWriter();
+    writes.clear();
+    touches.clear();
+    notifyAll();
+  }
+
+  synchronized int size() {
+    return writes.size() + touches.size();
+  }
+
+  /**
+   * Write all pending writes on the calling thread and stop reporting metrics.
+   *
+   * <p>Waits for a flush that is running on the executor to finish first.
+   */
+  void close() {
+    while (writeBatch()) {
+      // Keep going until the queue is drained.
+    }
+    metrics.unregister(name);
+  }
+
+  private void touch(K key) {
+    synchronized (this) {
+      if (writes.containsKey(key) || touches.contains(key)) {
+        return;
+      }
+      if (size() >= maxPending) {
+        metrics.dropped(name);
+        return;
+      }
+      touches.add(key);
+      schedule();
+    }
+  }
+
+  private boolean awaitCapacity() {
+    long deadline = System.nanoTime() + MILLISECONDS.toNanos(MAX_WAIT_MS);
+    while (size() >= maxPending) {
+      long left = deadline - System.nanoTime();
+      if (left <= 0) {
+        return false;
+      }
+      try {
+        NANOSECONDS.timedWait(this, left);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void schedule() {
+    if (!scheduled) {
+      scheduled = true;
+      executor.execute(this::flush);
+    }
+  }
+
+  private void flush() {
+    boolean written = writeBatch();
+    synchronized (this) {
+      scheduled = false;
+      if (written && size() > 0) {
+        // Re-submit instead of looping so that other caches sharing the executor get a turn.
+        schedule();
+      }
+    }
+  }
+
+  /** Wait until no other thread is writing a batch. Must be called while holding the lock. */
+  private void awaitWriter() {
+    boolean interrupted = false;
+    while (writing) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Write the oldest pending entries to the store.
+   *
+   * @return true if a batch was committed, false if nothing was pending or the write failed.
+   */
+  private boolean writeBatch() {
+    Map<K, Optional<ValueHolder<V>>> batchWrites = new LinkedHashMap<>();
+    Set<K> batchTouches = new LinkedHashSet<>();
+    synchronized (this) {
+      awaitWriter();
+      if (size() == 0) {
+        return false;
+      }
+      writing = true;
+      Iterator<Map.Entry<K, Optional<ValueHolder<V>>>> wi = writes.entrySet().iterator();
+      while (wi.hasNext() && batchWrites.size() < MAX_BATCH_SIZE) {
+        Map.Entry<K, Optional<ValueHolder<V>>> e = wi.next();
+        batchWrites.put(e.getKey(), e.getValue());
+      }
+      Iterator<K> ti = touches.iterator();
+      while (ti.hasNext() && batchWrites.size() + batchTouches.size() < MAX_BATCH_SIZE) {
+        batchTouches.add(ti.next());
+      }
+    }
+    boolean committed = false;
+    try {
+      metrics.recordBatch(name, batchWrites.size() + batchTouches.size());
+      committed = store.write(batchWrites, batchTouches);
+    } finally {
+      synchronized (this) {
+        if (committed) {
+          // Entries replaced while the batch was written are still pending.
+          for (Map.Entry<K, Optional<ValueHolder<V>>> e : batchWrites.entrySet()) {
+            writes.remove(e.getKey(), e.getValue());
+          }
+          touches.removeAll(batchTouches);
+        }
+        writing = false;
+        notifyAll();
+      }
+    }
+    return committed;
+  }
+}
@@ -0,0 +1,171 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.server.cache.CacheBackend;
+import com.google.gerrit.server.cache.MemoryCacheFactory;
+import com.google.gerrit.server.cache.PersistentCacheDef;
+import com.google.gerrit.server.cache.PersistentCacheFactory;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Creates persistent caches stored in memory-mapped segment files below {@code cache.directory}.
+ * If the cache.directory property is unset, it will fall back to in-memory caches.
+ *
+ * <p>Caches are selected for this backend with {@code cache.<name>.diskType = mmap}.
+ */
+@Singleton
+public class MmapCacheFactory implements PersistentCacheFactory, LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final MemoryCacheFactory memCacheFactory;
+  private final Config config;
+  private final Path cacheDir;
+  private final List<MmapCacheImpl<?, ?>> caches;
+  private final DynamicMap<Cache<?, ?>> cacheMap;
+  private boolean started;
+
+  @Inject
+  MmapCacheFactory(
+      MemoryCacheFactory memCacheFactory,
+      @GerritServerConfig Config cfg,
+      SitePaths site,
+      DynamicMap<Cache<?, ?>> cacheMap) {
+    this.memCacheFactory = memCacheFactory;
+    config = cfg;
+    cacheDir = getCacheDir(site, cfg.getString("cache", null, "directory"));
+    caches = new LinkedList<>();
+    this.cacheMap = cacheMap;
+  }
+
+  private static Path getCacheDir(SitePaths site, String name) {
+    if (name == null) {
+      return null;
+    }
+    Path loc = site.resolve(name);
+    try {
+      Files.createDirectories(loc);
+    } catch (IOException e) {
+      logger.atWarning().log("Can't create disk cache: %s", loc.toAbsolutePath());
+      return null;
+    }
+    if (!Files.isWritable(loc)) {
+      logger.atWarning().log("Can't write to disk cache: %s", loc.toAbsolutePath());
+      return null;
+    }
+    return loc;
+  }
+
+  @Override
+  public void start() {
+    synchronized (caches) {
+      started = true;
+      for (MmapCacheImpl<?, ?> cache : caches) {
+        cache.start();
+      }
+    }
+  }
+
+  @Override
+  public void stop() {
+    synchronized (caches) {
+      for (MmapCacheImpl<?, ?> cache : caches) {
+        cache.stop();
+      }
+    }
+  }
+
+  @Override
+  public <K, V> Cache<K, V> build(PersistentCacheDef<K, V> def, CacheBackend backend) {
+    long limit = config.getLong("cache", def.configKey(), "diskLimit", def.diskLimit());
+
+    if (cacheDir == null || limit <= 0) {
+      return memCacheFactory.build(def, backend);
+    }
+
+    MmapStore<K, V> store = newStore(def, limit);
+    return register(new MmapCacheImpl<>(store, def.keyType(), memCacheFactory.build(def, backend)));
+  }
+
+  @Override
+  public <K, V> LoadingCache<K, V> build(
+      PersistentCacheDef<K, V> def, CacheLoader<K, V> loader, CacheBackend backend) {
+    long limit = config.getLong("cache", def.configKey(), "diskLimit", def.diskLimit());
+
+    if (cacheDir == null || limit <= 0) {
+      return memCacheFactory.build(def, loader, backend);
+    }
+
+    MmapStore<K, V> store = newStore(def, limit);
+    Cache<K, V> mem =
+        memCacheFactory.build(def, new MmapCacheImpl.Loader<>(store, loader), backend);
+    return register(new MmapCacheImpl<>(store, def.keyType(), mem));
+  }
+
+  @Override
+  public void onStop(String plugin) {
+    synchronized (caches) {
+      for (Map.Entry<String, Provider<Cache<?, ?>>> entry : cacheMap.byPlugin(plugin).entrySet()) {
+        Cache<?, ?> cache = entry.getValue().get();
+        if (caches.remove(cache)) {
+          ((MmapCacheImpl<?, ?>) cache).stop();
+        }
+      }
+    }
+  }
+
+  private <K, V> MmapCacheImpl<K, V> register(MmapCacheImpl<K, V> cache) {
+    synchronized (caches) {
+      caches.add(cache);
+      if (started) {
+        // Caches of plugins are created after the server has started.
+        cache.start();
+      }
+    }
+    return cache;
+  }
+
+  private <K, V> MmapStore<K, V> newStore(PersistentCacheDef<K, V> def, long maxSize) {
+    int segmentSize =
+        (int)
+            config.getLong(
+                "cache", def.configKey(), "segmentSize", MmapStore.segmentSize(maxSize));
+    return new MmapStore<>(
+        cacheDir.resolve(def.name() + ".mmap"),
+        def.keySerializer(),
+        def.valueSerializer(),
+        def.version(),
+        maxSize,
+        Math.max(MmapStore.MIN_SEGMENT_SIZE, Math.min(MmapStore.MAX_SEGMENT_SIZE, segmentSize)),
+        def.expireAfterWrite());
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.gerrit.server.cache.PersistentCache;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.gerrit.server.logging.TraceContext;
+import com.google.gerrit.server.logging.TraceContext.TraceTimer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.inject.TypeLiteral;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Hybrid in-memory and memory-mapped file backed cache.
+ *
+ * <p>Like the H2 backed cache, the in-memory cache is checked first, then the {@link MmapStore},
+ * and finally the CacheLoader is used to construct the item. Since a store lookup is a hash probe
+ * in an off-heap table and a copy out of a mapped file, stores are written on the calling thread
+ * and no background executor is involved.
+ *
+ * <p>This cache does not export its items as a ConcurrentMap.
+ *
+ * @see MmapCacheFactory
+ */
+public class MmapCacheImpl<K, V> extends AbstractLoadingCache<K, V> implements PersistentCache {
+  private final MmapStore<K, V> store;
+  private final TypeLiteral<K> keyType;
+  private final Cache<K, V> mem;
+
+  MmapCacheImpl(MmapStore<K, V> store, TypeLiteral<K> keyType, Cache<K, V> mem) {
+    this.store = store;
+    this.keyType = keyType;
+    this.mem = mem;
+  }
+
+  @Override
+  public V getIfPresent(Object objKey) {
+    if (!keyType.getRawType().isInstance(objKey)) {
+      return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    K key = (K) objKey;
+
+    V val = mem.getIfPresent(key);
+    if (val != null) {
+      return val;
+    }
+
+    val = store.getIfPresent(key);
+    if (val != null) {
+      mem.put(key, val);
+    }
+    return val;
+  }
+
+  @Override
+  public V get(K key) throws ExecutionException {
+    if (mem instanceof LoadingCache) {
+      return ((LoadingCache<K, V>) mem).get(key);
+    }
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+    return mem.get(
+        key,
+        () -> {
+          V val = store.getIfPresent(key);
+          if (val == null) {
+            val = valueLoader.call();
+            store.put(key, val, TimeUtil.nowMs());
+          }
+          return val;
+        });
+  }
+
+  @Override
+  public void put(K key, V val) {
+    mem.put(key, val);
+    store.put(key, val, TimeUtil.nowMs());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void invalidate(Object key) {
+    if (keyType.getRawType().isInstance(key)) {
+      store.invalidate((K) key);
+    }
+    mem.invalidate(key);
+  }
+
+  @Override
+  public void invalidateAll() {
+    store.invalidateAll();
+    mem.invalidateAll();
+  }
+
+  @Override
+  public long size() {
+    return mem.size();
+  }
+
+  @Override
+  public CacheStats stats() {
+    return mem.stats();
+  }
+
+  @Override
+  public DiskStats diskStats() {
+    return store.diskStats();
+  }
+
+  void start() {
+    store.open();
+  }
+
+  void stop() {
+    store.close();
+  }
+
+  static class Loader<K, V> extends CacheLoader<K, V> {
+    private final MmapStore<K, V> store;
+    private final CacheLoader<K, V> loader;
+
+    Loader(MmapStore<K, V> store, CacheLoader<K, V> loader) {
+      this.store = store;
+      this.loader = loader;
+    }
+
+    @Override
+    public V load(K key) throws Exception {
+      try (TraceTimer timer =
+          TraceContext.newTimer(
+              "Loading value from cache", Metadata.builder().cacheKey(key.toString()).build())) {
+        V val = store.getIfPresent(key);
+        if (val == null) {
+          val = loader.load(key);
+          store.put(key, val, TimeUtil.nowMs());
+        }
+        return val;
+      }
+    }
+  }
+}
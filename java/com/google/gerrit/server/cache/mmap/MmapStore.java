@@ -0,0 +1,532 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Append-only store of serialized cache entries in memory-mapped segment files.
+ *
+ * <p>Each segment starts with a header holding a magic number and the cache version, followed by
+ * records of the form {@code [type][key length][value length][created][key][value]}. A record is
+ * published by writing its type byte last, so a record torn by a crash is read as the end of the
+ * segment. Invalidations are appended as tombstone records.
+ *
+ * <p>The location of the latest record for each key is kept in an {@link OffHeapIndex} that is
+ * rebuilt by scanning the segments when the store is opened. Keys are compared byte-wise after the
+ * hash lookup, so a hash collision results in a cache miss, never in a wrong value.
+ *
+ * <p>When the segments exceed the configured disk limit, or the index can't hold more entries, the
+ * oldest segment is dropped as a whole, i.e. entries are evicted in the order in which they were
+ * written. The mapping of a dropped segment is released right away. Reads never write to disk.
+ */
+class MmapStore<K, V> {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+  private static final int MAGIC = 0x4d4d4331; // MMC1
+  private static final int SEGMENT_HEADER_SIZE = 8;
+  private static final int RECORD_HEADER_SIZE = 17;
+  private static final byte END = 0;
+  private static final byte VALUE = 1;
+  private static final byte TOMBSTONE = 2;
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  static final int MIN_SEGMENT_SIZE = 1 << 20;
+  static final int MAX_SEGMENT_SIZE = 256 << 20;
+
+  private final Path dir;
+  private final CacheSerializer<K> keySerializer;
+  private final CacheSerializer<V> valueSerializer;
+  private final int version;
+  private final long maxSize;
+  private final int segmentSize;
+  @Nullable private final Duration expireAfterWrite;
+  private final int maxIndexSlots;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private OffHeapIndex index;
+  private Segment current;
+
+  MmapStore(
+      Path dir,
+      CacheSerializer<K> keySerializer,
+      CacheSerializer<V> valueSerializer,
+      int version,
+      long maxSize,
+      int segmentSize,
+      @Nullable Duration expireAfterWrite) {
+    this(
+        dir,
+        keySerializer,
+        valueSerializer,
+        version,
+        maxSize,
+        segmentSize,
+        expireAfterWrite,
+        OffHeapIndex.MAX_SLOTS);
+  }
+
+  @VisibleForTesting
+  MmapStore(
+      Path dir,
+      CacheSerializer<K> keySerializer,
+      CacheSerializer<V> valueSerializer,
+      int version,
+      long maxSize,
+      int segmentSize,
+      @Nullable Duration expireAfterWrite,
+      int maxIndexSlots) {
+    this.dir = dir;
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+    this.version = version;
+    this.maxSize = maxSize;
+    this.segmentSize = segmentSize;
+    this.expireAfterWrite = expireAfterWrite;
+    this.maxIndexSlots = maxIndexSlots;
+  }
+
+  static int segmentSize(long maxSize) {
+    return (int) Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, maxSize / 4));
+  }
+
+  void open() {
+    lock.writeLock().lock();
+    try {
+      if (index != null) {
+        return;
+      }
+      Files.createDirectories(dir);
+      OffHeapIndex idx = new OffHeapIndex(maxIndexSlots);
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+        for (Path p : files) {
+          Integer id = segmentId(p);
+          if (id == null) {
+            continue;
+          }
+          Segment s = Segment.map(p, id, segmentSize);
+          if (s.magic() != MAGIC || s.version() != version) {
+            logger.atInfo().log("Dropping segment %s not matching version %d", p, version);
+            s.unmap();
+            Files.delete(p);
+            continue;
+          }
+          segments.put(id, s);
+        }
+      }
+      for (Segment s : segments.values()) {
+        scan(s, idx);
+      }
+      index = idx;
+      if (segments.isEmpty()) {
+        current = newSegment(0);
+      } else {
+        current = segments.lastEntry().getValue();
+      }
+      evict();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot open disk cache %s", dir);
+      unmapAll();
+      index = null;
+      current = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  void close() {
+    lock.writeLock().lock();
+    try {
+      for (Segment s : segments.values()) {
+        s.force();
+      }
+      unmapAll();
+      index = null;
+      current = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Nullable
+  V getIfPresent(K key) {
+    byte[] k = keySerializer.serialize(key);
+    long hash = hash(k);
+    lock.readLock().lock();
+    try {
+      if (index == null) {
+        missCount.incrementAndGet();
+        return null;
+      }
+      long loc = index.get(hash);
+      if (loc == OffHeapIndex.EMPTY) {
+        missCount.incrementAndGet();
+        return null;
+      }
+
+      ByteBuffer buf = segments.get(segmentOf(loc)).buf.duplicate();
+      buf.position(offsetOf(loc) + 1);
+      int keyLen = buf.getInt();
+      int valLen = buf.getInt();
+      long created = buf.getLong();
+      byte[] storedKey = new byte[keyLen];
+      buf.get(storedKey);
+      if (!Arrays.equals(k, storedKey) || expired(created)) {
+        missCount.incrementAndGet();
+        return null;
+      }
+      byte[] v = new byte[valLen];
+      buf.get(v);
+      V val = valueSerializer.deserialize(v);
+      hitCount.incrementAndGet();
+      return val;
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot read cache %s for %s", dir, key);
+      missCount.incrementAndGet();
+      return null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  void put(K key, V value, long created) {
+    byte[] k = keySerializer.serialize(key);
+    byte[] v = valueSerializer.serialize(value);
+    if (SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + (long) k.length + v.length > segmentSize) {
+      logger.atFine().log("Value for %s too large for disk cache %s", key, dir);
+      return;
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (index == null) {
+        return;
+      }
+      int off = append(VALUE, k, v, created);
+      long hash = hash(k);
+      long loc = location(current.id, off);
+      while (!index.put(hash, loc)) {
+        if (segments.size() <= 1) {
+          logger.atWarning().atMostEvery(1, TimeUnit.MINUTES).log(
+              "Disk cache %s holds the maximum number of entries, not storing more", dir);
+          break;
+        }
+        logger.atWarning().atMostEvery(1, TimeUnit.MINUTES).log(
+            "Disk cache %s holds the maximum number of entries, evicting the oldest segment", dir);
+        evictOldest();
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot put into cache %s", dir);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  void invalidate(K key) {
+    byte[] k = keySerializer.serialize(key);
+    lock.writeLock().lock();
+    try {
+      if (index == null || index.remove(hash(k)) == OffHeapIndex.EMPTY) {
+        return;
+      }
+      append(TOMBSTONE, k, new byte[0], TimeUtil.nowMs());
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot invalidate cache %s", dir);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  void invalidateAll() {
+    lock.writeLock().lock();
+    try {
+      if (index == null) {
+        return;
+      }
+      int next = current.id + 1;
+      for (Segment s : segments.values()) {
+        s.unmap();
+        Files.deleteIfExists(s.path);
+      }
+      segments.clear();
+      index.clear();
+      current = newSegment(next);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot invalidate cache %s", dir);
+      unmapAll();
+      index = null;
+      current = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  DiskStats diskStats() {
+    lock.readLock().lock();
+    try {
+      long space = 0;
+      for (Segment s : segments.values()) {
+        space += s.writePos - SEGMENT_HEADER_SIZE;
+      }
+      long size = index != null ? index.size() : 0;
+      return new DiskStats(size, space, hitCount.get(), missCount.get());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private int append(byte type, byte[] k, byte[] v, long created) throws IOException {
+    int len = RECORD_HEADER_SIZE + k.length + v.length;
+    if (current.writePos + len > current.buf.capacity()) {
+      current.force();
+      current = newSegment(current.id + 1);
+      evict();
+    }
+    return current.append(type, k, v, created);
+  }
+
+  private void evict() throws IOException {
+    while (segments.size() > 1 && (long) segments.size() * segmentSize > maxSize) {
+      evictOldest();
+    }
+  }
+
+  private void evictOldest() throws IOException {
+    Map.Entry<Integer, Segment> oldest = segments.pollFirstEntry();
+    index.removeSegment(oldest.getKey());
+    // Readers access segments only while holding the read lock, so nothing reads the buffer after
+    // it was unmapped.
+    oldest.getValue().unmap();
+    Files.deleteIfExists(oldest.getValue().path);
+  }
+
+  private void unmapAll() {
+    for (Segment s : segments.values()) {
+      s.unmap();
+    }
+    segments.clear();
+  }
+
+  private Segment newSegment(int id) throws IOException {
+    Path p = dir.resolve(String.format("%08d%s", id, SEGMENT_SUFFIX));
+    Segment s = Segment.create(p, id, segmentSize, version);
+    segments.put(id, s);
+    return s;
+  }
+
+  private void scan(Segment s, OffHeapIndex idx) {
+    ByteBuffer buf = s.buf;
+    int pos = SEGMENT_HEADER_SIZE;
+    while (pos + RECORD_HEADER_SIZE <= buf.capacity()) {
+      byte type = buf.get(pos);
+      if (type != VALUE && type != TOMBSTONE) {
+        break;
+      }
+      int keyLen = buf.getInt(pos + 1);
+      int valLen = buf.getInt(pos + 5);
+      if (keyLen < 0
+          || valLen < 0
+          || (long) pos + RECORD_HEADER_SIZE + keyLen + valLen > buf.capacity()) {
+        break;
+      }
+      byte[] k = new byte[keyLen];
+      ByteBuffer r = buf.duplicate();
+      r.position(pos + RECORD_HEADER_SIZE);
+      r.get(k);
+      if (type == VALUE) {
+        if (!idx.put(hash(k), location(s.id, pos))) {
+          logger.atWarning().atMostEvery(1, TimeUnit.MINUTES).log(
+              "Disk cache %s holds the maximum number of entries, not indexing more", dir);
+        }
+      } else {
+        idx.remove(hash(k));
+      }
+      pos += RECORD_HEADER_SIZE + keyLen + valLen;
+    }
+    s.writePos = pos;
+    if (pos < buf.capacity() && buf.get(pos) != END) {
+      // Clear what is left of a torn write, so that it can't be read as a record once later
+      // appends overwrite its beginning.
+      logger.atWarning().log("Truncating corrupt disk cache segment %s at %d", s.path, pos);
+      for (int i = pos; i < buf.capacity(); i++) {
+        buf.put(i, END);
+      }
+    }
+  }
+
+  private boolean expired(long created) {
+    if (expireAfterWrite == null) {
+      return false;
+    }
+    return TimeUtil.nowMs() - created > expireAfterWrite.toMillis();
+  }
+
+  @Nullable
+  private static Integer segmentId(Path p) {
+    String name = p.getFileName().toString();
+    try {
+      return Integer.valueOf(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static long hash(byte[] key) {
+    return Hashing.murmur3_128().hashBytes(key).asLong();
+  }
+
+  private static long location(int segment, int offset) {
+    return ((long) segment << 32) | offset;
+  }
+
+  private static int segmentOf(long location) {
+    return (int) (location >>> 32);
+  }
+
+  private static int offsetOf(long location) {
+    return (int) location;
+  }
+
+  private static class Segment {
+    final int id;
+    final Path path;
+    final MappedByteBuffer buf;
+    int writePos;
+
+    static Segment create(Path path, int id, int size, int version) throws IOException {
+      Files.deleteIfExists(path);
+      Segment s = map(path, id, size);
+      s.buf.putInt(0, MAGIC);
+      s.buf.putInt(4, version);
+      s.writePos = SEGMENT_HEADER_SIZE;
+      return s;
+    }
+
+    static Segment map(Path path, int id, int size) throws IOException {
+      try (FileChannel ch =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE)) {
+        long len = Math.max(size, ch.size());
+        return new Segment(id, path, ch.map(FileChannel.MapMode.READ_WRITE, 0, len));
+      }
+    }
+
+    private Segment(int id, Path path, MappedByteBuffer buf) {
+      this.id = id;
+      this.path = path;
+      this.buf = buf;
+    }
+
+    int magic() {
+      return buf.getInt(0);
+    }
+
+    int version() {
+      return buf.getInt(4);
+    }
+
+    int append(byte type, byte[] k, byte[] v, long created) {
+      int off = writePos;
+      ByteBuffer b = buf.duplicate();
+      b.position(off + 1);
+      b.putInt(k.length).putInt(v.length).putLong(created).put(k).put(v);
+      buf.put(off, type);
+      writePos = b.position();
+      return off;
+    }
+
+    void force() {
+      buf.force();
+    }
+
+    /**
+     * Releases the mapping right away. Otherwise it is only released once the buffer is garbage
+     * collected, which keeps the disk space of a deleted segment file in use until then. The
+     * buffer must not be accessed afterwards.
+     */
+    void unmap() {
+      UNMAPPER.accept(buf);
+    }
+  }
+
+  private static Consumer<ByteBuffer> unmapper() {
+    try {
+      // Java 9 and later.
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+      return buf -> invoke(invokeCleaner, unsafe, buf);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Fall through to the Java 8 API.
+    }
+    try {
+      Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+      Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      return buf -> {
+        Object c = invoke(cleaner, buf);
+        if (c != null) {
+          invoke(clean, c);
+        }
+      };
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.atInfo().withCause(e).log(
+          "Cannot unmap disk cache segments, mappings are released by garbage collection");
+      return buf -> {};
+    }
+  }
+
+  @Nullable
+  private static Object invoke(Method method, Object target, Object... args) {
+    try {
+      return method.invoke(target, args);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot unmap disk cache segment");
+      return null;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.nio.ByteBuffer;
+
+/**
+ * Open addressing hash table mapping 64-bit key hashes to record locations.
+ *
+ * <p>The table lives in a direct {@link ByteBuffer}, so a cache with millions of entries on disk
+ * does not hold any per-entry objects on the Java heap. Each slot is 16 bytes: the key hash
+ * followed by the location of the most recent record for that key.
+ *
+ * <p>Locations are always positive; {@link #EMPTY} marks a slot that was never used and {@code
+ * DELETED} a slot whose entry was removed, which must be kept to preserve the probe sequence.
+ *
+ * <p>This class is not thread safe; callers must synchronize access.
+ */
+class OffHeapIndex {
+  static final long EMPTY = 0;
+
+  private static final long DELETED = -1;
+  private static final int SLOT_SIZE = 16;
+  private static final int MIN_SLOTS = 1 << 12;
+  static final int MAX_SLOTS = 1 << 26;
+
+  private final int maxSlots;
+  private ByteBuffer table;
+  private int mask;
+  private int used;
+  private int size;
+
+  OffHeapIndex() {
+    this(MAX_SLOTS);
+  }
+
+  @VisibleForTesting
+  OffHeapIndex(int maxSlots) {
+    checkArgument(
+        Integer.bitCount(maxSlots) == 1 && maxSlots >= MIN_SLOTS,
+        "maxSlots must be a power of two not smaller than %s",
+        MIN_SLOTS);
+    this.maxSlots = maxSlots;
+    allocate(MIN_SLOTS);
+  }
+
+  /** @return number of live entries. */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Look up the location for a key hash.
+   *
+   * @param hash hash of the serialized key.
+   * @return location of the record, or {@link #EMPTY} if the hash is unknown.
+   */
+  long get(long hash) {
+    int slot = find(hash);
+    return slot >= 0 ? location(slot) : EMPTY;
+  }
+
+  /**
+   * Store the location for a key hash, replacing any previous location.
+   *
+   * <p>Once the table reached its maximum size and is full, new hashes are not stored; callers
+   * should remove entries, e.g. by evicting a segment, and try again.
+   *
+   * @param hash hash of the serialized key.
+   * @param location location of the record, must be positive.
+   * @return whether the location was stored; false if the table is full.
+   */
+  boolean put(long hash, long location) {
+    int slot = find(hash);
+    if (slot >= 0) {
+      setSlot(slot, hash, location);
+      return true;
+    }
+
+    if (used + 1 > capacity() / 2) {
+      int slots = size + 1 > capacity() / 4 ? capacity() * 2 : capacity();
+      if (slots > maxSlots) {
+        // Rehashing in place only drops deleted slots. Keep enough free slots that this isn't
+        // repeated on every put.
+        if (size + 1 > maxSlots / 8 * 3) {
+          return false;
+        }
+        slots = maxSlots;
+      }
+      rehash(slots);
+    }
+    insert(hash, location);
+    return true;
+  }
+
+  /**
+   * Remove the entry for a key hash.
+   *
+   * @param hash hash of the serialized key.
+   * @return previous location of the record, or {@link #EMPTY} if the hash was unknown.
+   */
+  long remove(long hash) {
+    int slot = find(hash);
+    if (slot < 0) {
+      return EMPTY;
+    }
+    long old = location(slot);
+    setSlot(slot, hash, DELETED);
+    size--;
+    return old;
+  }
+
+  /**
+   * Remove all entries whose location is within the given segment.
+   *
+   * @param segment segment number, as encoded in the upper 32 bits of a location.
+   */
+  void removeSegment(int segment) {
+    for (int slot = 0; slot < capacity(); slot++) {
+      long loc = location(slot);
+      if (loc != EMPTY && loc != DELETED && (int) (loc >>> 32) == segment) {
+        setSlot(slot, hash(slot), DELETED);
+        size--;
+      }
+    }
+  }
+
+  /** Remove all entries and release the table memory beyond the initial size. */
+  void clear() {
+    allocate(MIN_SLOTS);
+  }
+
+  private int find(long hash) {
+    int slot = spread(hash) & mask;
+    for (int probes = 0; probes < capacity(); probes++) {
+      long loc = location(slot);
+      if (loc == EMPTY) {
+        return -1;
+      }
+      if (loc != DELETED && hash(slot) == hash) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private void insert(long hash, long location) {
+    int slot = spread(hash) & mask;
+    while (true) {
+      long loc = location(slot);
+      if (loc == EMPTY || loc == DELETED) {
+        if (loc == EMPTY) {
+          used++;
+        }
+        setSlot(slot, hash, location);
+        size++;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private void rehash(int slots) {
+    ByteBuffer old = table;
+    int oldCapacity = capacity();
+    allocate(slots);
+    for (int slot = 0; slot < oldCapacity; slot++) {
+      long loc = old.getLong(slot * SLOT_SIZE + 8);
+      if (loc != EMPTY && loc != DELETED) {
+        insert(old.getLong(slot * SLOT_SIZE), loc);
+      }
+    }
+  }
+
+  private void allocate(int slots) {
+    table = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+    mask = slots - 1;
+    used = 0;
+    size = 0;
+  }
+
+  private int capacity() {
+    return mask + 1;
+  }
+
+  private long hash(int slot) {
+    return table.getLong(slot * SLOT_SIZE);
+  }
+
+  private long location(int slot) {
+    return table.getLong(slot * SLOT_SIZE + 8);
+  }
+
+  private void setSlot(int slot, long hash, long location) {
+    table.putLong(slot * SLOT_SIZE, hash);
+    table.putLong(slot * SLOT_SIZE + 8, location);
+  }
+
+  private static int spread(long hash) {
+    return (int) (hash ^ (hash >>> 32));
+  }
+}
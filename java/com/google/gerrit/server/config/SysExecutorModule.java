@@ -48,7 +48,7 @@ public class SysExecutorModule extends AbstractModule {
     int poolSize =
         config.getInt(
             "receive", null, "threadPoolSize", Runtime.getRuntime().availableProcessors());
-    return queues.createQueue(poolSize, "ReceiveCommits", true);
+    return queues.createExecutor(poolSize, "ReceiveCommits", true);
   }
 
   @Provides
@@ -60,7 +60,7 @@ public class SysExecutorModule extends AbstractModule {
     if (poolSize == 0) {
       return MoreExecutors.newDirectExecutorService();
     }
-    return queues.createQueue(poolSize, "SendEmail", true);
+    return queues.createExecutor(poolSize, "SendEmail", true);
   }
 
   @Provides
@@ -71,7 +71,7 @@ public class SysExecutorModule extends AbstractModule {
     if (poolSize == 0) {
       return MoreExecutors.newDirectExecutorService();
     }
-    return queues.createQueue(poolSize, "FanOut");
+    return queues.createExecutor(poolSize, "FanOut", false);
   }
 
   @Provides
@@ -97,4 +97,30 @@ public class SysExecutorModule extends AbstractModule {
                         .build(),
                     new ThreadPoolExecutor.CallerRunsPolicy()))));
   }
+
+  @Provides
+  @Singleton
+  @CommitValidationExecutor
+  public ListeningExecutorService createCommitValidationExecutor(
+      @GerritServerConfig Config config) {
+    int poolSize = config.getInt("receive", null, "commitValidationThreads", 1);
+    if (poolSize <= 1) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    // A thread is started for every task until there are poolSize threads, so that the commits of
+    // a push are validated in parallel. Further threads would only be started once the queue is
+    // full, which it never is for a single push.
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            10,
+            TimeUnit.MINUTES,
+            new ArrayBlockingQueue<>(poolSize),
+            new ThreadFactoryBuilder().setNameFormat("CommitValidation-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return MoreExecutors.listeningDecorator(
+        new LoggingContextAwareExecutorService(MoreExecutors.getExitingExecutorService(executor)));
+  }
 }
@@ -0,0 +1,320 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.IntStream;
+
+/**
+ * Cache of the changes of a project, grouped by destination branch.
+ *
+ * <p>Whether a user can see a change that is not private only depends on whether the user can read
+ * its destination branch. Filtering the change refs of a project therefore only needs one
+ * permission check per branch instead of one per change, see {@link
+ * ChangesByBranch#addChanges(BranchNameKey, BitSet)}. Private changes are kept separately, since
+ * their visibility depends on the owner and the reviewers.
+ *
+ * <p>An entry is loaded from {@link SearchingChangeCacheImpl} once and is then updated
+ * incrementally: changes whose refs were updated are read from NoteDb the next time the entry is
+ * used. Like {@link SearchingChangeCacheImpl}, this relies on ref updates being done on this
+ * server. Updates that happen while an entry is loaded are recorded as well, since the index may
+ * have been queried before they were indexed.
+ */
+@Singleton
+public class ChangesByBranchCache implements GitReferenceUpdatedListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String CACHE_NAME = "changes_by_branch";
+
+  public static class Module extends CacheModule {
+    @Override
+    protected void configure() {
+      cache(CACHE_NAME, Project.NameKey.class, Entry.class)
+          .maximumWeight(0)
+          .weigher(EntryWeigher.class);
+
+      bind(ChangesByBranchCache.class);
+      DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(ChangesByBranchCache.class);
+    }
+  }
+
+  /** Immutable snapshot of the changes of a project. */
+  public static class ChangesByBranch {
+    private static final int[] NO_CHANGES = new int[0];
+
+    @VisibleForTesting
+    static ChangesByBranch create(Iterable<Change> changes) {
+      Map<BranchNameKey, IntStream.Builder> byBranch = new HashMap<>();
+      ImmutableMap.Builder<Change.Id, BranchNameKey> privateChanges = ImmutableMap.builder();
+      for (Change c : changes) {
+        if (c.isPrivate()) {
+          privateChanges.put(c.getId(), c.getDest());
+        } else {
+          byBranch.computeIfAbsent(c.getDest(), b -> IntStream.builder()).add(c.getId().get());
+        }
+      }
+      ImmutableMap.Builder<BranchNameKey, int[]> changesByBranch = ImmutableMap.builder();
+      byBranch.forEach((b, ids) -> changesByBranch.put(b, ids.build().sorted().toArray()));
+      return new ChangesByBranch(changesByBranch.build(), privateChanges.build());
+    }
+
+    /** IDs of changes that are not private, sorted, by destination branch. */
+    private final ImmutableMap<BranchNameKey, int[]> changes;
+
+    private final ImmutableMap<Change.Id, BranchNameKey> privateChanges;
+
+    private ChangesByBranch(
+        ImmutableMap<BranchNameKey, int[]> changes,
+        ImmutableMap<Change.Id, BranchNameKey> privateChanges) {
+      this.changes = changes;
+      this.privateChanges = privateChanges;
+    }
+
+    /** Returns the destination branches of the changes that are not private. */
+    public ImmutableSet<BranchNameKey> branches() {
+      return changes.keySet();
+    }
+
+    /** Sets the bits of the changes that are not private and target the given branch. */
+    public void addChanges(BranchNameKey branch, BitSet ids) {
+      for (int id : changes.getOrDefault(branch, NO_CHANGES)) {
+        ids.set(id);
+      }
+    }
+
+    /** Returns the private changes with their destination branches. */
+    public ImmutableMap<Change.Id, BranchNameKey> privateChanges() {
+      return privateChanges;
+    }
+
+    /** Returns the destination branch of a change, null if the change is unknown. */
+    @Nullable
+    public BranchNameKey branchOf(Change.Id id) {
+      BranchNameKey branch = privateChanges.get(id);
+      if (branch != null) {
+        return branch;
+      }
+      for (Map.Entry<BranchNameKey, int[]> e : changes.entrySet()) {
+        if (Arrays.binarySearch(e.getValue(), id.get()) >= 0) {
+          return e.getKey();
+        }
+      }
+      return null;
+    }
+
+    int size() {
+      return changes.values().stream().mapToInt(ids -> ids.length).sum() + privateChanges.size();
+    }
+
+    /**
+     * Returns a copy with updated changes.
+     *
+     * @param updates new state of changes, empty if the change doesn't exist anymore.
+     */
+    @VisibleForTesting
+    ChangesByBranch update(Map<Change.Id, Optional<Change>> updates) {
+      Map<Change.Id, BranchNameKey> newPrivateChanges = new HashMap<>(privateChanges);
+      SetMultimap<BranchNameKey, Integer> removed = HashMultimap.create();
+      SetMultimap<BranchNameKey, Integer> added = HashMultimap.create();
+      for (Map.Entry<Change.Id, Optional<Change>> e : updates.entrySet()) {
+        Change.Id id = e.getKey();
+        if (newPrivateChanges.remove(id) == null) {
+          BranchNameKey branch = branchOf(id);
+          if (branch != null) {
+            removed.put(branch, id.get());
+          }
+        }
+        if (e.getValue().isPresent()) {
+          Change c = e.getValue().get();
+          if (c.isPrivate()) {
+            newPrivateChanges.put(id, c.getDest());
+          } else {
+            added.put(c.getDest(), id.get());
+          }
+        }
+      }
+
+      Map<BranchNameKey, int[]> newChanges = new HashMap<>(changes);
+      for (BranchNameKey branch : Sets.union(removed.keySet(), added.keySet())) {
+        Set<Integer> removedIds = removed.get(branch);
+        int[] ids =
+            IntStream.concat(
+                    Arrays.stream(changes.getOrDefault(branch, NO_CHANGES))
+                        .filter(id -> !removedIds.contains(id)),
+                    added.get(branch).stream().mapToInt(Integer::intValue))
+                .sorted()
+                .distinct()
+                .toArray();
+        if (ids.length > 0) {
+          newChanges.put(branch, ids);
+        } else {
+          newChanges.remove(branch);
+        }
+      }
+      return new ChangesByBranch(
+          ImmutableMap.copyOf(newChanges), ImmutableMap.copyOf(newPrivateChanges));
+    }
+  }
+
+  /** Cache entry holding the current snapshot and the changes that were updated since. */
+  static class Entry {
+    private final Set<Change.Id> pending = ConcurrentHashMap.newKeySet();
+    private volatile ChangesByBranch changes;
+  }
+
+  public static class EntryWeigher implements Weigher<Project.NameKey, Entry> {
+    @Override
+    public int weigh(Project.NameKey key, Entry value) {
+      return 1 + value.changes.size();
+    }
+  }
+
+  private final Cache<Project.NameKey, Entry> cache;
+  private final SearchingChangeCacheImpl changeCache;
+  private final ChangeNotes.Factory notesFactory;
+
+  /** Entries that are being loaded and are not visible in the cache yet. */
+  private final ConcurrentHashMap<Project.NameKey, Entry> loading = new ConcurrentHashMap<>();
+
+  @Inject
+  ChangesByBranchCache(
+      @Named(CACHE_NAME) Cache<Project.NameKey, Entry> cache,
+      SearchingChangeCacheImpl changeCache,
+      ChangeNotes.Factory notesFactory) {
+    this.cache = cache;
+    this.changeCache = changeCache;
+    this.notesFactory = notesFactory;
+  }
+
+  /**
+   * Get the changes of a project.
+   *
+   * @param project project to read.
+   * @return the changes of the project, as known to the secondary index when the entry was loaded
+   *     and updated from NoteDb since.
+   */
+  public ChangesByBranch get(Project.NameKey project) {
+    Entry entry;
+    try {
+      entry = cache.get(project, () -> load(project));
+    } catch (ExecutionException e) {
+      logger.atWarning().withCause(e).log("Cannot fetch changes for %s", project);
+      return ChangesByBranch.create(ImmutableSet.of());
+    }
+    // The entry is in the cache now, from where it receives further updates.
+    loading.remove(project, entry);
+    if (entry.pending.isEmpty()) {
+      return entry.changes;
+    }
+    synchronized (entry) {
+      Map<Change.Id, Optional<Change>> updates = new HashMap<>();
+      List<Change.Id> failed = new ArrayList<>();
+      for (Iterator<Change.Id> it = entry.pending.iterator(); it.hasNext(); ) {
+        Change.Id id = it.next();
+        // Remove before reading, so that an update racing with the read is applied next time.
+        it.remove();
+        try {
+          updates.put(id, readChange(project, id));
+        } catch (StorageException e) {
+          logger.atWarning().withCause(e).log("Cannot read change %s of %s", id, project);
+          failed.add(id);
+        }
+      }
+      // Retry failed changes next time, until then their previous state is used.
+      entry.pending.addAll(failed);
+      if (!updates.isEmpty()) {
+        entry.changes = entry.changes.update(updates);
+      }
+      return entry.changes;
+    }
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    if (!event.getRefName().startsWith(RefNames.REFS_CHANGES)) {
+      return;
+    }
+    Change.Id id = Change.Id.fromRef(event.getRefName());
+    if (id == null) {
+      return;
+    }
+    Project.NameKey project = Project.nameKey(event.getProjectName());
+    // Check the loading entries first: a loaded entry is added to the cache before it is removed
+    // from there.
+    Entry entry = loading.get(project);
+    if (entry == null) {
+      entry = cache.getIfPresent(project);
+    }
+    if (entry != null) {
+      entry.pending.add(id);
+    }
+  }
+
+  private Entry load(Project.NameKey project) {
+    Entry entry = new Entry();
+    loading.put(project, entry);
+    try {
+      entry.changes =
+          ChangesByBranch.create(
+              () -> changeCache.getChangeData(project).stream().map(ChangeData::change).iterator());
+    } catch (RuntimeException e) {
+      loading.remove(project, entry);
+      throw e;
+    }
+    return entry;
+  }
+
+  private Optional<Change> readChange(Project.NameKey project, Change.Id id) {
+    try {
+      return Optional.of(notesFactory.createChecked(project, id).getChange());
+    } catch (NoSuchChangeException e) {
+      return Optional.empty();
+    }
+  }
+}
@@ -74,7 +74,9 @@ public class SearchingChangeCacheImpl implements GitReferenceUpdatedListener {
     protected void configure() {
       if (slave) {
         bind(SearchingChangeCacheImpl.class).toProvider(Providers.of(null));
+        bind(ChangesByBranchCache.class).toProvider(Providers.of(null));
       } else {
+        install(new ChangesByBranchCache.Module());
         cache(ID_CACHE, Project.NameKey.class, new TypeLiteral<List<CachedChange>>() {})
             .maximumWeight(0)
             .loader(Loader.class);
@@ -17,17 +17,20 @@ package com.google.gerrit.server.git;
 import static java.util.stream.Collectors.toList;
 
 import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.ScheduleConfig.Schedule;
 import com.google.gerrit.server.logging.LoggingContext;
 import com.google.gerrit.server.logging.LoggingContextAwareRunnable;
 import com.google.gerrit.server.util.IdGenerator;
+import com.google.gerrit.server.util.VirtualThreads;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.lang.Thread.UncaughtExceptionHandler;
@@ -36,13 +39,20 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.RunnableScheduledFuture;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -52,6 +62,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import org.eclipse.jgit.lib.Config;
 
 /** Delayed execution of tasks using a background thread pool. */
@@ -91,18 +102,32 @@ public class WorkQueue {
   private final ScheduledExecutorService defaultQueue;
   private final IdGenerator idGenerator;
   private final MetricMaker metrics;
-  private final CopyOnWriteArrayList<Executor> queues;
+  private final CopyOnWriteArrayList<QueueExecutor> queues;
+  private final ImmutableSet<String> workStealingQueues;
 
   @Inject
   WorkQueue(IdGenerator idGenerator, @GerritServerConfig Config cfg, MetricMaker metrics) {
-    this(idGenerator, Math.max(cfg.getInt("execution", "defaultThreadPoolSize", 2), 2), metrics);
+    this(
+        idGenerator,
+        Math.max(cfg.getInt("execution", "defaultThreadPoolSize", 2), 2),
+        ImmutableSet.copyOf(cfg.getStringList("execution", null, "workStealingQueue")),
+        metrics);
   }
 
   /** Constructor to allow binding the WorkQueue more explicitly in a vhost setup. */
   public WorkQueue(IdGenerator idGenerator, int defaultThreadPoolSize, MetricMaker metrics) {
+    this(idGenerator, defaultThreadPoolSize, ImmutableSet.of(), metrics);
+  }
+
+  private WorkQueue(
+      IdGenerator idGenerator,
+      int defaultThreadPoolSize,
+      ImmutableSet<String> workStealingQueues,
+      MetricMaker metrics) {
     this.idGenerator = idGenerator;
     this.metrics = metrics;
     this.queues = new CopyOnWriteArrayList<>();
+    this.workStealingQueues = workStealingQueues;
     this.defaultQueue = createQueue(defaultThreadPoolSize, "WorkQueue", true);
   }
 
@@ -154,14 +179,8 @@ public class WorkQueue {
    */
   public ScheduledThreadPoolExecutor createQueue(
       int poolsize, String queueName, int threadPriority, boolean withMetrics) {
-    Executor executor = new Executor(poolsize, queueName);
-    if (withMetrics) {
-      logger.atInfo().log("Adding metrics for '%s' queue", queueName);
-      executor.buildMetrics(queueName);
-    }
-    executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
-    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(true);
-    queues.add(executor);
+    Executor executor =
+        newExecutor(poolsize, queueName, Executors.defaultThreadFactory(), withMetrics);
     if (threadPriority != Thread.NORM_PRIORITY) {
       ThreadFactory parent = executor.getThreadFactory();
       executor.setThreadFactory(
@@ -175,6 +194,65 @@ public class WorkQueue {
     return executor;
   }
 
+  /**
+   * Create a new executor queue whose tasks run on virtual threads, optionally with metrics.
+   *
+   * <p>Tasks that block on I/O don't occupy a platform thread, so the pool size can be much larger
+   * than for {@link #createQueue(int, String, boolean)}; it only bounds the number of tasks that
+   * run concurrently. If the Java runtime doesn't support virtual threads, platform threads are
+   * used.
+   *
+   * @param poolsize the maximum number of tasks that run concurrently.
+   * @param queueName the name of the queue.
+   * @param withMetrics whether to create metrics.
+   */
+  public ScheduledThreadPoolExecutor createVirtualThreadQueue(
+      int poolsize, String queueName, boolean withMetrics) {
+    ThreadFactory threadFactory =
+        VirtualThreads.factory(queueName + "-").orElseGet(Executors::defaultThreadFactory);
+    return newExecutor(poolsize, queueName, threadFactory, withMetrics);
+  }
+
+  private Executor newExecutor(
+      int poolsize, String queueName, ThreadFactory threadFactory, boolean withMetrics) {
+    Executor executor = new Executor(poolsize, queueName, threadFactory);
+    if (withMetrics) {
+      logger.atInfo().log("Adding metrics for '%s' queue", queueName);
+      executor.buildMetrics(queueName);
+    }
+    executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(true);
+    queues.add(executor);
+    return executor;
+  }
+
+  /**
+   * Create a new executor queue for tasks that are executed as soon as possible, optionally with
+   * metrics.
+   *
+   * <p>By default this is a queue as created by {@link #createQueue(int, String, boolean)}. If the
+   * queue is listed in {@code execution.workStealingQueue}, the tasks are instead kept in the
+   * work-stealing deques of a {@link ForkJoinPool}, so that threads submitting and taking tasks
+   * don't contend on the lock of a single delay queue. Either way the tasks are listed by {@code
+   * show-queue} and can be killed.
+   *
+   * @param poolsize the size of the pool.
+   * @param queueName the name of the queue.
+   * @param withMetrics whether to create metrics.
+   */
+  public ExecutorService createExecutor(int poolsize, String queueName, boolean withMetrics) {
+    if (!workStealingQueues.contains(queueName)) {
+      return createQueue(poolsize, queueName, withMetrics);
+    }
+    WorkStealingExecutor executor = new WorkStealingExecutor(poolsize, queueName);
+    if (withMetrics) {
+      logger.atInfo().log("Adding metrics for '%s' queue", queueName);
+      executor.buildMetrics(queueName);
+    }
+    queues.add(executor);
+    return executor;
+  }
+
   /** Executes a periodic command at a fixed schedule on the default queue. */
   public void scheduleAtFixedRate(Runnable command, Schedule schedule) {
     @SuppressWarnings("unused")
@@ -187,7 +265,7 @@ public class WorkQueue {
   /** Get all of the tasks currently scheduled in any work queue. */
   public List<Task<?>> getTasks() {
     final List<Task<?>> r = new ArrayList<>();
-    for (Executor e : queues) {
+    for (QueueExecutor e : queues) {
       e.addAllTo(r);
     }
     return r;
@@ -195,7 +273,7 @@ public class WorkQueue {
 
   public <T> List<T> getTaskInfos(TaskInfoFactory<T> factory) {
     List<T> taskInfos = new ArrayList<>();
-    for (Executor exe : queues) {
+    for (QueueExecutor exe : queues) {
       for (Task<?> task : exe.getTasks()) {
         taskInfos.add(factory.getTaskInfo(task));
       }
@@ -206,7 +284,7 @@ public class WorkQueue {
   /** Locate a task by its unique id, null if no task matches. */
   public Task<?> getTask(int id) {
     Task<?> result = null;
-    for (Executor e : queues) {
+    for (QueueExecutor e : queues) {
       final Task<?> t = e.getTask(id);
       if (t != null) {
         if (result != null) {
@@ -219,17 +297,31 @@ public class WorkQueue {
     return result;
   }
 
+  /**
+   * Get a queue by name, null if there is no such queue or if it was created as work-stealing
+   * queue by {@link #createExecutor(int, String, boolean)}.
+   */
   public ScheduledThreadPoolExecutor getExecutor(String queueName) {
-    for (Executor e : queues) {
-      if (e.queueName.equals(queueName)) {
-        return e;
+    for (QueueExecutor e : queues) {
+      if (e instanceof Executor && e.getQueueName().equals(queueName)) {
+        return (Executor) e;
       }
     }
     return null;
   }
 
+  /** Get the number of threads of a queue by name, 0 if there is no such queue. */
+  public int getPoolSize(String queueName) {
+    for (QueueExecutor e : queues) {
+      if (e.getQueueName().equals(queueName)) {
+        return e.getCorePoolSize();
+      }
+    }
+    return 0;
+  }
+
   private void stop() {
-    for (Executor p : queues) {
+    for (QueueExecutor p : queues) {
       p.shutdown();
       boolean isTerminated;
       do {
@@ -243,16 +335,97 @@ public class WorkQueue {
     queues.clear();
   }
 
+  private String getMetricName(String queueName, String metricName) {
+    String name =
+        CaseFormat.UPPER_CAMEL.to(
+            CaseFormat.LOWER_UNDERSCORE, queueName.replaceFirst("SSH", "Ssh").replace("-", ""));
+    return metrics.sanitizeMetricName(String.format("queue/%s/%s", name, metricName));
+  }
+
+  private TaskLatencies newTaskLatencies(String queueName) {
+    return new TaskLatencies(
+        metrics.newTimer(
+            getMetricName(queueName, "queue_wait_latency"),
+            new Description("Time tasks waited in the queue for an available thread")
+                .setCumulative()
+                .setUnit(Description.Units.MILLISECONDS)),
+        metrics.newTimer(
+            getMetricName(queueName, "run_latency"),
+            new Description("Time tasks took to execute")
+                .setCumulative()
+                .setUnit(Description.Units.MILLISECONDS)));
+  }
+
+  private <V> Task<V> newTask(
+      Runnable runnable,
+      RunnableScheduledFuture<V> r,
+      QueueExecutor executor,
+      ConcurrentMap<Integer, Task<?>> all) {
+    if (runnable instanceof LoggingContextAwareRunnable) {
+      runnable = ((LoggingContextAwareRunnable) runnable).unwrap();
+    }
+    for (; ; ) {
+      final int id = idGenerator.next();
+
+      Task<V> task;
+      if (runnable instanceof ProjectRunnable) {
+        task = new ProjectTask<>((ProjectRunnable) runnable, r, executor, id);
+      } else {
+        task = new Task<>(runnable, r, executor, id);
+      }
+
+      if (all.putIfAbsent(task.getTaskId(), task) == null) {
+        return task;
+      }
+    }
+  }
+
+  /** Latencies of the tasks of a queue with metrics. */
+  private static class TaskLatencies {
+    private final Timer0 queueWait;
+    private final Timer0 run;
+
+    TaskLatencies(Timer0 queueWait, Timer0 run) {
+      this.queueWait = queueWait;
+      this.run = run;
+    }
+
+    void record(long waitNanos, long runNanos) {
+      queueWait.record(waitNanos, TimeUnit.NANOSECONDS);
+      run.record(runNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /** A queue whose tasks are wrapped into {@link Task}s, so that they can be listed and killed. */
+  private interface QueueExecutor extends ExecutorService {
+    String getQueueName();
+
+    int getCorePoolSize();
+
+    void purge();
+
+    void remove(Task<?> task);
+
+    Task<?> getTask(int id);
+
+    void addAllTo(List<Task<?>> list);
+
+    Collection<Task<?>> getTasks();
+
+    /** Called after a task ran, with the time it waited for a thread and the time it ran. */
+    void taskCompleted(long waitNanos, long runNanos);
+  }
+
   /** An isolated queue. */
-  private class Executor extends ScheduledThreadPoolExecutor {
+  private class Executor extends ScheduledThreadPoolExecutor implements QueueExecutor {
     private final ConcurrentHashMap<Integer, Task<?>> all;
     private final String queueName;
+    private TaskLatencies latencies;
 
-    Executor(int corePoolSize, final String queueName) {
+    Executor(int corePoolSize, final String queueName, ThreadFactory parent) {
       super(
           corePoolSize,
           new ThreadFactory() {
-            private final ThreadFactory parent = Executors.defaultThreadFactory();
             private final AtomicInteger tid = new AtomicInteger(1);
 
             @Override
@@ -349,6 +522,7 @@ public class WorkQueue {
     }
 
     private void buildMetrics(String queueName) {
+      latencies = newTaskLatencies(queueName);
       metrics.newCallbackMetric(
           getMetricName(queueName, "max_pool_size"),
           Long.class,
@@ -389,59 +563,257 @@ public class WorkQueue {
           this::getCompletedTaskCount);
     }
 
-    private String getMetricName(String queueName, String metricName) {
-      String name =
-          CaseFormat.UPPER_CAMEL.to(
-              CaseFormat.LOWER_UNDERSCORE, queueName.replaceFirst("SSH", "Ssh").replace("-", ""));
-      return metrics.sanitizeMetricName(String.format("queue/%s/%s", name, metricName));
+    @Override
+    protected <V> RunnableScheduledFuture<V> decorateTask(
+        Runnable runnable, RunnableScheduledFuture<V> r) {
+      return newTask(runnable, super.decorateTask(runnable, r), this, all);
     }
 
     @Override
     protected <V> RunnableScheduledFuture<V> decorateTask(
-        Runnable runnable, RunnableScheduledFuture<V> r) {
-      r = super.decorateTask(runnable, r);
-      for (; ; ) {
-        final int id = idGenerator.next();
+        Callable<V> callable, RunnableScheduledFuture<V> task) {
+      throw new UnsupportedOperationException("Callable not implemented");
+    }
 
-        Task<V> task;
+    @Override
+    public String getQueueName() {
+      return queueName;
+    }
 
-        if (runnable instanceof LoggingContextAwareRunnable) {
-          runnable = ((LoggingContextAwareRunnable) runnable).unwrap();
-        }
+    @Override
+    public void remove(Task<?> task) {
+      all.remove(task.getTaskId(), task);
+    }
 
-        if (runnable instanceof ProjectRunnable) {
-          task = new ProjectTask<>((ProjectRunnable) runnable, r, this, id);
-        } else {
-          task = new Task<>(runnable, r, this, id);
-        }
+    @Override
+    public Task<?> getTask(int id) {
+      return all.get(id);
+    }
 
-        if (all.putIfAbsent(task.getTaskId(), task) == null) {
-          return task;
-        }
+    @Override
+    public void addAllTo(List<Task<?>> list) {
+      list.addAll(all.values()); // iterator is thread safe
+    }
+
+    @Override
+    public Collection<Task<?>> getTasks() {
+      return all.values();
+    }
+
+    @Override
+    public void taskCompleted(long waitNanos, long runNanos) {
+      if (latencies != null) {
+        latencies.record(waitNanos, runNanos);
+      }
+    }
+  }
+
+  /**
+   * An isolated queue for tasks that are executed as soon as possible, see {@link
+   * #createExecutor(int, String, boolean)}.
+   *
+   * <p>Each worker thread of the {@link ForkJoinPool} has its own deque. Tasks are taken in FIFO
+   * order and idle threads steal from the deques of busy ones, so there is no single lock that all
+   * submitting and executing threads contend on.
+   */
+  private class WorkStealingExecutor extends AbstractExecutorService implements QueueExecutor {
+    private final ConcurrentHashMap<Integer, Task<?>> all = new ConcurrentHashMap<>();
+    private final ForkJoinPool pool;
+    private final String queueName;
+    private final LongAdder scheduledCount = new LongAdder();
+    private final LongAdder completedCount = new LongAdder();
+    private TaskLatencies latencies;
+
+    WorkStealingExecutor(int parallelism, String queueName) {
+      AtomicInteger tid = new AtomicInteger(1);
+      this.pool =
+          new ForkJoinPool(
+              parallelism,
+              p -> {
+                ForkJoinWorkerThread t = new ForkJoinWorkerThread(p) {};
+                t.setName(queueName + "-" + tid.getAndIncrement());
+                return t;
+              },
+              LOG_UNCAUGHT_EXCEPTION,
+              true);
+      this.queueName = queueName;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+      return newTask(
+          runnable, new ImmediateFuture<>(LoggingContext.copy(runnable), value, runnable));
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+      ImmediateFuture<T> future = new ImmediateFuture<>(LoggingContext.copy(callable), callable);
+      return newTask(future, future);
+    }
+
+    private <T> Task<T> newTask(Runnable runnable, ImmediateFuture<T> future) {
+      scheduledCount.increment();
+      return WorkQueue.this.newTask(runnable, future, this, all);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      pool.execute(command instanceof Task ? command : newTaskFor(command, null));
+    }
+
+    @Override
+    public void shutdown() {
+      pool.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return pool.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return pool.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return pool.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      if (pool.awaitTermination(timeout, unit)) {
+        queues.remove(this);
+        return true;
       }
+      return false;
+    }
+
+    private void buildMetrics(String queueName) {
+      latencies = newTaskLatencies(queueName);
+      metrics.newCallbackMetric(
+          getMetricName(queueName, "max_pool_size"),
+          Long.class,
+          new Description("Maximum allowed number of threads in the pool")
+              .setGauge()
+              .setUnit("threads"),
+          () -> (long) pool.getParallelism());
+      metrics.newCallbackMetric(
+          getMetricName(queueName, "pool_size"),
+          Long.class,
+          new Description("Current number of threads in the pool").setGauge().setUnit("threads"),
+          () -> (long) pool.getPoolSize());
+      metrics.newCallbackMetric(
+          getMetricName(queueName, "active_threads"),
+          Long.class,
+          new Description("Number number of threads that are actively executing tasks")
+              .setGauge()
+              .setUnit("threads"),
+          () -> (long) pool.getActiveThreadCount());
+      metrics.newCallbackMetric(
+          getMetricName(queueName, "scheduled_tasks"),
+          Integer.class,
+          new Description("Number of scheduled tasks in the queue").setGauge().setUnit("tasks"),
+          () -> (int) (pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount()));
+      metrics.newCallbackMetric(
+          getMetricName(queueName, "total_scheduled_tasks_count"),
+          Long.class,
+          new Description("Total number of tasks that have been scheduled for execution")
+              .setCumulative()
+              .setUnit("tasks"),
+          scheduledCount::sum);
+      metrics.newCallbackMetric(
+          getMetricName(queueName, "total_completed_tasks_count"),
+          Long.class,
+          new Description("Total number of tasks that have completed execution")
+              .setCumulative()
+              .setUnit("tasks"),
+          completedCount::sum);
     }
 
     @Override
-    protected <V> RunnableScheduledFuture<V> decorateTask(
-        Callable<V> callable, RunnableScheduledFuture<V> task) {
-      throw new UnsupportedOperationException("Callable not implemented");
+    public String getQueueName() {
+      return queueName;
     }
 
-    void remove(Task<?> task) {
+    @Override
+    public int getCorePoolSize() {
+      return pool.getParallelism();
+    }
+
+    @Override
+    public void purge() {
+      // Canceled tasks stay in the deques and return immediately once they are taken.
+    }
+
+    @Override
+    public void remove(Task<?> task) {
       all.remove(task.getTaskId(), task);
     }
 
-    Task<?> getTask(int id) {
+    @Override
+    public Task<?> getTask(int id) {
       return all.get(id);
     }
 
-    void addAllTo(List<Task<?>> list) {
+    @Override
+    public void addAllTo(List<Task<?>> list) {
       list.addAll(all.values()); // iterator is thread safe
     }
 
-    Collection<Task<?>> getTasks() {
+    @Override
+    public Collection<Task<?>> getTasks() {
       return all.values();
     }
+
+    @Override
+    public void taskCompleted(long waitNanos, long runNanos) {
+      completedCount.increment();
+      if (latencies != null) {
+        latencies.record(waitNanos, runNanos);
+      }
+    }
+  }
+
+  /**
+   * Future of a task in a {@link WorkStealingExecutor}. The task is due as soon as it was created,
+   * its delay is the negated time it has been waiting since.
+   */
+  private static class ImmediateFuture<V> extends FutureTask<V>
+      implements RunnableScheduledFuture<V> {
+    private final long createdNanos = System.nanoTime();
+    private final Object task;
+
+    ImmediateFuture(Callable<V> callable, Object task) {
+      super(callable);
+      this.task = task;
+    }
+
+    ImmediateFuture(Runnable runnable, V result, Object task) {
+      super(runnable, result);
+      this.task = task;
+    }
+
+    @Override
+    public boolean isPeriodic() {
+      return false;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(createdNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public String toString() {
+      return task.toString();
+    }
   }
 
   /**
@@ -493,12 +865,13 @@ public class WorkQueue {
 
     private final Runnable runnable;
     private final RunnableScheduledFuture<V> task;
-    private final Executor executor;
+    private final QueueExecutor executor;
     private final int taskId;
     private final AtomicBoolean running;
     private final Date startTime;
 
-    Task(Runnable runnable, RunnableScheduledFuture<V> task, Executor executor, int taskId) {
+    Task(
+        Runnable runnable, RunnableScheduledFuture<V> task, QueueExecutor executor, int taskId) {
       this.runnable = runnable;
       this.task = task;
       this.executor = executor;
@@ -532,7 +905,7 @@ public class WorkQueue {
     }
 
     public String getQueueName() {
-      return executor.queueName;
+      return executor.getQueueName();
     }
 
     @Override
@@ -606,9 +979,12 @@ public class WorkQueue {
     @Override
     public void run() {
       if (running.compareAndSet(false, true)) {
+        long waitNanos = Math.max(0, -getDelay(TimeUnit.NANOSECONDS));
+        long start = System.nanoTime();
         try {
           task.run();
         } finally {
+          executor.taskCompleted(waitNanos, System.nanoTime() - start);
           if (isPeriodic()) {
             running.set(false);
           } else {
@@ -662,7 +1038,10 @@ public class WorkQueue {
     private final ProjectRunnable runnable;
 
     ProjectTask(
-        ProjectRunnable runnable, RunnableScheduledFuture<V> task, Executor executor, int taskId) {
+        ProjectRunnable runnable,
+        RunnableScheduledFuture<V> task,
+        QueueExecutor executor,
+        int taskId) {
       super(runnable, task, executor, taskId);
       this.runnable = runnable;
     }
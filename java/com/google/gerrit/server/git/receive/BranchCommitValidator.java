@@ -61,8 +61,12 @@ public class BranchCommitValidator {
   /** A boolean validation status and a list of additional messages. */
   @AutoValue
   abstract static class Result {
-    static Result create(boolean isValid, ImmutableList<CommitValidationMessage> messages) {
-      return new AutoValue_BranchCommitValidator_Result(isValid, messages);
+    static Result valid(ImmutableList<CommitValidationMessage> messages) {
+      return new AutoValue_BranchCommitValidator_Result(true, messages, null);
+    }
+
+    static Result invalid(ImmutableList<CommitValidationMessage> messages, String rejection) {
+      return new AutoValue_BranchCommitValidator_Result(false, messages, rejection);
     }
 
     /** Whether the commit is valid. */
@@ -73,6 +77,17 @@ public class BranchCommitValidator {
      * {@link #isValid()} status.
      */
     abstract ImmutableList<CommitValidationMessage> messages();
+
+    /** Reason to reject the command with if the commit is not valid. */
+    @Nullable
+    abstract String rejection();
+
+    /** Rejects the command if the commit is not valid. */
+    void rejectIfInvalid(ReceiveCommand cmd) {
+      if (!isValid()) {
+        cmd.setResult(REJECTED_OTHER_REASON, rejection());
+      }
+    }
   }
 
   @Inject
@@ -132,6 +147,32 @@ public class BranchCommitValidator {
       @Nullable Change change,
       boolean skipValidation)
       throws IOException {
+    Result result =
+        checkCommit(objectReader, cmd, commit, isMerged, rejectCommits, change, skipValidation);
+    result.rejectIfInvalid(cmd);
+    return result;
+  }
+
+  /**
+   * Validates a single commit like {@link #validateCommit(ObjectReader, ReceiveCommand, RevCommit,
+   * boolean, NoteMap, Change, boolean)}, but doesn't reject the command if the commit does not
+   * validate.
+   *
+   * <p>This allows to validate several commits of the same command concurrently, using one
+   * validator and object reader per thread, and to reject the command for the first invalid
+   * commit afterwards.
+   *
+   * @return The validation {@link Result}.
+   */
+  Result checkCommit(
+      ObjectReader objectReader,
+      ReceiveCommand cmd,
+      RevCommit commit,
+      boolean isMerged,
+      NoteMap rejectCommits,
+      @Nullable Change change,
+      boolean skipValidation)
+      throws IOException {
     try (TraceTimer traceTimer = TraceContext.newTimer("BranchCommitValidator#validateCommit")) {
       ImmutableList.Builder<CommitValidationMessage> messages = new ImmutableList.Builder<>();
       try (CommitReceivedEvent receiveEvent =
@@ -168,11 +209,10 @@ public class BranchCommitValidator {
               new CommitValidationMessage(
                   messageForCommit(commit, m.getMessage(), objectReader), m.getType()));
         }
-        cmd.setResult(
-            REJECTED_OTHER_REASON, messageForCommit(commit, e.getMessage(), objectReader));
-        return Result.create(false, messages.build());
+        return Result.invalid(
+            messages.build(), messageForCommit(commit, e.getMessage(), objectReader));
       }
-      return Result.create(true, messages.build());
+      return Result.valid(messages.build());
     }
   }
 
@@ -43,6 +43,7 @@ import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_OTHER_RE
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableList;
@@ -59,6 +60,7 @@ import com.google.common.collect.Sets;
 import com.google.common.collect.SortedSetMultimap;
 import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.gerrit.common.FooterConstants;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.UsedAt;
@@ -113,6 +115,7 @@ import com.google.gerrit.server.change.NotifyResolver;
 import com.google.gerrit.server.change.SetHashtagsOp;
 import com.google.gerrit.server.change.SetPrivateOp;
 import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.config.CommitValidationExecutor;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.PluginConfig;
 import com.google.gerrit.server.config.ProjectConfigEntry;
@@ -204,6 +207,8 @@ import java.util.TreeSet;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.eclipse.jgit.errors.ConfigInvalidException;
@@ -318,6 +323,7 @@ class ReceiveCommits {
   private final CommentsUtil commentsUtil;
   private final PluginSetContext<CommentValidator> commentValidators;
   private final BranchCommitValidator.Factory commitValidatorFactory;
+  private final ListeningExecutorService commitValidationExecutor;
   private final Config config;
   private final CreateGroupPermissionSyncer createGroupPermissionSyncer;
   private final CreateRefControl createRefControl;
@@ -395,6 +401,7 @@ class ReceiveCommits {
       CmdLineParser.Factory optionParserFactory,
       CommentsUtil commentsUtil,
       BranchCommitValidator.Factory commitValidatorFactory,
+      @CommitValidationExecutor ListeningExecutorService commitValidationExecutor,
       CreateGroupPermissionSyncer createGroupPermissionSyncer,
       CreateRefControl createRefControl,
       DynamicMap<ProjectConfigEntry> pluginConfigEntries,
@@ -438,6 +445,7 @@ class ReceiveCommits {
     this.commentsUtil = commentsUtil;
     this.commentValidators = commentValidators;
     this.commitValidatorFactory = commitValidatorFactory;
+    this.commitValidationExecutor = commitValidationExecutor;
     this.config = config;
     this.createRefControl = createRefControl;
     this.createGroupPermissionSyncer = createGroupPermissionSyncer;
@@ -3206,6 +3214,11 @@ class ReceiveCommits {
         markHeadsAsUninteresting(walk, cmd.getRefName());
         int limit = receiveConfig.maxBatchCommits;
         int n = 0;
+        // The banned commits are loaded lazily through the object reader of the walk, which must
+        // not be used by several threads.
+        boolean validateConcurrently =
+            receiveConfig.commitValidationThreads > 1 && Iterables.isEmpty(rejectCommits);
+        List<ObjectId> toValidate = new ArrayList<>();
         for (RevCommit c; (c = walk.next()) != null; ) {
           // Even if skipValidation is set, we still get here when at least one plugin
           // commit validator requires to validate all commits. In this case, however,
@@ -3221,6 +3234,10 @@ class ReceiveCommits {
           if (!receivePackRefCache.tipsFromObjectId(c, RefNames.REFS_CHANGES).isEmpty()) {
             continue;
           }
+          if (validateConcurrently) {
+            toValidate.add(c.copy());
+            continue;
+          }
 
           BranchCommitValidator.Result validationResult =
               validator.validateCommit(
@@ -3230,6 +3247,9 @@ class ReceiveCommits {
             break;
           }
         }
+        if (!toValidate.isEmpty()) {
+          validateCommitsConcurrently(branch, cmd, toValidate, skipValidation);
+        }
         logger.atFine().log("Validated %d new commits", n);
       } catch (IOException err) {
         cmd.setResult(REJECTED_MISSING_OBJECT);
@@ -3239,6 +3259,91 @@ class ReceiveCommits {
     }
   }
 
+  /**
+   * Validates the given commits of a regular push on the commit validation executor.
+   *
+   * <p>Each thread uses its own validator and parses the commits with its own walk, since
+   * permission checks, walks and the commits they parsed are not thread-safe. The threads take the
+   * commits in order, and no thread starts to validate a commit after an invalid commit was found
+   * before it, so that at most one commit per thread is validated beyond the first invalid commit.
+   * The results are reported in the order of the commits, and the command is rejected for the
+   * first invalid commit, like when the commits are validated one by one.
+   */
+  private void validateCommitsConcurrently(
+      BranchNameKey branch, ReceiveCommand cmd, List<ObjectId> commits, boolean skipValidation)
+      throws IOException {
+    try (TraceTimer traceTimer =
+        newTimer(
+            "validateCommitsConcurrently",
+            Metadata.builder().branchName(branch.branch()).resourceCount(commits.size()))) {
+      AtomicReferenceArray<BranchCommitValidator.Result> results =
+          new AtomicReferenceArray<>(commits.size());
+      AtomicInteger next = new AtomicInteger();
+      AtomicInteger firstInvalid = new AtomicInteger(commits.size());
+      List<Future<?>> threads = new ArrayList<>();
+      for (int i = 0; i < Math.min(receiveConfig.commitValidationThreads, commits.size()); i++) {
+        threads.add(
+            commitValidationExecutor.submit(
+                requestScopePropagator.wrap(
+                    () -> {
+                      validateCommits(
+                          branch, cmd, commits, skipValidation, results, next, firstInvalid);
+                      return null;
+                    })));
+      }
+      try {
+        for (Future<?> thread : threads) {
+          thread.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        reject(cmd, "interrupted while validating commits");
+        return;
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IllegalStateException(e.getCause());
+      } finally {
+        threads.forEach(t -> t.cancel(false));
+      }
+
+      for (int i = 0; i <= Math.min(firstInvalid.get(), commits.size() - 1); i++) {
+        BranchCommitValidator.Result validationResult = results.get(i);
+        messages.addAll(validationResult.messages());
+        if (!validationResult.isValid()) {
+          validationResult.rejectIfInvalid(cmd);
+          return;
+        }
+      }
+    }
+  }
+
+  private void validateCommits(
+      BranchNameKey branch,
+      ReceiveCommand cmd,
+      List<ObjectId> commits,
+      boolean skipValidation,
+      AtomicReferenceArray<BranchCommitValidator.Result> results,
+      AtomicInteger next,
+      AtomicInteger firstInvalid)
+      throws IOException {
+    BranchCommitValidator validator = commitValidatorFactory.create(projectState, branch, user);
+    try (ObjectReader reader = repo.newObjectReader();
+        RevWalk rw = new RevWalk(reader)) {
+      for (int i = next.getAndIncrement();
+          i < commits.size() && i < firstInvalid.get();
+          i = next.getAndIncrement()) {
+        RevCommit c = rw.parseCommit(commits.get(i));
+        BranchCommitValidator.Result validationResult =
+            validator.checkCommit(reader, cmd, c, false, rejectCommits, null, skipValidation);
+        results.set(i, validationResult);
+        if (!validationResult.isValid()) {
+          firstInvalid.accumulateAndGet(i, Math::min);
+        }
+      }
+    }
+  }
+
   private void autoCloseChanges(ReceiveCommand cmd, Task progress) {
     try (TraceTimer traceTimer = newTimer("autoCloseChanges")) {
       logger.atFine().log("Starting auto-closing of changes");
@@ -28,6 +28,7 @@ class ReceiveConfig {
   final boolean checkMagicRefs;
   final boolean checkReferencedObjectsAreReachable;
   final int maxBatchCommits;
+  final int commitValidationThreads;
   final boolean disablePrivateChanges;
   private final int systemMaxBatchChanges;
   private final AccountLimits.Factory limitsFactory;
@@ -38,6 +39,7 @@ class ReceiveConfig {
     checkReferencedObjectsAreReachable =
         config.getBoolean("receive", null, "checkReferencedObjectsAreReachable", true);
     maxBatchCommits = config.getInt("receive", null, "maxBatchCommits", 10000);
+    commitValidationThreads = config.getInt("receive", null, "commitValidationThreads", 1);
     systemMaxBatchChanges = config.getInt("receive", "maxBatchChanges", 0);
     disablePrivateChanges = config.getBoolean("change", null, "disablePrivateChanges", false);
     this.limitsFactory = limitsFactory;
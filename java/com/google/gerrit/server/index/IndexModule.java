@@ -216,7 +216,7 @@ public class IndexModule extends LifecycleModule {
               "index", null, "threads", Runtime.getRuntime().availableProcessors() / 2 + 1);
     }
     return MoreExecutors.listeningDecorator(
-        workQueue.createQueue(threads, "Index-Interactive", true));
+        workQueue.createExecutor(threads, "Index-Interactive", true));
   }
 
   @Provides
@@ -233,7 +233,7 @@ public class IndexModule extends LifecycleModule {
     } else if (threads == 0) {
       threads = Runtime.getRuntime().availableProcessors();
     }
-    return MoreExecutors.listeningDecorator(workQueue.createQueue(threads, "Index-Batch", true));
+    return MoreExecutors.listeningDecorator(workQueue.createExecutor(threads, "Index-Batch", true));
   }
 
   @Singleton
@@ -15,17 +15,22 @@
 package com.google.gerrit.server.index.change;
 
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.util.concurrent.Futures.successfulAsList;
 import static com.google.common.util.concurrent.Futures.transform;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
+import static java.util.Comparator.comparingInt;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
 import com.google.common.flogger.FluentLogger;
-import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
@@ -50,6 +55,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Repository;
@@ -63,6 +69,15 @@ import org.eclipse.jgit.lib.TextProgressMonitor;
 public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, ChangeIndex> {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /** Maximum number of changes of a project that are indexed by one task. */
+  private static final int SLICE_SIZE = 10000;
+
+  /**
+   * Number of changes that are written to the index together, e.g. with a single bulk request to
+   * Elasticsearch.
+   */
+  private static final int WRITE_BATCH_SIZE = 100;
+
   private final ChangeData.Factory changeDataFactory;
   private final GitRepositoryManager repoManager;
   private final ListeningExecutorService executor;
@@ -86,38 +101,62 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     this.projectCache = projectCache;
   }
 
+  /** A project, or a slice of the changes of a large project, that is indexed by one task. */
   private static class ProjectHolder implements Comparable<ProjectHolder> {
     final Project.NameKey name;
-    private final long size;
+    final Range<Integer> ids;
+    final ImmutableList<Change.Id> changeIds;
 
-    ProjectHolder(Project.NameKey name, long size) {
+    ProjectHolder(Project.NameKey name, ImmutableList<Change.Id> changeIds) {
       this.name = name;
-      this.size = size;
+      this.ids = Range.closed(changeIds.get(0).get(), changeIds.get(changeIds.size() - 1).get());
+      this.changeIds = changeIds;
     }
 
     @Override
     public int compareTo(ProjectHolder other) {
       // Sort projects based on size first to maximize utilization of threads early on.
       return ComparisonChain.start()
-          .compare(other.size, size)
+          .compare(other.changeIds.size(), changeIds.size())
           .compare(other.name.get(), name.get())
+          .compare(other.ids.lowerEndpoint(), ids.lowerEndpoint())
           .result();
     }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "project %s (changes %d to %d)", name, ids.lowerEndpoint(), ids.upperEndpoint());
+    }
   }
 
   @Override
   public Result indexAll(ChangeIndex index) {
+    Stopwatch sw = Stopwatch.createStarted();
+    ChangeReindexCheckpoint checkpoint = null;
+    if (checkpointFile != null) {
+      try {
+        checkpoint = ChangeReindexCheckpoint.load(checkpointFile, index);
+      } catch (IOException e) {
+        logger.atSevere().withCause(e).log("Error reading %s", checkpointFile);
+        return Result.create(sw, false, 0, 0);
+      }
+    }
+
     ProgressMonitor pm = new TextProgressMonitor();
     pm.beginTask("Collecting projects", ProgressMonitor.UNKNOWN);
     SortedSet<ProjectHolder> projects = new TreeSet<>();
     int changeCount = 0;
-    Stopwatch sw = Stopwatch.createStarted();
     int projectsFailed = 0;
     for (Project.NameKey name : projectCache.all()) {
       try (Repository repo = repoManager.openRepository(name)) {
-        int size = estimateSize(repo);
-        changeCount += size;
-        projects.add(new ProjectHolder(name, size));
+        ImmutableList<Change.Id> ids = changeIds(repo, name, checkpoint);
+        changeCount += ids.size();
+        // Split large projects into slices of changes that are indexed in parallel. The refs are
+        // only scanned once here, each slice only loads the changes it was given.
+        for (List<Change.Id> slice : Lists.partition(ids, SLICE_SIZE)) {
+          projects.add(new ProjectHolder(name, ImmutableList.copyOf(slice)));
+        }
       } catch (IOException e) {
         logger.atSevere().withCause(e).log("Error collecting project %s", name);
         projectsFailed++;
@@ -130,23 +169,28 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     }
     pm.endTask();
     setTotalWork(changeCount);
-    return indexAll(index, projects);
+    return indexAll(index, projects, checkpoint);
   }
 
-  private int estimateSize(Repository repo) throws IOException {
-    // Estimate size based on IDs that show up in ref names. This is not perfect, since patch set
-    // refs may exist for changes whose metadata was never successfully stored. But that's ok, as
-    // the estimate is just used as a heuristic for sorting projects.
-    long size =
-        repo.getRefDatabase().getRefsByPrefix(RefNames.REFS_CHANGES).stream()
-            .map(r -> Change.Id.fromRef(r.getName()))
-            .filter(Objects::nonNull)
-            .distinct()
-            .count();
-    return Ints.saturatedCast(size);
+  /** Returns the sorted IDs of the changes of a project that weren't indexed yet. */
+  private ImmutableList<Change.Id> changeIds(
+      Repository repo, Project.NameKey project, @Nullable ChangeReindexCheckpoint checkpoint)
+      throws IOException {
+    // Only changes with a meta ref can be loaded. Stray patch set refs can happen due to normal
+    // error conditions, e.g. failed push processing, and are skipped.
+    return repo.getRefDatabase().getRefsByPrefix(RefNames.REFS_CHANGES).stream()
+        .filter(r -> r.getName().endsWith(RefNames.META_SUFFIX))
+        .map(r -> Change.Id.fromRef(r.getName()))
+        .filter(Objects::nonNull)
+        .filter(id -> checkpoint == null || !checkpoint.isDone(project, id))
+        .sorted(comparingInt(Change.Id::get))
+        .collect(toImmutableList());
   }
 
-  private SiteIndexer.Result indexAll(ChangeIndex index, SortedSet<ProjectHolder> projects) {
+  private SiteIndexer.Result indexAll(
+      ChangeIndex index,
+      SortedSet<ProjectHolder> projects,
+      @Nullable ChangeReindexCheckpoint checkpoint) {
     Stopwatch sw = Stopwatch.createStarted();
     MultiProgressMonitor mpm = new MultiProgressMonitor(progressOut, "Reindexing changes");
     Task projTask = mpm.beginSubTask("projects", projects.size());
@@ -160,9 +204,15 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     for (ProjectHolder project : projects) {
       ListenableFuture<?> future =
           executor.submit(
-              reindexProject(
-                  indexerFactory.create(executor, index), project.name, doneTask, failedTask));
-      addErrorListener(future, "project " + project.name, projTask, ok);
+              new ProjectIndexer(
+                  indexerFactory.create(executor, index),
+                  project.name,
+                  project.ids,
+                  project.changeIds,
+                  checkpoint,
+                  doneTask,
+                  failedTask));
+      addErrorListener(future, project.toString(), projTask, ok);
       futures.add(future);
     }
 
@@ -179,6 +229,13 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       logger.atSevere().withCause(e).log("Error in batch indexer");
       ok.set(false);
     }
+    if (checkpoint != null) {
+      try {
+        checkpoint.commit();
+      } catch (IOException e) {
+        logger.atSevere().withCause(e).log("Error writing %s", checkpointFile);
+      }
+    }
     // If too many changes failed, maybe there was a bug in the indexer. Don't
     // trust the results. This is not an exact percentage since we bump the same
     // failure counter if a project can't be read, but close enough.
@@ -197,22 +254,33 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
 
   public Callable<Void> reindexProject(
       ChangeIndexer indexer, Project.NameKey project, Task done, Task failed) {
-    return new ProjectIndexer(indexer, project, done, failed);
+    return new ProjectIndexer(indexer, project, Range.all(), null, null, done, failed);
   }
 
   private class ProjectIndexer implements Callable<Void> {
     private final ChangeIndexer indexer;
     private final Project.NameKey project;
+    private final Range<Integer> ids;
+    @Nullable private final ImmutableList<Change.Id> changeIds;
+    @Nullable private final ChangeReindexCheckpoint checkpoint;
     private final ProgressMonitor done;
     private final ProgressMonitor failed;
+    private final List<ChangeData> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+    private boolean anyFailed;
 
     private ProjectIndexer(
         ChangeIndexer indexer,
         Project.NameKey project,
+        Range<Integer> ids,
+        @Nullable ImmutableList<Change.Id> changeIds,
+        @Nullable ChangeReindexCheckpoint checkpoint,
         ProgressMonitor done,
         ProgressMonitor failed) {
       this.indexer = indexer;
       this.project = project;
+      this.ids = ids;
+      this.changeIds = changeIds;
+      this.checkpoint = checkpoint;
       this.done = done;
       this.failed = failed;
     }
@@ -227,12 +295,22 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
         // It does mean that reindexing after invalidating the DiffSummary cache will be expensive,
         // but the goal is to invalidate that cache as infrequently as we possibly can. And besides,
         // we don't have concrete proof that improving packfile locality would help.
-        notesFactory.scan(repo, project).forEach(r -> index(r));
+        Stream<ChangeNotesResult> changes =
+            changeIds != null
+                ? notesFactory.load(project, changeIds)
+                : notesFactory.scan(repo, project);
+        changes.forEach(r -> index(r));
+        flush();
       } catch (RepositoryNotFoundException rnfe) {
         logger.atSevere().log(rnfe.getMessage());
+        return null;
       } finally {
         OnlineReindexMode.end();
       }
+      if (checkpoint != null && !anyFailed) {
+        // Failed changes are retried when resuming.
+        checkpoint.done(project, ids);
+      }
       return null;
     }
 
@@ -241,19 +319,49 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
         fail("Failed to read change " + r.id() + " for indexing", true, r.error().get());
         return;
       }
+      batch.add(changeDataFactory.create(r.notes()));
+      if (batch.size() >= WRITE_BATCH_SIZE) {
+        flush();
+      }
+    }
+
+    private void flush() {
+      if (batch.isEmpty()) {
+        return;
+      }
+      try {
+        indexer.index(batch);
+        done.update(batch.size());
+        batch.forEach(cd -> verboseWriter.println("Reindexed change " + cd.getId()));
+      } catch (RejectedExecutionException e) {
+        // Server shutdown, don't spam the logs.
+        batch.forEach(cd -> failSilently());
+      } catch (Exception e) {
+        // Index the changes one by one, so that a single broken change doesn't fail the others.
+        logger.atWarning().withCause(e).log(
+            "Failed to index %d changes of %s together, indexing them one by one",
+            batch.size(), project);
+        batch.forEach(this::index);
+      } finally {
+        batch.clear();
+      }
+    }
+
+    private void index(ChangeData cd) {
       try {
-        indexer.index(changeDataFactory.create(r.notes()));
+        indexer.index(cd);
         done.update(1);
-        verboseWriter.println("Reindexed change " + r.id());
+        verboseWriter.println("Reindexed change " + cd.getId());
       } catch (RejectedExecutionException e) {
         // Server shutdown, don't spam the logs.
         failSilently();
       } catch (Exception e) {
-        fail("Failed to index change " + r.id(), true, e);
+        fail("Failed to index change " + cd.getId(), true, e);
       }
     }
 
     private void fail(String error, boolean failed, Exception e) {
+      anyFailed = true;
       if (failed) {
         this.failed.update(1);
       }
@@ -263,12 +371,18 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     }
 
     private void failSilently() {
+      anyFailed = true;
       this.failed.update(1);
     }
 
     @Override
     public String toString() {
-      return "Index all changes of project " + project.get();
+      if (!ids.hasLowerBound()) {
+        return "Index all changes of project " + project.get();
+      }
+      return String.format(
+          "Index changes %d to %d of project %s",
+          ids.lowerEndpoint(), ids.upperEndpoint(), project.get());
     }
   }
 }
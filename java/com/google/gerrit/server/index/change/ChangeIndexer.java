@@ -17,10 +17,14 @@ package com.google.gerrit.server.index.change;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.Project;
@@ -28,6 +32,7 @@ import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.extensions.events.ChangeIndexedListener;
 import com.google.gerrit.index.Index;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.index.IndexExecutor;
 import com.google.gerrit.server.index.StalenessCheckResult;
 import com.google.gerrit.server.logging.Metadata;
@@ -42,22 +47,32 @@ import com.google.gerrit.server.util.ThreadLocalRequestContext;
 import com.google.inject.OutOfScopeException;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Repository;
 
 /**
  * Helper for (re)indexing a change document.
  *
  * <p>Indexing is run in the background, as it may require substantial work to compute some of the
  * fields and/or update the index.
+ *
+ * <p>If {@code index.change.asyncBatchSize} is larger than 1, changes that are indexed in the
+ * background are coalesced: changes scheduled while earlier ones are still waiting for a thread are
+ * loaded together, one repository per project, and written to each index with a single {@link
+ * Index#replace(Collection)} call.
  */
 public class ChangeIndexer {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -77,13 +92,21 @@ public class ChangeIndexer {
   private final ListeningExecutorService executor;
   private final PluginSetContext<ChangeIndexedListener> indexedListeners;
   private final StalenessChecker stalenessChecker;
+  private final GitRepositoryManager repoManager;
+  private final ChangeIndexerMetrics metrics;
   private final boolean autoReindexIfStale;
+  private final int asyncBatchSize;
 
   private final Set<IndexTask> queuedIndexTasks =
       Collections.newSetFromMap(new ConcurrentHashMap<>());
   private final Set<ReindexIfStaleTask> queuedReindexIfStaleTasks =
       Collections.newSetFromMap(new ConcurrentHashMap<>());
 
+  /** Changes waiting to be indexed in a batch, guarded by itself. */
+  private final Map<Change.Id, PendingChange> pendingChanges = new LinkedHashMap<>();
+
+  private boolean batchScheduled;
+
   @AssistedInject
   ChangeIndexer(
       @GerritServerConfig Config cfg,
@@ -92,6 +115,8 @@ public class ChangeIndexer {
       ThreadLocalRequestContext context,
       PluginSetContext<ChangeIndexedListener> indexedListeners,
       StalenessChecker stalenessChecker,
+      GitRepositoryManager repoManager,
+      ChangeIndexerMetrics metrics,
       @IndexExecutor(BATCH) ListeningExecutorService batchExecutor,
       @Assisted ListeningExecutorService executor,
       @Assisted ChangeIndex index) {
@@ -101,8 +126,11 @@ public class ChangeIndexer {
     this.context = context;
     this.indexedListeners = indexedListeners;
     this.stalenessChecker = stalenessChecker;
+    this.repoManager = repoManager;
+    this.metrics = metrics;
     this.batchExecutor = batchExecutor;
     this.autoReindexIfStale = autoReindexIfStale(cfg);
+    this.asyncBatchSize = asyncBatchSize(cfg);
     this.index = index;
     this.indexes = null;
   }
@@ -115,6 +143,8 @@ public class ChangeIndexer {
       ThreadLocalRequestContext context,
       PluginSetContext<ChangeIndexedListener> indexedListeners,
       StalenessChecker stalenessChecker,
+      GitRepositoryManager repoManager,
+      ChangeIndexerMetrics metrics,
       @IndexExecutor(BATCH) ListeningExecutorService batchExecutor,
       @Assisted ListeningExecutorService executor,
       @Assisted ChangeIndexCollection indexes) {
@@ -124,8 +154,11 @@ public class ChangeIndexer {
     this.context = context;
     this.indexedListeners = indexedListeners;
     this.stalenessChecker = stalenessChecker;
+    this.repoManager = repoManager;
+    this.metrics = metrics;
     this.batchExecutor = batchExecutor;
     this.autoReindexIfStale = autoReindexIfStale(cfg);
+    this.asyncBatchSize = asyncBatchSize(cfg);
     this.index = null;
     this.indexes = indexes;
   }
@@ -134,6 +167,10 @@ public class ChangeIndexer {
     return cfg.getBoolean("index", null, "autoReindexIfStale", false);
   }
 
+  private static int asyncBatchSize(Config cfg) {
+    return cfg.getInt("index", "change", "asyncBatchSize", 1);
+  }
+
   /**
    * Start indexing a change.
    *
@@ -141,6 +178,9 @@ public class ChangeIndexer {
    * @return future for the indexing task.
    */
   public ListenableFuture<?> indexAsync(Project.NameKey project, Change.Id id) {
+    if (asyncBatchSize > 1) {
+      return indexInBatchAsync(project, id);
+    }
     IndexTask task = new IndexTask(project, id);
     if (queuedIndexTasks.add(task)) {
       fireChangeScheduledForIndexingEvent(project.get(), id.get());
@@ -149,6 +189,32 @@ public class ChangeIndexer {
     return Futures.immediateFuture(null);
   }
 
+  private ListenableFuture<?> indexInBatchAsync(Project.NameKey project, Change.Id id) {
+    PendingChange pending;
+    synchronized (pendingChanges) {
+      pending = pendingChanges.get(id);
+      if (pending != null) {
+        // The pending change isn't loaded yet, so it will be indexed in its latest state.
+        return Futures.nonCancellationPropagating(pending.future);
+      }
+      pending = new PendingChange(project);
+      pendingChanges.put(id, pending);
+      scheduleBatch();
+    }
+    fireChangeScheduledForIndexingEvent(project.get(), id.get());
+    return Futures.nonCancellationPropagating(pending.future);
+  }
+
+  private void scheduleBatch() {
+    synchronized (pendingChanges) {
+      if (!batchScheduled) {
+        batchScheduled = true;
+        @SuppressWarnings("unused")
+        Future<?> possiblyIgnoredError = submit(new IndexBatchTask());
+      }
+    }
+  }
+
   /**
    * Start indexing multiple changes in parallel.
    *
@@ -173,6 +239,28 @@ public class ChangeIndexer {
     doIndex(cd);
   }
 
+  /**
+   * Synchronously index multiple changes, then check if the index is stale due to a race condition.
+   *
+   * <p>The changes are written to each index with a single request, see {@link
+   * Index#replace(Collection)}.
+   *
+   * @param cds changes to index.
+   */
+  public void index(Collection<ChangeData> cds) {
+    if (cds.isEmpty()) {
+      return;
+    }
+    for (ChangeData cd : cds) {
+      fireChangeScheduledForIndexingEvent(cd.project().get(), cd.getId().get());
+    }
+    replaceAll(cds);
+    for (ChangeData cd : cds) {
+      fireChangeIndexedEvent(cd.project().get(), cd.getId().get());
+      autoReindexIfStale(cd);
+    }
+  }
+
   private void doIndex(ChangeData cd) {
     indexImpl(cd);
 
@@ -220,6 +308,87 @@ public class ChangeIndexer {
     fireChangeIndexedEvent(cd.project().get(), cd.getId().get());
   }
 
+  private void indexBatch(Map<Change.Id, PendingChange> batch) {
+    metrics.recordBatch(batch.size());
+    ListMultimap<Project.NameKey, Change.Id> byProject =
+        MultimapBuilder.linkedHashKeys().arrayListValues().build();
+    batch.forEach((id, pending) -> byProject.put(pending.project, id));
+
+    List<ChangeData> cds = new ArrayList<>(batch.size());
+    for (Project.NameKey project : byProject.keySet()) {
+      List<Change.Id> ids = byProject.get(project);
+      try (Repository repo = repoManager.openRepository(project)) {
+        for (ChangeNotes notes : notesFactory.createForBatchLoad(repo, project, ids)) {
+          Change.Id id = notes.getChangeId();
+          try {
+            cds.add(changeDataFactory.create(notes.load(repo)));
+          } catch (NoSuchChangeException e) {
+            doDelete(id);
+            batch.get(id).future.set(null);
+          } catch (RuntimeException e) {
+            logger.atSevere().withCause(e).log("Failed to load change %d for indexing", id.get());
+            batch.get(id).future.setException(e);
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        logger.atSevere().withCause(e).log("Failed to load changes %s of %s", ids, project);
+        ids.forEach(id -> batch.get(id).future.setException(e));
+      }
+    }
+    if (cds.isEmpty()) {
+      return;
+    }
+
+    try {
+      replaceAll(cds);
+    } catch (StorageException e) {
+      // Write the changes one by one, so that one change that can't be indexed doesn't fail the
+      // others.
+      logger.atWarning().withCause(e).log(
+          "Failed to index %s in one batch, retrying one by one", batch.keySet());
+      List<ChangeData> indexed = new ArrayList<>(cds.size());
+      for (ChangeData cd : cds) {
+        try {
+          replaceAll(ImmutableList.of(cd));
+          indexed.add(cd);
+        } catch (StorageException e2) {
+          logger.atSevere().withCause(e2).log("Failed to index change %d", cd.getId().get());
+          batch.get(cd.getId()).future.setException(e2);
+        }
+      }
+      cds = indexed;
+    }
+
+    long now = System.nanoTime();
+    for (ChangeData cd : cds) {
+      fireChangeIndexedEvent(cd.project().get(), cd.getId().get());
+      autoReindexIfStale(cd);
+      PendingChange pending = batch.get(cd.getId());
+      metrics.recordLag(now - pending.queuedNanos);
+      pending.future.set(null);
+    }
+  }
+
+  private void replaceAll(Collection<ChangeData> cds) {
+    for (ChangeIndex i : getWriteIndexes()) {
+      try (TraceTimer traceTimer =
+          TraceContext.newTimer(
+              "Replacing changes in index",
+              Metadata.builder()
+                  .resourceCount(cds.size())
+                  .indexVersion(i.getSchema().getVersion())
+                  .build())) {
+        i.replace(cds);
+      } catch (RuntimeException e) {
+        throw new StorageException(
+            String.format(
+                "Failed to replace %d changes in index version %d",
+                cds.size(), i.getSchema().getVersion()),
+            e);
+      }
+    }
+  }
+
   private void fireChangeScheduledForIndexingEvent(String projectName, int id) {
     indexedListeners.runEach(l -> l.onChangeScheduledForIndexing(projectName, id));
   }
@@ -401,6 +570,62 @@ public class ChangeIndexer {
     }
   }
 
+  /** A change waiting to be indexed in a batch. */
+  private static class PendingChange {
+    private final Project.NameKey project;
+    private final SettableFuture<Void> future = SettableFuture.create();
+    private final long queuedNanos = System.nanoTime();
+
+    private PendingChange(Project.NameKey project) {
+      this.project = project;
+    }
+  }
+
+  // Not AbstractIndexTask as it indexes multiple changes.
+  private class IndexBatchTask implements Callable<Void> {
+    @Override
+    public Void call() {
+      Map<Change.Id, PendingChange> batch = new LinkedHashMap<>();
+      synchronized (pendingChanges) {
+        Iterator<Map.Entry<Change.Id, PendingChange>> it = pendingChanges.entrySet().iterator();
+        while (it.hasNext() && batch.size() < asyncBatchSize) {
+          Map.Entry<Change.Id, PendingChange> e = it.next();
+          batch.put(e.getKey(), e.getValue());
+          it.remove();
+        }
+        batchScheduled = false;
+        if (!pendingChanges.isEmpty()) {
+          // Index the remaining changes in parallel.
+          scheduleBatch();
+        }
+      }
+      if (batch.isEmpty()) {
+        return null;
+      }
+
+      RequestContext newCtx =
+          () -> {
+            throw new OutOfScopeException("No user during ChangeIndexer");
+          };
+      RequestContext oldCtx = context.setContext(newCtx);
+      try {
+        indexBatch(batch);
+      } catch (RuntimeException e) {
+        logger.atSevere().withCause(e).log("Failed to execute %s", this);
+        batch.values().forEach(p -> p.future.setException(e));
+        throw e;
+      } finally {
+        context.setContext(oldCtx);
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "index-changes";
+    }
+  }
+
   // Not AbstractIndexTask as it doesn't need a request context.
   private class DeleteTask implements Callable<Void> {
     private final Change.Id id;
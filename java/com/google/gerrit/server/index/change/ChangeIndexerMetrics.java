@@ -0,0 +1,55 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/** Metrics of changes that are indexed in batches by {@link ChangeIndexer}. */
+@Singleton
+class ChangeIndexerMetrics {
+  private final Histogram0 batchSize;
+  private final Timer0 indexingLag;
+
+  @Inject
+  ChangeIndexerMetrics(MetricMaker metrics) {
+    batchSize =
+        metrics.newHistogram(
+            "index/change/batch_size",
+            new Description("Changes written to the index in a single batch")
+                .setCumulative()
+                .setUnit("changes"));
+    indexingLag =
+        metrics.newTimer(
+            "index/change/indexing_lag",
+            new Description("Time from scheduling a change for indexing until it was written")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+  }
+
+  void recordBatch(int size) {
+    batchSize.record(size);
+  }
+
+  void recordLag(long nanos) {
+    indexingLag.record(nanos, TimeUnit.NANOSECONDS);
+  }
+}
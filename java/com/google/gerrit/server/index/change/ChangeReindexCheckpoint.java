@@ -0,0 +1,150 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.primitives.Ints;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress of reindexing all changes, persisted in a file so that an interrupted reindex can be
+ * resumed.
+ *
+ * <p>The file records the ranges of change IDs per project that were indexed, one range per line.
+ * Ranges are only recorded after the index was committed, so that a resumed reindex doesn't skip
+ * changes whose writes were lost.
+ */
+class ChangeReindexCheckpoint {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final long COMMIT_INTERVAL_SECONDS = 60;
+
+  /**
+   * Read the progress recorded by a previous reindex.
+   *
+   * @param file file the progress is recorded in, doesn't need to exist.
+   * @param index index that is reindexed.
+   * @return checkpoint that skips the recorded changes and records further progress in {@code
+   *     file}.
+   * @throws IOException if the file can't be read.
+   */
+  static ChangeReindexCheckpoint load(Path file, ChangeIndex index) throws IOException {
+    ChangeReindexCheckpoint checkpoint = new ChangeReindexCheckpoint(file, index);
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(file, UTF_8);
+    } catch (NoSuchFileException e) {
+      return checkpoint;
+    }
+    for (String line : lines) {
+      checkpoint.parse(line);
+    }
+    return checkpoint;
+  }
+
+  private final Path file;
+  private final ChangeIndex index;
+  // Only modified while loading, so it can be read without locking.
+  private final Map<Project.NameKey, RangeSet<Integer>> done = new HashMap<>();
+  private final List<String> pending = new ArrayList<>();
+  private final Stopwatch sinceCommit = Stopwatch.createStarted();
+
+  private ChangeReindexCheckpoint(Path file, ChangeIndex index) {
+    this.file = file;
+    this.index = index;
+  }
+
+  @VisibleForTesting
+  void parse(String line) {
+    // Project names may contain tabs, change IDs don't.
+    int to = line.lastIndexOf('\t');
+    int from = to > 0 ? line.lastIndexOf('\t', to - 1) : -1;
+    Integer fromId = from > 0 ? Ints.tryParse(line.substring(from + 1, to)) : null;
+    Integer toId = from > 0 ? Ints.tryParse(line.substring(to + 1)) : null;
+    if (fromId == null || toId == null || fromId > toId) {
+      // The last line may be truncated if the previous reindex was killed while writing it.
+      logger.atWarning().log("Ignoring invalid line in %s: %s", file, line);
+      return;
+    }
+    add(Project.nameKey(line.substring(0, from)), Range.closed(fromId, toId));
+  }
+
+  private void add(Project.NameKey project, Range<Integer> ids) {
+    done.computeIfAbsent(project, p -> TreeRangeSet.create()).add(ids);
+  }
+
+  /** Whether a change was indexed by a previous reindex. */
+  boolean isDone(Project.NameKey project, Change.Id id) {
+    RangeSet<Integer> ids = done.get(project);
+    return ids != null && ids.contains(id.get());
+  }
+
+  /**
+   * Record that all changes of a project within a range of IDs were indexed.
+   *
+   * <p>The range is persisted with the next commit of the index, which is done at most every
+   * minute.
+   *
+   * @param project project the changes belong to.
+   * @param ids range of change IDs.
+   * @throws IOException if the progress can't be written.
+   */
+  synchronized void done(Project.NameKey project, Range<Integer> ids) throws IOException {
+    pending.add(project.get() + '\t' + ids.lowerEndpoint() + '\t' + ids.upperEndpoint());
+    if (sinceCommit.elapsed(TimeUnit.SECONDS) >= COMMIT_INTERVAL_SECONDS) {
+      commit();
+    }
+  }
+
+  /**
+   * Commit the index and persist the ranges of changes that were indexed before.
+   *
+   * @throws IOException if the progress can't be written.
+   */
+  synchronized void commit() throws IOException {
+    if (pending.isEmpty()) {
+      return;
+    }
+    index.commit();
+    try (Writer w = Files.newBufferedWriter(file, UTF_8, CREATE, APPEND)) {
+      for (String line : pending) {
+        w.write(line);
+        w.write('\n');
+      }
+    }
+    pending.clear();
+    sinceCommit.reset().start();
+  }
+}
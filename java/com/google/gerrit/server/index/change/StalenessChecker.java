@@ -41,9 +41,12 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Pattern;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 
@@ -110,6 +113,37 @@ public class StalenessChecker {
     return refsAreStale(repoManager, id, states, patterns);
   }
 
+  /**
+   * Returns a {@link StalenessCheckResult} with structured information about staleness of the
+   * provided change, comparing its ref states against snapshots of refs rather than reading the
+   * refs from the repositories, see {@link StalenessSweeper}.
+   *
+   * @param refs snapshots of refs per project. A snapshot must contain all refs that have the name
+   *     of a state or the prefix of a pattern of its project. Projects without a snapshot are
+   *     checked against their repository.
+   */
+  static StalenessCheckResult check(
+      GitRepositoryManager repoManager,
+      Change.Id id,
+      SetMultimap<Project.NameKey, RefState> states,
+      ListMultimap<Project.NameKey, RefStatePattern> patterns,
+      Map<Project.NameKey, NavigableMap<String, ObjectId>> refs) {
+    Set<Project.NameKey> projects = Sets.union(states.keySet(), patterns.keySet());
+
+    for (Project.NameKey p : projects) {
+      NavigableMap<String, ObjectId> projectRefs = refs.get(p);
+      StalenessCheckResult result =
+          projectRefs != null
+              ? refsAreStale(id, p, projectRefs, states, patterns)
+              : refsAreStale(repoManager, id, p, states, patterns);
+      if (result.isStale()) {
+        return result;
+      }
+    }
+
+    return StalenessCheckResult.notStale();
+  }
+
   @VisibleForTesting
   static StalenessCheckResult refsAreStale(
       GitRepositoryManager repoManager,
@@ -184,6 +218,30 @@ public class StalenessChecker {
     }
   }
 
+  private static StalenessCheckResult refsAreStale(
+      Change.Id id,
+      Project.NameKey project,
+      NavigableMap<String, ObjectId> refs,
+      SetMultimap<Project.NameKey, RefState> allStates,
+      ListMultimap<Project.NameKey, RefStatePattern> allPatterns) {
+    Set<RefState> states = allStates.get(project);
+    for (RefState state : states) {
+      ObjectId actual = refs.getOrDefault(state.ref(), ObjectId.zeroId());
+      if (!state.id().equals(actual)) {
+        return StalenessCheckResult.stale(
+            "Ref states don't match for document %s (%s != %s)", id, state, actual.name());
+      }
+    }
+    for (RefStatePattern pattern : allPatterns.get(project)) {
+      if (!pattern.match(refs, states)) {
+        return StalenessCheckResult.stale(
+            "Ref patterns don't match for document %s. Pattern: %s States: %s",
+            id, pattern, states);
+      }
+    }
+    return StalenessCheckResult.notStale();
+  }
+
   /**
    * Pattern for matching refs.
    *
@@ -237,5 +295,17 @@ public class StalenessChecker {
       }
       return true;
     }
+
+    private boolean match(NavigableMap<String, ObjectId> refs, Set<RefState> expected) {
+      for (Map.Entry<String, ObjectId> e : refs.tailMap(prefix(), true).entrySet()) {
+        if (!e.getKey().startsWith(prefix())) {
+          break;
+        }
+        if (match(e.getKey()) && !expected.contains(RefState.create(e.getKey(), e.getValue()))) {
+          return false;
+        }
+      }
+      return true;
+    }
   }
 }
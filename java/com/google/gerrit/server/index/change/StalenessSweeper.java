@@ -0,0 +1,359 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.index.RefState;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.ScheduleConfig;
+import com.google.gerrit.server.config.ScheduleConfig.Schedule;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.index.IndexExecutor;
+import com.google.gerrit.server.index.StalenessCheckResult;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.InternalChangeQuery;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Runnable to periodically find and reindex stale changes.
+ *
+ * <p>Unlike {@link StalenessChecker#check(Change.Id)}, which opens the repositories of a single
+ * change, the sweeper checks all changes of a project at once: the ref states of the changes are
+ * read with a single index query and compared against a snapshot of the change and user refs of
+ * the project, which is read in one pass over the ref database. The draft comment and star refs in
+ * All-Users are read once per sweep and grouped by change. Changes whose meta ref exists but which
+ * are missing from the index are candidates as well. Since the snapshots may be older or newer than
+ * the index query, e.g. for changes updated while the sweep runs, every candidate is checked again
+ * by {@link StalenessChecker#check(Change.Id)} before it is reindexed.
+ *
+ * <p>This allows to verify the consistency of the change index on sites where changes may be
+ * updated by other servers, e.g. in multi-primary setups. The sweeper is disabled by default and
+ * configured by {@code index.stalenessSweeper} in {@code gerrit.config}.
+ */
+@Singleton
+public class StalenessSweeper implements Runnable {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final NavigableMap<String, ObjectId> EMPTY_REFS =
+      Collections.unmodifiableNavigableMap(new TreeMap<>());
+
+  public static class Module extends LifecycleModule {
+    @Override
+    protected void configure() {
+      listener().to(Lifecycle.class);
+    }
+  }
+
+  private static class Lifecycle implements LifecycleListener {
+    private final Config cfg;
+    private final WorkQueue queue;
+    private final StalenessSweeper sweeper;
+
+    @Inject
+    Lifecycle(@GerritServerConfig Config cfg, WorkQueue queue, StalenessSweeper sweeper) {
+      this.cfg = cfg;
+      this.queue = queue;
+      this.sweeper = sweeper;
+    }
+
+    @Override
+    public void start() {
+      if (!cfg.getBoolean("index", "stalenessSweeper", "enabled", false)) {
+        return;
+      }
+      Schedule schedule =
+          ScheduleConfig.builder(cfg, "index")
+              .setSubsection("stalenessSweeper")
+              .buildSchedule()
+              .orElseGet(() -> Schedule.createOrFail(TimeUnit.HOURS.toMillis(1), "00:00"));
+      queue.scheduleAtFixedRate(sweeper, schedule);
+    }
+
+    @Override
+    public void stop() {
+      // handled by WorkQueue.stop() already
+    }
+  }
+
+  @Singleton
+  static class Metrics {
+    final Counter0 changesChecked;
+    final Counter0 staleChanges;
+    final Timer0 projectLatency;
+
+    @Inject
+    Metrics(MetricMaker metrics) {
+      changesChecked =
+          metrics.newCounter(
+              "index/change/staleness_sweep/changes_checked",
+              new Description("Changes checked for staleness by the staleness sweeper")
+                  .setRate()
+                  .setUnit("changes"));
+      staleChanges =
+          metrics.newCounter(
+              "index/change/staleness_sweep/stale_changes",
+              new Description("Stale changes found and reindexed by the staleness sweeper")
+                  .setRate()
+                  .setUnit("changes"));
+      projectLatency =
+          metrics.newTimer(
+              "index/change/staleness_sweep/project_latency",
+              new Description("Time to check all changes of a project for staleness")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
+    }
+  }
+
+  private final AllUsersName allUsersName;
+  private final GitRepositoryManager repoManager;
+  private final ProjectCache projectCache;
+  private final ChangeIndexCollection indexes;
+  private final Provider<InternalChangeQuery> queryProvider;
+  private final OneOffRequestContext requestContext;
+  private final ChangeIndexer indexer;
+  private final StalenessChecker stalenessChecker;
+  private final Metrics metrics;
+
+  @Inject
+  StalenessSweeper(
+      AllUsersName allUsersName,
+      GitRepositoryManager repoManager,
+      ProjectCache projectCache,
+      ChangeIndexCollection indexes,
+      Provider<InternalChangeQuery> queryProvider,
+      OneOffRequestContext requestContext,
+      ChangeIndexer.Factory indexerFactory,
+      @IndexExecutor(BATCH) ListeningExecutorService executor,
+      StalenessChecker stalenessChecker,
+      Metrics metrics) {
+    this.allUsersName = allUsersName;
+    this.repoManager = repoManager;
+    this.projectCache = projectCache;
+    this.indexes = indexes;
+    this.queryProvider = queryProvider;
+    this.requestContext = requestContext;
+    this.indexer = indexerFactory.create(executor, indexes);
+    this.stalenessChecker = stalenessChecker;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public synchronized void run() {
+    ChangeIndex i = indexes.getSearchIndex();
+    if (i == null
+        || !i.getSchema().hasField(ChangeField.REF_STATE)
+        || !i.getSchema().hasField(ChangeField.REF_STATE_PATTERN)) {
+      return; // Index version not new enough for this check.
+    }
+
+    Stopwatch sw = Stopwatch.createStarted();
+    int checked = 0;
+    int stale = 0;
+    try (ManualRequestContext ctx = requestContext.open();
+        Repository allUsers = repoManager.openRepository(allUsersName)) {
+      NavigableMap<String, ObjectId> allUsersRefs =
+          scan(
+              allUsers,
+              RefNames.REFS_CHANGES,
+              RefNames.REFS_USERS,
+              RefNames.REFS_DRAFT_COMMENTS,
+              RefNames.REFS_STARRED_CHANGES);
+      Map<Change.Id, NavigableMap<String, ObjectId>> allUsersRefsByChange =
+          byChange(allUsersRefs);
+      for (Project.NameKey project : projectCache.all()) {
+        Stopwatch projectSw = Stopwatch.createStarted();
+        try {
+          SweepResult result = sweep(project, allUsersRefs, allUsersRefsByChange);
+          checked += result.checked;
+          stale += result.stale;
+        } catch (IOException | RuntimeException e) {
+          logger.atWarning().withCause(e).log(
+              "Failed to check changes of %s for staleness", project);
+        }
+        metrics.projectLatency.record(
+            projectSw.elapsed(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+      }
+    } catch (Throwable t) {
+      logger.atSevere().withCause(t).log("Failed to check changes for staleness");
+    }
+    logger.atInfo().log(
+        "Checked %d changes for staleness in %dms, reindexing %d stale changes",
+        checked, sw.elapsed(TimeUnit.MILLISECONDS), stale);
+  }
+
+  private SweepResult sweep(
+      Project.NameKey project,
+      NavigableMap<String, ObjectId> allUsersRefs,
+      Map<Change.Id, NavigableMap<String, ObjectId>> allUsersRefsByChange)
+      throws IOException {
+    // Query the index before reading the refs, so that a change that is updated in between is
+    // a candidate rather than missed.
+    List<ChangeData> changes =
+        InternalChangeQuery.byProjectExhaustively(
+            () ->
+                queryProvider
+                    .get()
+                    .setRequestedFields(ChangeField.REF_STATE, ChangeField.REF_STATE_PATTERN),
+            project);
+
+    NavigableMap<String, ObjectId> projectRefs;
+    if (project.equals(allUsersName)) {
+      projectRefs = allUsersRefs;
+    } else {
+      try (Repository repo = repoManager.openRepository(project)) {
+        projectRefs = scan(repo, RefNames.REFS_CHANGES, RefNames.REFS_USERS);
+      }
+    }
+
+    Set<Change.Id> indexed = new HashSet<>();
+    List<Change.Id> candidates = new ArrayList<>();
+    for (ChangeData cd : changes) {
+      if (!indexed.add(cd.getId())) {
+        continue;
+      }
+      StalenessCheckResult result =
+          check(
+              cd,
+              project.equals(allUsersName)
+                  ? ImmutableMap.of(allUsersName, allUsersRefs)
+                  : ImmutableMap.of(
+                      project,
+                      projectRefs,
+                      allUsersName,
+                      allUsersRefsByChange.getOrDefault(cd.getId(), EMPTY_REFS)));
+      if (result.isStale()) {
+        logger.atFine().log("%s", result.reason().orElse(null));
+        candidates.add(cd.getId());
+      }
+    }
+    for (String ref : projectRefs.keySet()) {
+      Change.Id id = Change.Id.fromRef(ref);
+      if (id != null && ref.equals(RefNames.changeMetaRef(id)) && !indexed.contains(id)) {
+        logger.atFine().log("Document %s missing from index", id);
+        candidates.add(id);
+      }
+    }
+
+    List<Change.Id> staleIds = new ArrayList<>(candidates.size());
+    for (Change.Id id : candidates) {
+      if (stalenessChecker.check(id).isStale()) {
+        staleIds.add(id);
+      }
+    }
+
+    if (!staleIds.isEmpty()) {
+      logger.atInfo().log("Reindexing %d stale changes of %s", staleIds.size(), project);
+      for (Change.Id id : staleIds) {
+        @SuppressWarnings("unused")
+        Future<?> possiblyIgnoredError = indexer.indexAsync(project, id);
+      }
+    }
+    metrics.changesChecked.incrementBy(indexed.size());
+    metrics.staleChanges.incrementBy(staleIds.size());
+    return new SweepResult(indexed.size(), staleIds.size());
+  }
+
+  private StalenessCheckResult check(
+      ChangeData cd, Map<Project.NameKey, NavigableMap<String, ObjectId>> refs) {
+    try {
+      return StalenessChecker.check(
+          repoManager,
+          cd.getId(),
+          RefState.parseStates(cd.getRefStates()),
+          StalenessChecker.parsePatterns(cd.getRefStatePatterns()),
+          refs);
+    } catch (IllegalArgumentException e) {
+      return StalenessCheckResult.stale(
+          "Invalid ref states for document %s: %s", cd.getId(), e.getMessage());
+    }
+  }
+
+  /** Groups the draft comment and star refs of All-Users by change. */
+  private static Map<Change.Id, NavigableMap<String, ObjectId>> byChange(
+      NavigableMap<String, ObjectId> allUsersRefs) {
+    Map<Change.Id, NavigableMap<String, ObjectId>> byChange = new HashMap<>();
+    for (Map.Entry<String, ObjectId> e : allUsersRefs.entrySet()) {
+      Change.Id id = Change.Id.fromAllUsersRef(e.getKey());
+      if (id != null) {
+        byChange.computeIfAbsent(id, k -> new TreeMap<>()).put(e.getKey(), e.getValue());
+      }
+    }
+    return byChange;
+  }
+
+  private static NavigableMap<String, ObjectId> scan(Repository repo, String... prefixes)
+      throws IOException {
+    NavigableMap<String, ObjectId> refs = new TreeMap<>();
+    for (Ref ref : repo.getRefDatabase().getRefsByPrefix(prefixes)) {
+      if (ref.getObjectId() != null) {
+        refs.put(ref.getName(), ref.getObjectId());
+      }
+    }
+    return refs;
+  }
+
+  private static class SweepResult {
+    final int checked;
+    final int stale;
+
+    SweepResult(int checked, int stale) {
+      this.checked = checked;
+      this.stale = stale;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "change staleness sweeper";
+  }
+}
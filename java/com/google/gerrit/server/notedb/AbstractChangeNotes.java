@@ -137,11 +137,30 @@ public abstract class AbstractChangeNotes<T> {
       return self();
     }
 
+    try (Repository repo = args.repoManager.openRepository(getProjectName())) {
+      return load(repo);
+    } catch (IOException e) {
+      throw new StorageException(e);
+    }
+  }
+
+  /**
+   * Load the notes from a repository that was already opened by the caller.
+   *
+   * <p>Useful when loading many changes of the same project, to open the repository only once.
+   *
+   * @param repo repository of the project the change belongs to.
+   * @return this object.
+   */
+  public T load(Repository repo) {
+    if (loaded) {
+      return self();
+    }
+
     if (args.failOnLoadForTest.get()) {
       throw new StorageException("Reading from NoteDb is disabled");
     }
     try (Timer0.Context timer = args.metrics.readLatency.start();
-        Repository repo = args.repoManager.openRepository(getProjectName());
         // Call openHandle even if reading is disabled, to trigger
         // auto-rebuilding before this object may get passed to a ChangeUpdate.
         LoadHandle handle = openHandle(repo)) {
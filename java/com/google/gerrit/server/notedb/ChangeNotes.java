@@ -16,6 +16,7 @@ package com.google.gerrit.server.notedb;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.gerrit.entities.RefNames.changeMetaRef;
 import static java.util.Comparator.comparing;
@@ -66,6 +67,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Predicate;
@@ -156,6 +158,30 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return new ChangeNotes(args, change, true, refs).load();
     }
 
+    /**
+     * Create change notes for several changes of one project, to be loaded with {@link
+     * ChangeNotes#load(Repository)}.
+     *
+     * <p>The meta refs of all changes are read from {@code repo} in a single batch, so loading the
+     * notes afterwards doesn't read any refs. The notes may be loaded concurrently.
+     *
+     * @param repo open repository of the project.
+     * @param project project the changes belong to.
+     * @param changeIds IDs of the changes.
+     * @return notes that are not loaded yet, in the same order as {@code changeIds}.
+     */
+    public ImmutableList<ChangeNotes> createForBatchLoad(
+        Repository repo, Project.NameKey project, List<Change.Id> changeIds) throws IOException {
+      checkArgument(project != null, "project is required");
+      Map<String, Ref> metaRefs =
+          repo.getRefDatabase()
+              .exactRef(changeIds.stream().map(RefNames::changeMetaRef).toArray(String[]::new));
+      RefCache refs = refName -> Optional.ofNullable(metaRefs.get(refName)).map(Ref::getObjectId);
+      return changeIds.stream()
+          .map(id -> new ChangeNotes(args, newChange(project, id), true, refs))
+          .collect(toImmutableList());
+    }
+
     public List<ChangeNotes> create(Collection<Change.Id> changeIds) {
       List<ChangeNotes> notes = new ArrayList<>();
       for (Change.Id changeId : changeIds) {
@@ -211,6 +237,22 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return sr.all().stream().map(id -> scanOneChange(project, sr, id)).filter(Objects::nonNull);
     }
 
+    /**
+     * Load changes of a project whose meta refs were already scanned by the caller.
+     *
+     * <p>Callers that split the changes of a large project into several batches can scan the refs
+     * of the project once and load each batch with this method, instead of scanning all refs of
+     * the project for every batch as {@link #scan(Repository, Project.NameKey)} does.
+     *
+     * @param project project of the changes.
+     * @param changeIds IDs of changes of the project that have a meta ref.
+     * @return stream of the loaded changes.
+     */
+    public Stream<ChangeNotesResult> load(
+        Project.NameKey project, Collection<Change.Id> changeIds) {
+      return changeIds.stream().map(id -> toResult(newChange(project, id)));
+    }
+
     private ChangeNotesResult scanOneChange(Project.NameKey project, ScanResult sr, Change.Id id) {
       if (!sr.fromMetaRefs().contains(id)) {
         // Stray patch set refs can happen due to normal error conditions, e.g. failed
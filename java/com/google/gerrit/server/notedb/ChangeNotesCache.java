@@ -351,7 +351,9 @@ public class ChangeNotesCache {
       ChangeNotesParser parser =
           new ChangeNotesParser(
               key.changeId(), key.id(), walkSupplier.get(), args.changeNoteJson, args.metrics);
-      ChangeNotesState result = parser.parseAll();
+      ChangeNotesState result =
+          parser.parseAll(
+              id -> cache.getIfPresent(Key.create(key.project(), key.changeId(), id)));
       // This assignment only happens if call() was actually called, which only
       // happens when Cache#get(K, Callable<V>) incurs a cache miss.
       revisionNoteMap = parser.getRevisionNoteMap();
@@ -43,6 +43,7 @@ import static java.util.stream.Collectors.joining;
 import com.google.common.base.Enums;
 import com.google.common.base.Splitter;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.ListMultimap;
@@ -54,6 +55,7 @@ import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.primitives.Ints;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.LabelType;
 import com.google.gerrit.common.data.SubmitRecord;
 import com.google.gerrit.entities.Account;
@@ -81,6 +83,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -100,6 +103,33 @@ import org.eclipse.jgit.util.RawParseUtils;
 class ChangeNotesParser {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /**
+   * Maximum number of commits that are parsed on top of a prior state. Prior states of older
+   * commits are not looked up.
+   */
+  private static final int MAX_INCREMENTAL_COMMITS = 10;
+
+  /**
+   * Footers whose effect depends on older commits in ways that can't be reconstructed from a prior
+   * {@link ChangeNotesState}. Commits with these footers are never parsed incrementally.
+   */
+  private static final ImmutableList<FooterKey> NON_INCREMENTAL_FOOTERS =
+      ImmutableList.of(
+          FOOTER_BRANCH,
+          FOOTER_CHANGE_ID,
+          FOOTER_CHERRY_PICK_OF,
+          FOOTER_COMMIT,
+          FOOTER_CURRENT,
+          FOOTER_GROUPS,
+          FOOTER_PATCH_SET_DESCRIPTION,
+          FOOTER_PRIVATE,
+          FOOTER_REVERT_OF,
+          FOOTER_STATUS,
+          FOOTER_SUBJECT,
+          FOOTER_SUBMISSION_ID,
+          FOOTER_SUBMITTED_WITH,
+          FOOTER_WORK_IN_PROGRESS);
+
   // Private final members initialized in the constructor.
   private final ChangeNoteJson changeNoteJson;
 
@@ -180,6 +210,21 @@ class ChangeNotesParser {
   }
 
   ChangeNotesState parseAll() throws ConfigInvalidException, IOException {
+    return parseAll(id -> null);
+  }
+
+  /**
+   * Parse the notes, reusing the state of an ancestor of the tip if one is known.
+   *
+   * <p>If the state at one of the first {@link #MAX_INCREMENTAL_COMMITS} ancestors is known, only
+   * the commits on top of it are parsed and merged into that state. The result is the same as when
+   * parsing all commits.
+   *
+   * @param priorStates returns the known state at a revision of the meta ref, or null.
+   * @return the state at the tip.
+   */
+  ChangeNotesState parseAll(Function<ObjectId, ChangeNotesState> priorStates)
+      throws ConfigInvalidException, IOException {
     // Don't include initial parse in timer, as this might do more I/O to page
     // in the block containing most commits. Later reads are not guaranteed to
     // avoid I/O, but often should.
@@ -187,8 +232,24 @@ class ChangeNotesParser {
     walk.markStart(walk.parseCommit(tip));
 
     try (Timer0.Context timer = metrics.parseLatency.start()) {
+      boolean incremental = true;
       ChangeNotesCommit commit;
       while ((commit = walk.next()) != null) {
+        if (incremental && updateCount > 0) {
+          ChangeNotesState prior =
+              updateCount <= MAX_INCREMENTAL_COMMITS ? priorStates.apply(commit) : null;
+          if (prior != null) {
+            ChangeNotesState merged = mergeInto(prior);
+            if (merged != null) {
+              metrics.incrementalParseCount.increment();
+              return merged;
+            }
+          }
+          incremental = prior == null && updateCount < MAX_INCREMENTAL_COMMITS;
+        }
+        if (incremental) {
+          incremental = isIncremental(commit);
+        }
         parse(commit);
       }
       if (hasReviewStarted == null) {
@@ -210,6 +271,153 @@ class ChangeNotesParser {
     return buildState();
   }
 
+  private boolean isIncremental(ChangeNotesCommit commit) throws ConfigInvalidException {
+    if (parsePatchSetState(commit) != null) {
+      return false;
+    }
+    for (FooterKey footer : NON_INCREMENTAL_FOOTERS) {
+      if (!commit.getFooterLineValues(footer).isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Merge the commits parsed so far into the state at their parent.
+   *
+   * <p>Callers must make sure that none of the parsed commits has footers that can't be merged, see
+   * {@link #isIncremental(ChangeNotesCommit)}. Fields that only these footers set are taken over
+   * from the prior state.
+   *
+   * <p>Since the parsed commits neither create nor delete patch sets, the patch sets of the prior
+   * state are the final ones. Approvals, messages and comments of other patch sets are dropped,
+   * just like {@link #updatePatchSetStates()} prunes the entities of deleted or missing patch sets
+   * when parsing all commits.
+   *
+   * @param prior state at the parent of the oldest parsed commit.
+   * @return merged state, or null if the parsed commits can't be merged into {@code prior}.
+   */
+  @Nullable
+  private ChangeNotesState mergeInto(ChangeNotesState prior)
+      throws ConfigInvalidException, IOException {
+    ChangeNotesState.ChangeColumns priorColumns = prior.columns();
+    if (priorColumns == null) {
+      return null;
+    }
+    if (priorColumns.workInProgress() && (!reviewers.isEmpty() || !reviewersByEmail.isEmpty())) {
+      // Pending reviewers are a snapshot of the reviewers updated after the change was last moved
+      // into WIP, which is older than the prior state.
+      return null;
+    }
+
+    Table<ReviewerStateInternal, Account.Id, Timestamp> mergedReviewers = HashBasedTable.create();
+    for (Table.Cell<ReviewerStateInternal, Account.Id, Timestamp> c :
+        prior.reviewers().asTable().cellSet()) {
+      if (!reviewers.containsRow(c.getColumnKey())) {
+        mergedReviewers.put(c.getRowKey(), c.getColumnKey(), c.getValue());
+      }
+    }
+    for (Table.Cell<Account.Id, ReviewerStateInternal, Timestamp> c : reviewers.cellSet()) {
+      if (c.getColumnKey() == ReviewerStateInternal.REMOVED) {
+        continue;
+      }
+      if (prior.allPastReviewers().contains(c.getRowKey())
+          && !prior.reviewers().all().contains(c.getRowKey())) {
+        // Approvals of removed reviewers are not in the prior state, but they are restored when
+        // the reviewer is added again.
+        return null;
+      }
+      mergedReviewers.put(c.getColumnKey(), c.getRowKey(), c.getValue());
+    }
+
+    Table<ReviewerStateInternal, Address, Timestamp> mergedReviewersByEmail =
+        HashBasedTable.create();
+    for (Table.Cell<ReviewerStateInternal, Address, Timestamp> c :
+        prior.reviewersByEmail().asTable().cellSet()) {
+      if (!reviewersByEmail.containsRow(c.getColumnKey())) {
+        mergedReviewersByEmail.put(c.getRowKey(), c.getColumnKey(), c.getValue());
+      }
+    }
+    for (Table.Cell<Address, ReviewerStateInternal, Timestamp> c : reviewersByEmail.cellSet()) {
+      if (c.getColumnKey() != ReviewerStateInternal.REMOVED) {
+        mergedReviewersByEmail.put(c.getColumnKey(), c.getRowKey(), c.getValue());
+      }
+    }
+
+    Set<Account.Id> pastReviewers = new LinkedHashSet<>(reviewers.rowKeySet());
+    pastReviewers.addAll(prior.allPastReviewers());
+
+    Set<PatchSet.Id> patchSetIds = new HashSet<>();
+    prior.patchSets().forEach(e -> patchSetIds.add(e.getKey()));
+
+    // Newer approvals win, just like when parsing all commits.
+    markBufferedApprovals(priorColumns.status());
+    Map<PatchSetApproval.Key, PatchSetApproval> mergedApprovals = new LinkedHashMap<>();
+    for (PatchSetApproval.Builder a : approvals.values()) {
+      if (patchSetIds.contains(a.key().patchSetId())) {
+        mergedApprovals.put(a.key(), a.build());
+      }
+    }
+    for (Map.Entry<PatchSet.Id, PatchSetApproval> e : prior.approvals()) {
+      mergedApprovals.putIfAbsent(e.getValue().key(), e.getValue());
+    }
+    ListMultimap<PatchSet.Id, PatchSetApproval> approvalsByPatchSet =
+        MultimapBuilder.hashKeys().arrayListValues().build();
+    for (PatchSetApproval a : mergedApprovals.values()) {
+      Account.Id accountId = a.key().accountId();
+      if (pastReviewers.contains(accountId) && !mergedReviewers.containsColumn(accountId)) {
+        continue; // Reviewer was explicitly removed.
+      }
+      approvalsByPatchSet.put(a.key().patchSetId(), a);
+    }
+    approvalsByPatchSet
+        .keySet()
+        .forEach(k -> approvalsByPatchSet.get(k).sort(ChangeNotes.PSA_BY_TIME));
+
+    List<ChangeMessage> mergedMessages = new ArrayList<>(prior.changeMessages());
+    for (ChangeMessage m : buildAllMessages()) {
+      if (patchSetIds.contains(m.getPatchSetId())) {
+        mergedMessages.add(m);
+      }
+    }
+
+    // Comments are stored in notes, which are always read from the tip.
+    parseNotes();
+    comments.values().removeIf(c -> !patchSetIds.contains(PatchSet.id(id, c.key.patchSetId)));
+
+    List<AssigneeStatusUpdate> mergedAssigneeUpdates = new ArrayList<>(assigneeUpdates);
+    mergedAssigneeUpdates.addAll(prior.assigneeUpdates());
+
+    Timestamp priorLastUpdatedOn = priorColumns.lastUpdatedOn();
+    return ChangeNotesState.builder()
+        .metaId(tip.copy())
+        .changeId(id)
+        .columns(
+            priorColumns
+                .toBuilder()
+                .lastUpdatedOn(
+                    lastUpdatedOn.after(priorLastUpdatedOn) ? lastUpdatedOn : priorLastUpdatedOn)
+                .topic(topic != null ? topic : priorColumns.topic())
+                .build())
+        .hashtags(hashtags != null ? hashtags : prior.hashtags())
+        .serverId(prior.serverId())
+        .patchSets(prior.patchSets())
+        .approvals(approvalsByPatchSet.entries())
+        .reviewers(ReviewerSet.fromTable(mergedReviewers))
+        .reviewersByEmail(ReviewerByEmailSet.fromTable(mergedReviewersByEmail))
+        .pendingReviewers(prior.pendingReviewers())
+        .pendingReviewersByEmail(prior.pendingReviewersByEmail())
+        .allPastReviewers(ImmutableList.copyOf(pastReviewers))
+        .reviewerUpdates(buildReviewerUpdates(prior.reviewerUpdates(), priorColumns.owner()))
+        .assigneeUpdates(mergedAssigneeUpdates)
+        .submitRecords(prior.submitRecords())
+        .changeMessages(mergedMessages)
+        .publishedComments(comments)
+        .updateCount(prior.updateCount() + updateCount)
+        .build();
+  }
+
   RevisionNoteMap<ChangeRevisionNote> getRevisionNoteMap() {
     return revisionNoteMap;
   }
@@ -238,7 +446,7 @@ class ChangeNotesParser {
         pendingReviewers,
         pendingReviewersByEmail,
         allPastReviewers,
-        buildReviewerUpdates(),
+        buildReviewerUpdates(ImmutableList.of(), ownerId),
         assigneeUpdates,
         submitRecords,
         buildAllMessages(),
@@ -293,11 +501,13 @@ class ChangeNotesParser {
     return result;
   }
 
-  private List<ReviewerStatusUpdate> buildReviewerUpdates() {
-    List<ReviewerStatusUpdate> result = new ArrayList<>();
+  private List<ReviewerStatusUpdate> buildReviewerUpdates(
+      List<ReviewerStatusUpdate> priorUpdates, Account.Id owner) {
+    List<ReviewerStatusUpdate> result = new ArrayList<>(priorUpdates);
     HashMap<Account.Id, ReviewerStateInternal> lastState = new HashMap<>();
+    priorUpdates.forEach(u -> lastState.put(u.reviewer(), u.state()));
     for (ReviewerStatusUpdate u : Lists.reverse(reviewerUpdates)) {
-      if (!Objects.equals(ownerId, u.reviewer()) && lastState.get(u.reviewer()) != u.state()) {
+      if (!Objects.equals(owner, u.reviewer()) && lastState.get(u.reviewer()) != u.state()) {
         result.add(u);
         lastState.put(u.reviewer(), u.state());
       }
@@ -609,6 +819,11 @@ class ChangeNotesParser {
     if (status == null) {
       throw invalidFooter(FOOTER_STATUS, statusLines.get(0));
     }
+    markBufferedApprovals(status);
+    return status;
+  }
+
+  private void markBufferedApprovals(@Nullable Change.Status status) {
     // All approvals after MERGED and before the next status change get the postSubmit
     // bit. (Currently the state can't change from MERGED to something else, but just in case.) The
     // exception is the legacy SUBM approval, which is never considered post-submit, but might end
@@ -621,7 +836,6 @@ class ChangeNotesParser {
       }
     }
     bufferedApprovals.clear();
-    return status;
   }
 
   private PatchSet.Id parsePatchSetId(ChangeNotesCommit commit) throws ConfigInvalidException {
@@ -14,6 +14,7 @@
 
 package com.google.gerrit.server.notedb;
 
+import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.MetricMaker;
@@ -43,6 +44,9 @@ class NoteDbMetrics {
    */
   final Timer0 parseLatency;
 
+  /** Number of changes whose notes were parsed on top of a cached state of an older revision. */
+  final Counter0 incrementalParseCount;
+
   @Inject
   NoteDbMetrics(MetricMaker metrics) {
     updateLatency =
@@ -72,5 +76,12 @@ class NoteDbMetrics {
             new Description("NoteDb parse latency for changes")
                 .setCumulative()
                 .setUnit(Units.MICROSECONDS));
+
+    incrementalParseCount =
+        metrics.newCounter(
+            "notedb/incremental_parse_count",
+            new Description("Total number of changes parsed on top of a cached prior state")
+                .setRate()
+                .setUnit("changes"));
   }
 }
@@ -0,0 +1,49 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflate compressed proto serialization for diff cache values, which are dominated by file names
+ * and headers that compress well.
+ */
+class DeflatedProtos {
+  static byte[] toByteArray(MessageLite message) {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream(message.getSerializedSize() / 2 + 16);
+    try (DeflaterOutputStream out = new DeflaterOutputStream(buf)) {
+      message.writeTo(out);
+    } catch (IOException e) {
+      throw new IllegalStateException("exception writing to byte array", e);
+    }
+    return buf.toByteArray();
+  }
+
+  static <M extends MessageLite> M parseUnchecked(Parser<M> parser, byte[] in) {
+    try (InflaterInputStream is = new InflaterInputStream(new ByteArrayInputStream(in))) {
+      return parser.parseFrom(is);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("exception parsing byte array to proto", e);
+    }
+  }
+
+  private DeflatedProtos() {}
+}
@@ -14,16 +14,33 @@
 
 package com.google.gerrit.server.patch;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
 
 /** Module providing the {@link DiffExecutor}. */
 public class DiffExecutorModule extends AbstractModule {
+  /**
+   * Number of diffs per thread that may wait for a thread if the number of threads is limited.
+   * Further diffs are rejected.
+   */
+  private static final int QUEUE_SIZE_PER_THREAD = 10;
 
   @Override
   protected void configure() {}
@@ -31,9 +48,80 @@ public class DiffExecutorModule extends AbstractModule {
   @Provides
   @Singleton
   @DiffExecutor
-  public ExecutorService createDiffExecutor() {
-    return new LoggingContextAwareExecutorService(
-        Executors.newCachedThreadPool(
-            new ThreadFactoryBuilder().setNameFormat("Diff-%d").setDaemon(true).build()));
+  public ExecutorService createDiffExecutor(
+      @GerritServerConfig Config cfg, MetricMaker metricMaker) {
+    Timer0 latency =
+        metricMaker.newTimer(
+            "diff/computation_latency",
+            new Description("Time spent computing a diff on the diff executor")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    ThreadPoolExecutor executor = newThreadPool(cfg, latency);
+    metricMaker.newCallbackMetric(
+        "diff/executor/queue_length",
+        Integer.class,
+        new Description("Number of diffs waiting for a thread of the diff executor")
+            .setGauge()
+            .setUnit("diffs"),
+        () -> executor.getQueue().size());
+    metricMaker.newCallbackMetric(
+        "diff/executor/active_threads",
+        Integer.class,
+        new Description("Number of threads of the diff executor that are computing a diff")
+            .setGauge()
+            .setUnit("threads"),
+        executor::getActiveCount);
+    return new LoggingContextAwareExecutorService(executor);
+  }
+
+  @VisibleForTesting
+  static ThreadPoolExecutor newThreadPool(Config cfg, Timer0 latency) {
+    // Without a limit, every diff runs on its own thread, like in a cached thread pool. Diffs that
+    // exceed their timeout keep running in the background, so a limit also bounds the CPU that is
+    // spent on them.
+    int threads = cfg.getInt("cache", PatchListCacheImpl.FILE_NAME, "threads", 0);
+    ThreadFactory threadFactory =
+        new ThreadFactoryBuilder().setNameFormat("Diff-%d").setDaemon(true).build();
+    if (threads <= 0) {
+      return new DiffThreadPoolExecutor(
+          0, Integer.MAX_VALUE, new SynchronousQueue<>(), threadFactory, latency);
+    }
+    // Once the queue is full, diffs are rejected rather than computed by the requesting thread,
+    // which would bypass both the timeout and the limit. Callers fall back like on a timeout.
+    return new DiffThreadPoolExecutor(
+        threads,
+        threads,
+        new ArrayBlockingQueue<>(threads * QUEUE_SIZE_PER_THREAD),
+        threadFactory,
+        latency);
+  }
+
+  private static class DiffThreadPoolExecutor extends ThreadPoolExecutor {
+    private final Timer0 latency;
+    private final ThreadLocal<Long> startNanos = new ThreadLocal<>();
+
+    DiffThreadPoolExecutor(
+        int corePoolSize,
+        int maximumPoolSize,
+        BlockingQueue<Runnable> queue,
+        ThreadFactory threadFactory,
+        Timer0 latency) {
+      super(corePoolSize, maximumPoolSize, 60, TimeUnit.SECONDS, queue, threadFactory);
+      this.latency = latency;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+      startNanos.set(System.nanoTime());
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+      Long start = startNanos.get();
+      if (start != null) {
+        latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        startNanos.remove();
+      }
+    }
   }
 }
@@ -19,6 +19,8 @@ import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeString;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
 
+import com.google.gerrit.server.cache.proto.Cache.DiffSummaryProto;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import com.google.gerrit.server.query.change.ChangeData.ChangedLines;
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -72,4 +74,25 @@ public class DiffSummary implements Serializable {
       }
     }
   }
+
+  enum Serializer implements CacheSerializer<DiffSummary> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(DiffSummary object) {
+      return DeflatedProtos.toByteArray(
+          DiffSummaryProto.newBuilder()
+              .addAllPath(Arrays.asList(object.paths))
+              .setInsertions(object.insertions)
+              .setDeletions(object.deletions)
+              .build());
+    }
+
+    @Override
+    public DiffSummary deserialize(byte[] in) {
+      DiffSummaryProto proto = DeflatedProtos.parseUnchecked(DiffSummaryProto.parser(), in);
+      return new DiffSummary(
+          proto.getPathList().toArray(new String[0]), proto.getInsertions(), proto.getDeletions());
+    }
+  }
 }
@@ -0,0 +1,61 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.server.cache.proto.Cache.EditListProto;
+import java.util.Collection;
+import java.util.List;
+import org.eclipse.jgit.diff.Edit;
+
+/** Converts lists of {@link Edit}s to and from their delta encoded proto representation. */
+class EditListConverter {
+  static EditListProto toProto(Collection<Edit> edits) {
+    EditListProto.Builder b = EditListProto.newBuilder();
+    int prevEndA = 0;
+    int prevEndB = 0;
+    for (Edit e : edits) {
+      b.addDelta(e.getBeginA() - prevEndA);
+      b.addDelta(e.getEndA() - e.getBeginA());
+      b.addDelta(e.getBeginB() - prevEndB);
+      b.addDelta(e.getEndB() - e.getBeginB());
+      prevEndA = e.getEndA();
+      prevEndB = e.getEndB();
+    }
+    return b.build();
+  }
+
+  static ImmutableList<Edit> fromProto(EditListProto proto) {
+    List<Integer> delta = proto.getDeltaList();
+    checkArgument(delta.size() % 4 == 0, "invalid edit list of length %s", delta.size());
+    ImmutableList.Builder<Edit> edits = ImmutableList.builderWithExpectedSize(delta.size() / 4);
+    int prevEndA = 0;
+    int prevEndB = 0;
+    for (int i = 0; i < delta.size(); i += 4) {
+      int beginA = prevEndA + delta.get(i);
+      int endA = beginA + delta.get(i + 1);
+      int beginB = prevEndB + delta.get(i + 2);
+      int endB = beginB + delta.get(i + 3);
+      edits.add(new Edit(beginA, endA, beginB, endB));
+      prevEndA = endA;
+      prevEndB = endB;
+    }
+    return edits.build();
+  }
+
+  private EditListConverter() {}
+}
@@ -23,12 +23,17 @@ import static java.util.stream.Collectors.toList;
 import com.google.common.collect.ImmutableList;
 import com.google.gerrit.entities.CodedEnum;
 import com.google.gerrit.jgit.diff.ReplaceEdit;
+import com.google.gerrit.proto.Protos;
+import com.google.gerrit.server.cache.proto.Cache.EditListProto;
+import com.google.gerrit.server.cache.proto.Cache.IntraLineDiffProto;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -151,4 +156,45 @@ public class IntraLineDiff implements Serializable {
   private static List<Edit> asList(Edit[] l) {
     return Collections.unmodifiableList(Arrays.asList(l));
   }
+
+  enum Serializer implements CacheSerializer<IntraLineDiff> {
+    INSTANCE;
+
+    private static final EditListProto NO_INTERNAL_EDITS = EditListProto.getDefaultInstance();
+
+    @Override
+    public byte[] serialize(IntraLineDiff object) {
+      IntraLineDiffProto.Builder b =
+          IntraLineDiffProto.newBuilder()
+              .setStatus(object.status.name())
+              .setEdits(EditListConverter.toProto(object.edits));
+      for (Edit e : object.edits) {
+        b.addInternalEdits(
+            e instanceof ReplaceEdit
+                ? EditListConverter.toProto(((ReplaceEdit) e).getInternalEdits())
+                : NO_INTERNAL_EDITS);
+      }
+      return Protos.toByteArray(b.build());
+    }
+
+    @Override
+    public IntraLineDiff deserialize(byte[] in) {
+      IntraLineDiffProto proto = Protos.parseUnchecked(IntraLineDiffProto.parser(), in);
+      Status status = Status.valueOf(proto.getStatus());
+      if (status != Status.EDIT_LIST) {
+        return new IntraLineDiff(status);
+      }
+      ImmutableList<Edit> edits = EditListConverter.fromProto(proto.getEdits());
+      List<Edit> result = new ArrayList<>(edits.size());
+      for (int i = 0; i < edits.size(); i++) {
+        Edit e = edits.get(i);
+        ImmutableList<Edit> internal =
+            i < proto.getInternalEditsCount()
+                ? EditListConverter.fromProto(proto.getInternalEdits(i))
+                : ImmutableList.of();
+        result.add(internal.isEmpty() ? e : new ReplaceEdit(e, internal));
+      }
+      return new IntraLineDiff(result);
+    }
+  }
 }
@@ -30,11 +30,14 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
 import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.MyersDiff;
+import org.eclipse.jgit.diff.Subsequence;
+import org.eclipse.jgit.diff.SubsequenceComparator;
 import org.eclipse.jgit.lib.Config;
 
 class IntraLineLoader implements Callable<IntraLineDiff> {
@@ -49,6 +52,15 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
 
   private static final Pattern CONTROL_BLOCK_START_RE = Pattern.compile("[{:][ \\t]*$");
 
+  /**
+   * Maximum number of characters of a replaced region that are compared character by character.
+   * Larger regions, e.g. long lines of minified files, are compared token by token instead.
+   */
+  private static final int MAX_CHAR_DIFF_LENGTH = 4096;
+
+  /** Maximum number of characters of replaced tokens that are compared character by character. */
+  private static final int MAX_REFINED_TOKEN_LENGTH = 32;
+
   private final ExecutorService diffExecutor;
   private final long timeoutMillis;
   private final IntraLineDiffKey key;
@@ -75,11 +87,24 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
 
   @Override
   public IntraLineDiff call() throws Exception {
-    Future<IntraLineDiff> result =
-        diffExecutor.submit(
-            () ->
-                IntraLineLoader.compute(
-                    args.aText(), args.bText(), args.edits(), args.editsDueToRebase()));
+    Future<IntraLineDiff> result;
+    try {
+      result =
+          diffExecutor.submit(
+              () ->
+                  IntraLineLoader.compute(
+                      args.aText(), args.bText(), args.edits(), args.editsDueToRebase()));
+    } catch (RejectedExecutionException e) {
+      logger.atWarning().log(
+          "Diff executor is saturated, skipping IntraLineDiff"
+              + " in project %s on commit %s for path %s comparing %s..%s",
+          args.project(),
+          args.commit().name(),
+          args.path(),
+          key.getBlobA().name(),
+          key.getBlobB().name());
+      return new IntraLineDiff(IntraLineDiff.Status.TIMEOUT);
+    }
     try {
       return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
     } catch (InterruptedException | TimeoutException e) {
@@ -118,7 +143,7 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
         CharText b = new CharText(bText, e.getBeginB(), e.getEndB());
         CharTextComparator cmp = new CharTextComparator();
 
-        List<Edit> wordEdits = MyersDiff.INSTANCE.diff(cmp, a, b);
+        List<Edit> wordEdits = diff(cmp, a, b);
 
         // Combine edits that are really close together. If they are
         // just a few characters apart we tend to get better results
@@ -257,6 +282,39 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
     return new IntraLineDiff(edits);
   }
 
+  private static List<Edit> diff(CharTextComparator cmp, CharText a, CharText b) {
+    if (a.size() + b.size() <= MAX_CHAR_DIFF_LENGTH) {
+      return MyersDiff.INSTANCE.diff(cmp, a, b);
+    }
+
+    // The number of tokens is much smaller than the number of characters, and tokens with
+    // different hashes are compared in constant time. Only short replaced tokens are compared
+    // character by character, so that e.g. a changed digit of a number is still highlighted.
+    TokenText ta = new TokenText(a);
+    TokenText tb = new TokenText(b);
+    List<Edit> edits = new ArrayList<>();
+    for (Edit t : MyersDiff.INSTANCE.diff(new TokenTextComparator(), ta, tb)) {
+      Edit e =
+          new Edit(
+              ta.start(t.getBeginA()),
+              ta.start(t.getEndA()),
+              tb.start(t.getBeginB()),
+              tb.start(t.getEndB()));
+      if (e.getType() == Edit.Type.REPLACE
+          && e.getLengthA() <= MAX_REFINED_TOKEN_LENGTH
+          && e.getLengthB() <= MAX_REFINED_TOKEN_LENGTH) {
+        Subsequence<CharText> sa = Subsequence.a(a, e);
+        Subsequence<CharText> sb = Subsequence.b(b, e);
+        edits.addAll(
+            Subsequence.toBase(
+                MyersDiff.INSTANCE.diff(new SubsequenceComparator<>(cmp), sa, sb), sa, sb));
+      } else {
+        edits.add(e);
+      }
+    }
+    return edits;
+  }
+
   private static void combineLineEdits(
       List<Edit> edits, ImmutableSet<Edit> editsDueToRebase, Text a, Text b) {
     for (int j = 0; j < edits.size() - 1; ) {
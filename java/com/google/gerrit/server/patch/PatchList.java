@@ -28,6 +28,9 @@ import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Patch;
 import com.google.gerrit.entities.PatchSet;
 import com.google.gerrit.git.ObjectIds;
+import com.google.gerrit.server.cache.proto.Cache.PatchListProto;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -200,4 +203,45 @@ public class PatchList implements Serializable {
       patches = all;
     }
   }
+
+  enum Serializer implements CacheSerializer<PatchList> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(PatchList object) {
+      ObjectIdConverter idConverter = ObjectIdConverter.create();
+      PatchListProto.Builder b =
+          PatchListProto.newBuilder()
+              .setNewId(idConverter.toByteString(object.newId))
+              .setIsMerge(object.isMerge);
+      if (object.oldId != null) {
+        b.setOldId(idConverter.toByteString(object.oldId)).setHasOldId(true);
+      }
+      b.setComparisonType(object.comparisonType.toProto());
+      for (PatchListEntry e : object.patches) {
+        b.addEntry(e.toProto());
+      }
+      if (object instanceof PatchListCacheImpl.LargeObjectTombstone) {
+        b.setLargeObjectTombstone(true);
+      }
+      return DeflatedProtos.toByteArray(b.build());
+    }
+
+    @Override
+    public PatchList deserialize(byte[] in) {
+      PatchListProto proto = DeflatedProtos.parseUnchecked(PatchListProto.parser(), in);
+      if (proto.getLargeObjectTombstone()) {
+        return new PatchListCacheImpl.LargeObjectTombstone();
+      }
+      ObjectIdConverter idConverter = ObjectIdConverter.create();
+      return new PatchList(
+          proto.getHasOldId() ? idConverter.fromByteString(proto.getOldId()) : null,
+          idConverter.fromByteString(proto.getNewId()),
+          proto.getIsMerge(),
+          ComparisonType.fromProto(proto.getComparisonType()),
+          proto.getEntryList().stream()
+              .map(PatchListEntry::fromProto)
+              .toArray(PatchListEntry[]::new));
+    }
+  }
 }
@@ -50,18 +50,24 @@ public class PatchListCacheImpl implements PatchListCache {
         // to be recursion free.
         persist(FILE_NAME, PatchListKey.class, PatchList.class, CacheBackend.GUAVA)
             .maximumWeight(10 << 20)
-            .weigher(PatchListWeigher.class);
+            .weigher(PatchListWeigher.class)
+            .version(1)
+            .valueSerializer(PatchList.Serializer.INSTANCE);
 
         factory(IntraLineLoader.Factory.class);
         persist(INTRA_NAME, IntraLineDiffKey.class, IntraLineDiff.class)
             .maximumWeight(10 << 20)
-            .weigher(IntraLineWeigher.class);
+            .weigher(IntraLineWeigher.class)
+            .version(1)
+            .valueSerializer(IntraLineDiff.Serializer.INSTANCE);
 
         factory(DiffSummaryLoader.Factory.class);
         persist(DIFF_SUMMARY, DiffSummaryKey.class, DiffSummary.class)
             .maximumWeight(10 << 20)
             .weigher(DiffSummaryWeigher.class)
-            .diskLimit(1 << 30);
+            .diskLimit(1 << 30)
+            .version(1)
+            .valueSerializer(DiffSummary.Serializer.INSTANCE);
 
         bind(PatchListCacheImpl.class);
         bind(PatchListCache.class).to(PatchListCacheImpl.class);
@@ -34,6 +34,8 @@ import com.google.gerrit.entities.Patch;
 import com.google.gerrit.entities.Patch.ChangeType;
 import com.google.gerrit.entities.Patch.PatchType;
 import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.server.cache.proto.Cache.PatchListEntryProto;
+import com.google.protobuf.ByteString;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -303,6 +305,40 @@ public class PatchListEntry {
         sizeDelta);
   }
 
+  PatchListEntryProto toProto() {
+    PatchListEntryProto.Builder b =
+        PatchListEntryProto.newBuilder()
+            .setChangeType(changeType.name())
+            .setPatchType(patchType.name())
+            .setNewName(newName)
+            .setHeader(ByteString.copyFrom(header))
+            .setEdits(EditListConverter.toProto(edits))
+            .setEditsDueToRebase(EditListConverter.toProto(editsDueToRebase))
+            .setInsertions(insertions)
+            .setDeletions(deletions)
+            .setSize(size)
+            .setSizeDelta(sizeDelta);
+    if (oldName != null) {
+      b.setOldName(oldName).setHasOldName(true);
+    }
+    return b.build();
+  }
+
+  static PatchListEntry fromProto(PatchListEntryProto proto) {
+    return new PatchListEntry(
+        ChangeType.valueOf(proto.getChangeType()),
+        PatchType.valueOf(proto.getPatchType()),
+        proto.getHasOldName() ? proto.getOldName() : null,
+        proto.getNewName(),
+        proto.getHeader().toByteArray(),
+        EditListConverter.fromProto(proto.getEdits()),
+        ImmutableSet.copyOf(EditListConverter.fromProto(proto.getEditsDueToRebase())),
+        proto.getInsertions(),
+        proto.getDeletions(),
+        proto.getSize(),
+        proto.getSizeDelta());
+  }
+
   private static Edit[] readEditArray(InputStream in) throws IOException {
     int numEdits = readVarInt32(in);
     Edit[] edits = new Edit[numEdits];
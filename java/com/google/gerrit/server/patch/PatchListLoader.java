@@ -22,12 +22,14 @@ import static java.util.stream.Collectors.toSet;
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Futures;
 import com.google.gerrit.entities.Patch;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
@@ -38,19 +40,26 @@ import com.google.gerrit.server.git.InMemoryInserter;
 import com.google.gerrit.server.git.MergeUtil;
 import com.google.gerrit.server.patch.EditTransformer.ContextAwareEdit;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.diff.DiffFormatter;
@@ -91,8 +100,91 @@ public class PatchListLoader implements Callable<PatchList> {
   private final PatchListKey key;
   private final Project.NameKey project;
   private final long timeoutMillis;
+  private final ParallelDiffs parallelDiffs;
   private final boolean save;
 
+  /**
+   * Limits the number of files that are diffed in parallel by all loaders together.
+   *
+   * <p>Each loader may always diff one file at a time. Diffing further files of the same patch list
+   * at the same time requires a permit, of which there is one less than there are processors, or
+   * threads of the diff executor if that is less. Without this limit, every loader would diff as
+   * many files at the same time as there are processors, so concurrent loads would multiply the
+   * number of threads of the unbounded diff executor.
+   *
+   * <p>A permit is held until the diff of the file is done. Diffs that exceed the timeout can't be
+   * stopped and keep their permit after the loader stopped waiting for them.
+   */
+  @Singleton
+  static class ParallelDiffs {
+    private final Semaphore permits;
+
+    @Inject
+    ParallelDiffs(@GerritServerConfig Config cfg) {
+      this(permits(cfg));
+    }
+
+    @VisibleForTesting
+    ParallelDiffs(int permits) {
+      this.permits = new Semaphore(permits);
+    }
+
+    private static int permits(Config cfg) {
+      int threads = cfg.getInt("cache", PatchListCacheImpl.FILE_NAME, "threads", 0);
+      int cpus = Runtime.getRuntime().availableProcessors();
+      return (threads > 0 ? Math.min(threads, cpus) : cpus) - 1;
+    }
+
+    /**
+     * Acquires a permit for a diff, if one is available.
+     *
+     * @param diff diff of a file.
+     * @return the diff, which releases the permit once it is done, or empty if no permit is
+     *     available.
+     */
+    Optional<PermittedDiff> tryAcquire(Callable<FileHeader> diff) {
+      return permits.tryAcquire() ? Optional.of(new PermittedDiff(diff)) : Optional.empty();
+    }
+
+    @VisibleForTesting
+    int availablePermits() {
+      return permits.availablePermits();
+    }
+
+    /** Diff of a file that holds a permit until it is done. */
+    class PermittedDiff implements Callable<FileHeader> {
+      private final Callable<FileHeader> diff;
+      private final AtomicBoolean started = new AtomicBoolean();
+
+      private PermittedDiff(Callable<FileHeader> diff) {
+        this.diff = diff;
+      }
+
+      @Override
+      public FileHeader call() throws Exception {
+        if (!started.compareAndSet(false, true)) {
+          // The permit was released because the diff was cancelled before it started.
+          throw new CancellationException();
+        }
+        try {
+          return diff.call();
+        } finally {
+          permits.release();
+        }
+      }
+
+      /**
+       * Releases the permit if the diff didn't start, e.g. because it was cancelled or rejected by
+       * the diff executor. Otherwise the diff releases the permit once it is done.
+       */
+      void releaseIfNotStarted() {
+        if (started.compareAndSet(false, true)) {
+          permits.release();
+        }
+      }
+    }
+  }
+
   @Inject
   PatchListLoader(
       GitRepositoryManager mgr,
@@ -100,6 +192,7 @@ public class PatchListLoader implements Callable<PatchList> {
       @GerritServerConfig Config cfg,
       @DiffExecutor ExecutorService de,
       AutoMerger am,
+      ParallelDiffs pd,
       @Assisted PatchListKey k,
       @Assisted Project.NameKey p) {
     repoManager = mgr;
@@ -117,6 +210,7 @@ public class PatchListLoader implements Callable<PatchList> {
             "timeout",
             TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS),
             TimeUnit.MILLISECONDS);
+    parallelDiffs = pd;
     save = AutoMerger.cacheAutomerge(cfg);
   }
 
@@ -205,11 +299,14 @@ public class PatchListLoader implements Callable<PatchList> {
                 b,
                 comparisonType));
       }
-      for (DiffEntry diffEntry : diffEntries) {
+      List<FileHeader> fileHeaders = toFileHeaders(repo, ins, cmp, df, diffEntries);
+      for (int i = 0; i < diffEntries.size(); i++) {
+        DiffEntry diffEntry = diffEntries.get(i);
         Set<ContextAwareEdit> editsDueToRebase =
             getEditsDueToRebase(editsDueToRebasePerFilePath, diffEntry);
         Optional<PatchListEntry> patchListEntry =
-            getPatchListEntry(reader, df, diffEntry, aTree, bTree, editsDueToRebase);
+            getPatchListEntry(
+                reader, fileHeaders.get(i), diffEntry, aTree, bTree, editsDueToRebase);
         patchListEntry.ifPresent(entries::add);
       }
       return new PatchList(
@@ -376,13 +473,12 @@ public class PatchListLoader implements Callable<PatchList> {
 
   private Optional<PatchListEntry> getPatchListEntry(
       ObjectReader objectReader,
-      DiffFormatter diffFormatter,
+      FileHeader fileHeader,
       DiffEntry diffEntry,
       RevTree treeA,
       RevTree treeB,
       Set<ContextAwareEdit> editsDueToRebase)
       throws IOException {
-    FileHeader fileHeader = toFileHeader(key.getNewId(), diffFormatter, diffEntry);
     long oldSize = getFileSize(objectReader, diffEntry.getOldMode(), diffEntry.getOldPath(), treeA);
     long newSize = getFileSize(objectReader, diffEntry.getNewMode(), diffEntry.getNewPath(), treeB);
     Set<Edit> contentEditsDueToRebase = getContentEdits(editsDueToRebase);
@@ -432,17 +528,90 @@ public class PatchListLoader implements Callable<PatchList> {
     return t == FileMode.TYPE_FILE || t == FileMode.TYPE_SYMLINK;
   }
 
+  /**
+   * Computes the file headers, including the edits, of all files of the diff.
+   *
+   * <p>The files are diffed in parallel on the diff executor, as far as {@link ParallelDiffs}
+   * permits. Each file is diffed with its own reader and formatter, since they are not thread-safe.
+   */
+  private List<FileHeader> toFileHeaders(
+      Repository repo,
+      ObjectInserter ins,
+      RawTextComparator cmp,
+      DiffFormatter diffFormatter,
+      List<DiffEntry> diffEntries)
+      throws IOException {
+    List<FileHeader> fileHeaders = new ArrayList<>(diffEntries.size());
+    Deque<Future<FileHeader>> pending = new ArrayDeque<>();
+    List<ParallelDiffs.PermittedDiff> permitted = new ArrayList<>();
+    int next = 0;
+    try {
+      while (fileHeaders.size() < diffEntries.size()) {
+        while (next < diffEntries.size()) {
+          DiffEntry diffEntry = diffEntries.get(next);
+          Callable<FileHeader> diff = () -> toFileHeader(repo, ins, cmp, diffEntry);
+          if (!pending.isEmpty()) {
+            Optional<ParallelDiffs.PermittedDiff> permittedDiff = parallelDiffs.tryAcquire(diff);
+            if (!permittedDiff.isPresent()) {
+              break;
+            }
+            permitted.add(permittedDiff.get());
+            diff = permittedDiff.get();
+          }
+          pending.add(submit(diff));
+          next++;
+        }
+        DiffEntry diffEntry = diffEntries.get(fileHeaders.size());
+        fileHeaders.add(
+            getFileHeader(key.getNewId(), diffFormatter, diffEntry, pending.remove()));
+      }
+    } finally {
+      pending.forEach(f -> f.cancel(true));
+      permitted.forEach(ParallelDiffs.PermittedDiff::releaseIfNotStarted);
+    }
+    return fileHeaders;
+  }
+
+  private static FileHeader toFileHeader(
+      Repository repo, ObjectInserter ins, RawTextComparator cmp, DiffEntry diffEntry)
+      throws IOException {
+    // Objects of the auto-merge may not be saved, so read through the inserter.
+    try (ObjectReader reader = ins.newReader();
+        DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+      df.setReader(reader, repo.getConfig());
+      df.setDiffComparator(cmp);
+      return df.toFileHeader(diffEntry);
+    }
+  }
+
   private FileHeader toFileHeader(
       ObjectId commitB, DiffFormatter diffFormatter, DiffEntry diffEntry) throws IOException {
 
     Future<FileHeader> result =
-        diffExecutor.submit(
+        submit(
             () -> {
               synchronized (diffEntry) {
                 return diffFormatter.toFileHeader(diffEntry);
               }
             });
+    return getFileHeader(commitB, diffFormatter, diffEntry, result);
+  }
+
+  private Future<FileHeader> submit(Callable<FileHeader> task) {
+    try {
+      return diffExecutor.submit(task);
+    } catch (RejectedExecutionException e) {
+      // The diff executor is saturated, the caller falls back like on a timeout.
+      return Futures.immediateFailedFuture(e);
+    }
+  }
 
+  private FileHeader getFileHeader(
+      ObjectId commitB,
+      DiffFormatter diffFormatter,
+      DiffEntry diffEntry,
+      Future<FileHeader> result)
+      throws IOException {
     try {
       return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
     } catch (InterruptedException | TimeoutException e) {
@@ -460,6 +629,19 @@ public class PatchListLoader implements Callable<PatchList> {
         return toFileHeaderWithoutMyersDiff(diffFormatter, diffEntry);
       }
     } catch (ExecutionException e) {
+      if (e.getCause() instanceof RejectedExecutionException) {
+        logger.atWarning().log(
+            "Diff executor is saturated, skipping Myers diff in project %s"
+                + " on commit %s on path %s comparing %s..%s",
+            project,
+            commitB.name(),
+            diffEntry.getNewPath(),
+            diffEntry.getOldId().name(),
+            diffEntry.getNewId().name());
+        synchronized (diffEntry) {
+          return toFileHeaderWithoutMyersDiff(diffFormatter, diffEntry);
+        }
+      }
       // If there was an error computing the result, carry it
       // up to the caller so the cache knows this key is invalid.
       Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
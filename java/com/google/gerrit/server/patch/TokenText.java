@@ -0,0 +1,96 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import java.util.Arrays;
+import org.eclipse.jgit.diff.Sequence;
+
+/**
+ * Sequence of the tokens of a {@link CharText}.
+ *
+ * <p>A token is a run of letters, digits and underscores, a run of whitespace other than LF, or any
+ * other single character, including LF.
+ */
+class TokenText extends Sequence {
+  private static final int WORD = 0;
+  private static final int SPACE = 1;
+  private static final int OTHER = 2;
+
+  private final CharText text;
+  private final int[] starts;
+  private final int[] hashes;
+
+  TokenText(CharText text) {
+    this.text = text;
+    int[] s = new int[text.size() + 1];
+    int[] h = new int[text.size()];
+    int n = 0;
+    int i = 0;
+    while (i < text.size()) {
+      int b = i;
+      int hash = text.charAt(i);
+      int type = type(text.charAt(i++));
+      if (type != OTHER) {
+        while (i < text.size() && type(text.charAt(i)) == type) {
+          hash = 31 * hash + text.charAt(i++);
+        }
+      }
+      s[n] = b;
+      h[n++] = hash;
+    }
+    s[n] = text.size();
+    starts = Arrays.copyOf(s, n + 1);
+    hashes = Arrays.copyOf(h, n);
+  }
+
+  private static int type(char c) {
+    if (Character.isLetterOrDigit(c) || c == '_') {
+      return WORD;
+    } else if (c != '\n' && Character.isWhitespace(c)) {
+      return SPACE;
+    }
+    return OTHER;
+  }
+
+  /** @return offset of the token in the text, or the size of the text for {@code size()}. */
+  int start(int idx) {
+    return starts[idx];
+  }
+
+  int hash(int idx) {
+    return hashes[idx];
+  }
+
+  boolean equals(int idx, TokenText other, int otherIdx) {
+    int b = starts[idx];
+    int len = starts[idx + 1] - b;
+    int otherB = other.starts[otherIdx];
+    if (hashes[idx] != other.hashes[otherIdx]
+        || other.starts[otherIdx + 1] - otherB != len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (text.charAt(b + i) != other.text.charAt(otherB + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int size() {
+    return hashes.length;
+  }
+}
@@ -0,0 +1,29 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import org.eclipse.jgit.diff.SequenceComparator;
+
+class TokenTextComparator extends SequenceComparator<TokenText> {
+  @Override
+  public boolean equals(TokenText a, int ai, TokenText b, int bi) {
+    return a.equals(ai, b, bi);
+  }
+
+  @Override
+  public int hash(TokenText seq, int ptr) {
+    return seq.hash(ptr);
+  }
+}
@@ -21,6 +21,7 @@ import static com.google.gerrit.entities.RefNames.REFS_CONFIG;
 import static com.google.gerrit.entities.RefNames.REFS_USERS_SELF;
 import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toSet;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
@@ -44,6 +45,8 @@ import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.account.GroupCache;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.ChangesByBranchCache;
+import com.google.gerrit.server.git.ChangesByBranchCache.ChangesByBranch;
 import com.google.gerrit.server.git.SearchingChangeCacheImpl;
 import com.google.gerrit.server.git.TagCache;
 import com.google.gerrit.server.git.TagMatcher;
@@ -54,16 +57,17 @@ import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.ChangeNotes.Factory.ChangeNotesResult;
 import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
 import com.google.gerrit.server.project.ProjectState;
-import com.google.gerrit.server.query.change.ChangeData;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Ref;
@@ -78,7 +82,7 @@ class DefaultRefFilter {
 
   private final TagCache tagCache;
   private final ChangeNotes.Factory changeNotesFactory;
-  @Nullable private final SearchingChangeCacheImpl changeCache;
+  @Nullable private final ChangesByBranchCache changesByBranchCache;
   private final GroupCache groupCache;
   private final PermissionBackend permissionBackend;
   private final ProjectControl projectControl;
@@ -95,7 +99,7 @@ class DefaultRefFilter {
   DefaultRefFilter(
       TagCache tagCache,
       ChangeNotes.Factory changeNotesFactory,
-      @Nullable SearchingChangeCacheImpl changeCache,
+      @Nullable ChangesByBranchCache changesByBranchCache,
       GroupCache groupCache,
       PermissionBackend permissionBackend,
       @GerritServerConfig Config config,
@@ -103,7 +107,7 @@ class DefaultRefFilter {
       @Assisted ProjectControl projectControl) {
     this.tagCache = tagCache;
     this.changeNotesFactory = changeNotesFactory;
-    this.changeCache = changeCache;
+    this.changesByBranchCache = changesByBranchCache;
     this.groupCache = groupCache;
     this.permissionBackend = permissionBackend;
     this.skipFullRefEvaluationIfAllRefsAreVisible =
@@ -397,10 +401,10 @@ class DefaultRefFilter {
 
   private boolean visible(Repository repo, Change.Id changeId) throws PermissionBackendException {
     if (visibleChanges == null) {
-      if (changeCache == null) {
+      if (changesByBranchCache == null) {
         visibleChanges = visibleChangesByScan(repo);
       } else {
-        visibleChanges = visibleChangesBySearch();
+        visibleChanges = visibleChangesByBranch();
       }
       logger.atFinest().log("Visible changes: %s", visibleChanges.keySet());
     }
@@ -443,28 +447,32 @@ class DefaultRefFilter {
     return false;
   }
 
-  private Map<Change.Id, BranchNameKey> visibleChangesBySearch() throws PermissionBackendException {
-    Project.NameKey project = projectState.getNameKey();
-    try {
-      Map<Change.Id, BranchNameKey> visibleChanges = new HashMap<>();
-      for (ChangeData cd : changeCache.getChangeData(project)) {
-        ChangeNotes notes = changeNotesFactory.createFromIndexedChange(cd.change());
-        if (!projectState.statePermitsRead()) {
-          continue;
-        }
-        try {
-          permissionBackendForProject.indexedChange(cd, notes).check(ChangePermission.READ);
-          visibleChanges.put(cd.getId(), cd.change().getDest());
-        } catch (AuthException e) {
-          // Do nothing.
-        }
-      }
-      return visibleChanges;
-    } catch (StorageException e) {
-      logger.atSevere().withCause(e).log(
-          "Cannot load changes for project %s, assuming no changes are visible", project);
+  private Map<Change.Id, BranchNameKey> visibleChangesByBranch() throws PermissionBackendException {
+    if (!projectState.statePermitsRead()) {
       return Collections.emptyMap();
     }
+    ChangesByBranch changes = changesByBranchCache.get(projectState.getNameKey());
+    BitSet visibleIds = new BitSet();
+    // Changes that are not private are visible if their branch is, check each branch only once.
+    for (BranchNameKey branch : changes.branches()) {
+      if (canReadRef(branch.branch())) {
+        changes.addChanges(branch, visibleIds);
+      }
+    }
+    for (Change.Id id : changes.privateChanges().keySet()) {
+      try {
+        ChangeNotes notes = changeNotesFactory.create(projectState.getNameKey(), id);
+        permissionBackendForProject.change(notes).check(ChangePermission.READ);
+        visibleIds.set(id.get());
+      } catch (AuthException e) {
+        // Do nothing.
+      } catch (StorageException e) {
+        logger.atWarning().withCause(e).log(
+            "Cannot load private change %s in %s, assuming it is not visible",
+            id, projectState.getName());
+      }
+    }
+    return new VisibleChangesMap(visibleIds, changes);
   }
 
   private Map<Change.Id, BranchNameKey> visibleChangesByScan(Repository repo)
@@ -585,6 +593,40 @@ class DefaultRefFilter {
     }
   }
 
+  /** Map of visible changes backed by a bit set, the branches are looked up when needed. */
+  private static class VisibleChangesMap extends AbstractMap<Change.Id, BranchNameKey> {
+    private final BitSet ids;
+    private final ChangesByBranch changes;
+
+    VisibleChangesMap(BitSet ids, ChangesByBranch changes) {
+      this.ids = ids;
+      this.changes = changes;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof Change.Id && ids.get(((Change.Id) key).get());
+    }
+
+    @Override
+    public BranchNameKey get(Object key) {
+      return containsKey(key) ? changes.branchOf((Change.Id) key) : null;
+    }
+
+    @Override
+    public int size() {
+      return ids.cardinality();
+    }
+
+    @Override
+    public Set<Map.Entry<Change.Id, BranchNameKey>> entrySet() {
+      return ids.stream()
+          .mapToObj(Change::id)
+          .map(id -> Maps.immutableEntry(id, changes.branchOf(id)))
+          .collect(toSet());
+    }
+  }
+
   @AutoValue
   abstract static class Result {
     /** Subset of the refs passed into the computation that is visible to the user. */
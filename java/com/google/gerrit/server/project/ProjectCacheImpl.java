@@ -18,6 +18,7 @@ import static java.util.stream.Collectors.toSet;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
@@ -26,6 +27,7 @@ import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.index.project.ProjectIndexer;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.metrics.Description;
@@ -52,6 +54,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 
 /** Cache of project information, including access rights. */
@@ -63,12 +66,19 @@ public class ProjectCacheImpl implements ProjectCache {
 
   private static final String CACHE_LIST = "project_list";
 
+  private static final String PERSISTED_CACHE_NAME = "persisted_projects";
+
   public static Module module() {
     return new CacheModule() {
       @Override
       protected void configure() {
         cache(CACHE_NAME, String.class, ProjectState.class).loader(Loader.class);
 
+        persist(PERSISTED_CACHE_NAME, ProjectConfigSnapshot.Key.class, ProjectConfigSnapshot.class)
+            .version(2)
+            .keySerializer(ProjectConfigSnapshot.Key.Serializer.INSTANCE)
+            .valueSerializer(ProjectConfigSnapshot.Serializer.INSTANCE);
+
         cache(CACHE_LIST, ListKey.class, new TypeLiteral<ImmutableSortedSet<Project.NameKey>>() {})
             .maximumWeight(1)
             .loader(Lister.class);
@@ -279,17 +289,21 @@ public class ProjectCacheImpl implements ProjectCache {
     private final GitRepositoryManager mgr;
     private final ProjectCacheClock clock;
     private final ProjectConfig.Factory projectConfigFactory;
+    private final Cache<ProjectConfigSnapshot.Key, ProjectConfigSnapshot> persisted;
 
     @Inject
     Loader(
         ProjectState.Factory psf,
         GitRepositoryManager g,
         ProjectCacheClock clock,
-        ProjectConfig.Factory projectConfigFactory) {
+        ProjectConfig.Factory projectConfigFactory,
+        @Named(PERSISTED_CACHE_NAME)
+            Cache<ProjectConfigSnapshot.Key, ProjectConfigSnapshot> persisted) {
       projectStateFactory = psf;
       mgr = g;
       this.clock = clock;
       this.projectConfigFactory = projectConfigFactory;
+      this.persisted = persisted;
     }
 
     @Override
@@ -301,7 +315,20 @@ public class ProjectCacheImpl implements ProjectCache {
         Project.NameKey key = Project.nameKey(projectName);
         try (Repository git = mgr.openRepository(key)) {
           ProjectConfig cfg = projectConfigFactory.create(key);
-          cfg.load(key, git);
+          Ref ref = git.exactRef(RefNames.REFS_CONFIG);
+          if (ref == null) {
+            cfg.load(key, git);
+          } else {
+            // Only the files of a revision that was not seen before are read from the repository.
+            ProjectConfigSnapshot.Key snapshotKey =
+                ProjectConfigSnapshot.Key.create(key, ref.getObjectId());
+            ProjectConfigSnapshot snapshot = persisted.getIfPresent(snapshotKey);
+            if (snapshot != null) {
+              cfg.load(git, snapshot);
+            } else {
+              persisted.put(snapshotKey, cfg.loadAndSnapshot(git, ref.getObjectId()));
+            }
+          }
 
           ProjectState state = projectStateFactory.create(cfg);
           state.initLastCheck(now);
@@ -66,6 +66,7 @@ import com.google.gerrit.server.git.meta.MetaDataUpdate;
 import com.google.gerrit.server.git.meta.VersionedMetaData;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.protobuf.ByteString;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -252,6 +253,12 @@ public class ProjectConfig extends VersionedMetaData implements ValidationError.
   private Map<String, List<String>> extensionPanelSections;
   private Map<String, GroupReference> groupsByName;
 
+  // Set while the config is loaded from a snapshot, or while the files read from the repository are
+  // recorded for a snapshot.
+  @Nullable private ProjectConfigSnapshot snapshot;
+  @Nullable private Map<String, ByteString> recordedFiles;
+  @Nullable private Map<String, ObjectId> recordedBlobIds;
+
   public static CommentLinkInfoImpl buildCommentLink(Config cfg, String name, boolean allowRaw)
       throws IllegalArgumentException {
     String match = cfg.getString(COMMENTLINK, name, KEY_MATCH);
@@ -317,6 +324,48 @@ public class ProjectConfig extends VersionedMetaData implements ValidationError.
     super.load(projectName, rw, revision);
   }
 
+  /**
+   * Loads the config at the given revision and takes a snapshot of what was read from the
+   * repository.
+   *
+   * @param repo repository of the project
+   * @param revision revision of the {@code refs/meta/config} branch
+   * @return snapshot from which the same config can be loaded by {@link #load(Repository,
+   *     ProjectConfigSnapshot)}
+   */
+  public ProjectConfigSnapshot loadAndSnapshot(Repository repo, ObjectId revision)
+      throws IOException, ConfigInvalidException {
+    recordedFiles = new HashMap<>();
+    recordedBlobIds = new HashMap<>();
+    try {
+      load(repo, revision);
+      return ProjectConfigSnapshot.create(getRevision(), recordedFiles, recordedBlobIds);
+    } finally {
+      recordedFiles = null;
+      recordedBlobIds = null;
+    }
+  }
+
+  /**
+   * Loads the config from a snapshot, without reading the files from the repository.
+   *
+   * @param repo repository of the project
+   * @param snapshot snapshot taken by {@link #loadAndSnapshot(Repository, ObjectId)}
+   */
+  public void load(Repository repo, ProjectConfigSnapshot snapshot)
+      throws IOException, ConfigInvalidException {
+    // The commit is only needed for its ID, so it is looked up but not parsed.
+    try (RevWalk walk = new RevWalk(repo)) {
+      revision = walk.lookupCommit(snapshot.revision());
+    }
+    this.snapshot = snapshot;
+    try {
+      onLoad();
+    } finally {
+      this.snapshot = null;
+    }
+  }
+
   public Project.NameKey getName() {
     return projectName;
   }
@@ -564,6 +613,32 @@ public class ProjectConfig extends VersionedMetaData implements ValidationError.
     return RefNames.REFS_CONFIG;
   }
 
+  @Override
+  protected byte[] readFile(String fileName) throws IOException {
+    if (snapshot != null) {
+      ByteString content = snapshot.files().get(fileName);
+      return content != null ? content.toByteArray() : new byte[] {};
+    }
+    byte[] raw = super.readFile(fileName);
+    if (recordedFiles != null) {
+      recordedFiles.put(fileName, ByteString.copyFrom(raw));
+    }
+    return raw;
+  }
+
+  @Override
+  @Nullable
+  protected ObjectId getObjectId(String fileName) throws IOException {
+    if (snapshot != null) {
+      return snapshot.blobIds().get(fileName);
+    }
+    ObjectId id = super.getObjectId(fileName);
+    if (recordedBlobIds != null && id != null) {
+      recordedBlobIds.put(fileName, id);
+    }
+    return id;
+  }
+
   @Override
   protected void onLoad() throws IOException, ConfigInvalidException {
     if (baseConfig != null) {
@@ -0,0 +1,117 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.proto.Protos;
+import com.google.gerrit.server.cache.proto.Cache.ProjectConfigSnapshotKeyProto;
+import com.google.gerrit.server.cache.proto.Cache.ProjectConfigSnapshotProto;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
+import com.google.protobuf.ByteString;
+import java.util.Map;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Content of the {@code refs/meta/config} branch of a project at one revision, as far as it is read
+ * by {@link ProjectConfig}.
+ *
+ * <p>A {@link ProjectConfig} can be loaded from a snapshot without reading its files from the
+ * repository, see {@link ProjectConfig#load(Repository, ProjectConfigSnapshot)}. Since a revision
+ * never changes, snapshots are persisted across restarts by the project cache. File contents are
+ * kept as raw bytes, so that files in any encoding are parsed the same way as when read from the
+ * repository.
+ */
+@AutoValue
+public abstract class ProjectConfigSnapshot {
+  @AutoValue
+  public abstract static class Key {
+    static Key create(Project.NameKey project, ObjectId revision) {
+      return new AutoValue_ProjectConfigSnapshot_Key(project, revision.copy());
+    }
+
+    public abstract Project.NameKey project();
+
+    public abstract ObjectId revision();
+
+    enum Serializer implements CacheSerializer<Key> {
+      INSTANCE;
+
+      @Override
+      public byte[] serialize(Key object) {
+        return Protos.toByteArray(
+            ProjectConfigSnapshotKeyProto.newBuilder()
+                .setProject(object.project().get())
+                .setRevision(ObjectIdConverter.create().toByteString(object.revision()))
+                .build());
+      }
+
+      @Override
+      public Key deserialize(byte[] in) {
+        ProjectConfigSnapshotKeyProto proto =
+            Protos.parseUnchecked(ProjectConfigSnapshotKeyProto.parser(), in);
+        return create(
+            Project.nameKey(proto.getProject()),
+            ObjectIdConverter.create().fromByteString(proto.getRevision()));
+      }
+    }
+  }
+
+  static ProjectConfigSnapshot create(
+      ObjectId revision, Map<String, ByteString> files, Map<String, ObjectId> blobIds) {
+    return new AutoValue_ProjectConfigSnapshot(
+        revision.copy(), ImmutableMap.copyOf(files), ImmutableMap.copyOf(blobIds));
+  }
+
+  /** Revision of the {@code refs/meta/config} branch. */
+  public abstract ObjectId revision();
+
+  /**
+   * Raw content of the files that were read, by path. Files that don't exist have empty content.
+   */
+  public abstract ImmutableMap<String, ByteString> files();
+
+  /** IDs of the blobs that were looked up, by path. Blobs that don't exist are missing. */
+  public abstract ImmutableMap<String, ObjectId> blobIds();
+
+  enum Serializer implements CacheSerializer<ProjectConfigSnapshot> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(ProjectConfigSnapshot object) {
+      ObjectIdConverter idConverter = ObjectIdConverter.create();
+      ProjectConfigSnapshotProto.Builder b =
+          ProjectConfigSnapshotProto.newBuilder()
+              .setRevision(idConverter.toByteString(object.revision()))
+              .putAllFile(object.files());
+      object.blobIds().forEach((path, id) -> b.putBlobId(path, idConverter.toByteString(id)));
+      return Protos.toByteArray(b.build());
+    }
+
+    @Override
+    public ProjectConfigSnapshot deserialize(byte[] in) {
+      ObjectIdConverter idConverter = ObjectIdConverter.create();
+      ProjectConfigSnapshotProto proto =
+          Protos.parseUnchecked(ProjectConfigSnapshotProto.parser(), in);
+      ImmutableMap.Builder<String, ObjectId> blobIds = ImmutableMap.builder();
+      proto.getBlobIdMap().forEach((path, id) -> blobIds.put(path, idConverter.fromByteString(id)));
+      return create(
+          idConverter.fromByteString(proto.getRevision()), proto.getFileMap(), blobIds.build());
+    }
+  }
+}
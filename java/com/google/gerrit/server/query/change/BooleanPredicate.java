@@ -15,6 +15,7 @@
 package com.google.gerrit.server.query.change;
 
 import com.google.gerrit.index.FieldDef;
+import com.google.gerrit.server.index.change.ChangeField;
 
 public class BooleanPredicate extends ChangeIndexPredicate {
   public BooleanPredicate(FieldDef<ChangeData, String> field) {
@@ -28,6 +29,7 @@ public class BooleanPredicate extends ChangeIndexPredicate {
 
   @Override
   public int getCost() {
-    return 1;
+    // Mergeability may require a test merge, other flags are fields of the change.
+    return getField() == ChangeField.MERGEABLE ? 5 : 1;
   }
 }
@@ -30,6 +30,9 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Multimaps;
+import com.google.common.flogger.FluentLogger;
 import com.google.common.primitives.Ints;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.LabelTypes;
@@ -51,6 +54,7 @@ import com.google.gerrit.server.ApprovalsUtil;
 import com.google.gerrit.server.ChangeMessagesUtil;
 import com.google.gerrit.server.CommentsUtil;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.PatchSetUtil;
 import com.google.gerrit.server.ReviewerByEmailSet;
 import com.google.gerrit.server.ReviewerSet;
@@ -87,8 +91,14 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
@@ -99,6 +109,8 @@ import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 
 public class ChangeData {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   public static List<Change> asChanges(List<ChangeData> changeDatas) {
     List<Change> result = new ArrayList<>(changeDatas.size());
     for (ChangeData cd : changeDatas) {
@@ -117,6 +129,8 @@ public class ChangeData {
       return;
     }
 
+    ensureNotesLoaded(changes, cd -> cd.change == null);
+
     for (ChangeData cd : changes) {
       cd.change();
     }
@@ -128,6 +142,8 @@ public class ChangeData {
       return;
     }
 
+    ensureNotesLoaded(changes, cd -> cd.patchSets == null);
+
     for (ChangeData cd : changes) {
       cd.patchSets();
     }
@@ -139,6 +155,8 @@ public class ChangeData {
       return;
     }
 
+    ensureNotesLoaded(changes, cd -> cd.currentPatchSet == null && cd.patchSets == null);
+
     for (ChangeData cd : changes) {
       cd.currentPatchSet();
     }
@@ -150,6 +168,8 @@ public class ChangeData {
       return;
     }
 
+    ensureNotesLoaded(changes, cd -> cd.currentApprovals == null);
+
     for (ChangeData cd : changes) {
       cd.currentApprovals();
     }
@@ -161,6 +181,8 @@ public class ChangeData {
       return;
     }
 
+    ensureNotesLoaded(changes, cd -> cd.messages == null);
+
     for (ChangeData cd : changes) {
       cd.messages();
     }
@@ -183,6 +205,95 @@ public class ChangeData {
     }
   }
 
+  /**
+   * Load the notes of all changes that need them and don't have them yet.
+   *
+   * <p>Changes are grouped by project. Each repository is opened once, the meta refs of its
+   * changes are read in a single batch and the notes are parsed in parallel on the fan-out
+   * executor. Changes that fail to load are skipped, they report the error when their notes are
+   * loaded lazily.
+   *
+   * <p>The calling thread parses notes as well and only waits for notes that are being parsed, not
+   * for tasks queued on the fan-out executor. Callers that run on the fan-out executor themselves
+   * therefore can't starve it.
+   *
+   * @param changes changes to load.
+   * @param needsNotes whether a change is going to access its notes.
+   */
+  private static void ensureNotesLoaded(
+      Iterable<ChangeData> changes, Predicate<ChangeData> needsNotes) {
+    ListMultimap<Project.NameKey, ChangeData> pending =
+        MultimapBuilder.hashKeys().arrayListValues().build();
+    for (ChangeData cd : changes) {
+      if (cd.notes == null && cd.lazyLoad && needsNotes.test(cd)) {
+        pending.put(cd.project, cd);
+      }
+    }
+    if (pending.size() < 2) {
+      // Nothing to gain over loading lazily.
+      return;
+    }
+
+    ChangeData first = pending.values().iterator().next();
+    List<Repository> repos = new ArrayList<>();
+    try {
+      Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+      for (Map.Entry<Project.NameKey, List<ChangeData>> e : Multimaps.asMap(pending).entrySet()) {
+        List<ChangeData> cds = e.getValue();
+        try {
+          Repository repo = first.repoManager.openRepository(e.getKey());
+          repos.add(repo);
+          List<ChangeNotes> notes =
+              first.notesFactory.createForBatchLoad(
+                  repo, e.getKey(), cds.stream().map(ChangeData::getId).collect(toList()));
+          for (int i = 0; i < cds.size(); i++) {
+            ChangeData cd = cds.get(i);
+            ChangeNotes n = notes.get(i);
+            tasks.add(() -> cd.loadNotes(n, repo));
+          }
+        } catch (IOException ex) {
+          logger.atWarning().withCause(ex).log("Cannot batch load changes of %s", e.getKey());
+        }
+      }
+      CountDownLatch done = new CountDownLatch(tasks.size());
+      Runnable drain =
+          () -> {
+            for (Runnable task; (task = tasks.poll()) != null; ) {
+              try {
+                task.run();
+              } finally {
+                done.countDown();
+              }
+            }
+          };
+      List<Future<?>> helpers = new ArrayList<>();
+      for (int i = 1; i < done.getCount(); i++) {
+        helpers.add(first.fanOutExecutor.submit(drain));
+      }
+      drain.run();
+      // Helpers that didn't start yet have nothing left to do.
+      helpers.forEach(f -> f.cancel(false));
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      repos.forEach(Repository::close);
+    }
+  }
+
+  private void loadNotes(ChangeNotes n, Repository repo) {
+    try {
+      n.load(repo);
+    } catch (StorageException e) {
+      logger.atFine().withCause(e).log("Cannot batch load change %s", legacyId);
+      return;
+    }
+    notes = n;
+    if (change == null) {
+      change = n.getChange();
+    }
+  }
+
   public static class Factory {
     private final AssistedFactory assistedFactory;
 
@@ -227,7 +338,7 @@ public class ChangeData {
     ChangeData cd =
         new ChangeData(
             null, null, null, null, null, null, null, null, null, null, null, null, null, null,
-            null, project, id, null, null);
+            null, null, project, id, null, null);
     cd.currentPatchSet =
         PatchSet.builder()
             .id(PatchSet.id(id, currentPatchSetId))
@@ -254,6 +365,7 @@ public class ChangeData {
   private final TrackingFooters trackingFooters;
   private final PureRevert pureRevert;
   private final SubmitRuleEvaluator.Factory submitRuleEvaluatorFactory;
+  private final ExecutorService fanOutExecutor;
 
   // Required assisted injected fields.
   private final Project.NameKey project;
@@ -321,6 +433,7 @@ public class ChangeData {
       TrackingFooters trackingFooters,
       PureRevert pureRevert,
       SubmitRuleEvaluator.Factory submitRuleEvaluatorFactory,
+      @FanOutExecutor ExecutorService fanOutExecutor,
       @Assisted Project.NameKey project,
       @Assisted Change.Id id,
       @Assisted @Nullable Change change,
@@ -340,6 +453,7 @@ public class ChangeData {
     this.trackingFooters = trackingFooters;
     this.pureRevert = pureRevert;
     this.submitRuleEvaluatorFactory = submitRuleEvaluatorFactory;
+    this.fanOutExecutor = fanOutExecutor;
 
     this.project = project;
     this.legacyId = id;
@@ -15,18 +15,22 @@
 package com.google.gerrit.server.query.change;
 
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_LIMIT;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.common.PluginDefinedInfo;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.registration.Extension;
 import com.google.gerrit.index.IndexConfig;
 import com.google.gerrit.index.QueryOptions;
+import com.google.gerrit.index.query.DataSource;
 import com.google.gerrit.index.query.IndexPredicate;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryProcessor;
+import com.google.gerrit.index.query.ResultSet;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.server.AnonymousUser;
 import com.google.gerrit.server.CurrentUser;
@@ -47,6 +51,7 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -63,7 +68,12 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
   private final PermissionBackend permissionBackend;
   private final ProjectCache projectCache;
   private final Provider<AnonymousUser> anonymousUserProvider;
+  private final ChangeQueryResultCache resultCache;
+  private final VisibleProjectsCache visibleProjectsCache;
+  private final IndexConfig indexConfig;
   private final Map<String, DynamicBean> dynamicBeans = new HashMap<>();
+  private boolean enforceVisibility = true;
+  private Optional<ImmutableList<Project.NameKey>> visibleProjects;
 
   static {
     // It is assumed that basic rewrites do not touch visibleto predicates.
@@ -84,7 +94,9 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
       DynamicSet<ChangeAttributeFactory> attributeFactories,
       PermissionBackend permissionBackend,
       ProjectCache projectCache,
-      Provider<AnonymousUser> anonymousUserProvider) {
+      Provider<AnonymousUser> anonymousUserProvider,
+      ChangeQueryResultCache resultCache,
+      VisibleProjectsCache visibleProjectsCache) {
     super(
         metricMaker,
         ChangeSchemaDefinitions.INSTANCE,
@@ -98,6 +110,9 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
     this.permissionBackend = permissionBackend;
     this.projectCache = projectCache;
     this.anonymousUserProvider = anonymousUserProvider;
+    this.resultCache = resultCache;
+    this.visibleProjectsCache = visibleProjectsCache;
+    this.indexConfig = indexConfig;
 
     ImmutableListMultimap.Builder<String, ChangeAttributeFactory> factoriesBuilder =
         ImmutableListMultimap.builder();
@@ -110,6 +125,7 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
   @Override
   public ChangeQueryProcessor enforceVisibility(boolean enforce) {
     super.enforceVisibility(enforce);
+    enforceVisibility = enforce;
     return this;
   }
 
@@ -119,6 +135,35 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
     return IndexedChangeQuery.createOptions(indexConfig, start, limit, requestedFields);
   }
 
+  @Override
+  protected Predicate<ChangeData> restrictToVisible(Predicate<ChangeData> pred) {
+    if (visibleProjects == null) {
+      visibleProjects = visibleProjectsCache.get(userProvider.get());
+    }
+    if (!visibleProjects.isPresent()
+        || pred.getLeafCount() + visibleProjects.get().size() > indexConfig.maxTerms()) {
+      return pred;
+    }
+    if (visibleProjects.get().isEmpty()) {
+      return Predicate.and(pred, ChangeIndexPredicate.none());
+    }
+    return Predicate.and(
+        pred,
+        Predicate.or(
+            visibleProjects.get().stream()
+                .map(p -> new ProjectPredicate(p.get()))
+                .collect(toImmutableList())));
+  }
+
+  @Override
+  protected ResultSet<ChangeData> read(DataSource<ChangeData> source, QueryOptions opts) {
+    if (!enforceVisibility) {
+      // Results of internal queries are not specific to a user and mostly used for updates.
+      return source.read();
+    }
+    return resultCache.read(userProvider.get(), source, opts);
+  }
+
   @Override
   public void setDynamicBean(String plugin, DynamicBean dynamicBean) {
     dynamicBeans.put(plugin, dynamicBean);
@@ -0,0 +1,251 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.ChangeIndexedListener;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.index.QueryOptions;
+import com.google.gerrit.index.query.DataSource;
+import com.google.gerrit.index.query.ListResultSet;
+import com.google.gerrit.index.query.ResultSet;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.cache.CacheDef;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.index.change.ChangeField;
+import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCollection;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Cache of the results of change queries, e.g. of dashboards that are reloaded periodically.
+ *
+ * <p>Results are cached per user and set of groups the user is a member of, and only for the state
+ * of the index they were read from: every change that is indexed or deleted from the index on this
+ * server increments a generation that is part of the key, so that a cached result is never served
+ * after the index was updated. Entries of older generations are not invalidated explicitly, they
+ * are evicted once they expire or other entries need their space.
+ *
+ * <p>Access rights are not part of the key, the visibility of the results is checked when they are
+ * read from the index. Instead, updates of the project configuration of any project on this server
+ * increment the generation as well, since the permissions of all projects inheriting from it may
+ * have changed. Changes of group memberships change the groups that are part of the key. Changes
+ * that are indexed and permissions that are updated on other servers are only reflected once the
+ * cached results expired.
+ *
+ * <p>Like {@link com.google.gerrit.server.git.SearchingChangeCacheImpl}, cached results only
+ * include the {@code Change} objects; other fields are loaded on demand.
+ */
+@Singleton
+public class ChangeQueryResultCache
+    implements ChangeIndexedListener, GitReferenceUpdatedListener {
+  static final String CACHE_NAME = "change_query_results";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, new TypeLiteral<ImmutableList<Change>>() {})
+            .maximumWeight(0)
+            .expireAfterWrite(Duration.ofMinutes(5))
+            .weigher(ResultWeigher.class);
+
+        bind(ChangeQueryResultCache.class);
+        DynamicSet.bind(binder(), ChangeIndexedListener.class).to(ChangeQueryResultCache.class);
+        DynamicSet.bind(binder(), GitReferenceUpdatedListener.class)
+            .to(ChangeQueryResultCache.class);
+      }
+    };
+  }
+
+  @AutoValue
+  abstract static class Key {
+    private static Key create(
+        int schemaVersion,
+        long generation,
+        Account.Id accountId,
+        ImmutableSet<AccountGroup.UUID> groups,
+        String query,
+        int start,
+        int limit) {
+      return new AutoValue_ChangeQueryResultCache_Key(
+          schemaVersion, generation, accountId, groups, query, start, limit);
+    }
+
+    abstract int schemaVersion();
+
+    abstract long generation();
+
+    abstract Account.Id accountId();
+
+    abstract ImmutableSet<AccountGroup.UUID> groups();
+
+    abstract String query();
+
+    abstract int start();
+
+    abstract int limit();
+  }
+
+  static class ResultWeigher implements Weigher<Key, ImmutableList<Change>> {
+    @Override
+    public int weigh(Key key, ImmutableList<Change> value) {
+      return 1 + value.size();
+    }
+  }
+
+  private final Cache<Key, ImmutableList<Change>> cache;
+  private final ChangeIndexCollection indexes;
+  private final ChangeData.Factory changeDataFactory;
+  private final boolean enabled;
+  private final AtomicLong generation = new AtomicLong();
+
+  @Inject
+  ChangeQueryResultCache(
+      @GerritServerConfig Config cfg,
+      @Named(CACHE_NAME) Cache<Key, ImmutableList<Change>> cache,
+      @Named(CACHE_NAME) CacheDef<Key, ImmutableList<Change>> cacheDef,
+      ChangeIndexCollection indexes,
+      ChangeData.Factory changeDataFactory) {
+    this.cache = cache;
+    this.indexes = indexes;
+    this.changeDataFactory = changeDataFactory;
+    // The cache is disabled by default, don't copy results that would be evicted right away. The
+    // maximum weight isn't exposed by the cache, so compute it like the cache factory does.
+    this.enabled =
+        cfg.getLong("cache", cacheDef.configKey(), "memoryLimit", cacheDef.maximumWeight()) > 0;
+  }
+
+  /**
+   * Read the results of a query, from the cache if they were read by the same user before.
+   *
+   * <p>Queries of users other than identified users and queries that don't load the {@code Change}
+   * from the index are never cached, neither are queries if the cache is disabled.
+   *
+   * @param user user the visibility of the results was checked for.
+   * @param source rewritten query, including the visibility check.
+   * @param opts options the query was rewritten with.
+   * @return results of the query.
+   */
+  ResultSet<ChangeData> read(CurrentUser user, DataSource<ChangeData> source, QueryOptions opts) {
+    ChangeIndex index = indexes.getSearchIndex();
+    if (!enabled
+        || index == null
+        || !user.isIdentifiedUser()
+        || !opts.fields().contains(ChangeField.CHANGE.getName())) {
+      return source.read();
+    }
+
+    // Read the generation before querying the index, so that results are never cached for a
+    // generation after a change was indexed that may not be reflected in them.
+    Key key =
+        Key.create(
+            index.getSchema().getVersion(),
+            generation.get(),
+            user.getAccountId(),
+            ImmutableSet.copyOf(user.getEffectiveGroups().getKnownGroups()),
+            source.toString(),
+            opts.start(),
+            opts.limit());
+    ImmutableList<Change> cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return new ListResultSet<>(
+          cached.stream()
+              .map(c -> changeDataFactory.create(new Change(c)))
+              .collect(toImmutableList()));
+    }
+    return new CachingResultSet(key, source.read());
+  }
+
+  @Override
+  public void onChangeIndexed(String projectName, int id) {
+    invalidate();
+  }
+
+  @Override
+  public void onChangeDeleted(int id) {
+    invalidate();
+  }
+
+  @Override
+  public void onGitReferenceUpdated(Event event) {
+    if (RefNames.REFS_CONFIG.equals(event.getRefName())) {
+      invalidate();
+    }
+  }
+
+  private void invalidate() {
+    // Entries of older generations are never read again, but they are left to expire rather than
+    // invalidating the whole cache whenever any change is indexed.
+    generation.incrementAndGet();
+  }
+
+  /** Result set that stores its results in the cache once they were read completely. */
+  private class CachingResultSet implements ResultSet<ChangeData> {
+    private final Key key;
+    private final ResultSet<ChangeData> results;
+
+    CachingResultSet(Key key, ResultSet<ChangeData> results) {
+      this.key = key;
+      this.results = results;
+    }
+
+    @Override
+    public Iterator<ChangeData> iterator() {
+      return toList().iterator();
+    }
+
+    @Override
+    public ImmutableList<ChangeData> toList() {
+      ImmutableList<ChangeData> list = results.toList();
+      if (key.generation() == generation.get()) {
+        cache.put(
+            key,
+            list.stream().map(cd -> new Change(cd.change())).collect(toImmutableList()));
+      }
+      return list;
+    }
+
+    @Override
+    public void close() {
+      results.close();
+    }
+
+    @Override
+    public Object searchAfter() {
+      return results.searchAfter();
+    }
+  }
+}
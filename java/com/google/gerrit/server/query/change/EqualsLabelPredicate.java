@@ -133,6 +133,6 @@ public class EqualsLabelPredicate extends ChangeIndexPredicate {
 
   @Override
   public int getCost() {
-    return 1 + (group == null ? 0 : 1);
+    return 2 + (group == null ? 0 : 1);
   }
 }
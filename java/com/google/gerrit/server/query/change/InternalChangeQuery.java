@@ -22,6 +22,7 @@ import static com.google.gerrit.server.query.change.ChangeStatusPredicate.open;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -144,6 +145,18 @@ public class InternalChangeQuery extends InternalQuery<ChangeData, InternalChang
     return query(project(project));
   }
 
+  /**
+   * Returns all changes of a project regardless of limits, see {@link #queryExhaustively}.
+   *
+   * @param querySupplier supplier for queries, which may set the fields to request.
+   * @param project project of the changes.
+   * @return changes of the project.
+   */
+  public static ImmutableList<ChangeData> byProjectExhaustively(
+      Supplier<InternalChangeQuery> querySupplier, Project.NameKey project) {
+    return queryExhaustively(querySupplier, project(project));
+  }
+
   public List<ChangeData> byBranchOpen(BranchNameKey branch) {
     return query(and(ref(branch), project(branch.project()), open()));
   }
@@ -17,11 +17,14 @@ package com.google.gerrit.server.query.change;
 import static com.google.common.base.Preconditions.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.data.LabelTypes;
 import com.google.gerrit.entities.PatchSet;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.index.query.QueryResult;
 import com.google.gerrit.server.DynamicOptions;
@@ -36,14 +39,17 @@ import com.google.gerrit.server.project.SubmitRuleOptions;
 import com.google.gerrit.server.util.time.TimeUtil;
 import com.google.gson.Gson;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.lang.reflect.Field;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -70,6 +76,11 @@ public class OutputStreamQuery {
           .withLocale(Locale.US)
           .withZone(ZoneId.systemDefault());
 
+  private static final DateTimeFormatter QUERY_TIMESTAMP_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+          .withLocale(Locale.US)
+          .withZone(ZoneOffset.UTC);
+
   public enum OutputFormat {
     TEXT,
     JSON
@@ -77,9 +88,14 @@ public class OutputStreamQuery {
 
   public static final Gson GSON = new Gson();
 
+  /** Number of changes that are read from the index and written to the output at once. */
+  private static final int PAGE_SIZE = 100;
+
   private final GitRepositoryManager repoManager;
   private final ChangeQueryBuilder queryBuilder;
   private final ChangeQueryProcessor queryProcessor;
+  private final Provider<ChangeQueryProcessor> queryProcessorProvider;
+  private final IndexConfig indexConfig;
   private final EventFactory eventFactory;
   private final TrackingFooters trackingFooters;
   private final SubmitRuleEvaluator.Factory submitRuleEvaluatorFactory;
@@ -95,6 +111,11 @@ public class OutputStreamQuery {
   private boolean includeSubmitRecords;
   private boolean includeAllReviewers;
 
+  private int start;
+  private boolean noLimit;
+  private final Map<String, DynamicOptions.DynamicBean> dynamicBeans = new HashMap<>();
+  private int pageSize = PAGE_SIZE;
+
   private OutputStream outputStream = DisabledOutputStream.INSTANCE;
   private PrintWriter out;
 
@@ -103,12 +124,16 @@ public class OutputStreamQuery {
       GitRepositoryManager repoManager,
       ChangeQueryBuilder queryBuilder,
       ChangeQueryProcessor queryProcessor,
+      Provider<ChangeQueryProcessor> queryProcessorProvider,
+      IndexConfig indexConfig,
       EventFactory eventFactory,
       TrackingFooters trackingFooters,
       SubmitRuleEvaluator.Factory submitRuleEvaluatorFactory) {
     this.repoManager = repoManager;
     this.queryBuilder = queryBuilder;
     this.queryProcessor = queryProcessor;
+    this.queryProcessorProvider = queryProcessorProvider;
+    this.indexConfig = indexConfig;
     this.eventFactory = eventFactory;
     this.trackingFooters = trackingFooters;
     this.submitRuleEvaluatorFactory = submitRuleEvaluatorFactory;
@@ -119,11 +144,17 @@ public class OutputStreamQuery {
   }
 
   public void setNoLimit(boolean on) {
-    queryProcessor.setNoLimit(on);
+    // Each page is still limited to the page size, only the total number of changes isn't.
+    noLimit = on;
   }
 
   public void setStart(int n) {
-    queryProcessor.setStart(n);
+    start = n;
+  }
+
+  @VisibleForTesting
+  void setPageSize(int n) {
+    pageSize = n;
   }
 
   public void setIncludePatchSets(boolean on) {
@@ -184,6 +215,7 @@ public class OutputStreamQuery {
   }
 
   public void setDynamicBean(String plugin, DynamicOptions.DynamicBean dynamicBean) {
+    dynamicBeans.put(plugin, dynamicBean);
     queryProcessor.setDynamicBean(plugin, dynamicBean);
   }
 
@@ -206,17 +238,12 @@ public class OutputStreamQuery {
 
         Map<Project.NameKey, Repository> repos = new HashMap<>();
         Map<Project.NameKey, RevWalk> revWalks = new HashMap<>();
-        QueryResult<ChangeData> results = queryProcessor.query(queryBuilder.parse(queryString));
         try {
-          for (ChangeData d : results.entities()) {
-            show(buildChangeAttribute(d, repos, revWalks));
-          }
+          query(queryString, stats, repos, revWalks);
         } finally {
           closeAll(revWalks.values(), repos.values());
         }
 
-        stats.rowCount = results.entities().size();
-        stats.moreChanges = results.more();
         stats.runTimeMilliseconds = TimeUtil.nowMs() - stats.runTimeMilliseconds;
         show(stats);
       } catch (StorageException err) {
@@ -240,6 +267,85 @@ public class OutputStreamQuery {
     }
   }
 
+  /**
+   * Runs the query and writes the matching changes to the output, one page at a time.
+   *
+   * <p>The details that are loaded to format a change, e.g. its patch sets and approvals, are
+   * cached in its {@link ChangeData}. Each page is read from the index, written and flushed before
+   * the next page is read, so that only one page of changes is kept in memory, even if the query
+   * returns many changes, and the client receives the first changes without waiting for the whole
+   * query.
+   *
+   * <p>Changes are sorted by their last update, newest first. Each further page continues after
+   * the last written change, rather than skipping the number of changes that were written so far:
+   * changes that are updated while the output is written move to the front of the results, which
+   * would shift later changes to earlier pages, so that they would be written twice or not at all.
+   *
+   * <p>The total number of changes is limited like for a single query, including the {@code
+   * queryLimit} of the user, unless there is no limit.
+   */
+  private void query(
+      String queryString,
+      QueryStatsAttribute stats,
+      Map<Project.NameKey, Repository> repos,
+      Map<Project.NameKey, RevWalk> revWalks)
+      throws QueryParseException, IOException {
+    Predicate<ChangeData> query = queryBuilder.parse(queryString);
+    int remaining = noLimit ? Integer.MAX_VALUE : queryProcessor.getEffectiveLimit(query);
+    // Queries can't go beyond page index.maxPages, use a larger first page if necessary.
+    int size = Math.max(pageSize, start / indexConfig.maxPages() + 1);
+    int pageStart = start;
+    Predicate<ChangeData> page = query;
+    ChangeQueryProcessor processor = queryProcessor;
+    Timestamp lastUpdated = null;
+    while (true) {
+      processor.setStart(pageStart).setUserProvidedLimit(Math.min(size, remaining));
+      QueryResult<ChangeData> results = processor.query(page);
+      for (ChangeData d : results.entities()) {
+        show(buildChangeAttribute(d, repos, revWalks));
+      }
+      out.flush();
+
+      List<ChangeData> entities = results.entities();
+      int count = entities.size();
+      stats.rowCount += count;
+      remaining -= count;
+      stats.moreChanges = results.more();
+      if (!results.more() || remaining <= 0 || count == 0) {
+        return;
+      }
+
+      // Continue with the changes that were last updated before the last written change. Changes
+      // updated at the same time are sorted by their number, skip the ones that were written.
+      Timestamp updated = entities.get(count - 1).change().getLastUpdatedOn();
+      int sameUpdated = updated.equals(lastUpdated) ? pageStart : 0;
+      for (int i = count - 1; i >= 0; i--) {
+        if (!entities.get(i).change().getLastUpdatedOn().equals(updated)) {
+          break;
+        }
+        sameUpdated++;
+      }
+      if (!updated.equals(lastUpdated)) {
+        page = Predicate.and(query, new BeforePredicate(formatQueryTimestamp(updated)));
+        lastUpdated = updated;
+      }
+      pageStart = sameUpdated;
+      processor = newQueryProcessor();
+    }
+  }
+
+  private static String formatQueryTimestamp(Timestamp ts) {
+    // Query timestamps without time zone are in UTC.
+    return QUERY_TIMESTAMP_FORMAT.format(ts.toInstant());
+  }
+
+  private ChangeQueryProcessor newQueryProcessor() {
+    // Query processors are one-time-use.
+    ChangeQueryProcessor processor = queryProcessorProvider.get();
+    dynamicBeans.forEach(processor::setDynamicBean);
+    return processor;
+  }
+
   private ChangeAttribute buildChangeAttribute(
       ChangeData d, Map<Project.NameKey, Repository> repos, Map<Project.NameKey, RevWalk> revWalks)
       throws IOException {
@@ -46,6 +46,7 @@ public class SubmitRecordPredicate extends ChangeIndexPredicate {
 
   @Override
   public int getCost() {
-    return 1;
+    // Evaluates the submit rules, unless the submit records were loaded from the index.
+    return 3;
   }
 }
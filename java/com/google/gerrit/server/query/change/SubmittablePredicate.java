@@ -33,6 +33,7 @@ public class SubmittablePredicate extends ChangeIndexPredicate {
 
   @Override
   public int getCost() {
-    return 1;
+    // Evaluates the submit rules, unless the submit records were loaded from the index.
+    return 3;
   }
 }
@@ -0,0 +1,206 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.NewProjectCreatedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.index.IndexUtils;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.gerrit.server.permissions.ProjectPermission;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Cache of the projects in which a user may see changes, used to restrict change queries to them.
+ *
+ * <p>Finding the readable projects requires a permission check for each project of the host, so
+ * the result is computed once per user and set of groups the user is a member of. Like in {@link
+ * ChangeQueryResultCache}, a generation that is part of the key is incremented whenever the project
+ * configuration of any project is updated or a project is created on this server, since the
+ * readable projects may have changed. Updates on other servers are only reflected once the entries
+ * expired.
+ */
+@Singleton
+public class VisibleProjectsCache
+    implements GitReferenceUpdatedListener, NewProjectCreatedListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String CACHE_NAME = "visible_projects";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, new TypeLiteral<Optional<ImmutableList<Project.NameKey>>>() {})
+            .maximumWeight(100000)
+            .expireAfterWrite(Duration.ofMinutes(5))
+            .weigher(ProjectsWeigher.class);
+
+        bind(VisibleProjectsCache.class);
+        DynamicSet.bind(binder(), GitReferenceUpdatedListener.class)
+            .to(VisibleProjectsCache.class);
+        DynamicSet.bind(binder(), NewProjectCreatedListener.class).to(VisibleProjectsCache.class);
+      }
+    };
+  }
+
+  @AutoValue
+  abstract static class Key {
+    private static Key create(
+        long generation, @Nullable Account.Id accountId, ImmutableSet<AccountGroup.UUID> groups) {
+      return new AutoValue_VisibleProjectsCache_Key(generation, accountId, groups);
+    }
+
+    abstract long generation();
+
+    /** Account of the user, or null for anonymous users. */
+    @Nullable
+    abstract Account.Id accountId();
+
+    abstract ImmutableSet<AccountGroup.UUID> groups();
+  }
+
+  static class ProjectsWeigher implements Weigher<Key, Optional<ImmutableList<Project.NameKey>>> {
+    @Override
+    public int weigh(Key key, Optional<ImmutableList<Project.NameKey>> value) {
+      return 1 + value.map(ImmutableList::size).orElse(0);
+    }
+  }
+
+  private final Cache<Key, Optional<ImmutableList<Project.NameKey>>> cache;
+  private final PermissionBackend permissionBackend;
+  private final ProjectCache projectCache;
+  private final Provider<AnonymousUser> anonymousUserProvider;
+  private final int maxVisibleProjects;
+  private final AtomicLong generation = new AtomicLong();
+
+  @Inject
+  VisibleProjectsCache(
+      @GerritServerConfig Config cfg,
+      @Named(CACHE_NAME) Cache<Key, Optional<ImmutableList<Project.NameKey>>> cache,
+      IndexConfig indexConfig,
+      PermissionBackend permissionBackend,
+      ProjectCache projectCache,
+      Provider<AnonymousUser> anonymousUserProvider) {
+    this.cache = cache;
+    this.permissionBackend = permissionBackend;
+    this.projectCache = projectCache;
+    this.anonymousUserProvider = anonymousUserProvider;
+    this.maxVisibleProjects =
+        Math.min(cfg.getInt("index", "change", "maxVisibleProjects", 0), indexConfig.maxTerms());
+  }
+
+  /**
+   * Finds the projects in which the user may see changes, if there are few enough of them to
+   * restrict index queries to these projects.
+   *
+   * @param user user to check the permissions of.
+   * @return names of the readable projects, or empty if there are more than {@code
+   *     index.change.maxVisibleProjects} or they can't be determined.
+   */
+  Optional<ImmutableList<Project.NameKey>> get(CurrentUser user) {
+    if (maxVisibleProjects <= 0) {
+      return Optional.empty();
+    }
+    // Read the generation before checking the permissions, so that the result is never cached for
+    // a generation after the permissions were updated.
+    Key key =
+        Key.create(
+            generation.get(),
+            user.isIdentifiedUser() ? user.getAccountId() : null,
+            ImmutableSet.copyOf(user.getEffectiveGroups().getKnownGroups()));
+    Optional<ImmutableList<Project.NameKey>> cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return cached;
+    }
+    try {
+      Optional<ImmutableList<Project.NameKey>> projects = load(user);
+      cache.put(key, projects);
+      return projects;
+    } catch (PermissionBackendException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot determine visible projects of %s", IndexUtils.describe(user));
+      return Optional.empty();
+    }
+  }
+
+  private Optional<ImmutableList<Project.NameKey>> load(CurrentUser user)
+      throws PermissionBackendException {
+    PermissionBackend.WithUser withUser =
+        user.isIdentifiedUser()
+            ? permissionBackend.absentUser(user.getAccountId())
+            : permissionBackend.user(anonymousUserProvider.get());
+    ImmutableList.Builder<Project.NameKey> projects = ImmutableList.builder();
+    int count = 0;
+    for (Project.NameKey project : projectCache.all()) {
+      ProjectState state = projectCache.get(project);
+      if (state == null
+          || !state.statePermitsRead()
+          || !withUser.project(project).test(ProjectPermission.ACCESS)) {
+        continue;
+      }
+      if (++count > maxVisibleProjects) {
+        return Optional.empty();
+      }
+      projects.add(project);
+    }
+    return Optional.of(projects.build());
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    if (RefNames.REFS_CONFIG.equals(event.getRefName())) {
+      invalidate();
+    }
+  }
+
+  @Override
+  public void onNewProjectCreated(NewProjectCreatedListener.Event event) {
+    invalidate();
+  }
+
+  private void invalidate() {
+    // Entries of older generations are never read again and are left to expire.
+    generation.incrementAndGet();
+  }
+}
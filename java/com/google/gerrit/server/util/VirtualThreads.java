@@ -0,0 +1,66 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads of the Java runtime.
+ *
+ * <p>Gerrit is compiled for Java versions that don't have virtual threads, so they are created by
+ * reflection when Gerrit runs on a Java version that supports them.
+ */
+public final class VirtualThreads {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /**
+   * Get a factory creating virtual threads.
+   *
+   * @param namePrefix prefix of the thread names, followed by a counter.
+   * @return the thread factory, empty if the Java runtime doesn't support virtual threads.
+   */
+  public static Optional<ThreadFactory> factory(String namePrefix) {
+    return factory(Thread.class, namePrefix);
+  }
+
+  /**
+   * Get a factory creating virtual threads through the given thread class.
+   *
+   * @param threadClass class whose {@code ofVirtual()} method creates the thread builder.
+   * @param namePrefix prefix of the thread names, followed by a counter.
+   * @return the thread factory, empty if the thread class doesn't support virtual threads.
+   */
+  @VisibleForTesting
+  static Optional<ThreadFactory> factory(Class<?> threadClass, String namePrefix) {
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = threadClass.getMethod("ofVirtual").invoke(null);
+      Method name = builderClass.getMethod("name", String.class, long.class);
+      builder = name.invoke(builder, namePrefix, 1L);
+      return Optional.of((ThreadFactory) builderClass.getMethod("factory").invoke(builder));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.atWarning().log(
+          "Virtual threads are not supported by Java %s, using platform threads",
+          System.getProperty("java.version"));
+      return Optional.empty();
+    }
+  }
+
+  private VirtualThreads() {}
+}
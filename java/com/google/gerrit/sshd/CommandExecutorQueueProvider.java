@@ -43,16 +43,24 @@ public class CommandExecutorQueueProvider implements QueueProvider {
       poolSize += batchThreads;
     }
     int interactiveThreads = Math.max(1, poolSize - batchThreads);
+    boolean virtualThreads = config.getBoolean("sshd", "virtualThreads", false);
     interactiveExecutor =
-        queues.createQueue(interactiveThreads, "SSH-Interactive-Worker", Thread.MIN_PRIORITY, true);
+        createQueue(queues, interactiveThreads, "SSH-Interactive-Worker", virtualThreads);
     if (batchThreads != 0) {
-      batchExecutor =
-          queues.createQueue(batchThreads, "SSH-Batch-Worker", Thread.MIN_PRIORITY, true);
+      batchExecutor = createQueue(queues, batchThreads, "SSH-Batch-Worker", virtualThreads);
     } else {
       batchExecutor = interactiveExecutor;
     }
   }
 
+  private static ScheduledThreadPoolExecutor createQueue(
+      WorkQueue queues, int poolSize, String queueName, boolean virtualThreads) {
+    if (virtualThreads) {
+      return queues.createVirtualThreadQueue(poolSize, queueName, true);
+    }
+    return queues.createQueue(poolSize, queueName, Thread.MIN_PRIORITY, true);
+  }
+
   @Override
   public ScheduledThreadPoolExecutor getQueue(QueueType type) {
     switch (type) {
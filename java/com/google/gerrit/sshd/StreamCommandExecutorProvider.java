@@ -23,17 +23,22 @@ import org.eclipse.jgit.lib.Config;
 
 class StreamCommandExecutorProvider implements Provider<ScheduledThreadPoolExecutor> {
   private final int poolSize;
+  private final boolean virtualThreads;
   private final WorkQueue queues;
 
   @Inject
   StreamCommandExecutorProvider(@GerritServerConfig Config config, WorkQueue wq) {
     final int cores = Runtime.getRuntime().availableProcessors();
     poolSize = config.getInt("sshd", "streamThreads", cores + 1);
+    virtualThreads = config.getBoolean("sshd", "virtualThreads", false);
     queues = wq;
   }
 
   @Override
   public ScheduledThreadPoolExecutor get() {
+    if (virtualThreads) {
+      return queues.createVirtualThreadQueue(poolSize, "SSH-Stream-Worker", true);
+    }
     return queues.createQueue(poolSize, "SSH-Stream-Worker", Thread.MIN_PRIORITY, true);
   }
 }
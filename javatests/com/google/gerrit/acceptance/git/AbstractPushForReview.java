@@ -41,6 +41,7 @@ import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS
 import static com.google.gerrit.server.project.testing.TestLabels.label;
 import static com.google.gerrit.server.project.testing.TestLabels.value;
 import static java.util.Comparator.comparing;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
 
@@ -97,6 +98,7 @@ import com.google.gerrit.server.ChangeMessagesUtil;
 import com.google.gerrit.server.events.CommitReceivedEvent;
 import com.google.gerrit.server.git.receive.NoteDbPushOption;
 import com.google.gerrit.server.git.receive.ReceiveConstants;
+import com.google.gerrit.server.git.validators.CommitValidationException;
 import com.google.gerrit.server.git.validators.CommitValidationListener;
 import com.google.gerrit.server.git.validators.CommitValidationMessage;
 import com.google.gerrit.server.group.SystemGroupBackend;
@@ -114,6 +116,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -2280,6 +2284,71 @@ public abstract class AbstractPushForReview extends AbstractDaemonTest {
     }
   }
 
+  @GerritConfig(name = "receive.commitValidationThreads", value = "3")
+  @Test
+  public void validateCommitsConcurrently() throws Exception {
+    TestValidator validator = new TestValidator();
+    try (Registration registration = extensionRegistry.newRegistration().add(validator)) {
+      initChanges(5);
+      String master = "refs/heads/master";
+      assertPushOk(pushHead(testRepo, master), master);
+      assertThat(validator.count()).isEqualTo(5);
+    }
+  }
+
+  @GerritConfig(name = "receive.commitValidationThreads", value = "3")
+  @Test
+  public void validateCommitsConcurrentlyRejectsFirstInvalidCommit() throws Exception {
+    List<RevCommit> commits = initChanges(5);
+    Set<ObjectId> invalid = ImmutableSet.of(commits.get(1), commits.get(3));
+    CommitValidationListener validator =
+        receiveEvent -> {
+          if (invalid.contains(receiveEvent.commit)) {
+            throw new CommitValidationException("invalid commit");
+          }
+          return Collections.emptyList();
+        };
+    try (Registration registration = extensionRegistry.newRegistration().add(validator)) {
+      // Commits are validated starting from the tip.
+      String master = "refs/heads/master";
+      assertPushRejected(
+          pushHead(testRepo, master),
+          master,
+          "commit " + ObjectIds.abbreviateName(commits.get(3)) + ": invalid commit");
+    }
+  }
+
+  @GerritConfig(name = "receive.commitValidationThreads", value = "3")
+  @Test
+  public void validateCommitsConcurrentlyOnValidationThreads() throws Exception {
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    Set<String> subjects = ConcurrentHashMap.newKeySet();
+    CountDownLatch twoThreads = new CountDownLatch(2);
+    CommitValidationListener validator =
+        receiveEvent -> {
+          if (threads.add(Thread.currentThread().getName())) {
+            twoThreads.countDown();
+          }
+          subjects.add(receiveEvent.commit.getShortMessage());
+          // Keep the first thread busy until another thread validates a commit.
+          try {
+            twoThreads.await(10, SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return Collections.emptyList();
+        };
+    try (Registration registration = extensionRegistry.newRegistration().add(validator)) {
+      initChanges(5);
+      String master = "refs/heads/master";
+      assertPushOk(pushHead(testRepo, master), master);
+    }
+    assertThat(threads.size()).isGreaterThan(1);
+    assertThat(threads.stream().allMatch(t -> t.startsWith("CommitValidation-"))).isTrue();
+    assertThat(subjects)
+        .containsExactly("Change 1", "Change 2", "Change 3", "Change 4", "Change 5");
+  }
+
   @Test
   public void skipValidation() throws Exception {
     String master = "refs/heads/master";
@@ -0,0 +1,38 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.server.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.acceptance.PushOneCommit;
+import com.google.gerrit.entities.RefNames;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Test;
+
+@NoHttpd
+public class AutoMergeIT extends AbstractDaemonTest {
+  @Test
+  public void autoMergeIsCreatedWhenMergePatchSetIsUploaded() throws Exception {
+    // Indexing the change computes the files of the merge against its auto-merge, so the first
+    // view of the change doesn't need to wait for the merge.
+    PushOneCommit.Result r = createMergeCommitChange("refs/for/master");
+
+    try (Repository repo = repoManager.openRepository(project)) {
+      assertThat(repo.exactRef(RefNames.refsCacheAutomerge(r.getCommit().name()))).isNotNull();
+    }
+  }
+}
@@ -23,6 +23,7 @@ import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
 import org.junit.Test;
 
@@ -106,4 +107,17 @@ public class AndPredicateTest extends PredicateTest {
     assertEquals(s2, n2.copy(s2).getChildren());
     assertEquals(s3, n2.copy(s3).getChildren());
   }
+
+  @Test
+  public void matchesCheapestChildFirst() {
+    List<String> matched = new ArrayList<>();
+    TestMatchablePredicate expensive =
+        new TestMatchablePredicate("label", "expensive", 5, false, matched);
+    TestMatchablePredicate cheap = new TestMatchablePredicate("status", "cheap", 0, false, matched);
+    Predicate<String> n = and(expensive, cheap);
+
+    assertFalse(n.asMatchable().match("change"));
+    assertEquals(of("cheap"), matched);
+    assertSame(expensive, n.getChild(0));
+  }
 }
@@ -0,0 +1,151 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.index.query;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.index.QueryOptions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+public class AndSourceTest {
+  /** Source of all non-negative integers in ascending order, read in pages of three. */
+  private static class IntegerSource extends Predicate<Integer>
+      implements DataSource<Integer>, Paginated<Integer>, Matchable<Integer> {
+    private final boolean supportsSearchAfter;
+    private final QueryOptions opts =
+        QueryOptions.create(IndexConfig.createDefault(), 0, 3, ImmutableSet.of());
+    private final List<String> restarts = new ArrayList<>();
+
+    IntegerSource(boolean supportsSearchAfter) {
+      this.supportsSearchAfter = supportsSearchAfter;
+    }
+
+    @Override
+    public QueryOptions getOptions() {
+      return opts;
+    }
+
+    @Override
+    public ResultSet<Integer> read() {
+      return results(0);
+    }
+
+    @Override
+    public ResultSet<FieldBundle> readRaw() {
+      throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public ResultSet<Integer> restart(int start) {
+      restarts.add("start " + start);
+      return results(start);
+    }
+
+    @Override
+    public ResultSet<Integer> restart(Object searchAfter) {
+      restarts.add("after " + searchAfter);
+      return results((Integer) searchAfter + 1);
+    }
+
+    private ResultSet<Integer> results(int from) {
+      ImmutableList<Integer> results =
+          IntStream.range(from, from + opts.limit()).boxed().collect(toImmutableList());
+      return new ListResultSet<>(results, supportsSearchAfter ? results.get(2) : null);
+    }
+
+    @Override
+    public int getCardinality() {
+      return 10;
+    }
+
+    @Override
+    public boolean match(Integer object) {
+      return true;
+    }
+
+    @Override
+    public int getCost() {
+      return 1;
+    }
+
+    @Override
+    public Predicate<Integer> copy(Collection<? extends Predicate<Integer>> children) {
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      return 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other == this;
+    }
+  }
+
+  private static class EvenPredicate extends Predicate<Integer> implements Matchable<Integer> {
+    @Override
+    public boolean match(Integer object) {
+      return object % 2 == 0;
+    }
+
+    @Override
+    public int getCost() {
+      return 2;
+    }
+
+    @Override
+    public Predicate<Integer> copy(Collection<? extends Predicate<Integer>> children) {
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      return 1;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof EvenPredicate;
+    }
+  }
+
+  @Test
+  public void restartsBySkippingResults() {
+    IntegerSource source = new IntegerSource(false);
+    AndSource<Integer> and = new AndSource<>(ImmutableList.of(source, new EvenPredicate()));
+
+    assertThat(and.read().toList()).containsExactly(0, 2, 4).inOrder();
+    assertThat(source.restarts).containsExactly("start 3");
+  }
+
+  @Test
+  public void restartsAfterLastResult() {
+    IntegerSource source = new IntegerSource(true);
+    AndSource<Integer> and = new AndSource<>(ImmutableList.of(source, new EvenPredicate()));
+
+    assertThat(and.read().toList()).containsExactly(0, 2, 4).inOrder();
+    assertThat(source.restarts).containsExactly("after 2");
+  }
+}
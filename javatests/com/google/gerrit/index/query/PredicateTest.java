@@ -14,6 +14,7 @@
 
 package com.google.gerrit.index.query;
 
+import java.util.List;
 import org.junit.Ignore;
 
 @Ignore
@@ -24,6 +25,32 @@ public abstract class PredicateTest {
     }
   }
 
+  protected static final class TestMatchablePredicate extends OperatorPredicate<String>
+      implements Matchable<String> {
+    private final int cost;
+    private final boolean result;
+    private final List<String> matched;
+
+    protected TestMatchablePredicate(
+        String name, String value, int cost, boolean result, List<String> matched) {
+      super(name, value);
+      this.cost = cost;
+      this.result = result;
+      this.matched = matched;
+    }
+
+    @Override
+    public boolean match(String object) {
+      matched.add(getValue());
+      return result;
+    }
+
+    @Override
+    public int getCost() {
+      return cost;
+    }
+  }
+
   protected static TestPredicate f(String name, String value) {
     return new TestPredicate(name, value);
   }
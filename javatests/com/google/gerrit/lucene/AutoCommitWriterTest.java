@@ -0,0 +1,146 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.gerrit.testing.TestTimeUtil;
+import java.sql.Timestamp;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AutoCommitWriterTest {
+  private Directory dir;
+
+  @Before
+  public void setUp() {
+    TestTimeUtil.resetWithClockStep(0, SECONDS);
+    dir = new RAMDirectory();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dir.close();
+    TestTimeUtil.useSystemTime();
+  }
+
+  @Test
+  public void newIndexHasNoLostWrites() throws Exception {
+    try (AutoCommitWriter writer = newWriter()) {
+      assertThat(writer.getLostWritesSince()).isEmpty();
+    }
+  }
+
+  @Test
+  public void writesAfterLastCommitAreLostWithoutCleanClose() throws Exception {
+    Timestamp committedAt = TestTimeUtil.getCurrentTimestamp();
+    AutoCommitWriter writer = newWriter();
+    writer.addDocument(doc("committed"));
+    writer.commitNow();
+    TestTimeUtil.incrementClock(1, MINUTES);
+    writer.addDocument(doc("lost"));
+    // Discard the uncommitted write without the commit of a clean close, as if the process
+    // terminated.
+    writer.rollback();
+
+    try (AutoCommitWriter reopened = newWriter()) {
+      assertThat(reopened.getLostWritesSince()).hasValue(committedAt);
+      assertThat(reopened.numDocs()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void noLostWritesAfterCleanClose() throws Exception {
+    AutoCommitWriter writer = newWriter();
+    writer.addDocument(doc("committed"));
+    writer.commitNow();
+    writer.addDocument(doc("committed on close"));
+    writer.markClosed();
+    writer.close();
+
+    try (AutoCommitWriter reopened = newWriter()) {
+      assertThat(reopened.getLostWritesSince()).isEmpty();
+      assertThat(reopened.numDocs()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void lostWritesAreKeptUntilRecoveryIsDone() throws Exception {
+    Timestamp committedAt = TestTimeUtil.getCurrentTimestamp();
+    AutoCommitWriter writer = newWriter();
+    writer.commitNow();
+    writer.rollback();
+
+    TestTimeUtil.incrementClock(1, MINUTES);
+    AutoCommitWriter recovering = newWriter();
+    assertThat(recovering.getLostWritesSince()).hasValue(committedAt);
+    recovering.commitNow();
+    TestTimeUtil.incrementClock(1, MINUTES);
+    recovering.commitNow();
+    // Terminate again before the recovery is done.
+    recovering.rollback();
+
+    TestTimeUtil.incrementClock(1, MINUTES);
+    AutoCommitWriter retrying = newWriter();
+    assertThat(retrying.getLostWritesSince()).hasValue(committedAt);
+    retrying.recoveryDone();
+    Timestamp recoveredAt = TestTimeUtil.getCurrentTimestamp();
+    retrying.commitNow();
+    retrying.rollback();
+
+    try (AutoCommitWriter reopened = newWriter()) {
+      // Only the writes since the last commit of the previous writer are lost.
+      assertThat(reopened.getLostWritesSince()).hasValue(recoveredAt);
+    }
+  }
+
+  @Test
+  public void cleanCloseKeepsLostWritesUntilRecoveryIsDone() throws Exception {
+    Timestamp committedAt = TestTimeUtil.getCurrentTimestamp();
+    AutoCommitWriter writer = newWriter();
+    writer.commitNow();
+    writer.rollback();
+
+    TestTimeUtil.incrementClock(1, MINUTES);
+    AutoCommitWriter recovering = newWriter();
+    recovering.markClosed();
+    recovering.close();
+
+    try (AutoCommitWriter reopened = newWriter()) {
+      assertThat(reopened.getLostWritesSince()).hasValue(committedAt);
+    }
+  }
+
+  private AutoCommitWriter newWriter() throws Exception {
+    return new AutoCommitWriter(
+        dir, new GerritIndexWriterConfig(new Config(), "test").getLuceneConfig());
+  }
+
+  private static Document doc(String id) {
+    Document doc = new Document();
+    doc.add(new StringField("id", id, Field.Store.YES));
+    return doc;
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCollection;
+import com.google.gerrit.server.index.change.ChangeIndexer;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import com.google.gerrit.testing.InMemoryRepositoryManager.Repo;
+import com.google.gerrit.testing.TestTimeUtil;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Optional;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LuceneChangeIndexRecoveryTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  private static final long LAST_COMMIT_MS = TestTimeUtil.START.toEpochMilli();
+
+  private InMemoryRepositoryManager repoManager;
+  private TestRepository<Repo> repo;
+  private LuceneChangeIndex index;
+  private ChangeIndexer indexer;
+
+  @Before
+  public void setUp() throws Exception {
+    repoManager = new InMemoryRepositoryManager();
+    repo = new TestRepository<>(repoManager.createRepository(PROJECT));
+    index = mock(LuceneChangeIndex.class);
+    indexer = mock(ChangeIndexer.class);
+  }
+
+  @Test
+  public void reindexChangesUpdatedSinceLastCommit() throws Exception {
+    Change.Id oldChange = Change.id(1);
+    Change.Id recentChange = Change.id(2);
+    Change.Id newChange = Change.id(3);
+    updateMetaRef(oldChange, LAST_COMMIT_MS - TimeUnit.MINUTES.toMillis(10));
+    // Might have been updated before the last commit, but indexed after it.
+    updateMetaRef(recentChange, LAST_COMMIT_MS - TimeUnit.MINUTES.toMillis(1));
+    updateMetaRef(newChange, LAST_COMMIT_MS + TimeUnit.MINUTES.toMillis(1));
+    repo.update(RefNames.patchSetRef(PatchSet.id(oldChange, 2)), repo.commit().create());
+
+    startRecovery(Optional.of(new Timestamp(LAST_COMMIT_MS)));
+
+    verify(indexer).index(PROJECT, recentChange);
+    verify(indexer).index(PROJECT, newChange);
+    verifyNoMoreInteractions(indexer);
+    verify(index).recoveryDone();
+  }
+
+  @Test
+  public void recoveryNotDoneIfReindexingFails() throws Exception {
+    Change.Id failingChange = Change.id(1);
+    Change.Id newChange = Change.id(2);
+    updateMetaRef(failingChange, LAST_COMMIT_MS + TimeUnit.MINUTES.toMillis(1));
+    updateMetaRef(newChange, LAST_COMMIT_MS + TimeUnit.MINUTES.toMillis(1));
+    doThrow(new StorageException("failed")).when(indexer).index(PROJECT, failingChange);
+
+    startRecovery(Optional.of(new Timestamp(LAST_COMMIT_MS)));
+
+    verify(indexer).index(PROJECT, newChange);
+    verify(index, never()).recoveryDone();
+  }
+
+  @Test
+  public void nothingReindexedAfterCleanClose() throws Exception {
+    updateMetaRef(Change.id(1), LAST_COMMIT_MS + TimeUnit.MINUTES.toMillis(1));
+
+    startRecovery(Optional.empty());
+
+    verifyNoMoreInteractions(indexer);
+    verify(index, never()).recoveryDone();
+  }
+
+  private void updateMetaRef(Change.Id id, long commitTimeMs) throws Exception {
+    PersonIdent ident = new PersonIdent("Test", "test@example.com", new Date(commitTimeMs), UTC);
+    repo.update(RefNames.changeMetaRef(id), repo.commit().author(ident).committer(ident).create());
+  }
+
+  private void startRecovery(Optional<Timestamp> lostWritesSince) {
+    when(index.getLostWritesSince()).thenReturn(lostWritesSince);
+    ChangeIndexCollection indexes = mock(ChangeIndexCollection.class);
+    when(indexes.getWriteIndexes()).thenReturn(ImmutableList.<ChangeIndex>of(index));
+    ListeningExecutorService executor = MoreExecutors.newDirectExecutorService();
+    ChangeIndexer.Factory indexerFactory = mock(ChangeIndexer.Factory.class);
+    when(indexerFactory.create(executor, indexes)).thenReturn(indexer);
+    ProjectCache projectCache = mock(ProjectCache.class);
+    when(projectCache.all()).thenReturn(ImmutableSortedSet.of(PROJECT));
+
+    new LuceneChangeIndexRecovery(indexes, indexerFactory, executor, projectCache, repoManager)
+        .start();
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.server.account.AccountCacheImpl.AccountNotFoundException;
+import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class AccountCacheImplTest {
+  private static final Account.Id ACCOUNT_ID = Account.id(1000000);
+
+  @Test
+  public void missingAccountDetailsAreReportedAsMissingAccount() throws Exception {
+    InMemoryRepositoryManager repoManager = new InMemoryRepositoryManager();
+    AllUsersName allUsersName = new AllUsersName(AllUsersNameProvider.DEFAULT);
+    TestRepository<?> allUsers = new TestRepository<>(repoManager.createRepository(allUsersName));
+    allUsers.branch(RefNames.refsUsers(ACCOUNT_ID)).commit().message("Create account").create();
+
+    LoadingCache<CachedAccountDetails.Key, CachedAccountDetails> accountDetails =
+        CacheBuilder.newBuilder()
+            .build(
+                new CacheLoader<CachedAccountDetails.Key, CachedAccountDetails>() {
+                  @Override
+                  public CachedAccountDetails load(CachedAccountDetails.Key key)
+                      throws AccountNotFoundException {
+                    throw new AccountNotFoundException(key.accountId() + " not found");
+                  }
+                });
+    LoadingCache<ObjectId, Config> defaultPreferences =
+        CacheBuilder.newBuilder().build(CacheLoader.from(id -> new Config()));
+    LoadingCache<Account.Id, AccountState> byId =
+        CacheBuilder.newBuilder()
+            .build(
+                new AccountCacheImpl.ByIdLoader(
+                    repoManager, allUsersName, null, accountDetails, defaultPreferences));
+
+    ExecutionException e = assertThrows(ExecutionException.class, () -> byId.get(ACCOUNT_ID));
+    assertThat(e).hasCauseThat().isInstanceOf(AccountNotFoundException.class);
+  }
+}
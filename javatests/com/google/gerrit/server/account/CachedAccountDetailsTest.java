@@ -0,0 +1,174 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
+import static com.google.gerrit.proto.testing.SerializedClassSubject.assertThatSerializedClass;
+import static com.google.gerrit.server.cache.testing.CacheSerializerTestUtil.byteString;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.account.ProjectWatches.NotifyType;
+import com.google.gerrit.server.account.ProjectWatches.ProjectWatchKey;
+import com.google.gerrit.server.cache.proto.Cache.AccountDetailsProto;
+import com.google.gerrit.server.cache.proto.Cache.AccountDetailsProto.ProjectWatchProto;
+import com.google.gerrit.server.cache.proto.Cache.AccountKeyProto;
+import com.google.gerrit.server.cache.proto.Cache.AccountProto;
+import com.google.inject.TypeLiteral;
+import java.lang.reflect.Type;
+import java.sql.Timestamp;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class CachedAccountDetailsTest {
+  private static final Timestamp REGISTERED_ON = new Timestamp(1234567890000L);
+
+  private static final Account ACCOUNT =
+      Account.builder(Account.id(1001), REGISTERED_ON)
+          .setFullName("Foo Bar")
+          .setDisplayName("foo")
+          .setPreferredEmail("foo@example.com")
+          .setStatus("OOO")
+          .setMetaId("deadbeefdeadbeefdeadbeefdeadbeefdeadbeef")
+          .build();
+
+  private static final AccountProto ACCOUNT_PROTO =
+      AccountProto.newBuilder()
+          .setId(1001)
+          .setRegisteredOn(1234567890000L)
+          .setFullName("Foo Bar")
+          .setDisplayName("foo")
+          .setPreferredEmail("foo@example.com")
+          .setStatus("OOO")
+          .setMetaId("deadbeefdeadbeefdeadbeefdeadbeefdeadbeef")
+          .build();
+
+  @Test
+  public void keyRoundTrip() throws Exception {
+    CachedAccountDetails.Key key =
+        CachedAccountDetails.Key.create(
+            Account.id(1001), ObjectId.fromString("1234567812345678123456781234567812345678"));
+    byte[] serialized = CachedAccountDetails.Key.Serializer.INSTANCE.serialize(key);
+    assertThat(AccountKeyProto.parseFrom(serialized))
+        .isEqualTo(
+            AccountKeyProto.newBuilder()
+                .setAccountId(1001)
+                .setId(
+                    byteString(
+                        0x12, 0x34, 0x56, 0x78, 0x12, 0x34, 0x56, 0x78, 0x12, 0x34, 0x56, 0x78,
+                        0x12, 0x34, 0x56, 0x78, 0x12, 0x34, 0x56, 0x78))
+                .build());
+    assertThat(CachedAccountDetails.Key.Serializer.INSTANCE.deserialize(serialized))
+        .isEqualTo(key);
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    assertRoundTrip(
+        CachedAccountDetails.create(ACCOUNT, ImmutableMap.of(), ""),
+        AccountDetailsProto.newBuilder().setAccount(ACCOUNT_PROTO).build());
+  }
+
+  @Test
+  public void roundTripMinimalAccount() throws Exception {
+    Account account = Account.builder(Account.id(1001), REGISTERED_ON).setInactive(true).build();
+    assertRoundTrip(
+        CachedAccountDetails.create(account, ImmutableMap.of(), ""),
+        AccountDetailsProto.newBuilder()
+            .setAccount(
+                AccountProto.newBuilder()
+                    .setId(1001)
+                    .setRegisteredOn(1234567890000L)
+                    .setInactive(true))
+            .build());
+  }
+
+  @Test
+  public void roundTripWithProjectWatches() throws Exception {
+    assertRoundTrip(
+        CachedAccountDetails.create(
+            ACCOUNT,
+            ImmutableMap.of(
+                ProjectWatchKey.create(Project.nameKey("foo"), null),
+                ImmutableSet.of(NotifyType.NEW_CHANGES, NotifyType.ALL_COMMENTS),
+                ProjectWatchKey.create(Project.nameKey("bar"), "branch:master"),
+                ImmutableSet.of()),
+            ""),
+        AccountDetailsProto.newBuilder()
+            .setAccount(ACCOUNT_PROTO)
+            .addProjectWatch(
+                ProjectWatchProto.newBuilder()
+                    .setProject("foo")
+                    .addNotifyType("NEW_CHANGES")
+                    .addNotifyType("ALL_COMMENTS"))
+            .addProjectWatch(
+                ProjectWatchProto.newBuilder().setProject("bar").setFilter("branch:master"))
+            .build());
+  }
+
+  @Test
+  public void roundTripWithPreferences() throws Exception {
+    String preferences = "[general]\n\tchangesPerPage = 50\n";
+    assertRoundTrip(
+        CachedAccountDetails.create(ACCOUNT, ImmutableMap.of(), preferences),
+        AccountDetailsProto.newBuilder()
+            .setAccount(ACCOUNT_PROTO)
+            .setUserPreferences(preferences)
+            .build());
+  }
+
+  @Test
+  public void cachedAccountDetailsMethods() {
+    Type projectWatchesType =
+        new TypeLiteral<ImmutableMap<ProjectWatchKey, ImmutableSet<NotifyType>>>() {}.getType();
+    assertThatSerializedClass(CachedAccountDetails.class)
+        .hasAutoValueMethods(
+            ImmutableMap.of(
+                "account",
+                Account.class,
+                "projectWatches",
+                projectWatchesType,
+                "userPreferences",
+                String.class));
+  }
+
+  @Test
+  public void accountMethods() {
+    assertThatSerializedClass(Account.class)
+        .hasAutoValueMethods(
+            ImmutableMap.<String, Type>builder()
+                .put("id", Account.Id.class)
+                .put("registeredOn", Timestamp.class)
+                .put("fullName", String.class)
+                .put("displayName", String.class)
+                .put("preferredEmail", String.class)
+                .put("inactive", boolean.class)
+                .put("status", String.class)
+                .put("metaId", String.class)
+                .put("toBuilder", Account.Builder.class)
+                .build());
+  }
+
+  private static void assertRoundTrip(
+      CachedAccountDetails details, AccountDetailsProto expectedProto) throws Exception {
+    byte[] serialized = CachedAccountDetails.Serializer.INSTANCE.serialize(details);
+    assertThat(AccountDetailsProto.parseFrom(serialized)).isEqualTo(expectedProto);
+    assertThat(CachedAccountDetails.Serializer.INSTANCE.deserialize(serialized))
+        .isEqualTo(details);
+  }
+}
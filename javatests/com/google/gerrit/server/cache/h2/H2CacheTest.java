@@ -20,11 +20,20 @@ import static com.google.common.truth.Truth.assertWithMessage;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.metrics.DisabledMetricMaker;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
 import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
 import com.google.inject.TypeLiteral;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.Test;
 
@@ -39,6 +48,11 @@ public class H2CacheTest {
 
   private static H2CacheImpl<String, String> newH2CacheImpl(
       int id, Cache<String, ValueHolder<String>> mem, int version) {
+    return newH2CacheImpl(id, mem, version, MoreExecutors.directExecutor());
+  }
+
+  private static H2CacheImpl<String, String> newH2CacheImpl(
+      int id, Cache<String, ValueHolder<String>> mem, int version, Executor executor) {
     SqlStore<String, String> store =
         new SqlStore<>(
             "jdbc:h2:mem:Test_" + id,
@@ -48,7 +62,38 @@ public class H2CacheTest {
             version,
             1 << 20,
             null);
-    return new H2CacheImpl<>(MoreExecutors.directExecutor(), store, KEY_TYPE, mem);
+    return new H2CacheImpl<>(newWriteBehindQueue(store, executor), KEY_TYPE, mem);
+  }
+
+  private static WriteBehindQueue<String, String> newWriteBehindQueue(
+      SqlStore<String, String> store, Executor executor) {
+    return new WriteBehindQueue<>(
+        "test", executor, store, new WriteBehindMetrics(new DisabledMetricMaker()), 1000);
+  }
+
+  /** Store whose writes block until released and fail while {@code fail} is set. */
+  private static class BlockingSqlStore extends SqlStore<String, String> {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch commit = new CountDownLatch(1);
+    final AtomicBoolean fail = new AtomicBoolean();
+
+    BlockingSqlStore(int id) {
+      super(
+          "jdbc:h2:mem:Test_" + id,
+          KEY_TYPE,
+          StringCacheSerializer.INSTANCE,
+          StringCacheSerializer.INSTANCE,
+          DEFAULT_VERSION,
+          1 << 20,
+          null);
+    }
+
+    @Override
+    boolean write(Map<String, Optional<ValueHolder<String>>> writes, Collection<String> touches) {
+      writing.countDown();
+      Uninterruptibles.awaitUninterruptibly(commit);
+      return !fail.get() && super.write(writes, touches);
+    }
   }
 
   @Test
@@ -124,6 +169,78 @@ public class H2CacheTest {
     assertThat(oldImpl.getIfPresent("key")).isNull();
   }
 
+  @Test
+  public void writeBehind() throws Exception {
+    List<Runnable> pending = new ArrayList<>();
+    H2CacheImpl<String, String> impl =
+        newH2CacheImpl(nextDbId(), disableMemCache(), DEFAULT_VERSION, pending::add);
+
+    impl.put("foo", "bar");
+    impl.put("foo", "baz");
+    impl.put("bar", "baz");
+    impl.invalidate("bar");
+    assertWithMessage("flushes scheduled").that(pending).hasSize(1);
+    assertWithMessage("pending value").that(impl.getIfPresent("foo")).isEqualTo("baz");
+    assertWithMessage("pending invalidation").that(impl.getIfPresent("bar")).isNull();
+    assertThat(impl.diskStats().size()).isEqualTo(0);
+
+    pending.remove(0).run();
+    assertThat(pending).isEmpty();
+    assertThat(impl.diskStats().size()).isEqualTo(1);
+    assertWithMessage("persistent value").that(impl.getIfPresent("foo")).isEqualTo("baz");
+    assertWithMessage("persistent value").that(impl.getIfPresent("bar")).isNull();
+  }
+
+  @Test
+  public void writeBehindKeepsEntriesPendingUntilCommitted() throws Exception {
+    BlockingSqlStore store = new BlockingSqlStore(nextDbId());
+    List<Runnable> pending = new ArrayList<>();
+    WriteBehindQueue<String, String> writes = newWriteBehindQueue(store, pending::add);
+    H2CacheImpl<String, String> impl = new H2CacheImpl<>(writes, KEY_TYPE, disableMemCache());
+
+    impl.put("foo", "bar");
+    Thread flush = new Thread(pending.remove(0));
+    flush.start();
+    store.writing.await();
+    assertWithMessage("value being written").that(impl.getIfPresent("foo")).isEqualTo("bar");
+    assertThat(writes.size()).isEqualTo(1);
+
+    Thread close = new Thread(writes::close);
+    close.start();
+    close.join(100);
+    assertWithMessage("close waits for running flush").that(close.isAlive()).isTrue();
+
+    store.commit.countDown();
+    flush.join();
+    close.join();
+    assertThat(pending).isEmpty();
+    assertThat(writes.size()).isEqualTo(0);
+    assertThat(store.diskStats().size()).isEqualTo(1);
+    assertWithMessage("persistent value").that(impl.getIfPresent("foo")).isEqualTo("bar");
+  }
+
+  @Test
+  public void writeBehindRetainsEntriesOfFailedBatch() throws Exception {
+    BlockingSqlStore store = new BlockingSqlStore(nextDbId());
+    store.commit.countDown();
+    store.fail.set(true);
+    List<Runnable> pending = new ArrayList<>();
+    WriteBehindQueue<String, String> writes = newWriteBehindQueue(store, pending::add);
+    H2CacheImpl<String, String> impl = new H2CacheImpl<>(writes, KEY_TYPE, disableMemCache());
+
+    impl.put("foo", "bar");
+    pending.remove(0).run();
+    assertWithMessage("failed flush is not retried right away").that(pending).isEmpty();
+    assertThat(writes.size()).isEqualTo(1);
+    assertWithMessage("pending value").that(impl.getIfPresent("foo")).isEqualTo("bar");
+    assertThat(store.diskStats().size()).isEqualTo(0);
+
+    store.fail.set(false);
+    writes.close();
+    assertThat(writes.size()).isEqualTo(0);
+    assertThat(store.diskStats().size()).isEqualTo(1);
+  }
+
   private static <K, V> Cache<K, ValueHolder<V>> disableMemCache() {
     return CacheBuilder.newBuilder().maximumSize(0).build();
   }
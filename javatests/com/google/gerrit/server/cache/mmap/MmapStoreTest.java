@@ -0,0 +1,165 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.inject.TypeLiteral;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MmapStoreTest {
+  private static final TypeLiteral<String> KEY_TYPE = new TypeLiteral<String>() {};
+  private static final int DEFAULT_VERSION = 1234;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private MmapStore<String, String> newStore(Path dir, int version, long maxSize) {
+    MmapStore<String, String> store =
+        new MmapStore<>(
+            dir,
+            StringCacheSerializer.INSTANCE,
+            StringCacheSerializer.INSTANCE,
+            version,
+            maxSize,
+            MmapStore.MIN_SEGMENT_SIZE,
+            null);
+    store.open();
+    return store;
+  }
+
+  @Test
+  public void get() throws Exception {
+    Cache<String, String> mem = CacheBuilder.newBuilder().build();
+    MmapCacheImpl<String, String> impl =
+        new MmapCacheImpl<>(newStore(dir(), DEFAULT_VERSION, 1 << 24), KEY_TYPE, mem);
+
+    assertThat(impl.getIfPresent("foo")).isNull();
+
+    AtomicBoolean called = new AtomicBoolean();
+    assertThat(
+            impl.get(
+                "foo",
+                () -> {
+                  called.set(true);
+                  return "bar";
+                }))
+        .isEqualTo("bar");
+    assertWithMessage("Callable was called").that(called.get()).isTrue();
+    assertWithMessage("in-memory value").that(impl.getIfPresent("foo")).isEqualTo("bar");
+    mem.invalidate("foo");
+    assertWithMessage("persistent value").that(impl.getIfPresent("foo")).isEqualTo("bar");
+
+    called.set(false);
+    assertWithMessage("cached value")
+        .that(
+            impl.get(
+                "foo",
+                () -> {
+                  called.set(true);
+                  return "baz";
+                }))
+        .isEqualTo("bar");
+    assertWithMessage("Callable was called").that(called.get()).isFalse();
+  }
+
+  @Test
+  public void reopen() throws Exception {
+    Path dir = dir();
+    MmapStore<String, String> store = newStore(dir, DEFAULT_VERSION, 1 << 24);
+    store.put("a", "1", 0);
+    store.put("b", "2", 0);
+    store.put("a", "3", 0);
+    store.invalidate("b");
+    store.close();
+
+    store = newStore(dir, DEFAULT_VERSION, 1 << 24);
+    assertThat(store.getIfPresent("a")).isEqualTo("3");
+    assertThat(store.getIfPresent("b")).isNull();
+    assertThat(store.diskStats().size()).isEqualTo(1);
+    assertThat(store.diskStats().hitCount()).isEqualTo(1);
+    assertThat(store.diskStats().requestCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void version() throws Exception {
+    Path dir = dir();
+    MmapStore<String, String> store = newStore(dir, DEFAULT_VERSION, 1 << 24);
+    store.put("key", "val", 0);
+    store.close();
+
+    store = newStore(dir, DEFAULT_VERSION + 1, 1 << 24);
+    assertThat(store.getIfPresent("key")).isNull();
+    assertThat(store.diskStats().size()).isEqualTo(0);
+  }
+
+  @Test
+  public void evictOldestSegment() throws Exception {
+    MmapStore<String, String> store =
+        newStore(dir(), DEFAULT_VERSION, 2 * MmapStore.MIN_SEGMENT_SIZE);
+    String val = Strings.repeat("x", 64 * 1024);
+    for (int i = 0; i < 64; i++) {
+      store.put("key" + i, val, 0);
+    }
+    assertThat(store.getIfPresent("key0")).isNull();
+    assertThat(store.getIfPresent("key63")).isEqualTo(val);
+    assertThat(store.diskStats().space()).isAtMost(2L * MmapStore.MIN_SEGMENT_SIZE);
+  }
+
+  @Test
+  public void evictOldestSegmentWhenIndexIsFull() throws Exception {
+    MmapStore<String, String> store =
+        new MmapStore<>(
+            dir(),
+            StringCacheSerializer.INSTANCE,
+            StringCacheSerializer.INSTANCE,
+            DEFAULT_VERSION,
+            1 << 30,
+            MmapStore.MIN_SEGMENT_SIZE,
+            null,
+            1 << 12);
+    store.open();
+    String val = Strings.repeat("x", 2048);
+    // The index holds up to 2048 entries, each segment about 500 of these values.
+    for (int i = 0; i < 3000; i++) {
+      store.put("key" + i, val, 0);
+    }
+    assertThat(store.getIfPresent("key0")).isNull();
+    assertThat(store.getIfPresent("key2999")).isEqualTo(val);
+    assertThat(store.diskStats().size()).isAtMost(2048L);
+  }
+
+  @Test
+  public void invalidateAll() throws Exception {
+    MmapStore<String, String> store = newStore(dir(), DEFAULT_VERSION, 1 << 24);
+    store.put("a", "1", 0);
+    store.invalidateAll();
+    assertThat(store.getIfPresent("a")).isNull();
+    assertThat(store.diskStats().space()).isEqualTo(0);
+  }
+
+  private Path dir() throws IOException {
+    return temporaryFolder.newFolder().toPath();
+  }
+}
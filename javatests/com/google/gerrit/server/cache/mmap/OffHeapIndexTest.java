@@ -0,0 +1,55 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class OffHeapIndexTest {
+  private static final int MAX_SLOTS = 1 << 12;
+
+  @Test
+  public void putReportsFullIndex() {
+    OffHeapIndex index = new OffHeapIndex(MAX_SLOTS);
+    int n = 0;
+    while (index.put(n + 1, n + 1)) {
+      n++;
+    }
+    assertThat(n).isEqualTo(MAX_SLOTS / 2);
+    assertThat(index.size()).isEqualTo(n);
+    assertThat(index.get(n + 1)).isEqualTo(OffHeapIndex.EMPTY);
+
+    // Existing hashes can still be updated.
+    assertThat(index.put(1, 42)).isTrue();
+    assertThat(index.get(1)).isEqualTo(42);
+  }
+
+  @Test
+  public void putSucceedsAfterRemovingEntries() {
+    OffHeapIndex index = new OffHeapIndex(MAX_SLOTS);
+    int n = 0;
+    while (index.put(n + 1, ((long) (n % 2) << 32) | (n + 1))) {
+      n++;
+    }
+
+    index.removeSegment(0);
+
+    assertThat(index.put(n + 1, n + 1)).isTrue();
+    assertThat(index.get(n + 1)).isEqualTo(n + 1);
+    assertThat(index.get(1)).isEqualTo(OffHeapIndex.EMPTY);
+    assertThat(index.get(2)).isEqualTo((1L << 32) | 2);
+  }
+}
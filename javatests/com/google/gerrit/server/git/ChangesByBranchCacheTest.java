@@ -0,0 +1,158 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.cache.CacheBuilder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.server.git.ChangesByBranchCache.ChangesByBranch;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.query.change.ChangeData;
+import java.sql.Timestamp;
+import java.util.BitSet;
+import java.util.Optional;
+import org.junit.Test;
+
+public class ChangesByBranchCacheTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+  private static final BranchNameKey MASTER = BranchNameKey.create(PROJECT, "master");
+  private static final BranchNameKey STABLE = BranchNameKey.create(PROJECT, "stable");
+
+  @Test
+  public void groupsChangesByBranch() {
+    ChangesByBranch changes =
+        ChangesByBranch.create(
+            ImmutableList.of(
+                change(3, MASTER, false),
+                change(1, MASTER, false),
+                change(2, STABLE, false),
+                change(4, STABLE, true)));
+
+    assertThat(changes.branches()).containsExactly(MASTER, STABLE);
+    assertThat(ids(changes, MASTER)).isEqualTo(bits(1, 3));
+    assertThat(ids(changes, STABLE)).isEqualTo(bits(2));
+    assertThat(changes.privateChanges()).containsExactly(Change.id(4), STABLE);
+    assertThat(changes.branchOf(Change.id(3))).isEqualTo(MASTER);
+    assertThat(changes.branchOf(Change.id(4))).isEqualTo(STABLE);
+    assertThat(changes.branchOf(Change.id(5))).isNull();
+  }
+
+  @Test
+  public void update() {
+    ChangesByBranch changes =
+        ChangesByBranch.create(
+            ImmutableList.of(
+                change(1, MASTER, false), change(2, MASTER, false), change(3, STABLE, true)));
+
+    ChangesByBranch updated =
+        changes.update(
+            ImmutableMap.of(
+                Change.id(1), Optional.of(change(1, MASTER, true)),
+                Change.id(2), Optional.of(change(2, STABLE, false)),
+                Change.id(3), Optional.empty(),
+                Change.id(4), Optional.of(change(4, MASTER, false))));
+
+    assertThat(updated.branches()).containsExactly(MASTER, STABLE);
+    assertThat(ids(updated, MASTER)).isEqualTo(bits(4));
+    assertThat(ids(updated, STABLE)).isEqualTo(bits(2));
+    assertThat(updated.privateChanges()).containsExactly(Change.id(1), MASTER);
+
+    // The original snapshot is not modified.
+    assertThat(ids(changes, MASTER)).isEqualTo(bits(1, 2));
+    assertThat(changes.privateChanges()).containsExactly(Change.id(3), STABLE);
+  }
+
+  @Test
+  public void updateRemovesEmptyBranch() {
+    ChangesByBranch changes = ChangesByBranch.create(ImmutableList.of(change(1, STABLE, false)));
+
+    ChangesByBranch updated = changes.update(ImmutableMap.of(Change.id(1), Optional.empty()));
+
+    assertThat(updated.branches()).isEmpty();
+    assertThat(updated.branchOf(Change.id(1))).isNull();
+  }
+
+  @Test
+  public void changeUpdatedWhileLoading() {
+    Change c1 = change(1, MASTER, false);
+    Change c2 = change(2, STABLE, false);
+    ChangeData cd1 = mock(ChangeData.class);
+    when(cd1.change()).thenReturn(c1);
+    ChangeNotes notes2 = mock(ChangeNotes.class);
+    when(notes2.getChange()).thenReturn(c2);
+    ChangeNotes.Factory notesFactory = mock(ChangeNotes.Factory.class);
+    when(notesFactory.createChecked(PROJECT, c2.getId())).thenReturn(notes2);
+    SearchingChangeCacheImpl changeCache = mock(SearchingChangeCacheImpl.class);
+    ChangesByBranchCache cache =
+        new ChangesByBranchCache(CacheBuilder.newBuilder().build(), changeCache, notesFactory);
+
+    // Change 2 is created after the index was queried, but before the entry is in the cache.
+    when(changeCache.getChangeData(PROJECT))
+        .thenAnswer(
+            invocation -> {
+              cache.onGitReferenceUpdated(refUpdated(c2.getId()));
+              return ImmutableList.of(cd1);
+            });
+
+    ChangesByBranch changes = cache.get(PROJECT);
+    assertThat(changes.branches()).containsExactly(MASTER, STABLE);
+    assertThat(ids(changes, MASTER)).isEqualTo(bits(1));
+    assertThat(ids(changes, STABLE)).isEqualTo(bits(2));
+  }
+
+  private static GitReferenceUpdatedListener.Event refUpdated(Change.Id id) {
+    GitReferenceUpdatedListener.Event event = mock(GitReferenceUpdatedListener.Event.class);
+    when(event.getProjectName()).thenReturn(PROJECT.get());
+    when(event.getRefName()).thenReturn(RefNames.changeMetaRef(id));
+    return event;
+  }
+
+  private static Change change(int id, BranchNameKey branch, boolean isPrivate) {
+    Change c =
+        new Change(
+            Change.key("Iabcd" + id),
+            Change.id(id),
+            Account.id(1000),
+            branch,
+            new Timestamp(1234567890000L));
+    c.setPrivate(isPrivate);
+    return c;
+  }
+
+  private static BitSet ids(ChangesByBranch changes, BranchNameKey branch) {
+    BitSet ids = new BitSet();
+    changes.addChanges(branch, ids);
+    return ids;
+  }
+
+  private static BitSet bits(int... ids) {
+    BitSet bits = new BitSet();
+    for (int id : ids) {
+      bits.set(id);
+    }
+    return bits;
+  }
+}
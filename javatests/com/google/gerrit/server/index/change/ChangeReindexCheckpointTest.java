@@ -0,0 +1,92 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChangeReindexCheckpointTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path file;
+  private ChangeIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    file = temporaryFolder.getRoot().toPath().resolve("reindex_changes_0001");
+    index = new FakeChangeIndex(FakeChangeIndex.V2);
+  }
+
+  @Test
+  public void nothingDoneWithoutFile() throws Exception {
+    ChangeReindexCheckpoint checkpoint = ChangeReindexCheckpoint.load(file, index);
+
+    assertThat(checkpoint.isDone(PROJECT, Change.id(1))).isFalse();
+  }
+
+  @Test
+  public void doneRangesArePersistedOnCommit() throws Exception {
+    ChangeReindexCheckpoint checkpoint = ChangeReindexCheckpoint.load(file, index);
+    checkpoint.done(PROJECT, Range.closed(3, 5));
+    checkpoint.done(PROJECT, Range.closed(10, 12));
+    assertThat(Files.exists(file)).isFalse();
+
+    checkpoint.commit();
+
+    ChangeReindexCheckpoint resumed = ChangeReindexCheckpoint.load(file, index);
+    assertThat(resumed.isDone(PROJECT, Change.id(2))).isFalse();
+    assertThat(resumed.isDone(PROJECT, Change.id(3))).isTrue();
+    assertThat(resumed.isDone(PROJECT, Change.id(5))).isTrue();
+    assertThat(resumed.isDone(PROJECT, Change.id(7))).isFalse();
+    assertThat(resumed.isDone(PROJECT, Change.id(11))).isTrue();
+    assertThat(resumed.isDone(Project.nameKey("other"), Change.id(11))).isFalse();
+  }
+
+  @Test
+  public void projectNameWithTab() throws Exception {
+    Project.NameKey project = Project.nameKey("foo\tbar");
+    ChangeReindexCheckpoint checkpoint = ChangeReindexCheckpoint.load(file, index);
+    checkpoint.done(project, Range.closed(1, 2));
+    checkpoint.commit();
+
+    ChangeReindexCheckpoint resumed = ChangeReindexCheckpoint.load(file, index);
+    assertThat(resumed.isDone(project, Change.id(1))).isTrue();
+    assertThat(resumed.isDone(Project.nameKey("foo"), Change.id(1))).isFalse();
+  }
+
+  @Test
+  public void invalidLinesAreIgnored() throws Exception {
+    Files.write(file, ImmutableList.of("project\t1\t2", "project\t7", "project\t8\t"), UTF_8);
+
+    ChangeReindexCheckpoint checkpoint = ChangeReindexCheckpoint.load(file, index);
+
+    assertThat(checkpoint.isDone(PROJECT, Change.id(1))).isTrue();
+    assertThat(checkpoint.isDone(PROJECT, Change.id(7))).isFalse();
+    assertThat(checkpoint.isDone(PROJECT, Change.id(8))).isFalse();
+  }
+}
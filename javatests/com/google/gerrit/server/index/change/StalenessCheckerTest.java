@@ -21,6 +21,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
 
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.gerrit.entities.Change;
@@ -29,6 +30,8 @@ import com.google.gerrit.index.RefState;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.index.change.StalenessChecker.RefStatePattern;
 import com.google.gerrit.testing.InMemoryRepositoryManager;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.stream.Stream;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.ObjectId;
@@ -311,6 +314,74 @@ public class StalenessCheckerTest {
         .isFalse();
   }
 
+  @Test
+  public void isStaleAgainstRefSnapshots() throws Exception {
+    String ref1 = "refs/heads/foo";
+    String ref2 = "refs/heads/bar";
+    ObjectId id1 = ObjectId.fromString(SHA1);
+    ObjectId id2 = ObjectId.fromString(SHA2);
+    NavigableMap<String, ObjectId> refs = new TreeMap<>();
+    refs.put(ref1, id1);
+    refs.put("refs/other/foo", id2);
+    ImmutableMap<Project.NameKey, NavigableMap<String, ObjectId>> snapshots =
+        ImmutableMap.of(P1, refs);
+
+    assertThat(
+            StalenessChecker.check(
+                    repoManager,
+                    C,
+                    ImmutableSetMultimap.of(P1, RefState.create(ref1, id1)),
+                    ImmutableListMultimap.of(P1, RefStatePattern.create("refs/heads/*")),
+                    snapshots)
+                .isStale())
+        .isFalse();
+
+    // Ref that is missing from the snapshot.
+    assertThat(
+            StalenessChecker.check(
+                    repoManager,
+                    C,
+                    ImmutableSetMultimap.of(P1, RefState.create(ref2, id2)),
+                    ImmutableListMultimap.of(),
+                    snapshots)
+                .isStale())
+        .isTrue();
+
+    // Ref that matches the pattern but is not in the state map.
+    refs.put(ref2, id2);
+    assertThat(
+            StalenessChecker.check(
+                    repoManager,
+                    C,
+                    ImmutableSetMultimap.of(P1, RefState.create(ref1, id1)),
+                    ImmutableListMultimap.of(P1, RefStatePattern.create("refs/heads/*")),
+                    snapshots)
+                .isStale())
+        .isTrue();
+
+    // Projects without a snapshot are checked against the repository.
+    assertThat(
+            StalenessChecker.check(
+                    repoManager,
+                    C,
+                    ImmutableSetMultimap.of(P2, RefState.create(ref1, id1)),
+                    ImmutableListMultimap.of(),
+                    snapshots)
+                .isStale())
+        .isTrue();
+    tr2.update(ref1, tr2.commit().message("commit 1"));
+    ObjectId actual = r2.exactRef(ref1).getObjectId();
+    assertThat(
+            StalenessChecker.check(
+                    repoManager,
+                    C,
+                    ImmutableSetMultimap.of(P2, RefState.create(ref1, actual)),
+                    ImmutableListMultimap.of(),
+                    snapshots)
+                .isStale())
+        .isFalse();
+  }
+
   private static Iterable<byte[]> byteArrays(String... strs) {
     return Stream.of(strs).map(s -> s != null ? s.getBytes(UTF_8) : null).collect(toList());
   }
@@ -54,13 +54,16 @@ import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.ReviewerSet;
 import com.google.gerrit.server.config.GerritServerId;
 import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
+import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.util.time.TimeUtil;
 import com.google.gerrit.testing.TestChanges;
 import com.google.inject.Inject;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
@@ -92,6 +95,166 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     assertThat(notes.getChangeMessages().get(0).getTag()).isEqualTo(tag);
   }
 
+  @Test
+  public void batchLoad() throws Exception {
+    Change c1 = newChange();
+    ChangeUpdate update = newUpdate(c1, changeOwner);
+    update.setChangeMessage("message on first change");
+    update.commit();
+    Change c2 = newChange();
+    Change.Id missing = Change.id(c2.getId().get() + 1);
+
+    ImmutableList<ChangeNotes> notes =
+        new ChangeNotes.Factory(args, null, null)
+            .createForBatchLoad(repo, project, ImmutableList.of(c1.getId(), missing, c2.getId()));
+    assertThat(notes.stream().map(ChangeNotes::getChangeId))
+        .containsExactly(c1.getId(), missing, c2.getId())
+        .inOrder();
+
+    assertThat(notes.get(0).load(repo).getChangeMessages()).hasSize(1);
+    assertThat(notes.get(0).getRevision()).isEqualTo(newNotes(c1).getRevision());
+    assertThrows(NoSuchChangeException.class, () -> notes.get(1).load(repo));
+    assertThat(notes.get(2).load(repo).getChange().getId()).isEqualTo(c2.getId());
+  }
+
+  @Test
+  public void incrementalParse() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccount().id(), REVIEWER);
+    update.setChangeMessage("Please review");
+    update.commit();
+    ObjectId prior = newNotes(c).getRevision();
+
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.setChangeMessage("Looks good");
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.setHashtags(ImmutableSet.of("tag"));
+    update.setTopic("topic");
+    update.putReviewer(otherUser.getAccount().id(), CC);
+    update.commit();
+    ObjectId tip = newNotes(c).getRevision();
+
+    List<ObjectId> lookedUp = new ArrayList<>();
+    ChangeNotesState priorState = parse(c, prior, id -> null);
+    ChangeNotesState state =
+        parse(
+            c,
+            tip,
+            id -> {
+              lookedUp.add(id.copy());
+              return id.equals(prior) ? priorState : null;
+            });
+    assertThat(lookedUp).contains(prior);
+    assertThat(state).isEqualTo(parse(c, tip, id -> null));
+  }
+
+  @Test
+  public void incrementalParseRemovesReviewer() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccount().id(), REVIEWER);
+    update.commit();
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+    ObjectId prior = newNotes(c).getRevision();
+
+    update = newUpdate(c, changeOwner);
+    update.removeReviewer(otherUser.getAccount().id());
+    update.commit();
+    ObjectId tip = newNotes(c).getRevision();
+
+    ChangeNotesState priorState = parse(c, prior, id -> null);
+    ChangeNotesState state = parse(c, tip, id -> id.equals(prior) ? priorState : null);
+    assertThat(state.approvals()).isEmpty();
+    assertThat(state).isEqualTo(parse(c, tip, id -> null));
+  }
+
+  @Test
+  public void incrementalParseWithDeletedPatchSet() throws Exception {
+    Change c = newChange();
+    PatchSet.Id psId1 = c.currentPatchSetId();
+    RevCommit ps2 = incrementPatchSet(c);
+    PatchSet.Id psId2 = c.currentPatchSetId();
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.setChangeMessage("Message on PS2");
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.setPatchSetState(PatchSetState.DELETED);
+    update.commit();
+    ObjectId prior = newNotes(c).getRevision();
+
+    // Entities racily added to the deleted patch set are dropped, just like when parsing all
+    // commits.
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) -1);
+    update.setChangeMessage("Late message on PS2");
+    update.putComment(
+        Comment.Status.PUBLISHED,
+        newComment(
+            psId2,
+            "a.txt",
+            "uuid1",
+            new CommentRange(1, 2, 3, 4),
+            1,
+            otherUser,
+            null,
+            TimeUtil.nowTs(),
+            "Comment",
+            (short) 1,
+            ps2,
+            false));
+    update.commit();
+    update = newUpdate(c, otherUser);
+    update.setPatchSetId(psId1);
+    update.putApproval("Code-Review", (short) 1);
+    update.setChangeMessage("Message on PS1");
+    update.commit();
+    ObjectId tip = newNotes(c).getRevision();
+
+    List<ObjectId> lookedUp = new ArrayList<>();
+    ChangeNotesState priorState = parse(c, prior, id -> null);
+    ChangeNotesState state =
+        parse(
+            c,
+            tip,
+            id -> {
+              lookedUp.add(id.copy());
+              return id.equals(prior) ? priorState : null;
+            });
+    assertThat(lookedUp).contains(prior);
+    assertThat(state.patchSets().stream().map(Map.Entry::getKey)).containsExactly(psId1);
+    assertThat(state.approvals().stream().map(e -> e.getValue().key().patchSetId()))
+        .containsExactly(psId1);
+    assertThat(state.changeMessages().stream().map(ChangeMessage::getMessage))
+        .containsExactly("Message on PS1");
+    assertThat(state.publishedComments()).isEmpty();
+    assertThat(state).isEqualTo(parse(c, tip, id -> null));
+  }
+
+  @Test
+  public void noIncrementalParseForStatusChange() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+    ObjectId prior = newNotes(c).getRevision();
+
+    update = newUpdate(c, changeOwner);
+    update.setStatus(Change.Status.ABANDONED);
+    update.commit();
+    ObjectId tip = newNotes(c).getRevision();
+
+    ChangeNotesState priorState = parse(c, prior, id -> null);
+    ChangeNotesState state = parse(c, tip, id -> id.equals(prior) ? priorState : null);
+    assertThat(state.columns().status()).isEqualTo(Change.Status.ABANDONED);
+    assertThat(state).isEqualTo(parse(c, tip, id -> null));
+  }
+
   @Test
   public void patchSetDescription() throws Exception {
     String description = "descriptive";
@@ -3099,6 +3262,14 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     return new String(rw.getObjectReader().open(dataId, OBJ_BLOB).getCachedBytes(), UTF_8);
   }
 
+  private ChangeNotesState parse(
+      Change c, ObjectId tip, Function<ObjectId, ChangeNotesState> priorStates) throws Exception {
+    try (ChangeNotesRevWalk walk = ChangeNotesCommit.newRevWalk(repo)) {
+      return new ChangeNotesParser(c.getId(), tip, walk, args.changeNoteJson, args.metrics)
+          .parseAll(priorStates);
+    }
+  }
+
   private ObjectId exactRefAllUsers(String refName) throws Exception {
     try (Repository allUsersRepo = repoManager.openRepository(allUsers)) {
       Ref ref = allUsersRepo.exactRef(refName);
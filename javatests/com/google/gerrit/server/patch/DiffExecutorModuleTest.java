@@ -0,0 +1,101 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Test;
+
+public class DiffExecutorModuleTest {
+  private ThreadPoolExecutor executor;
+
+  @After
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void threadsSizeThePool() {
+    Config cfg = new Config();
+    cfg.setInt("cache", "diff", "threads", 3);
+    executor = newThreadPool(cfg);
+
+    assertThat(executor.getCorePoolSize()).isEqualTo(3);
+    assertThat(executor.getMaximumPoolSize()).isEqualTo(3);
+  }
+
+  @Test
+  public void unlimitedThreadsByDefault() {
+    executor = newThreadPool(new Config());
+
+    assertThat(executor.getCorePoolSize()).isEqualTo(0);
+    assertThat(executor.getMaximumPoolSize()).isEqualTo(Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void saturatedPoolRejectsDiff() throws Exception {
+    Config cfg = new Config();
+    cfg.setInt("cache", "diff", "threads", 1);
+    executor = newThreadPool(cfg);
+
+    // Block the only thread and fill the queue.
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch blocked = new CountDownLatch(1);
+    List<Future<?>> queued = new ArrayList<>();
+    queued.add(
+        executor.submit(
+            () -> {
+              started.countDown();
+              blocked.await();
+              return null;
+            }));
+    assertThat(started.await(10, SECONDS)).isTrue();
+    while (executor.getQueue().remainingCapacity() > 0) {
+      queued.add(executor.submit(() -> {}));
+    }
+
+    // The diff is not computed by the caller, where it would not be subject to the timeout.
+    AtomicBoolean ran = new AtomicBoolean();
+    assertThrows(RejectedExecutionException.class, () -> executor.submit(() -> ran.set(true)));
+    assertThat(ran.get()).isFalse();
+
+    blocked.countDown();
+    for (Future<?> f : queued) {
+      f.get(10, SECONDS);
+    }
+  }
+
+  private static ThreadPoolExecutor newThreadPool(Config cfg) {
+    Timer0 latency =
+        new DisabledMetricMaker().newTimer("diff/computation_latency", new Description("test"));
+    return DiffExecutorModule.newThreadPool(cfg, latency);
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class DiffSummaryTest {
+  @Test
+  public void serializer() {
+    DiffSummary summary = new DiffSummary(new String[] {"/COMMIT_MSG", "a/b.txt", "c.txt"}, 12, 3);
+
+    DiffSummary deserialized =
+        DiffSummary.Serializer.INSTANCE.deserialize(
+            DiffSummary.Serializer.INSTANCE.serialize(summary));
+
+    assertThat(deserialized.getPaths())
+        .containsExactly("/COMMIT_MSG", "a/b.txt", "c.txt")
+        .inOrder();
+    assertThat(deserialized.getChangedLines().insertions).isEqualTo(12);
+    assertThat(deserialized.getChangedLines().deletions).isEqualTo(3);
+  }
+}
@@ -0,0 +1,73 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.jgit.diff.ReplaceEdit;
+import com.google.gerrit.server.cache.proto.Cache.EditListProto;
+import org.eclipse.jgit.diff.Edit;
+import org.junit.Test;
+
+public class IntraLineDiffTest {
+  @Test
+  public void serializeEditList() {
+    ReplaceEdit replace =
+        new ReplaceEdit(
+            new Edit(5, 6, 5, 6), ImmutableList.of(new Edit(3, 4, 3, 5), new Edit(9, 9, 10, 12)));
+    IntraLineDiff diff = new IntraLineDiff(ImmutableList.of(new Edit(0, 2, 0, 1), replace));
+
+    IntraLineDiff deserialized =
+        IntraLineDiff.Serializer.INSTANCE.deserialize(
+            IntraLineDiff.Serializer.INSTANCE.serialize(diff));
+
+    assertThat(deserialized.getStatus()).isEqualTo(IntraLineDiff.Status.EDIT_LIST);
+    assertThat(deserialized.getEdits())
+        .containsExactly(new Edit(0, 2, 0, 1), new Edit(5, 6, 5, 6))
+        .inOrder();
+    assertThat(deserialized.getEdits().get(0)).isNotInstanceOf(ReplaceEdit.class);
+    assertThat(deserialized.getEdits().get(1)).isInstanceOf(ReplaceEdit.class);
+    assertThat(((ReplaceEdit) deserialized.getEdits().get(1)).getInternalEdits())
+        .containsExactly(new Edit(3, 4, 3, 5), new Edit(9, 9, 10, 12))
+        .inOrder();
+  }
+
+  @Test
+  public void serializeStatus() {
+    IntraLineDiff deserialized =
+        IntraLineDiff.Serializer.INSTANCE.deserialize(
+            IntraLineDiff.Serializer.INSTANCE.serialize(
+                new IntraLineDiff(IntraLineDiff.Status.TIMEOUT)));
+
+    assertThat(deserialized.getStatus()).isEqualTo(IntraLineDiff.Status.TIMEOUT);
+    assertThat(deserialized.getEdits()).isEmpty();
+  }
+
+  @Test
+  public void deltaEncodedEditsAreCompact() {
+    ImmutableList.Builder<Edit> edits = ImmutableList.builder();
+    for (int i = 0; i < 100; i++) {
+      int a = 100_000 + i * 10;
+      int b = 200_000 + i * 10;
+      edits.add(new Edit(a, a + 2, b, b + 3));
+    }
+    EditListProto proto = EditListConverter.toProto(edits.build());
+
+    // Apart from the first one, each edit takes one byte per number.
+    assertThat(proto.getSerializedSize()).isLessThan(4 * 100 + 16);
+    assertThat(EditListConverter.fromProto(proto)).isEqualTo(edits.build());
+  }
+}
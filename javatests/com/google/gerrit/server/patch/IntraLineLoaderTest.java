@@ -18,6 +18,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.jgit.diff.ReplaceEdit;
@@ -139,6 +140,29 @@ public class IntraLineLoaderTest {
                 .edits);
   }
 
+  @Test
+  public void shortReplacedTokensInLongLinesAreComparedByCharacter() throws Exception {
+    String common = Strings.repeat("word ", 1000);
+    String a = common + "bar\n";
+    String b = common + "baz\n";
+    assertThat(intraline(a, b))
+        .isEqualTo(ref().common(common + "ba").replace("r", "z").common("\n").edits);
+  }
+
+  @Test
+  public void longReplacedTokensInLongLinesAreReplacedAsAWhole() throws Exception {
+    String common = Strings.repeat("word ", 1000);
+    String a = common + Strings.repeat("ab", 20) + "\n";
+    String b = common + Strings.repeat("ba", 20) + "\n";
+    assertThat(intraline(a, b))
+        .isEqualTo(
+            ref()
+                .common(common)
+                .replace(Strings.repeat("ab", 20), Strings.repeat("ba", 20))
+                .common("\n")
+                .edits);
+  }
+
   // helper functions to call IntraLineLoader.compute
 
   private static int countLines(String s) {
@@ -0,0 +1,165 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.entities.Patch.ChangeType;
+import com.google.gerrit.entities.Patch.PatchType;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.patch.FileHeader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PatchListLoaderTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  private InMemoryRepositoryManager repoManager;
+  private ExecutorService executor;
+  private PatchListKey key;
+
+  @Before
+  public void setUp() throws Exception {
+    repoManager = new InMemoryRepositoryManager();
+    TestRepository<?> tr = new TestRepository<>(repoManager.createRepository(PROJECT));
+    RevCommit a =
+        tr.commit()
+            .add("a.txt", lines("a", 50))
+            .add("b.txt", lines("b", 50))
+            .add("old.txt", lines("old", 50))
+            .add("binary.bin", tr.blob(new byte[] {0, 1, 2, 0, 3}))
+            .message("Base")
+            .create();
+    RevCommit b =
+        tr.commit()
+            .parent(a)
+            .add("a.txt", lines("a", 50).replace("a 10\n", "changed\n"))
+            .add("b.txt", lines("b", 60))
+            .rm("old.txt")
+            .add("new.txt", lines("old", 50).replace("old 20\n", "renamed\n"))
+            .add("binary.bin", tr.blob(new byte[] {0, 1, 2, 0, 4}))
+            .add("c.txt", lines("c", 5))
+            .message("Change")
+            .create();
+    key = PatchListKey.againstParentNum(1, b, Whitespace.IGNORE_NONE);
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void parallelDiffEqualsSequentialDiff() throws Exception {
+    PatchList sequential =
+        load(MoreExecutors.newDirectExecutorService(), new PatchListLoader.ParallelDiffs(0));
+    PatchListLoader.ParallelDiffs parallelDiffs = new PatchListLoader.ParallelDiffs(4);
+    PatchList parallel = load(executor, parallelDiffs);
+
+    assertThat(
+            sequential.getPatches().stream().map(PatchListEntry::getChangeType).collect(toList()))
+        .contains(ChangeType.RENAMED);
+    assertThat(
+            sequential.getPatches().stream().map(PatchListEntry::getPatchType).collect(toList()))
+        .contains(PatchType.BINARY);
+    assertThat(PatchList.Serializer.INSTANCE.serialize(parallel))
+        .isEqualTo(PatchList.Serializer.INSTANCE.serialize(sequential));
+    assertThat(parallelDiffs.availablePermits()).isEqualTo(4);
+  }
+
+  @Test
+  public void permitIsHeldUntilDiffIsDone() throws Exception {
+    PatchListLoader.ParallelDiffs parallelDiffs = new PatchListLoader.ParallelDiffs(1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    PatchListLoader.ParallelDiffs.PermittedDiff diff =
+        parallelDiffs
+            .tryAcquire(
+                () -> {
+                  started.countDown();
+                  done.await();
+                  return null;
+                })
+            .get();
+    assertThat(parallelDiffs.tryAcquire(() -> null)).isEmpty();
+    Future<FileHeader> result = executor.submit(diff);
+    assertThat(started.await(10, SECONDS)).isTrue();
+
+    // The loader stops waiting for the diff after the timeout, but the diff keeps running.
+    result.cancel(false);
+    diff.releaseIfNotStarted();
+    assertThat(parallelDiffs.availablePermits()).isEqualTo(0);
+
+    done.countDown();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, SECONDS)).isTrue();
+    assertThat(parallelDiffs.availablePermits()).isEqualTo(1);
+  }
+
+  @Test
+  public void permitIsReleasedIfDiffDoesNotStart() throws Exception {
+    PatchListLoader.ParallelDiffs parallelDiffs = new PatchListLoader.ParallelDiffs(1);
+    PatchListLoader.ParallelDiffs.PermittedDiff diff = parallelDiffs.tryAcquire(() -> null).get();
+
+    diff.releaseIfNotStarted();
+    assertThat(parallelDiffs.availablePermits()).isEqualTo(1);
+
+    // A diff that was cancelled before it started doesn't release the permit again.
+    assertThrows(CancellationException.class, diff::call);
+    assertThat(parallelDiffs.availablePermits()).isEqualTo(1);
+  }
+
+  @Test
+  public void parallelDiffWithoutPermitsEqualsSequentialDiff() throws Exception {
+    PatchList sequential =
+        load(MoreExecutors.newDirectExecutorService(), new PatchListLoader.ParallelDiffs(0));
+    PatchList parallel = load(executor, new PatchListLoader.ParallelDiffs(0));
+
+    assertThat(PatchList.Serializer.INSTANCE.serialize(parallel))
+        .isEqualTo(PatchList.Serializer.INSTANCE.serialize(sequential));
+  }
+
+  private PatchList load(ExecutorService diffExecutor, PatchListLoader.ParallelDiffs parallelDiffs)
+      throws Exception {
+    return new PatchListLoader(
+            repoManager, null, new Config(), diffExecutor, null, parallelDiffs, key, PROJECT)
+        .call();
+  }
+
+  private static String lines(String prefix, int count) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 1; i <= count; i++) {
+      b.append(prefix).append(' ').append(i).append('\n');
+    }
+    return b.toString();
+  }
+}
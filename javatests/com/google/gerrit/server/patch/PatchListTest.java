@@ -16,13 +16,21 @@ package com.google.gerrit.server.patch;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.entities.Patch;
+import com.google.gerrit.entities.Patch.ChangeType;
+import com.google.gerrit.entities.Patch.PatchType;
+import com.google.gerrit.server.cache.proto.Cache.PatchListEntryProto;
+import com.google.protobuf.ByteString;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.lib.ObjectId;
 import org.junit.Test;
 
 public class PatchListTest {
@@ -68,4 +76,70 @@ public class PatchListTest {
       assertThat(ois.readObject()).isInstanceOf(PatchListCacheImpl.LargeObjectTombstone.class);
     }
   }
+
+  @Test
+  public void serializer() throws Exception {
+    ObjectId oldId = ObjectId.fromString("1234567812345678123456781234567812345678");
+    ObjectId newId = ObjectId.fromString("abcdefabcdefabcdefabcdefabcdefabcdefabcd");
+    PatchListEntry entry =
+        PatchListEntry.fromProto(
+            PatchListEntryProto.newBuilder()
+                .setChangeType(ChangeType.RENAMED.name())
+                .setPatchType(PatchType.UNIFIED.name())
+                .setOldName("old.txt")
+                .setHasOldName(true)
+                .setNewName("new.txt")
+                .setHeader(ByteString.copyFromUtf8("diff --git a/old.txt b/new.txt\n"))
+                .setEdits(
+                    EditListConverter.toProto(
+                        ImmutableList.of(new Edit(1, 3, 1, 2), new Edit(10, 10, 9, 15))))
+                .setEditsDueToRebase(
+                    EditListConverter.toProto(ImmutableSet.of(new Edit(7, 8, 6, 7))))
+                .setInsertions(7)
+                .setDeletions(2)
+                .setSize(1234)
+                .setSizeDelta(-56)
+                .build());
+    PatchList patchList =
+        new PatchList(
+            oldId,
+            newId,
+            true,
+            ComparisonType.againstParent(2),
+            new PatchListEntry[] {entry, PatchListEntry.empty(Patch.COMMIT_MSG)});
+
+    PatchList deserialized =
+        PatchList.Serializer.INSTANCE.deserialize(
+            PatchList.Serializer.INSTANCE.serialize(patchList));
+
+    assertThat(deserialized).isNotInstanceOf(PatchListCacheImpl.LargeObjectTombstone.class);
+    assertThat(deserialized.getOldId()).isEqualTo(oldId);
+    assertThat(deserialized.getNewId()).isEqualTo(newId);
+    assertThat(deserialized.getComparisonType().getParentNum()).isEqualTo(2);
+    assertThat(deserialized.getComparisonType().isAgainstAutoMerge()).isFalse();
+    assertThat(deserialized.getInsertions()).isEqualTo(7);
+    assertThat(deserialized.getDeletions()).isEqualTo(2);
+    assertThat(deserialized.getPatches()).hasSize(2);
+
+    PatchListEntry e = deserialized.get("new.txt");
+    assertThat(e.getChangeType()).isEqualTo(ChangeType.RENAMED);
+    assertThat(e.getPatchType()).isEqualTo(PatchType.UNIFIED);
+    assertThat(e.getOldName()).isEqualTo("old.txt");
+    assertThat(e.getHeaderLines()).containsExactly("diff --git a/old.txt b/new.txt");
+    assertThat(e.getEdits())
+        .containsExactly(new Edit(1, 3, 1, 2), new Edit(10, 10, 9, 15))
+        .inOrder();
+    assertThat(e.getEditsDueToRebase()).containsExactly(new Edit(7, 8, 6, 7));
+    assertThat(e.getSize()).isEqualTo(1234);
+    assertThat(e.getSizeDelta()).isEqualTo(-56);
+    assertThat(deserialized.get(Patch.COMMIT_MSG).getOldName()).isNull();
+  }
+
+  @Test
+  public void serializerKeepsLargeObjectTombstone() throws Exception {
+    byte[] serialized =
+        PatchList.Serializer.INSTANCE.serialize(new PatchListCacheImpl.LargeObjectTombstone());
+    assertThat(PatchList.Serializer.INSTANCE.deserialize(serialized))
+        .isInstanceOf(PatchListCacheImpl.LargeObjectTombstone.class);
+  }
 }
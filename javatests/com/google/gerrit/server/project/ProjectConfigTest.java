@@ -17,6 +17,7 @@ package com.google.gerrit.server.project;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.gerrit.entities.BooleanProjectConfig.REQUIRE_CHANGE_ID;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -171,6 +172,64 @@ public class ProjectConfigTest {
     assertThat(push.getExclusiveGroup()).isFalse();
   }
 
+  @Test
+  public void loadFromSnapshot() throws Exception {
+    RevCommit rev =
+        tr.commit()
+            .add("groups", group(developers))
+            .add(
+                "project.config",
+                "[project]\n"
+                    + "  description = A test project\n"
+                    + "[access \"refs/heads/*\"]\n"
+                    + "  submit = group Developers\n")
+            .add("rules.pl", "submit_rule(submit(W)) :- W = label('OK', ok(_)).\n")
+            .create();
+
+    ProjectConfigSnapshot snapshot =
+        factory.create(Project.nameKey("test")).loadAndSnapshot(db, rev);
+    assertThat(snapshot.revision()).isEqualTo(rev);
+    assertThat(snapshot.files().keySet()).containsExactly("groups", "project.config");
+    assertThat(snapshot.blobIds()).containsExactly("rules.pl", tr.get(rev.getTree(), "rules.pl"));
+
+    ProjectConfigSnapshot deserialized =
+        ProjectConfigSnapshot.Serializer.INSTANCE.deserialize(
+            ProjectConfigSnapshot.Serializer.INSTANCE.serialize(snapshot));
+    assertThat(deserialized).isEqualTo(snapshot);
+
+    ProjectConfig cfg = factory.create(Project.nameKey("test"));
+    cfg.load(db, deserialized);
+    assertThat(cfg.getRevision()).isEqualTo(rev);
+    assertThat(cfg.getRulesId()).isEqualTo(snapshot.blobIds().get("rules.pl"));
+    assertThat(cfg.getProject().getDescription()).isEqualTo("A test project");
+    assertThat(cfg.getProject().getConfigRefState()).isEqualTo(rev.name());
+    Permission submit = cfg.getAccessSection("refs/heads/*").getPermission(Permission.SUBMIT);
+    assertThat(submit.getRules()).hasSize(1);
+    assertThat(submit.getRules().get(0).getGroup()).isEqualTo(developers);
+  }
+
+  @Test
+  public void loadFromSnapshotKeepsRawFileContent() throws Exception {
+    byte[] projectConfig = "[project]\n  description = Caf\u00e9\n".getBytes(ISO_8859_1);
+    RevCommit rev =
+        tr.commit()
+            .add("groups", group(developers))
+            .add("project.config", tr.blob(projectConfig))
+            .create();
+
+    ProjectConfig fromRepo = factory.create(Project.nameKey("test"));
+    ProjectConfigSnapshot snapshot = fromRepo.loadAndSnapshot(db, rev);
+    assertThat(snapshot.files().get("project.config").toByteArray()).isEqualTo(projectConfig);
+
+    ProjectConfig fromSnapshot = factory.create(Project.nameKey("test"));
+    fromSnapshot.load(
+        db,
+        ProjectConfigSnapshot.Serializer.INSTANCE.deserialize(
+            ProjectConfigSnapshot.Serializer.INSTANCE.serialize(snapshot)));
+    assertThat(fromSnapshot.getProject().getDescription())
+        .isEqualTo(fromRepo.getProject().getDescription());
+  }
+
   @Test
   public void readConfigLabelDefaultValue() throws Exception {
     RevCommit rev =
@@ -19,12 +19,14 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.common.truth.TruthJUnit.assume;
 import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allowLabel;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.block;
 import static com.google.gerrit.extensions.client.ListChangesOption.DETAILED_LABELS;
 import static com.google.gerrit.extensions.client.ListChangesOption.REVIEWED;
 import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
 import static com.google.gerrit.server.project.testing.TestLabels.label;
 import static com.google.gerrit.server.project.testing.TestLabels.value;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
@@ -33,6 +35,7 @@ import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Splitter;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -41,10 +44,14 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Streams;
 import com.google.common.truth.ThrowableSubject;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.acceptance.config.GerritConfig;
 import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.LabelType;
+import com.google.gerrit.common.data.Permission;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Change;
@@ -52,6 +59,7 @@ import com.google.gerrit.entities.Patch;
 import com.google.gerrit.entities.PatchSet;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.extensions.api.GerritApi;
 import com.google.gerrit.extensions.api.changes.AddReviewerInput;
 import com.google.gerrit.extensions.api.changes.AssigneeInput;
@@ -102,6 +110,7 @@ import com.google.gerrit.server.change.PatchSetInserter;
 import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.git.meta.MetaDataUpdate;
 import com.google.gerrit.server.index.change.ChangeField;
+import com.google.gerrit.server.index.change.ChangeIndex;
 import com.google.gerrit.server.index.change.ChangeIndexCollection;
 import com.google.gerrit.server.index.change.ChangeIndexer;
 import com.google.gerrit.server.notedb.ChangeNotes;
@@ -122,6 +131,7 @@ import com.google.gerrit.testing.TestTimeUtil;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Provider;
+import java.io.ByteArrayOutputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -131,7 +141,14 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.eclipse.jgit.junit.TestRepository;
@@ -175,6 +192,7 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
   @Inject protected PatchSetUtil psUtil;
   @Inject protected ChangeNotes.Factory changeNotesFactory;
   @Inject protected Provider<ChangeQueryProcessor> queryProcessorProvider;
+  @Inject protected Provider<OutputStreamQuery> outputStreamQueryProvider;
   @Inject protected SchemaCreator schemaCreator;
   @Inject protected Sequences seq;
   @Inject protected ThreadLocalRequestContext requestContext;
@@ -183,6 +201,8 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
   @Inject protected IdentifiedUser.GenericFactory identifiedUserFactory;
 
   @Inject private ProjectConfig.Factory projectConfigFactory;
+  @Inject private ChangeData.Factory changeDataFactory;
+  @Inject private ChangeIndexer.Factory changeIndexerFactory;
   @Inject private ProjectOperations projectOperations;
 
   protected Injector injector;
@@ -726,6 +746,26 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery("project:repo2", change2);
   }
 
+  @Test
+  public void queryWithoutFieldsReturnsIdsAndProjects() throws Exception {
+    TestRepository<Repo> repo1 = createProject("repo1");
+    TestRepository<Repo> repo2 = createProject("repo2");
+    Change change1 = insert(repo1, newChange(repo1));
+    Change change2 = insert(repo2, newChange(repo2));
+    Change change3 = insert(repo1, newChange(repo1));
+
+    // The index can return these results without reading its stored fields.
+    List<ChangeData> results =
+        queryProvider.get().noFields().query(queryBuilderProvider.get().parse("status:open"));
+
+    assertThat(results.stream().map(ChangeData::getId).collect(toList()))
+        .containsExactly(change3.getId(), change2.getId(), change1.getId())
+        .inOrder();
+    assertThat(results.stream().map(ChangeData::project).collect(toList()))
+        .containsExactly(change3.getProject(), change2.getProject(), change1.getProject())
+        .inOrder();
+  }
+
   @Test
   public void byParentProject() throws Exception {
     TestRepository<Repo> repo1 = createProject("repo1");
@@ -1830,6 +1870,63 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery(q + " visibleto:me", change1);
   }
 
+  @Test
+  @GerritConfig(name = "index.change.maxVisibleProjects", value = "10")
+  public void visibleRestrictedToReadableProjects() throws Exception {
+    TestRepository<Repo> repo1 = createProject("repo1");
+    TestRepository<Repo> repo2 = createProject("repo2");
+    Change change1 = insert(repo1, newChange(repo1));
+    insert(repo2, newChange(repo2));
+
+    projectOperations
+        .project(Project.nameKey("repo2"))
+        .forUpdate()
+        .add(block(Permission.READ).ref("refs/*").group(REGISTERED_USERS))
+        .update();
+
+    Account.Id user2 =
+        accountManager.authenticate(AuthRequest.forUser("anotheruser")).getAccountId();
+    requestContext.setContext(newRequestContext(user2));
+    assertQuery("status:open", change1);
+    assertQuery("project:repo2");
+
+    String predicate = queryPredicate("status:open");
+    assertThat(predicate).contains("project:repo1");
+    assertThat(predicate).doesNotContain("project:repo2");
+  }
+
+  @Test
+  @GerritConfig(name = "index.change.maxVisibleProjects", value = "1")
+  public void visibleWithMoreReadableProjectsThanRestrictedTo() throws Exception {
+    TestRepository<Repo> repo1 = createProject("repo1");
+    TestRepository<Repo> repo2 = createProject("repo2");
+    TestRepository<Repo> repo3 = createProject("repo3");
+    Change change1 = insert(repo1, newChange(repo1));
+    Change change2 = insert(repo2, newChange(repo2));
+    insert(repo3, newChange(repo3));
+
+    projectOperations
+        .project(Project.nameKey("repo3"))
+        .forUpdate()
+        .add(block(Permission.READ).ref("refs/*").group(REGISTERED_USERS))
+        .update();
+
+    Account.Id user2 =
+        accountManager.authenticate(AuthRequest.forUser("anotheruser")).getAccountId();
+    requestContext.setContext(newRequestContext(user2));
+    assertQuery("status:open", change2, change1);
+    assertQuery("project:repo3");
+    assertThat(queryPredicate("status:open")).doesNotContain("project:");
+  }
+
+  private String queryPredicate(String query) throws Exception {
+    return queryProcessorProvider
+        .get()
+        .query(queryBuilderProvider.get().parse(query))
+        .predicate()
+        .toString();
+  }
+
   @Test
   public void byCommentBy() throws Exception {
     TestRepository<Repo> repo = createProject("repo");
@@ -2436,6 +2533,202 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery("has:edit");
   }
 
+  @Test
+  public void outputStreamQueryWritesChangesPageByPage() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    for (int i = 0; i < 5; i++) {
+      insert(repo, newChange(repo));
+    }
+
+    List<Integer> writtenOnFlush = new ArrayList<>();
+    ByteArrayOutputStream bytes =
+        new ByteArrayOutputStream() {
+          @Override
+          public void flush() {
+            writtenOnFlush.add(countChangeLines(new String(toByteArray(), UTF_8)));
+          }
+        };
+    OutputStreamQuery query = outputStreamQueryProvider.get();
+    query.setOutput(bytes, OutputStreamQuery.OutputFormat.JSON);
+    query.setPageSize(2);
+    query.query("project:repo");
+
+    // Each page is written to the output before the next page is read from the index.
+    assertThat(writtenOnFlush.stream().distinct().collect(toList()))
+        .containsExactly(2, 4, 5)
+        .inOrder();
+    String output = new String(bytes.toByteArray(), UTF_8);
+    assertThat(output).contains("\"rowCount\":5");
+    assertThat(output).contains("\"moreChanges\":false");
+  }
+
+  @Test
+  public void outputStreamQueryLimitSpansPages() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    for (int i = 0; i < 5; i++) {
+      insert(repo, newChange(repo));
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputStreamQuery query = outputStreamQueryProvider.get();
+    query.setOutput(bytes, OutputStreamQuery.OutputFormat.JSON);
+    query.setPageSize(2);
+    query.setLimit(3);
+    query.query("project:repo");
+
+    String output = new String(bytes.toByteArray(), UTF_8);
+    assertThat(countChangeLines(output)).isEqualTo(3);
+    assertThat(output).contains("\"rowCount\":3");
+    assertThat(output).contains("\"moreChanges\":true");
+  }
+
+  @Test
+  public void outputStreamQueryWithoutLimitIsReadInPages() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    for (int i = 0; i < 5; i++) {
+      insert(repo, newChange(repo));
+    }
+
+    List<Integer> writtenOnFlush = new ArrayList<>();
+    ByteArrayOutputStream bytes =
+        new ByteArrayOutputStream() {
+          @Override
+          public void flush() {
+            writtenOnFlush.add(countChangeLines(new String(toByteArray(), UTF_8)));
+          }
+        };
+    OutputStreamQuery query = outputStreamQueryProvider.get();
+    query.setOutput(bytes, OutputStreamQuery.OutputFormat.JSON);
+    query.setPageSize(2);
+    query.setNoLimit(true);
+    query.query("project:repo");
+
+    assertThat(writtenOnFlush.stream().distinct().collect(toList()))
+        .containsExactly(2, 4, 5)
+        .inOrder();
+    assertThat(new String(bytes.toByteArray(), UTF_8)).contains("\"rowCount\":5");
+  }
+
+  @Test
+  public void outputStreamQueryContinuesAfterLastWrittenChange() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      changes.add(insert(repo, newChange(repo)));
+    }
+
+    // Update a change that is not on the first page after the first page was written, which moves
+    // it to the front of the results.
+    AtomicBoolean updated = new AtomicBoolean();
+    ByteArrayOutputStream bytes =
+        new ByteArrayOutputStream() {
+          @Override
+          public void flush() {
+            if (!updated.getAndSet(true)) {
+              try {
+                gApi.changes().id(changes.get(1).getId().get()).topic("updated");
+              } catch (RestApiException e) {
+                throw new IllegalStateException(e);
+              }
+            }
+          }
+        };
+    OutputStreamQuery query = outputStreamQueryProvider.get();
+    query.setOutput(bytes, OutputStreamQuery.OutputFormat.JSON);
+    query.setPageSize(2);
+    query.query("project:repo");
+
+    // The changes after the last written one are not shifted to the first page.
+    List<Integer> numbers = new ArrayList<>();
+    Matcher m =
+        Pattern.compile("\"number\":(\\d+)").matcher(new String(bytes.toByteArray(), UTF_8));
+    while (m.find()) {
+      numbers.add(Integer.parseInt(m.group(1)));
+    }
+    assertThat(numbers)
+        .containsExactly(
+            changes.get(4).getId().get(),
+            changes.get(3).getId().get(),
+            changes.get(2).getId().get(),
+            changes.get(0).getId().get())
+        .inOrder();
+  }
+
+  private static int countChangeLines(String output) {
+    return (int)
+        Splitter.on('\n').omitEmptyStrings().splitToList(output).stream()
+            .filter(l -> !l.contains("\"type\":\"stats\""))
+            .count();
+  }
+
+  @Test
+  public void replaceChangesInBatch() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChange(repo));
+    Change change2 = insert(repo, newChange(repo));
+    List<ChangeData> open =
+        ImmutableList.of(
+            changeDataFactory.create(notesFactory.create(change1.getProject(), change1.getId())),
+            changeDataFactory.create(notesFactory.create(change2.getProject(), change2.getId())));
+
+    gApi.changes().id(change1.getChangeId()).abandon();
+    gApi.changes().id(change2.getChangeId()).abandon();
+    assertQuery("status:abandoned", change2, change1);
+
+    // Writing the open state replaces the documents of the abandoned changes.
+    for (ChangeIndex i : indexes.getWriteIndexes()) {
+      i.replace(open);
+    }
+    assertQuery("status:abandoned");
+    assertQuery("status:open", change2, change1);
+  }
+
+  @Test
+  @GerritConfig(name = "index.change.asyncBatchSize", value = "10")
+  public void indexChangesInBatch() throws Exception {
+    Project.NameKey project = Project.nameKey("repo");
+    TestRepository<Repo> repo = createProject(project.get());
+    Change change1 = insert(repo, newChange(repo));
+    Change change2 = insert(repo, newChange(repo));
+    Change change3 = insert(repo, newChange(repo));
+    for (ChangeIndex i : indexes.getWriteIndexes()) {
+      i.delete(change1.getId());
+      i.delete(change2.getId());
+      i.delete(change3.getId());
+    }
+    assertQuery("project:repo");
+
+    // Change 2 can't be loaded.
+    repo.update(RefNames.changeMetaRef(change2.getId()), repo.commit().create());
+
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    try {
+      // Block the executor, so that all changes are queued before the batch is loaded.
+      CountDownLatch blocked = new CountDownLatch(1);
+      @SuppressWarnings("unused")
+      Future<?> possiblyIgnoredError =
+          executor.submit(
+              () -> {
+                blocked.await();
+                return null;
+              });
+      ChangeIndexer batchIndexer = changeIndexerFactory.create(executor, indexes);
+      ListenableFuture<?> indexed1 = batchIndexer.indexAsync(project, change1.getId());
+      ListenableFuture<?> indexed2 = batchIndexer.indexAsync(project, change2.getId());
+      ListenableFuture<?> indexed3 = batchIndexer.indexAsync(project, change3.getId());
+      blocked.countDown();
+
+      indexed1.get();
+      indexed3.get();
+      ExecutionException thrown = assertThrows(ExecutionException.class, () -> indexed2.get());
+      assertThat(thrown).hasCauseThat().isInstanceOf(StorageException.class);
+    } finally {
+      executor.shutdownNow();
+    }
+    assertQuery("project:repo", change3, change1);
+  }
+
   @Test
   public void watched() throws Exception {
     TestRepository<Repo> repo = createProject("repo");
@@ -0,0 +1,211 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.index.QueryOptions;
+import com.google.gerrit.index.Schema;
+import com.google.gerrit.index.query.DataSource;
+import com.google.gerrit.index.query.ListResultSet;
+import com.google.gerrit.index.query.ResultSet;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.account.GroupMembership;
+import com.google.gerrit.server.cache.CacheDef;
+import com.google.gerrit.server.index.change.ChangeField;
+import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCollection;
+import com.google.gerrit.server.query.change.ChangeQueryResultCache.Key;
+import com.google.gerrit.server.query.change.ChangeQueryResultCache.ResultWeigher;
+import java.sql.Timestamp;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeQueryResultCacheTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+  private static final QueryOptions OPTIONS =
+      QueryOptions.create(
+          IndexConfig.createDefault(), 0, 10, ImmutableSet.of(ChangeField.CHANGE.getName()));
+
+  private Cache<Key, ImmutableList<Change>> cache;
+  private ChangeIndexCollection indexes;
+  private DataSource<ChangeData> source;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    cache = CacheBuilder.newBuilder().maximumWeight(100).weigher(new ResultWeigher()).build();
+    ChangeIndex index = mock(ChangeIndex.class);
+    when(index.getSchema()).thenReturn(new Schema<>(1, false, ImmutableList.of()));
+    indexes = mock(ChangeIndexCollection.class);
+    when(indexes.getSearchIndex()).thenReturn(index);
+    source = mock(DataSource.class);
+    when(source.toString()).thenReturn("status:open");
+    when(source.read()).thenAnswer(i -> new ListResultSet<>(ImmutableList.of(changeData(1))));
+  }
+
+  @Test
+  public void resultsAreCachedPerUser() {
+    ChangeQueryResultCache resultCache = newResultCache(true);
+    CurrentUser user = user(1000);
+
+    assertThat(ids(resultCache.read(user, source, OPTIONS))).containsExactly(1);
+    assertThat(ids(resultCache.read(user, source, OPTIONS))).containsExactly(1);
+    verify(source, times(1)).read();
+
+    resultCache.read(user(1001), source, OPTIONS).toList();
+    verify(source, times(2)).read();
+  }
+
+  @Test
+  public void indexedChangeInvalidatesResultsWithoutClearingCache() {
+    ChangeQueryResultCache resultCache = newResultCache(true);
+    CurrentUser user = user(1000);
+    resultCache.read(user, source, OPTIONS).toList();
+
+    resultCache.onChangeIndexed(PROJECT.get(), 2);
+    resultCache.read(user, source, OPTIONS).toList();
+
+    verify(source, times(2)).read();
+    // The entry of the previous generation is left to expire.
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void projectConfigUpdateInvalidatesResults() {
+    ChangeQueryResultCache resultCache = newResultCache(true);
+    CurrentUser user = user(1000);
+    resultCache.read(user, source, OPTIONS).toList();
+
+    resultCache.onGitReferenceUpdated(refUpdated("refs/heads/master"));
+    resultCache.read(user, source, OPTIONS).toList();
+    verify(source, times(1)).read();
+
+    resultCache.onGitReferenceUpdated(refUpdated(RefNames.REFS_CONFIG));
+    resultCache.read(user, source, OPTIONS).toList();
+    verify(source, times(2)).read();
+  }
+
+  @Test
+  public void resultsReadWhileChangeIsIndexedAreNotCached() {
+    ChangeQueryResultCache resultCache = newResultCache(true);
+    CurrentUser user = user(1000);
+    ResultSet<ChangeData> results = resultCache.read(user, source, OPTIONS);
+
+    resultCache.onChangeDeleted(1);
+    results.toList();
+
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void disabledCacheIsNotUsed() {
+    ChangeQueryResultCache resultCache = newResultCache(false);
+    CurrentUser user = user(1000);
+
+    resultCache.read(user, source, OPTIONS).toList();
+    resultCache.read(user, source, OPTIONS).toList();
+
+    verify(source, times(2)).read();
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void cacheIsEnabledByMemoryLimit() {
+    Config cfg = new Config();
+    cfg.setLong("cache", ChangeQueryResultCache.CACHE_NAME, "memoryLimit", 100);
+    ChangeQueryResultCache resultCache = newResultCache(cfg, 0);
+    CurrentUser user = user(1000);
+
+    resultCache.read(user, source, OPTIONS).toList();
+    resultCache.read(user, source, OPTIONS).toList();
+
+    verify(source, times(1)).read();
+  }
+
+  private ChangeQueryResultCache newResultCache(boolean enabled) {
+    return newResultCache(new Config(), enabled ? 100 : 0);
+  }
+
+  @SuppressWarnings("unchecked")
+  private ChangeQueryResultCache newResultCache(Config cfg, long maximumWeight) {
+    CacheDef<Key, ImmutableList<Change>> cacheDef = mock(CacheDef.class);
+    when(cacheDef.configKey()).thenReturn(ChangeQueryResultCache.CACHE_NAME);
+    when(cacheDef.maximumWeight()).thenReturn(maximumWeight);
+    return new ChangeQueryResultCache(
+        cfg,
+        cache,
+        cacheDef,
+        indexes,
+        new ChangeData.Factory(
+            (project, id, change, notes) -> {
+              ChangeData cd = ChangeData.createForTest(project, id, 1, ObjectId.zeroId());
+              cd.setChange(change);
+              return cd;
+            }));
+  }
+
+  private static CurrentUser user(int id) {
+    GroupMembership groups = mock(GroupMembership.class);
+    when(groups.getKnownGroups()).thenReturn(ImmutableSet.of(AccountGroup.uuid("group-" + id)));
+    CurrentUser user = mock(CurrentUser.class);
+    when(user.isIdentifiedUser()).thenReturn(true);
+    when(user.getAccountId()).thenReturn(Account.id(id));
+    when(user.getEffectiveGroups()).thenReturn(groups);
+    return user;
+  }
+
+  private static GitReferenceUpdatedListener.Event refUpdated(String refName) {
+    GitReferenceUpdatedListener.Event event = mock(GitReferenceUpdatedListener.Event.class);
+    when(event.getProjectName()).thenReturn(PROJECT.get());
+    when(event.getRefName()).thenReturn(refName);
+    return event;
+  }
+
+  private static ChangeData changeData(int id) {
+    ChangeData cd = ChangeData.createForTest(PROJECT, Change.id(id), 1, ObjectId.zeroId());
+    cd.setChange(
+        new Change(
+            Change.key("Iabcd" + id),
+            Change.id(id),
+            Account.id(1000),
+            BranchNameKey.create(PROJECT, "master"),
+            new Timestamp(1234567890000L)));
+    return cd;
+  }
+
+  private static ImmutableList<Integer> ids(ResultSet<ChangeData> results) {
+    return results.toList().stream().map(cd -> cd.getId().get()).collect(toImmutableList());
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.NewProjectCreatedListener;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.account.GroupMembership;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.ProjectPermission;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VisibleProjectsCacheTest {
+  private static final Project.NameKey VISIBLE = Project.nameKey("visible");
+  private static final Project.NameKey HIDDEN = Project.nameKey("hidden");
+
+  private ProjectCache projectCache;
+  private PermissionBackend permissionBackend;
+  private PermissionBackend.WithUser withUser;
+
+  @Before
+  public void setUp() throws Exception {
+    ProjectState state = mock(ProjectState.class);
+    when(state.statePermitsRead()).thenReturn(true);
+    projectCache = mock(ProjectCache.class);
+    when(projectCache.all()).thenReturn(ImmutableSortedSet.of(HIDDEN, VISIBLE));
+    when(projectCache.get(VISIBLE)).thenReturn(state);
+    when(projectCache.get(HIDDEN)).thenReturn(state);
+
+    withUser = mock(PermissionBackend.WithUser.class);
+    mockAccess(VISIBLE, true);
+    mockAccess(HIDDEN, false);
+    permissionBackend = mock(PermissionBackend.class);
+    when(permissionBackend.absentUser(Account.id(1000))).thenReturn(withUser);
+  }
+
+  @Test
+  public void visibleProjectsAreCachedPerUser() throws Exception {
+    VisibleProjectsCache visibleProjects = newVisibleProjectsCache(10);
+
+    assertThat(visibleProjects.get(user(1000))).hasValue(ImmutableList.of(VISIBLE));
+    assertThat(visibleProjects.get(user(1000))).hasValue(ImmutableList.of(VISIBLE));
+    verify(projectCache, times(1)).all();
+  }
+
+  @Test
+  public void noVisibleProjectsIfThereAreMoreThanTheLimit() throws Exception {
+    mockAccess(HIDDEN, true);
+    VisibleProjectsCache visibleProjects = newVisibleProjectsCache(1);
+
+    assertThat(visibleProjects.get(user(1000))).isEmpty();
+    assertThat(visibleProjects.get(user(1000))).isEmpty();
+    verify(projectCache, times(1)).all();
+  }
+
+  @Test
+  public void projectConfigUpdateInvalidatesVisibleProjects() throws Exception {
+    VisibleProjectsCache visibleProjects = newVisibleProjectsCache(10);
+    visibleProjects.get(user(1000));
+
+    visibleProjects.onGitReferenceUpdated(refUpdated("refs/heads/master"));
+    visibleProjects.get(user(1000));
+    verify(projectCache, times(1)).all();
+
+    mockAccess(HIDDEN, true);
+    visibleProjects.onGitReferenceUpdated(refUpdated(RefNames.REFS_CONFIG));
+    assertThat(visibleProjects.get(user(1000))).hasValue(ImmutableList.of(HIDDEN, VISIBLE));
+  }
+
+  @Test
+  public void newProjectInvalidatesVisibleProjects() throws Exception {
+    VisibleProjectsCache visibleProjects = newVisibleProjectsCache(10);
+    visibleProjects.get(user(1000));
+
+    visibleProjects.onNewProjectCreated(mock(NewProjectCreatedListener.Event.class));
+    visibleProjects.get(user(1000));
+
+    verify(projectCache, times(2)).all();
+  }
+
+  @Test
+  public void disabledIfNoLimitIsConfigured() throws Exception {
+    VisibleProjectsCache visibleProjects = newVisibleProjectsCache(0);
+
+    assertThat(visibleProjects.get(user(1000))).isEmpty();
+    verify(projectCache, times(0)).all();
+  }
+
+  private void mockAccess(Project.NameKey project, boolean access) throws Exception {
+    PermissionBackend.ForProject forProject = mock(PermissionBackend.ForProject.class);
+    when(forProject.test(ProjectPermission.ACCESS)).thenReturn(access);
+    when(withUser.project(project)).thenReturn(forProject);
+  }
+
+  private VisibleProjectsCache newVisibleProjectsCache(int maxVisibleProjects) {
+    Config cfg = new Config();
+    cfg.setInt("index", "change", "maxVisibleProjects", maxVisibleProjects);
+    return new VisibleProjectsCache(
+        cfg,
+        CacheBuilder.newBuilder().build(),
+        IndexConfig.createDefault(),
+        permissionBackend,
+        projectCache,
+        () -> null);
+  }
+
+  private static CurrentUser user(int id) {
+    GroupMembership groups = mock(GroupMembership.class);
+    when(groups.getKnownGroups()).thenReturn(ImmutableSet.of(AccountGroup.uuid("group-" + id)));
+    CurrentUser user = mock(CurrentUser.class);
+    when(user.isIdentifiedUser()).thenReturn(true);
+    when(user.getAccountId()).thenReturn(Account.id(id));
+    when(user.getEffectiveGroups()).thenReturn(groups);
+    return user;
+  }
+
+  private static GitReferenceUpdatedListener.Event refUpdated(String refName) {
+    GitReferenceUpdatedListener.Event event = mock(GitReferenceUpdatedListener.Event.class);
+    when(event.getRefName()).thenReturn(refName);
+    return event;
+  }
+}
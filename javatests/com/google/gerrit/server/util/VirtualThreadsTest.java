@@ -0,0 +1,73 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assume;
+import static com.google.common.truth.Truth8.assertThat;
+
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.Optional;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+  /** Stands in for the {@link Thread} class of a Java runtime without virtual threads. */
+  private static class PlatformThread {}
+
+  @Test
+  public void noFactoryIfVirtualThreadsAreNotSupported() {
+    assertThat(VirtualThreads.factory(PlatformThread.class, "Test-")).isEmpty();
+  }
+
+  @Test
+  public void factoryCreatesNamedVirtualThreads() throws Exception {
+    Optional<ThreadFactory> factory = VirtualThreads.factory("Test-");
+    assume().that(factory.isPresent()).isTrue();
+
+    AtomicReference<String> name = new AtomicReference<>();
+    Thread t = factory.get().newThread(() -> name.set(Thread.currentThread().getName()));
+    t.start();
+    t.join();
+
+    assertThat(isVirtual(t)).isTrue();
+    assertThat(name.get()).isEqualTo("Test-1");
+  }
+
+  @Test
+  public void virtualThreadQueueUsesVirtualThreadsIfSupported() throws Exception {
+    WorkQueue workQueue = new WorkQueue(new IdGenerator(), 1, new DisabledMetricMaker());
+    ScheduledThreadPoolExecutor executor = workQueue.createVirtualThreadQueue(2, "Test", false);
+    try {
+      Thread t = executor.submit(Thread::currentThread).get();
+
+      assertThat(t.getName()).isEqualTo("Test-1");
+      assertThat(isVirtual(t)).isEqualTo(VirtualThreads.factory("Test-").isPresent());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static boolean isVirtual(Thread t) throws Exception {
+    try {
+      return (Boolean) Thread.class.getMethod("isVirtual").invoke(t);
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+}